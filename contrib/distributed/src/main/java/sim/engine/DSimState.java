@@ -6,6 +6,7 @@
 
 package sim.engine;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.rmi.NotBoundException;
@@ -13,9 +14,14 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -32,13 +38,18 @@ import sim.engine.transport.RMIProxy;
 import sim.engine.transport.TransporterMPI;
 import sim.field.HaloGrid2D;
 import sim.field.Synchronizable;
+import sim.field.partitioning.CostHistogram;
+import sim.field.partitioning.CurvePartition;
 import sim.field.partitioning.IntHyperRect;
 import sim.field.partitioning.IntPoint;
 import sim.field.partitioning.NdPoint;
 import sim.field.partitioning.PartitionInterface;
 import sim.field.partitioning.QuadTreePartition;
 import sim.field.storage.ContStorage;
+import sim.field.storage.GridStorage;
 import sim.field.storage.ObjectGridStorage;
+import sim.util.GlobalReduction;
+import sim.util.MPIParam;
 import sim.util.MPIUtil;
 import sim.util.Timing;
 
@@ -65,18 +76,28 @@ public class DSimState extends SimState {
 	// Any HaloField that is created will register itself here
 	protected final ArrayList<Synchronizable> fieldRegistry;
 
+	// Global statistics, reduced at the beginning of preSchedule
+	protected final GlobalReduction reduction = new GlobalReduction(1);
+
 	protected DRegistry registry;
 	protected boolean withRegistry;
 
 	protected int balancerLevel;
 
+	// Histogram used to balance the partitions by cost, null to use the runtime
+	// based balancing
+	protected CostHistogram costHistogram = null;
+	protected double balanceHysteresis = 0.1;
+
 	protected DSimState(final long seed, final MersenneTwisterFast random, final DistributedSchedule schedule,
 			final int width, final int height, final int aoiSize) {
 		super(seed, random, schedule);
 		aoi = new int[] { aoiSize, aoiSize };
 		partition = new QuadTreePartition(new int[] { width, height }, true, aoi);
 		partition.initialize();
-		balancerLevel = ((QuadTreePartition) partition).getQt().getDepth() - 1;
+		balancerLevel = partition instanceof QuadTreePartition
+				? ((QuadTreePartition) partition).getQt().getDepth() - 1
+				: 0;
 		transporter = new TransporterMPI(partition);
 		fieldRegistry = new ArrayList<Synchronizable>();
 		rootInfo = new HashMap();
@@ -89,7 +110,9 @@ public class DSimState extends SimState {
 		aoi = partition.aoi;
 		this.partition = partition;
 		partition.initialize();
-		balancerLevel = ((QuadTreePartition) partition).getQt().getDepth() - 1;
+		balancerLevel = partition instanceof QuadTreePartition
+				? ((QuadTreePartition) partition).getQt().getDepth() - 1
+				: 0;
 		transporter = new TransporterMPI(partition);
 		fieldRegistry = new ArrayList<>();
 		rootInfo = new HashMap();
@@ -147,7 +170,12 @@ public class DSimState extends SimState {
 
 		try {
 
-			MPI.COMM_WORLD.barrier();
+			// The reduction is a collective over all the nodes so it also serves as the
+			// barrier
+			if (reduction.isDue(schedule.getSteps()))
+				reduction.reduce(MPI.COMM_WORLD, schedule.getSteps());
+			else
+				MPI.COMM_WORLD.barrier();
 
 			syncFields();
 			transporter.sync();
@@ -353,7 +381,10 @@ public class DSimState extends SimState {
 			if (schedule.getSteps() % 50 == 0) {
 
 				try {
-					balancePartitions(balancerLevel);
+					if (costHistogram != null || partition instanceof CurvePartition)
+						balancePartitionsByCost();
+					else
+						balancePartitions(balancerLevel);
 
 					for (final PayloadWrapper payloadWrapper : transporter.objectQueue) {
 
@@ -431,7 +462,7 @@ public class DSimState extends SimState {
 				}
 				if (balancerLevel != 0)
 					balancerLevel--;
-				else
+				else if (partition instanceof QuadTreePartition)
 					balancerLevel = ((QuadTreePartition) partition).getQt().getDepth() - 1;
 			}
 		}
@@ -445,6 +476,77 @@ public class DSimState extends SimState {
 		Timing.start(Timing.LB_OVERHEAD);
 		((QuadTreePartition) partition).balance(runtime, level);
 		MPI.COMM_WORLD.barrier();
+		migrateAgents(old_partition, old_pid);
+	}
+
+	/**
+	 * Balance the partitions using the cost histogram set by
+	 * setCostBalancing(). The histogram is filled with the number of agents in each
+	 * cell of the local partition, or with the measured runtime if no node finds
+	 * any agent.
+	 * 
+	 * @throws MPIException
+	 */
+	private void balancePartitionsByCost() throws MPIException {
+		final IntHyperRect old_partition = partition.getPartition();
+		final int old_pid = partition.getPid();
+		Timing.start(Timing.LB_OVERHEAD);
+
+		// CurvePartition can only be balanced by cost
+		if (costHistogram == null)
+			costHistogram = new CostHistogram(partition.getFieldSize(), aoi);
+
+		costHistogram.clear();
+
+		// Decide together whether to use agents or runtime, so that the units are not
+		// mixed in the histogram
+		final double[] totalCost = new double[] { collectAgentCosts(costHistogram) };
+		MPI.COMM_WORLD.allReduce(totalCost, 1, MPI.DOUBLE, MPI.SUM);
+		if (totalCost[0] == 0)
+			costHistogram.addUniform(old_partition, Timing.get(Timing.LB_RUNTIME).getMovingAverage());
+
+		final boolean changed;
+		if (partition instanceof CurvePartition)
+			changed = ((CurvePartition) partition).balance(costHistogram, balanceHysteresis);
+		else
+			changed = ((QuadTreePartition) partition).balance(costHistogram, balanceHysteresis);
+		MPI.COMM_WORLD.barrier();
+		if (changed)
+			migrateAgents(old_partition, old_pid);
+		else
+			Timing.stop(Timing.LB_OVERHEAD);
+	}
+
+	/**
+	 * Add one unit of cost for every agent located in the local partition of the
+	 * registered fields. Modelers can override this method to use a different cost
+	 * (e.g. the measured step time of each agent).
+	 * 
+	 * @param hist
+	 * @return the total cost added
+	 */
+	protected double collectAgentCosts(final CostHistogram hist) {
+		double total = 0;
+
+		for (Synchronizable field : fieldRegistry)
+			if (field instanceof HaloGrid2D)
+				for (NdPoint loc : getLocalObjects((HaloGrid2D) field).values()) {
+					hist.add(loc, 1);
+					total++;
+				}
+
+		return total;
+	}
+
+	/**
+	 * Migrate the agents that are no longer inside the local partition after the
+	 * partitions have been balanced
+	 * 
+	 * @param old_partition
+	 * @param old_pid
+	 * @throws MPIException
+	 */
+	private void migrateAgents(final IntHyperRect old_partition, final int old_pid) throws MPIException {
 		// System.out.println("pid "+partition.getPid()+" old_partitioning
 		// "+old_partition);
 		// System.out.println("pid "+partition.getPid()+" new partition
@@ -654,6 +756,198 @@ public class DSimState extends SimState {
 		transporter = new TransporterMPI(partition);
 	}
 
+	/**
+	 * Balance the partitions using a per-cell cost histogram (agent counts by
+	 * default, see collectAgentCosts()) instead of moving the origins toward the
+	 * runtime weighted centroid one level at a time
+	 * 
+	 * @param binSize    size of each histogram bin along each dimension
+	 * @param hysteresis tolerated imbalance before a partition is moved, as (max
+	 *                   cost / mean cost) - 1
+	 */
+	public void setCostBalancing(final int[] binSize, final double hysteresis) {
+		costHistogram = new CostHistogram(partition.getFieldSize(), binSize);
+		balanceHysteresis = hysteresis;
+	}
+
+	/**
+	 * Writes the local partition of every registered field, along with the agents
+	 * scheduled in it and the random generator, to its own file in the given
+	 * directory. All the nodes write concurrently; once they are all done, the
+	 * global master writes the manifest. Must be called by all the nodes between
+	 * two steps.
+	 * <p>
+	 * Only agents which are located in a registered HaloGrid2D are found, and so
+	 * saved: agents which are scheduled but not stored in any HaloGrid2D are
+	 * silently left out of the checkpoint. One-shot agents which have already
+	 * been stepped are left out as well.
+	 * 
+	 * @param dir
+	 * @throws IOException
+	 * @throws MPIException
+	 */
+	public void writePartitionCheckpoint(final File dir) throws IOException, MPIException {
+		preCheckpoint();
+		dir.mkdirs();
+
+		final PartitionCheckpoint cp = new PartitionCheckpoint(partition.pid, partition.getPartition(), random);
+		final Set<Stopping> seen = Collections.newSetFromMap(new IdentityHashMap<Stopping, Boolean>());
+
+		for (final Synchronizable field : fieldRegistry) {
+			if (!(field instanceof HaloGrid2D)) {
+				cp.fields.add(null);
+				continue;
+			}
+
+			final HaloGrid2D halo = (HaloGrid2D) field;
+			cp.fields.add(halo.localStorage.pack(new MPIParam(halo.origPart, halo.haloPart, halo.MPIBaseType)));
+
+			for (final Map.Entry<Object, NdPoint> e : getLocalObjects(halo).entrySet()) {
+				if (!(e.getKey() instanceof Stopping) || !seen.add((Stopping) e.getKey()))
+					continue;
+
+				final PartitionCheckpoint.ScheduledAgent a = getScheduledAgent((Stopping) e.getKey(), e.getValue(),
+						schedule.getTime());
+				if (a != null)
+					cp.agents.add(a);
+			}
+		}
+
+		cp.write(PartitionCheckpoint.getFile(dir, partition.pid));
+		MPI.COMM_WORLD.barrier();
+
+		if (partition.isGlobalMaster()) {
+			final IntHyperRect[] parts = new IntHyperRect[partition.getNumProc()];
+			for (int i = 0; i < parts.length; i++)
+				parts[i] = partition.getPartition(i);
+			PartitionCheckpoint.writeManifest(dir, schedule.getSteps(), schedule.getTime(),
+					partition.getFieldSize(), parts);
+		}
+
+		MPI.COMM_WORLD.barrier();
+		postCheckpoint();
+	}
+
+	/**
+	 * @param agent
+	 * @param loc
+	 * @param now   the current time of the schedule
+	 * @return how the given agent is scheduled, to be saved in a checkpoint, or
+	 *         null if it is not scheduled. A one-shot agent whose time is not after
+	 *         the current time has already been stepped, and would be stepped a
+	 *         second time (or could not be scheduled at all) on restart, so it is
+	 *         not scheduled either.
+	 */
+	static PartitionCheckpoint.ScheduledAgent getScheduledAgent(final Stopping agent, final NdPoint loc,
+			final double now) {
+		final Stoppable stop = agent.getStoppable();
+		if (stop instanceof DistributedTentativeStep) {
+			final DistributedTentativeStep step = (DistributedTentativeStep) stop;
+			if (step.getTime() <= now)
+				return null;
+			return new PartitionCheckpoint.ScheduledAgent(agent, loc, step.getOrdering(), step.getTime(), 0);
+		} else if (stop instanceof IterativeRepeat) {
+			final IterativeRepeat repeat = (IterativeRepeat) stop;
+			return new PartitionCheckpoint.ScheduledAgent(agent, loc, repeat.getOrdering(), repeat.getTime(),
+					repeat.getInterval());
+		}
+		return null;
+	}
+
+	/**
+	 * Restores the fields and the scheduled agents from a checkpoint written by
+	 * writePartitionCheckpoint(). Each node only reads the files of the old
+	 * partitions that overlap with its own, so the checkpoint can be restored onto
+	 * a different number of nodes, or a different partition scheme, as long as the
+	 * fields are registered in the same order. The random generator is only
+	 * restored when the partitioning is unchanged. Call this after super.start() in
+	 * place of creating the agents.
+	 * 
+	 * @param dir
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws MPIException
+	 */
+	public void readPartitionCheckpoint(final File dir) throws IOException, ClassNotFoundException, MPIException {
+		final Properties manifest = PartitionCheckpoint.readManifest(dir);
+		final IntHyperRect[] oldParts = PartitionCheckpoint.getPartitions(manifest);
+		final IntHyperRect myPart = partition.getPartition();
+		final boolean samePartitioning = oldParts.length == partition.getNumProc()
+				&& oldParts[partition.pid].equals(myPart);
+
+		// Agents must not be scheduled before the current time
+		synchronized (schedule.lock) {
+			schedule.steps = Long.parseLong(manifest.getProperty("steps"));
+			schedule.time = Double.parseDouble(manifest.getProperty("time"));
+		}
+
+		for (final IntHyperRect oldPart : oldParts) {
+			if (!oldPart.isIntersect(myPart))
+				continue;
+
+			final PartitionCheckpoint cp = PartitionCheckpoint.read(PartitionCheckpoint.getFile(dir, oldPart.getId()));
+			final IntHyperRect overlap = oldPart.getIntersection(myPart);
+
+			for (int i = 0; i < cp.fields.size(); i++) {
+				if (cp.fields.get(i) == null)
+					continue;
+
+				final HaloGrid2D halo = (HaloGrid2D) fieldRegistry.get(i);
+				final GridStorage tmp = halo.localStorage.getNewStorage(oldPart);
+				tmp.unpack(new MPIParam(oldPart, oldPart, halo.MPIBaseType), cp.fields.get(i));
+				halo.localStorage.unpack(new MPIParam(overlap, halo.haloPart, halo.MPIBaseType),
+						tmp.pack(new MPIParam(overlap, oldPart, halo.MPIBaseType)));
+			}
+
+			for (final PartitionCheckpoint.ScheduledAgent a : cp.agents) {
+				if (!myPart.contains(a.loc))
+					continue;
+
+				if (a.interval > 0)
+					schedule.scheduleRepeating(a.time, a.ordering, a.agent, a.interval);
+				else
+					schedule.scheduleOnce(a.time, a.ordering, a.agent);
+			}
+
+			if (samePartitioning)
+				random = cp.random;
+		}
+
+		syncFields();
+		MPI.COMM_WORLD.barrier();
+		awakeFromCheckpoint();
+	}
+
+	/**
+	 * @param halo
+	 * @return the objects stored in the local partition (excluding the halo) of
+	 *         the given field, along with their locations
+	 */
+	protected Map<Object, NdPoint> getLocalObjects(final HaloGrid2D halo) {
+		final Map<Object, NdPoint> ret = new IdentityHashMap<Object, NdPoint>();
+
+		if (halo.getStorage() instanceof ContStorage) {
+			final ContStorage st = (ContStorage) halo.getStorage();
+			for (final Object e : st.m.entrySet()) {
+				final NdPoint loc = (NdPoint) ((Map.Entry) e).getValue();
+				if (halo.origPart.contains(loc))
+					ret.put(((Map.Entry) e).getKey(), loc);
+			}
+		} else if (halo.getStorage() instanceof ObjectGridStorage) {
+			final Object[] array = (Object[]) halo.getStorage().getStorage();
+			for (final IntPoint p : halo.origPart) {
+				final Object obj = array[halo.getStorage().getFlatIdx(halo.toLocalPoint(p))];
+				if (obj instanceof ArrayList)
+					for (final Object o : (ArrayList) obj)
+						ret.put(o, p);
+				else if (obj != null)
+					ret.put(obj, p);
+			}
+		}
+
+		return ret;
+	}
+
 	/**
 	 * @return the transporter
 	 */
@@ -661,6 +955,15 @@ public class DSimState extends SimState {
 		return transporter;
 	}
 
+	/**
+	 * @return the global reduction where per-node probes can be registered. The
+	 *         probes are reduced across all the nodes every getInterval() steps
+	 *         as part of the synchronization in preSchedule().
+	 */
+	public GlobalReduction getGlobalReduction() {
+		return reduction;
+	}
+
 	public void sendRootInfoToAll(String key, Object sendObj) {
 		for (int i = 0; i < partition.getNumProc(); i++) {
 			init[i].put(key, sendObj);
@@ -29,6 +29,7 @@ public class DistributedTentativeStep extends TentativeStep {
 
 	public DistributedTentativeStep(final Steppable step, final Schedule.Key key) {
 		super(step);
+		this.key = key;
 
 		if (step instanceof Stopping) {
 			((Stopping) step).setStoppable(this);
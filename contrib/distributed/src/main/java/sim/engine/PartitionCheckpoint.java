@@ -0,0 +1,197 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ec.util.MersenneTwisterFast;
+import sim.field.partitioning.IntHyperRect;
+import sim.field.partitioning.IntPoint;
+import sim.field.partitioning.NdPoint;
+
+/**
+ * The checkpoint of a single partition of a distributed simulation. Every node
+ * writes the content of its own partition (fields, scheduled agents and random
+ * generator) to its own file, and the global master writes a small manifest
+ * describing how the field was partitioned. The manifest is written last, so a
+ * directory without a manifest holds an incomplete checkpoint.
+ *
+ */
+public class PartitionCheckpoint implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static final String MANIFEST = "manifest.properties";
+
+	/**
+	 * An agent found in a field along with how it was scheduled
+	 */
+	public static class ScheduledAgent implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public final Stopping agent;
+		public final NdPoint loc;
+		public final int ordering;
+		public final double time;
+		/**
+		 * Interval of a repeating agent, values less than or equal to zero mean the
+		 * agent is scheduled once
+		 */
+		public final double interval;
+
+		public ScheduledAgent(final Stopping agent, final NdPoint loc, final int ordering, final double time,
+				final double interval) {
+			this.agent = agent;
+			this.loc = loc;
+			this.ordering = ordering;
+			this.time = time;
+			this.interval = interval;
+		}
+	}
+
+	public final int pid;
+	public final int[] ul, br;
+	public final MersenneTwisterFast random;
+
+	/**
+	 * The packed local partition of each registered field, indexed by fieldIndex.
+	 * null for fields that cannot be checkpointed.
+	 */
+	public final ArrayList<Serializable> fields = new ArrayList<Serializable>();
+	public final ArrayList<ScheduledAgent> agents = new ArrayList<ScheduledAgent>();
+
+	public PartitionCheckpoint(final int pid, final IntHyperRect partition, final MersenneTwisterFast random) {
+		this.pid = pid;
+		ul = partition.ul().getArray();
+		br = partition.br().getArray();
+		this.random = random;
+	}
+
+	public IntHyperRect getPartition() {
+		return new IntHyperRect(pid, new IntPoint(ul), new IntPoint(br));
+	}
+
+	/**
+	 * @param dir
+	 * @param pid
+	 * @return the file holding the checkpoint of the given pid
+	 */
+	public static File getFile(final File dir, final int pid) {
+		return new File(dir, String.format("partition-%d.checkpoint", pid));
+	}
+
+	/**
+	 * Serializes the checkpoint to the given file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(final File file) throws IOException {
+		try (OutputStream f = new FileOutputStream(file)) {
+			final GZIPOutputStream g = new GZIPOutputStream(new BufferedOutputStream(f));
+			final ObjectOutputStream s = new ObjectOutputStream(g);
+
+			s.writeObject(this);
+			s.flush();
+			g.finish();
+			g.flush();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the checkpoint read from the given file
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static PartitionCheckpoint read(final File file) throws IOException, ClassNotFoundException {
+		try (InputStream f = new FileInputStream(file)) {
+			final ObjectInputStream s = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(f)));
+			return (PartitionCheckpoint) s.readObject();
+		}
+	}
+
+	/**
+	 * Writes the manifest of a checkpoint
+	 *
+	 * @param dir
+	 * @param steps
+	 * @param time
+	 * @param fieldSize
+	 * @param parts     the partition of each pid
+	 * @throws IOException
+	 */
+	public static void writeManifest(final File dir, final long steps, final double time, final int[] fieldSize,
+			final IntHyperRect[] parts) throws IOException {
+		final Properties p = new Properties();
+
+		p.setProperty("steps", Long.toString(steps));
+		p.setProperty("time", Double.toString(time));
+		p.setProperty("fieldSize", toString(fieldSize));
+		p.setProperty("numProcessors", Integer.toString(parts.length));
+		for (int i = 0; i < parts.length; i++) {
+			p.setProperty("partition." + i + ".ul", toString(parts[i].ul().getArray()));
+			p.setProperty("partition." + i + ".br", toString(parts[i].br().getArray()));
+		}
+
+		try (OutputStream f = new FileOutputStream(new File(dir, MANIFEST))) {
+			p.store(f, "Distributed MASON checkpoint");
+		}
+	}
+
+	/**
+	 * @param dir
+	 * @return the manifest of the checkpoint in the given directory
+	 * @throws IOException if the manifest does not exist, i.e., the checkpoint is
+	 *                     incomplete
+	 */
+	public static Properties readManifest(final File dir) throws IOException {
+		final Properties p = new Properties();
+
+		try (InputStream f = new FileInputStream(new File(dir, MANIFEST))) {
+			p.load(f);
+		}
+
+		return p;
+	}
+
+	/**
+	 * @param manifest
+	 * @return the partition of each pid at the time the checkpoint was written
+	 */
+	public static IntHyperRect[] getPartitions(final Properties manifest) {
+		final IntHyperRect[] ret = new IntHyperRect[Integer.parseInt(manifest.getProperty("numProcessors"))];
+
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = new IntHyperRect(i, new IntPoint(parseInts(manifest.getProperty("partition." + i + ".ul"))),
+					new IntPoint(parseInts(manifest.getProperty("partition." + i + ".br"))));
+
+		return ret;
+	}
+
+	static String toString(final int[] a) {
+		return Arrays.toString(a).replaceAll("[\\[\\] ]", "");
+	}
+
+	static int[] parseInts(final String s) {
+		return Arrays.stream(s.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+}
@@ -116,7 +116,6 @@ public class HaloGrid2D<T extends Serializable, P extends NdPoint, S extends Gri
 	private void registerCallbacks() {
 
 		final List<GridStorage> tempStor = new ArrayList<GridStorage>();
-		final QuadTreePartition q = (QuadTreePartition) partition;
 		partition.registerPreCommit(arg -> {
 //			final int level = (int) arg;
 //			GridStorage s = null;
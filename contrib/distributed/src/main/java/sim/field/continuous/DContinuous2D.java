@@ -4,8 +4,6 @@ import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import sim.engine.DSimState;
 import sim.engine.DistributedIterativeRepeat;
@@ -16,7 +14,7 @@ import sim.field.HaloGrid2D;
 import sim.field.partitioning.NdPoint;
 import sim.field.partitioning.PartitionInterface;
 import sim.field.storage.ContStorage;
-import sim.util.MPIParam;
+import sim.field.storage.FlatContStorage;
 
 /**
  * A countinous field that contains lists of objects of type T. Analogous to
@@ -30,13 +28,24 @@ public class DContinuous2D<T extends Serializable> extends DAbstractGrid2D imple
 
 	public DContinuous2D(final PartitionInterface ps, final int[] aoi, final double[] discretizations,
 			final DSimState state) {
+		this(ps, aoi, new FlatContStorage<T>(ps.getPartition(), discretizations), state);
+	}
+
+	/**
+	 * @param ps
+	 * @param aoi
+	 * @param storage local storage of the field, e.g. a ContStorage to keep the
+	 *                objects in a HashSet per cell
+	 * @param state
+	 */
+	public DContinuous2D(final PartitionInterface ps, final int[] aoi, final ContStorage<T> storage,
+			final DSimState state) {
 
 		super(ps);
 		if (ps.getNumDim() != 2)
 			throw new IllegalArgumentException("The number of dimensions is expected to be 2, got: " + ps.getNumDim());
 
-		halo = new HaloGrid2D<T, NdPoint, ContStorage<T>>(ps, aoi,
-				new ContStorage<T>(ps.getPartition(), discretizations), state);
+		halo = new HaloGrid2D<T, NdPoint, ContStorage<T>>(ps, aoi, storage, state);
 
 	}
 
@@ -74,19 +83,21 @@ public class DContinuous2D<T extends Serializable> extends DAbstractGrid2D imple
 		return halo.localStorage.getNeighborsWithin(obj, r);
 	}
 
-	// TODO refactor this after new pack/unpack is introduced in Storage
-	@SuppressWarnings("unchecked")
-	public final List<T> getAllObjects() {
-		Serializable data = null;
-
-		data = halo.localStorage.pack(new MPIParam(halo.origPart, halo.haloPart, halo.MPIBaseType));
-
-		final List<T> objs = ((ArrayList<ArrayList<T>>) data).get(0);
+	/**
+	 * Add the neighbors of the given object within the given radius to result, so
+	 * that the same list can be reused across queries
+	 *
+	 * @param obj
+	 * @param r
+	 * @param result
+	 * @return the number of neighbors added
+	 */
+	public int getNeighborsWithin(final T obj, final double r, final List<T> result) {
+		return halo.localStorage.getNeighborsWithin(obj, r, result);
+	}
 
-		return IntStream.range(0, objs.size())
-				.filter(n -> n % 2 == 0)
-				.mapToObj(objs::get)
-				.collect(Collectors.toList());
+	public final List<T> getAllObjects() {
+		return halo.localStorage.getObjects(halo.origPart);
 	}
 
 	public ArrayList<T> getLocal(final NdPoint p) {
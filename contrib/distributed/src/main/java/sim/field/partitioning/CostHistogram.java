@@ -0,0 +1,239 @@
+package sim.field.partitioning;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import mpi.Comm;
+import mpi.MPI;
+import mpi.MPIException;
+
+/**
+ * A coarse histogram of the computational cost over the whole field. Each node
+ * fills in the bins covering its own partition (e.g. with agent counts or with
+ * its measured step time) and the histogram is then summed over all the nodes
+ * so that every node sees the same global cost distribution.
+ *
+ */
+public class CostHistogram {
+	final int nd;
+	final int[] fieldSize, binSize, numBins, stride;
+	final double[] bins;
+
+	/**
+	 * @param fieldSize size of the whole field
+	 * @param binSize   size of each bin along each dimension
+	 */
+	public CostHistogram(final int[] fieldSize, final int[] binSize) {
+		if (fieldSize.length != binSize.length)
+			throw new IllegalArgumentException("Number of dimensions must be the same. Got " + fieldSize.length
+					+ " and " + binSize.length);
+
+		nd = fieldSize.length;
+		this.fieldSize = Arrays.copyOf(fieldSize, nd);
+		this.binSize = Arrays.copyOf(binSize, nd);
+		numBins = IntStream.range(0, nd).map(i -> (fieldSize[i] + binSize[i] - 1) / binSize[i]).toArray();
+
+		stride = new int[nd];
+		stride[nd - 1] = 1;
+		for (int i = nd - 2; i >= 0; i--)
+			stride[i] = stride[i + 1] * numBins[i + 1];
+
+		bins = new double[stride[0] * numBins[0]];
+	}
+
+	public int getNumDim() {
+		return nd;
+	}
+
+	public int[] getBinSize() {
+		return Arrays.copyOf(binSize, nd);
+	}
+
+	public int[] getNumBins() {
+		return Arrays.copyOf(numBins, nd);
+	}
+
+	/**
+	 * Reset all the bins to zero
+	 */
+	public void clear() {
+		Arrays.fill(bins, 0);
+	}
+
+	/**
+	 * Add the cost to the bin that contains the given point
+	 *
+	 * @param p
+	 * @param cost
+	 */
+	public void add(final NdPoint p, final double cost) {
+		final double[] c = p.getArrayInDouble();
+		int idx = 0;
+
+		for (int i = 0; i < nd; i++)
+			idx += Math.min(Math.max((int) (c[i] / binSize[i]), 0), numBins[i] - 1) * stride[i];
+
+		bins[idx] += cost;
+	}
+
+	/**
+	 * Spread the given cost evenly over all the bins that the rectangle covers
+	 *
+	 * @param rect
+	 * @param cost
+	 */
+	public void addUniform(final IntHyperRect rect, final double cost) {
+		final IntHyperRect r = toBinRect(rect);
+		final int area = r.getArea();
+
+		if (area == 0)
+			return;
+
+		for (final IntPoint b : r)
+			bins[getFlatIdx(b)] += cost / area;
+	}
+
+	/**
+	 * Sum the histograms of all the nodes in the given communicator, the result is
+	 * available on every node
+	 *
+	 * @param comm
+	 * @throws MPIException
+	 */
+	public void allReduce(final Comm comm) throws MPIException {
+		comm.allReduce(bins, bins.length, MPI.DOUBLE, MPI.SUM);
+	}
+
+	/**
+	 * @param rect
+	 * @return total cost inside the given rectangle
+	 */
+	public double getCost(final IntHyperRect rect) {
+		double sum = 0;
+
+		for (final IntPoint b : toBinRect(rect))
+			sum += bins[getFlatIdx(b)];
+
+		return sum;
+	}
+
+	/**
+	 * @param rect
+	 * @param dim
+	 * @return the cost inside the given rectangle summed over all the dimensions
+	 *         except the given one, one value per bin along the given dimension
+	 *         starting from the bin that contains rect.ul
+	 */
+	public double[] getMarginal(final IntHyperRect rect, final int dim) {
+		final IntHyperRect r = toBinRect(rect);
+		final double[] marginal = new double[r.br.c[dim] - r.ul.c[dim]];
+
+		for (final IntPoint b : r)
+			marginal[b.c[dim] - r.ul.c[dim]] += bins[getFlatIdx(b)];
+
+		return marginal;
+	}
+
+	/**
+	 * Find the n - 1 cuts that split the cost inside the given rectangle along the
+	 * given dimension into n parts of equal cost. The cuts are aligned to the bin
+	 * boundaries and are not guaranteed to be distinct.
+	 *
+	 * @param rect
+	 * @param dim
+	 * @param n
+	 * @return the coordinates of the cuts, or null if the rectangle has no cost
+	 */
+	public int[] getCuts(final IntHyperRect rect, final int dim, final int n) {
+		final double[] marginal = getMarginal(rect, dim);
+		final int start = toBinRect(rect).ul.c[dim];
+		final double total = Arrays.stream(marginal).sum();
+
+		if (total <= 0)
+			return null;
+
+		final int[] cuts = new int[n - 1];
+		double acc = 0;
+		int k = 0;
+		for (int i = 0; i < marginal.length && k < n - 1; i++) {
+			acc += marginal[i];
+			while (k < n - 1 && acc * n >= total * (k + 1))
+				cuts[k++] = (start + i + 1) * binSize[dim];
+		}
+		while (k < n - 1)
+			cuts[k++] = (start + marginal.length) * binSize[dim];
+
+		return cuts;
+	}
+
+	/**
+	 * Find the weighted median of the cost inside the given rectangle along the
+	 * given dimension, i.e., the cut that splits the cost in the rectangle into two
+	 * halves. The cut is aligned to the bin boundaries.
+	 *
+	 * @param rect
+	 * @param dim
+	 * @return the coordinate of the cut, or -1 if the rectangle has no cost
+	 */
+	public int getWeightedMedian(final IntHyperRect rect, final int dim) {
+		return getQuantile(rect, dim, 0.5);
+	}
+
+	/**
+	 * Find the cut that leaves the given fraction of the cost inside the given
+	 * rectangle below it along the given dimension. The cut is aligned to the bin
+	 * boundaries.
+	 *
+	 * @param rect
+	 * @param dim
+	 * @param q    fraction of the cost below the cut, between 0 and 1
+	 * @return the coordinate of the cut, or -1 if the rectangle has no cost
+	 */
+	public int getQuantile(final IntHyperRect rect, final int dim, final double q) {
+		final IntHyperRect r = toBinRect(rect);
+		final double[] marginal = getMarginal(rect, dim);
+		final double total = Arrays.stream(marginal).sum();
+
+		if (total <= 0)
+			return -1;
+
+		final double target = total * q;
+		double acc = 0;
+		for (int i = 0; i < marginal.length; i++) {
+			acc += marginal[i];
+			if (acc >= target)
+				// cut at whichever side of the bin is closer to the exact quantile
+				return (r.ul.c[dim] + i + (acc - marginal[i] / 2 >= target ? 0 : 1)) * binSize[dim];
+		}
+
+		return r.br.c[dim] * binSize[dim];
+	}
+
+	/**
+	 * @param rect in field coordinates
+	 * @return the rectangle in bin coordinates that covers the given rectangle
+	 */
+	protected IntHyperRect toBinRect(final IntHyperRect rect) {
+		final int[] ul = IntStream.range(0, nd)
+				.map(i -> Math.min(Math.max(rect.ul.c[i] / binSize[i], 0), numBins[i]))
+				.toArray();
+		final int[] br = IntStream.range(0, nd)
+				.map(i -> Math.min(Math.max((rect.br.c[i] + binSize[i] - 1) / binSize[i], ul[i]), numBins[i]))
+				.toArray();
+
+		return new IntHyperRect(-1, new IntPoint(ul), new IntPoint(br));
+	}
+
+	protected int getFlatIdx(final IntPoint b) {
+		int idx = 0;
+
+		for (int i = 0; i < nd; i++)
+			idx += b.c[i] * stride[i];
+
+		return idx;
+	}
+
+	public String toString() {
+		return String.format("CostHistogram<%s, %s>", Arrays.toString(numBins), Arrays.toString(binSize));
+	}
+}
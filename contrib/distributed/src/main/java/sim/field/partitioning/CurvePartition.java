@@ -0,0 +1,300 @@
+package sim.field.partitioning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import mpi.Info;
+import mpi.MPI;
+import mpi.MPIException;
+
+/**
+ * Curve partition orders the cells of a 2D field along a serpentine
+ * space-filling curve and assigns a contiguous range of the curve to each
+ * processor. The field is first cut into slabs along the first dimension, then
+ * the curve visits the slabs one after another, sweeping each slab column by
+ * column and reversing its direction in every other slab. Each range is made of
+ * whole columns of a slab so that every partition remains a rectangle, and
+ * consecutive pids always own adjacent partitions.
+ *
+ * Rebalancing only shifts the boundaries of the ranges: the slab cuts and the
+ * column cuts inside each slab are recomputed independently from the marginals
+ * of a cost histogram, which are cheap 1D problems.
+ *
+ */
+public class CurvePartition extends PartitionInterface<NdPoint> {
+	int numSlabs, numCols;
+
+	// slabCuts[i] is the lower bound of slab i on dimension 0, colCuts[i][j] is
+	// the lower bound of the jth column of slab i on dimension 1
+	int[] slabCuts;
+	int[][] colCuts;
+
+	IntHyperRect[] parts;
+	int[] neighbors;
+
+	public CurvePartition(final int[] size, final boolean isToroidal, final int[] aoi) {
+		super(size, isToroidal, aoi);
+
+		if (numDimensions != 2)
+			throw new IllegalArgumentException("Currently only support 2 dimensions, got " + numDimensions);
+
+		// Choose the layout that keeps the partitions as square as possible
+		numSlabs = 1;
+		final double target = Math.sqrt(numProcessors * (double) size[0] / size[1]);
+		for (int i = 1; i <= numProcessors; i++)
+			if (numProcessors % i == 0 && Math.abs(i - target) < Math.abs(numSlabs - target))
+				numSlabs = i;
+		numCols = numProcessors / numSlabs;
+
+		if (size[0] < numSlabs * aoi[0] || size[1] < numCols * aoi[1])
+			throw new IllegalArgumentException("The field " + Arrays.toString(size) + " is too small for "
+					+ numSlabs + "x" + numCols + " partitions with aoi " + Arrays.toString(aoi));
+	}
+
+	public IntHyperRect getPartition() {
+		return parts[pid];
+	}
+
+	public IntHyperRect getPartition(final int pid) {
+		if (pid < 0 || pid >= numProcessors)
+			throw new IllegalArgumentException("The partition for " + pid + " does not exist");
+
+		return parts[pid];
+	}
+
+	public int getNumNeighbors() {
+		return neighbors.length;
+	}
+
+	public int[] getNeighborIds() {
+		return Arrays.copyOf(neighbors, neighbors.length);
+	}
+
+	public int toPartitionId(final NdPoint p) {
+		return toPartitionId(p.getArrayInDouble());
+	}
+
+	public int toPartitionId(final int[] c) {
+		return toPartitionId(Arrays.stream(c).mapToDouble(x -> x).toArray());
+	}
+
+	public int toPartitionId(final double[] c) {
+		final int slab = findRange(slabCuts, c[0]);
+		return toPid(slab, findRange(colCuts[slab], c[1]));
+	}
+
+	public boolean isGlobalMaster() {
+		return pid == 0;
+	}
+
+	/**
+	 * @return the number of slabs along the first dimension
+	 */
+	public int getNumSlabs() {
+		return numSlabs;
+	}
+
+	/**
+	 * @return the number of partitions in each slab
+	 */
+	public int getNumCols() {
+		return numCols;
+	}
+
+	public void initialize() {
+		initUniformly();
+	}
+
+	/**
+	 * This method is only used internally, for init use initialize instead
+	 */
+	void initUniformly() {
+		slabCuts = IntStream.range(0, numSlabs).map(i -> (int) ((long) size[0] * i / numSlabs)).toArray();
+		colCuts = new int[numSlabs][];
+		for (int i = 0; i < numSlabs; i++)
+			colCuts[i] = IntStream.range(0, numCols).map(j -> (int) ((long) size[1] * j / numCols)).toArray();
+
+		update();
+	}
+
+	/**
+	 * Balance the partitions using a global cost histogram. The histogram is
+	 * summed over all the nodes, then every node recomputes the same range
+	 * boundaries so that each slab and each column carry the same share of the
+	 * cost. The boundaries are only moved when the cost imbalance among the
+	 * partitions exceeds the hysteresis and the new boundaries actually reduce it.
+	 *
+	 * @param hist       cost of this node's partition, will be reduced in place
+	 * @param hysteresis tolerated imbalance, as (max cost / mean cost) - 1
+	 * @return true if any of the partitions has changed
+	 *
+	 * @throws MPIException
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public boolean balance(final CostHistogram hist, final double hysteresis) throws MPIException {
+		hist.allReduce(MPI.COMM_WORLD);
+
+		final double curr = getImbalance(slabCuts, colCuts, hist);
+		if (curr <= hysteresis)
+			return false;
+
+		final IntHyperRect field = createField();
+		final int[] newSlabCuts = toRangeStarts(hist.getCuts(field, 0, numSlabs), slabCuts, size[0], aoi[0]);
+		final int[][] newColCuts = new int[numSlabs][];
+		for (int i = 0; i < numSlabs; i++) {
+			final IntHyperRect slab = getSlab(newSlabCuts, i);
+			newColCuts[i] = toRangeStarts(hist.getCuts(slab, 1, numCols), colCuts[i], size[1], aoi[1]);
+		}
+
+		if (Arrays.equals(newSlabCuts, slabCuts) && Arrays.deepEquals(newColCuts, colCuts)
+				|| getImbalance(newSlabCuts, newColCuts, hist) >= curr)
+			return false;
+
+		// call precommit
+		for (final Consumer r : (ArrayList<Consumer>) preCallbacks)
+			r.accept(0);
+
+		slabCuts = newSlabCuts;
+		colCuts = newColCuts;
+		update();
+
+		// call postcommit
+		for (final Consumer r : (ArrayList<Consumer>) postCallbacks)
+			r.accept(0);
+
+		return true;
+	}
+
+	/**
+	 * Rebuild the partitions, the neighbors and the MPI topology from the cuts
+	 */
+	protected void update() {
+		parts = new IntHyperRect[numProcessors];
+		for (int i = 0; i < numSlabs; i++)
+			for (int j = 0; j < numCols; j++)
+				parts[toPid(i, j)] = getPart(slabCuts, colCuts, i, j);
+
+		neighbors = IntStream.range(0, numProcessors).filter(x -> x != pid && isNeighbor(parts[pid], parts[x]))
+				.toArray();
+
+		try {
+			// Create a unweighted & undirected graph for neighbor communication
+			comm = MPI.COMM_WORLD.createDistGraphAdjacent(neighbors, neighbors, new Info(), false);
+		} catch (final MPIException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * @param slab
+	 * @param col  index of the column in the slab along dimension 1
+	 * @return the pid that owns the given column, the curve runs backwards in
+	 *         every other slab
+	 */
+	protected int toPid(final int slab, final int col) {
+		return slab * numCols + (slab % 2 == 0 ? col : numCols - 1 - col);
+	}
+
+	/**
+	 * @param mine
+	 * @param that
+	 * @return true if the halo of mine overlaps with that, wrapping around the
+	 *         field if it is toroidal
+	 */
+	protected boolean isNeighbor(final IntHyperRect mine, final IntHyperRect that) {
+		final IntHyperRect halo = mine.resize(aoi);
+
+		if (!isToroidal)
+			return halo.isIntersect(that);
+
+		for (final IntPoint p : IntPointGenerator.getLayer(numDimensions, 1))
+			if (halo.isIntersect(that.shift(IntStream.range(0, numDimensions).map(i -> p.c[i] * size[i]).toArray())))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * @param slabCuts
+	 * @param colCuts
+	 * @param hist
+	 * @return (max partition cost / mean partition cost) - 1 for the given cuts
+	 */
+	protected double getImbalance(final int[] slabCuts, final int[][] colCuts, final CostHistogram hist) {
+		double max = 0, sum = 0;
+
+		for (int i = 0; i < numSlabs; i++)
+			for (int j = 0; j < numCols; j++) {
+				final double cost = hist.getCost(getPart(slabCuts, colCuts, i, j));
+				max = Math.max(max, cost);
+				sum += cost;
+			}
+
+		return sum > 0 ? max * numProcessors / sum - 1 : 0;
+	}
+
+	protected IntHyperRect getSlab(final int[] slabCuts, final int i) {
+		final int hi = i + 1 < numSlabs ? slabCuts[i + 1] : size[0];
+		return new IntHyperRect(-1, new IntPoint(slabCuts[i], 0), new IntPoint(hi, size[1]));
+	}
+
+	protected IntHyperRect getPart(final int[] slabCuts, final int[][] colCuts, final int i, final int j) {
+		final IntHyperRect slab = getSlab(slabCuts, i);
+		final int hi = j + 1 < numCols ? colCuts[i][j + 1] : size[1];
+
+		return new IntHyperRect(toPid(i, j), new IntPoint(slab.ul.c[0], colCuts[i][j]),
+				new IntPoint(slab.br.c[0], hi));
+	}
+
+	/**
+	 * Convert the n - 1 cuts into the lower bounds of n ranges, each at least
+	 * minWidth wide
+	 *
+	 * @param cuts     new cuts, null to keep the old ranges
+	 * @param old      current lower bounds
+	 * @param length   length of the dimension
+	 * @param minWidth
+	 * @return the lower bounds of the ranges
+	 */
+	protected static int[] toRangeStarts(final int[] cuts, final int[] old, final int length, final int minWidth) {
+		if (cuts == null)
+			return Arrays.copyOf(old, old.length);
+
+		final int n = cuts.length + 1;
+		final int[] ret = new int[n];
+		for (int k = 1; k < n; k++)
+			ret[k] = Math.max(cuts[k - 1], ret[k - 1] + minWidth);
+		for (int k = n - 1; k > 0; k--)
+			ret[k] = Math.min(ret[k], (k + 1 < n ? ret[k + 1] : length) - minWidth);
+
+		return ret;
+	}
+
+	/**
+	 * @param starts lower bounds of the ranges
+	 * @param c
+	 * @return the index of the range that contains c
+	 */
+	protected static int findRange(final int[] starts, final double c) {
+		int lo = 0, hi = starts.length - 1;
+
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (starts[mid] <= c)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+
+		return lo;
+	}
+
+	public String toString() {
+		return "CurvePartition [numSlabs=" + numSlabs + ", numCols=" + numCols + ", slabCuts="
+				+ Arrays.toString(slabCuts) + ", colCuts=" + Arrays.deepToString(colCuts) + ", aoi="
+				+ Arrays.toString(aoi) + "]";
+	}
+}
@@ -255,6 +255,20 @@ public class QuadTreeNode {
 	 * @return child's shape
 	 */
 	protected IntHyperRect getChildShape(final int childId) {
+		return getChildShape(shape, origin, childId);
+	}
+
+	/**
+	 * Construct the child's shape based the given id, the parent's shape and the
+	 * parent's origin
+	 * 
+	 * @param shape
+	 * @param origin
+	 * @param childId
+	 * @return child's shape
+	 */
+	static IntHyperRect getChildShape(final IntHyperRect shape, final IntPoint origin, final int childId) {
+		final int nd = shape.getNd();
 		final int[] ul = shape.ul().getArray();
 		final int[] br = origin.getArray();
 		final int[] sbr = shape.br().getArray();
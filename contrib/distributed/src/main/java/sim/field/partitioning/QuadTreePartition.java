@@ -3,6 +3,7 @@ package sim.field.partitioning;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -329,6 +330,152 @@ public class QuadTreePartition extends PartitionInterface<NdPoint> {
 			r.accept(level);
 	}
 
+	/**
+	 * Balance the partitions using a global cost histogram. The histogram is
+	 * summed over all the nodes, then every node recomputes the origins of the
+	 * whole tree top-down, placing each origin where the cost inside the node is
+	 * split among the children in proportion to the partitions below them. An
+	 * origin is only moved when the cost imbalance among its children exceeds the
+	 * hysteresis and the new origin actually reduces it, so the partitions do not
+	 * thrash when the load is already balanced.
+	 * 
+	 * @param hist       cost of this node's partition, will be reduced in place
+	 * @param hysteresis tolerated imbalance, as (max child cost per partition /
+	 *                   mean cost per partition) - 1
+	 * @return true if any of the partitions has changed
+	 * 
+	 * @throws MPIException
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public boolean balance(final CostHistogram hist, final double hysteresis) throws MPIException {
+		hist.allReduce(MPI.COMM_WORLD);
+
+		// Every node sees the same histogram so the plan is identical everywhere
+		final Map<Integer, IntPoint> newOrigins = new LinkedHashMap<Integer, IntPoint>();
+		planOrigins(qt.getRoot(), qt.getRoot().getShape(), hist, hysteresis, newOrigins);
+
+		if (newOrigins.isEmpty())
+			return false;
+
+		// call precommit
+		for (final Consumer r : (ArrayList<Consumer>) preCallbacks)
+			r.accept(0);
+
+		// apply changes, parents are planned before their children
+		for (final Map.Entry<Integer, IntPoint> e : newOrigins.entrySet())
+			qt.moveOrigin(e.getKey(), e.getValue());
+
+		// Assigns new neighbors after balancing
+		// Recreates MPI topology based on that
+		createMPITopo();
+
+		// call postcommit
+		for (final Consumer r : (ArrayList<Consumer>) postCallbacks)
+			r.accept(0);
+
+		return true;
+	}
+
+	/**
+	 * Compute the new origin of the given node and all its offsprings. Each child
+	 * gets a share of the cost proportional to the number of leaves, i.e. of
+	 * partitions, below it, since those will split its cost among themselves.
+	 * 
+	 * @param node
+	 * @param shape      the shape the node will have after its ancestors are moved
+	 * @param hist
+	 * @param hysteresis
+	 * @param ret        the planned changes, in pre-order
+	 */
+	protected void planOrigins(final QuadTreeNode node, final IntHyperRect shape, final CostHistogram hist,
+			final double hysteresis, final Map<Integer, IntPoint> ret) {
+		if (node.isLeaf())
+			return;
+
+		// Same as QuadTreeNode.reshape(), the origin is reset if it falls outside
+		IntPoint origin = shape.contains(node.getOrigin()) ? node.getOrigin() : shape.getCenter();
+
+		final int[] weights = getLeafCounts(node);
+		final double curr = getImbalance(shape, origin, hist, weights);
+		if (curr > hysteresis) {
+			final int[] c = new int[numDimensions];
+			for (int i = 0; i < numDimensions; i++) {
+				final int lo = shape.ul.c[i] + aoi[i], hi = shape.br.c[i] - aoi[i];
+				final int cut = hist.getQuantile(shape, i, getLowerShare(weights, i));
+
+				if (lo >= hi)
+					c[i] = (shape.ul.c[i] + shape.br.c[i]) / 2;
+				else if (cut < 0)
+					c[i] = origin.c[i];
+				else
+					c[i] = Math.min(Math.max(cut, lo), hi);
+			}
+
+			final IntPoint cand = new IntPoint(c);
+			if (!cand.equals(origin) && getImbalance(shape, cand, hist, weights) < curr) {
+				origin = cand;
+				ret.put(node.getId(), origin);
+			}
+		}
+
+		for (int i = 0; i < node.getChildren().size(); i++)
+			planOrigins(node.getChild(i), QuadTreeNode.getChildShape(shape, origin, i), hist, hysteresis, ret);
+	}
+
+	/**
+	 * @param node
+	 * @return the number of leaves below each child of the given node, 1 for a
+	 *         child that is a leaf itself
+	 */
+	protected static int[] getLeafCounts(final QuadTreeNode node) {
+		final int[] counts = new int[node.getChildren().size()];
+
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = node.getChild(i).isLeaf() ? 1 : node.getChild(i).getLeaves().size();
+
+		return counts;
+	}
+
+	/**
+	 * @param weights weight of each child
+	 * @param dim
+	 * @return the share of the weights held by the children on the lower side of
+	 *         the origin along the given dimension
+	 */
+	protected double getLowerShare(final int[] weights, final int dim) {
+		double lower = 0, sum = 0;
+
+		for (int i = 0; i < weights.length; i++) {
+			if (((i >> (numDimensions - dim - 1)) & 0x1) == 0)
+				lower += weights[i];
+			sum += weights[i];
+		}
+
+		return lower / sum;
+	}
+
+	/**
+	 * @param shape
+	 * @param origin
+	 * @param hist
+	 * @param weights weight of each child
+	 * @return (max child cost per weight / mean cost per weight) - 1 if the shape
+	 *         is split at the given origin
+	 */
+	protected double getImbalance(final IntHyperRect shape, final IntPoint origin, final CostHistogram hist,
+			final int[] weights) {
+		double max = 0, sum = 0, sumWeights = 0;
+
+		for (int i = 0; i < weights.length; i++) {
+			final double cost = hist.getCost(QuadTreeNode.getChildShape(shape, origin, i));
+			max = Math.max(max, cost / weights[i]);
+			sum += cost;
+			sumWeights += weights[i];
+		}
+
+		return sum > 0 ? max * sumWeights / sum - 1 : 0;
+	}
+
 	private static void testBalance() throws MPIException {
 		MPITest.printOnlyIn(0, "Testing balance()......");
 
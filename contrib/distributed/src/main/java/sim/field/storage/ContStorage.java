@@ -231,6 +231,20 @@ public class ContStorage<T extends Serializable> extends GridStorage<T> {
 		return objs;
 	}
 
+	/**
+	 * Add the neighbors of the given object within the given radius to result
+	 *
+	 * @param obj
+	 * @param radius
+	 * @param result
+	 * @return the number of neighbors added
+	 */
+	public int getNeighborsWithin(final T obj, final double radius, final List<T> result) {
+		final List<T> objs = getNeighborsWithin(obj, radius);
+		result.addAll(objs);
+		return objs.size();
+	}
+
 //	public static void main(final String[] args) throws mpi.MPIException {
 //		mpi.MPI.Init(args);
 //
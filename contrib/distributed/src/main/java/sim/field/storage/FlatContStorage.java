@@ -0,0 +1,575 @@
+package sim.field.storage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import sim.field.partitioning.DoublePoint;
+import sim.field.partitioning.IntHyperRect;
+import sim.field.partitioning.IntPoint;
+import sim.field.partitioning.NdPoint;
+import sim.util.MPIParam;
+
+/**
+ * Continuous storage that keeps the objects in flat arrays sorted by cell
+ * instead of a HashSet per cell. The arrays are rebuilt with a linear merge
+ * once enough objects have changed cells, which in practice happens about once
+ * per step (before packing the halo and after receiving it). Objects added to a
+ * cell after the last rebuild are kept in per-cell overflow lists, so queries
+ * are always exact. Since every row of cells is a contiguous range of the
+ * arrays, halo regions are packed by copying ranges and neighbor queries do not
+ * allocate anything but their results. The only map is the location map m of
+ * ContStorage: an object is found in the arrays by scanning the cell of its
+ * location.
+ *
+ * Only supports 2 dimensions.
+ *
+ * @param <T> Type of objects to store
+ */
+public class FlatContStorage<T extends Serializable> extends ContStorage<T> {
+
+	/**
+	 * The objects of one rectangle of a packed halo, with their locations relative
+	 * to the rectangle
+	 */
+	static class Chunk implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final Object[] objs;
+		final double[] xs, ys;
+
+		Chunk(final Object[] objs, final double[] xs, final double[] ys) {
+			this.objs = objs;
+			this.xs = xs;
+			this.ys = ys;
+		}
+	}
+
+	// The objects of cell i are in [cellStart[i], cellStart[i + 1]) of the sorted
+	// arrays, removed objects are left as null until the next rebuild
+	int[] cellStart, nextStart;
+	Object[] objs, nextObjs;
+	double[] xs, ys, nextXs, nextYs;
+	int numSorted, numRemoved;
+
+	// Objects added after the last rebuild, as a linked list per cell
+	int[] head;
+	Object[] extraObjs;
+	double[] extraXs, extraYs;
+	int[] extraNext;
+	int numExtra, extraTop, freeExtra;
+
+	public FlatContStorage(final IntHyperRect shape, final double[] discretizations) {
+		super(shape, discretizations);
+	}
+
+	public GridStorage getNewStorage(final IntHyperRect shape) {
+		return new FlatContStorage<>(shape, discretizations);
+	}
+
+	protected Object allocate(final int size) {
+		if (shape.getNd() != 2)
+			throw new IllegalArgumentException("Currently only support 2 dimensions, got " + shape.getNd());
+
+		dsize = IntStream.range(0, 2).map(i -> (int) Math.ceil(shape.getSize()[i] / discretizations[i]) + 1)
+				.toArray();
+		stride = getStride(dsize);
+		m = new HashMap<T, NdPoint>();
+
+		final int numCells = dsize[0] * dsize[1];
+		cellStart = new int[numCells + 1];
+		nextStart = new int[numCells + 1];
+		objs = new Object[0];
+		xs = ys = new double[0];
+		numSorted = numRemoved = 0;
+
+		head = new int[numCells];
+		Arrays.fill(head, -1);
+		extraObjs = new Object[16];
+		extraXs = new double[16];
+		extraYs = new double[16];
+		extraNext = new int[16];
+		numExtra = extraTop = 0;
+		freeExtra = -1;
+
+		return cellStart;
+	}
+
+	public String toString() {
+		final StringBuffer buf = new StringBuffer(String.format("FlatContStorage-%s\n", shape));
+
+		for (int i = 0; i < head.length; i++) {
+			final HashSet<T> cell = getCell(i);
+			if (cell.size() > 0)
+				buf.append("Cell " + new IntPoint(i / dsize[1], i % dsize[1]) + ":\t" + cell + "\n");
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * Merge the overflow lists into the sorted arrays and drop the removed objects.
+	 * The arrays are only reallocated when they need to grow.
+	 */
+	public void rebuild() {
+		final int n = numSorted - numRemoved + numExtra;
+
+		if (nextObjs == null || nextObjs.length < n) {
+			final int cap = Math.max(n, nextObjs == null ? 16 : nextObjs.length * 2);
+			nextObjs = new Object[cap];
+			nextXs = new double[cap];
+			nextYs = new double[cap];
+		}
+
+		int pos = 0;
+		for (int c = 0; c < head.length; c++) {
+			nextStart[c] = pos;
+
+			for (int i = cellStart[c]; i < cellStart[c + 1]; i++)
+				if (objs[i] != null) {
+					nextObjs[pos] = objs[i];
+					nextXs[pos] = xs[i];
+					nextYs[pos++] = ys[i];
+				}
+
+			for (int e = head[c]; e != -1; e = extraNext[e]) {
+				nextObjs[pos] = extraObjs[e];
+				nextXs[pos] = extraXs[e];
+				nextYs[pos++] = extraYs[e];
+			}
+			head[c] = -1;
+		}
+		nextStart[head.length] = pos;
+
+		// Release the references held by the old arrays
+		Arrays.fill(objs, 0, numSorted, null);
+		Arrays.fill(extraObjs, 0, extraTop, null);
+
+		final int[] ts = cellStart;
+		cellStart = nextStart;
+		nextStart = ts;
+		final Object[] to = objs;
+		objs = nextObjs;
+		nextObjs = to;
+		double[] td = xs;
+		xs = nextXs;
+		nextXs = td;
+		td = ys;
+		ys = nextYs;
+		nextYs = td;
+
+		storage = cellStart;
+		numSorted = pos;
+		numRemoved = numExtra = extraTop = 0;
+		freeExtra = -1;
+	}
+
+	/**
+	 * Rebuild if the overflow lists or the removed objects have grown large enough
+	 * to slow down the queries
+	 */
+	protected void rebuildIfNeeded() {
+		if (numExtra + numRemoved > (numSorted >> 2) + 64)
+			rebuild();
+	}
+
+	protected int getCellX(final double x) {
+		return Math.min(Math.max((int) ((x - shape.ul.c[0]) / discretizations[0]), 0), dsize[0] - 1);
+	}
+
+	protected int getCellY(final double y) {
+		return Math.min(Math.max((int) ((y - shape.ul.c[1]) / discretizations[1]), 0), dsize[1] - 1);
+	}
+
+	protected int getCellIdx(final double x, final double y) {
+		return getCellX(x) * dsize[1] + getCellY(y);
+	}
+
+	// Coordinate of the given point, without copying it if it is a DoublePoint
+	static double coord(final NdPoint p, final int dim) {
+		return p instanceof DoublePoint ? ((DoublePoint) p).c[dim] : p.getArrayInDouble()[dim];
+	}
+
+	/**
+	 * Find the slot of the object stored at the given location: i >= 0 in the
+	 * sorted arrays, -(i + 1) in the overflow lists
+	 */
+	int find(final T obj, final NdPoint loc) {
+		final int cell = getCellIdx(coord(loc, 0), coord(loc, 1));
+
+		for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+			if (objs[i] == obj || obj.equals(objs[i]))
+				return i;
+		for (int e = head[cell]; e != -1; e = extraNext[e])
+			if (extraObjs[e] == obj || obj.equals(extraObjs[e]))
+				return -e - 1;
+
+		throw new IllegalStateException(obj + " is not stored at " + loc);
+	}
+
+	// Find the slot of the given object, which must be in the storage
+	int find(final T obj) {
+		final NdPoint loc = m.get(obj);
+
+		if (loc == null)
+			throw new IllegalArgumentException(obj + " does not exist in " + shape);
+
+		return find(obj, loc);
+	}
+
+	// Get the objects in the cell with the given flat index
+	protected HashSet<T> getCell(final int cell) {
+		final HashSet<T> ret = new HashSet<>();
+
+		for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+			if (objs[i] != null)
+				ret.add((T) objs[i]);
+		for (int e = head[cell]; e != -1; e = extraNext[e])
+			ret.add((T) extraObjs[e]);
+
+		return ret;
+	}
+
+	public HashSet<T> getCell(final NdPoint p) {
+		final double[] c = p.getArrayInDouble();
+		return getCell(getCellIdx(c[0], c[1]));
+	}
+
+	public HashSet<T> getCelldp(final IntPoint p) {
+		return getCell(getFlatIdx(p));
+	}
+
+	public void setLocation(final T obj, final NdPoint p) {
+		final double[] c = p.getArrayInDouble();
+		final int cell = getCellIdx(c[0], c[1]);
+
+		final NdPoint old = m.put(obj, p);
+
+		if (old != null) {
+			final int s = find(obj, old);
+
+			if (s >= 0 && getCellIdx(xs[s], ys[s]) == cell) {
+				// Moves within the same cell are done in place
+				xs[s] = c[0];
+				ys[s] = c[1];
+				return;
+			} else if (s < 0 && getCellIdx(extraXs[-s - 1], extraYs[-s - 1]) == cell) {
+				extraXs[-s - 1] = c[0];
+				extraYs[-s - 1] = c[1];
+				return;
+			}
+
+			unlink(s);
+		}
+
+		addExtra(obj, c[0], c[1], cell);
+	}
+
+	public void removeObject(final T obj) {
+		final int s = find(obj);
+
+		m.remove(obj);
+		unlink(s);
+	}
+
+	public ArrayList<T> getObjects(final NdPoint p) {
+		final ArrayList<T> ret = new ArrayList<>();
+
+		for (final T obj : getCell(p))
+			if (m.get(obj).equals(p))
+				ret.add(obj);
+
+		return ret;
+	}
+
+	public List<T> getObjects(final IntHyperRect r) {
+		final ArrayList<T> ret = new ArrayList<>();
+		collect(r, ret, false);
+		return ret;
+	}
+
+	public void removeObjects(final IntHyperRect r) {
+		collect(r, null, true);
+	}
+
+	public List<T> getNeighborsWithin(final T obj, final double radius) {
+		final ArrayList<T> ret = new ArrayList<>();
+		getNeighborsWithin(obj, radius, ret);
+		return ret;
+	}
+
+	/**
+	 * Add the neighbors of the given object within the given radius to result.
+	 * Does not allocate anything when result has enough capacity.
+	 *
+	 * @param obj
+	 * @param radius
+	 * @param result
+	 * @return the number of neighbors added
+	 */
+	public int getNeighborsWithin(final T obj, final double radius, final List<T> result) {
+		rebuildIfNeeded();
+
+		final int s = find(obj);
+		final double x = s >= 0 ? xs[s] : extraXs[-s - 1];
+		final double y = s >= 0 ? ys[s] : extraYs[-s - 1];
+		final double r2 = radius * radius;
+		final int x0 = getCellX(x - radius), x1 = getCellX(x + radius);
+		final int y0 = getCellY(y - radius), y1 = getCellY(y + radius);
+		int count = 0;
+
+		for (int cx = x0; cx <= x1; cx++) {
+			final int row = cx * dsize[1];
+
+			// The cells [y0, y1] of a row are a single range of the sorted arrays
+			for (int i = cellStart[row + y0], end = cellStart[row + y1 + 1]; i < end; i++) {
+				final Object o = objs[i];
+				final double dx = xs[i] - x, dy = ys[i] - y;
+				if (o != null && o != obj && dx * dx + dy * dy <= r2) {
+					result.add((T) o);
+					count++;
+				}
+			}
+
+			if (numExtra > 0)
+				for (int cy = y0; cy <= y1; cy++)
+					for (int e = head[row + cy]; e != -1; e = extraNext[e]) {
+						final double dx = extraXs[e] - x, dy = extraYs[e] - y;
+						if (extraObjs[e] != obj && dx * dx + dy * dy <= r2) {
+							result.add((T) extraObjs[e]);
+							count++;
+						}
+					}
+		}
+
+		return count;
+	}
+
+	// Return a list of k nearest neighbors sorted by their distances
+	// to the query obj, if that many exists
+	public List<T> getNearestNeighbors(final T obj, final int need) {
+		rebuildIfNeeded();
+
+		final int s = find(obj);
+
+		if (need <= 0)
+			return new ArrayList<>();
+
+		final double x = s >= 0 ? xs[s] : extraXs[-s - 1];
+		final double y = s >= 0 ? ys[s] : extraYs[-s - 1];
+		final int cx = getCellX(x), cy = getCellY(y);
+		final int maxLayer = Math.max(dsize[0], dsize[1]);
+		final double minDisc = Math.min(discretizations[0], discretizations[1]);
+
+		// best[0, found) sorted by distance
+		final Object[] best = new Object[need];
+		final double[] bestDist = new double[need];
+		int found = 0;
+
+		for (int layer = 0; layer <= maxLayer; layer++) {
+			for (int i = Math.max(cx - layer, 0); i <= Math.min(cx + layer, dsize[0] - 1); i++) {
+				final int row = i * dsize[1];
+
+				if (i == cx - layer || i == cx + layer) {
+					// The whole row of the ring on its edges
+					for (int j = Math.max(cy - layer, 0); j <= Math.min(cy + layer, dsize[1] - 1); j++)
+						found = scanCell(row + j, obj, x, y, best, bestDist, found);
+				} else {
+					// Only its two ends otherwise
+					if (cy - layer >= 0)
+						found = scanCell(row + cy - layer, obj, x, y, best, bestDist, found);
+					if (cy + layer < dsize[1])
+						found = scanCell(row + cy + layer, obj, x, y, best, bestDist, found);
+				}
+			}
+
+			// Anything beyond this layer is at least layer * minDisc away
+			if (found == need && bestDist[need - 1] <= layer * minDisc * layer * minDisc)
+				break;
+		}
+
+		final ArrayList<T> ret = new ArrayList<>(found);
+		for (int i = 0; i < found; i++)
+			ret.add((T) best[i]);
+
+		return ret;
+	}
+
+	// Offer all the objects of the given cell except obj to the best list
+	int scanCell(final int cell, final T obj, final double x, final double y, final Object[] best,
+			final double[] bestDist, int found) {
+		for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++)
+			if (objs[k] != null && objs[k] != obj)
+				found = offer(best, bestDist, found, objs[k], xs[k] - x, ys[k] - y);
+		for (int e = head[cell]; e != -1; e = extraNext[e])
+			if (extraObjs[e] != obj)
+				found = offer(best, bestDist, found, extraObjs[e], extraXs[e] - x, extraYs[e] - y);
+
+		return found;
+	}
+
+	// Insert the candidate into the sorted best list if it is close enough
+	static int offer(final Object[] best, final double[] bestDist, int found, final Object o, final double dx,
+			final double dy) {
+		final double d = dx * dx + dy * dy;
+
+		if (found == best.length) {
+			if (found == 0 || d >= bestDist[found - 1])
+				return found;
+			found--;
+		}
+
+		int i = found;
+		for (; i > 0 && bestDist[i - 1] > d; i--) {
+			best[i] = best[i - 1];
+			bestDist[i] = bestDist[i - 1];
+		}
+		best[i] = o;
+		bestDist[i] = d;
+
+		return found + 1;
+	}
+
+	// Pack the objects of each rectangle as arrays, with their locations relative
+	// to the rectangle
+	public Serializable pack(final MPIParam mp) {
+		if (numExtra > 0 || numRemoved > 0)
+			rebuild();
+
+		final ArrayList<Chunk> ret = new ArrayList<>();
+
+		for (final IntHyperRect rect : mp.rects) {
+			final IntHyperRect r = rect.shift(shape.ul().getArray());
+			final double lx = r.ul.c[0], ly = r.ul.c[1], hx = r.br.c[0], hy = r.br.c[1];
+			final int x0 = getCellX(lx), x1 = getCellX(hx), y0 = getCellY(ly), y1 = getCellY(hy);
+
+			int cap = 0;
+			for (int cx = x0; cx <= x1; cx++)
+				cap += cellStart[cx * dsize[1] + y1 + 1] - cellStart[cx * dsize[1] + y0];
+
+			final Object[] os = new Object[cap];
+			final double[] px = new double[cap], py = new double[cap];
+			int n = 0;
+			for (int cx = x0; cx <= x1; cx++) {
+				final int row = cx * dsize[1];
+				for (int i = cellStart[row + y0], end = cellStart[row + y1 + 1]; i < end; i++)
+					if (lx <= xs[i] && xs[i] < hx && ly <= ys[i] && ys[i] < hy) {
+						os[n] = objs[i];
+						px[n] = xs[i] - lx;
+						py[n++] = ys[i] - ly;
+					}
+			}
+
+			ret.add(new Chunk(Arrays.copyOf(os, n), Arrays.copyOf(px, n), Arrays.copyOf(py, n)));
+		}
+
+		return ret;
+	}
+
+	public int unpack(final MPIParam mp, final Serializable buf) {
+		final ArrayList<Chunk> chunks = (ArrayList<Chunk>) buf;
+		int count = 0;
+
+		// Remove any objects that are in the unpack area (overwrite the area)
+		for (final IntHyperRect rect : mp.rects)
+			removeObjects(rect.shift(shape.ul().getArray()));
+
+		for (int k = 0; k < mp.rects.size(); k++) {
+			final Chunk chunk = chunks.get(k);
+			final double ox = mp.rects.get(k).ul.c[0] + shape.ul.c[0];
+			final double oy = mp.rects.get(k).ul.c[1] + shape.ul.c[1];
+
+			for (int i = 0; i < chunk.objs.length; i++)
+				setLocation((T) chunk.objs[i], new DoublePoint(chunk.xs[i] + ox, chunk.ys[i] + oy));
+			count += chunk.objs.length;
+		}
+
+		return count;
+	}
+
+	// Visit the objects inside the given rectangle, either collecting or removing
+	// them
+	void collect(final IntHyperRect r, final List<T> ret, final boolean remove) {
+		final double lx = r.ul.c[0], ly = r.ul.c[1], hx = r.br.c[0], hy = r.br.c[1];
+		final int x0 = getCellX(lx), x1 = getCellX(hx), y0 = getCellY(ly), y1 = getCellY(hy);
+
+		for (int cx = x0; cx <= x1; cx++) {
+			final int row = cx * dsize[1];
+
+			for (int i = cellStart[row + y0], end = cellStart[row + y1 + 1]; i < end; i++)
+				if (objs[i] != null && lx <= xs[i] && xs[i] < hx && ly <= ys[i] && ys[i] < hy)
+					if (remove) {
+						m.remove(objs[i]);
+						unlink(i);
+					} else
+						ret.add((T) objs[i]);
+
+			for (int cy = y0; cy <= y1; cy++)
+				for (int e = head[row + cy], next; e != -1; e = next) {
+					next = extraNext[e];
+					if (lx <= extraXs[e] && extraXs[e] < hx && ly <= extraYs[e] && extraYs[e] < hy)
+						if (remove) {
+							m.remove(extraObjs[e]);
+							unlink(-e - 1);
+						} else
+							ret.add((T) extraObjs[e]);
+				}
+		}
+	}
+
+	// Add the object to the overflow list of the given cell
+	void addExtra(final T obj, final double x, final double y, final int cell) {
+		final int e;
+
+		if (freeExtra != -1) {
+			e = freeExtra;
+			freeExtra = extraNext[e];
+		} else {
+			if (extraTop == extraObjs.length) {
+				final int cap = extraTop * 2;
+				extraObjs = Arrays.copyOf(extraObjs, cap);
+				extraXs = Arrays.copyOf(extraXs, cap);
+				extraYs = Arrays.copyOf(extraYs, cap);
+				extraNext = Arrays.copyOf(extraNext, cap);
+			}
+			e = extraTop++;
+		}
+
+		extraObjs[e] = obj;
+		extraXs[e] = x;
+		extraYs[e] = y;
+		extraNext[e] = head[cell];
+		head[cell] = e;
+		numExtra++;
+	}
+
+	// Remove the object in the given slot from the arrays
+	void unlink(final int slot) {
+		if (slot >= 0) {
+			objs[slot] = null;
+			numRemoved++;
+			return;
+		}
+
+		final int e = -slot - 1;
+		final int cell = getCellIdx(extraXs[e], extraYs[e]);
+
+		if (head[cell] == e)
+			head[cell] = extraNext[e];
+		else {
+			int prev = head[cell];
+			while (extraNext[prev] != e)
+				prev = extraNext[prev];
+			extraNext[prev] = extraNext[e];
+		}
+
+		extraObjs[e] = null;
+		extraNext[e] = freeExtra;
+		freeExtra = e;
+		numExtra--;
+	}
+}
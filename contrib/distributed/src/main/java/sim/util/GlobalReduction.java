@@ -0,0 +1,238 @@
+package sim.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import mpi.Comm;
+import mpi.MPI;
+import mpi.MPIException;
+
+/**
+ * Batched global reductions over per-node probes. Modelers register probes
+ * (e.g. the local population size) on every node in the same order, then all
+ * the probes are evaluated together every given number of steps and reduced
+ * across all the nodes with a single collective call. DSimState performs this
+ * call in place of the barrier that starts preSchedule(), so no additional
+ * synchronization is needed. The results are available on every node.
+ *
+ */
+public class GlobalReduction {
+
+	/**
+	 * A per-node value to be reduced
+	 */
+	public interface Probe {
+		double get();
+	}
+
+	/**
+	 * Per-node values to be added into a global histogram
+	 */
+	public interface ValuesProbe {
+		double[] get();
+	}
+
+	public enum Op {
+		SUM, MIN, MAX
+	}
+
+	/**
+	 * A global scalar statistic
+	 */
+	public static class Stat {
+		final Op op;
+		final Probe probe;
+		final int offset;
+		double value = Double.NaN;
+
+		Stat(final Op op, final Probe probe, final int offset) {
+			this.op = op;
+			this.probe = probe;
+			this.offset = offset;
+		}
+
+		/**
+		 * @return the reduced value as of the last reduction, NaN if no reduction
+		 *         has been done yet
+		 */
+		public double get() {
+			return value;
+		}
+
+		public Op getOp() {
+			return op;
+		}
+	}
+
+	/**
+	 * A global histogram with equally sized bins, values outside of [min, max) are
+	 * added to the first or last bin
+	 */
+	public static class Histogram {
+		final ValuesProbe probe;
+		final int offset;
+		final double min, max;
+		final double[] counts;
+
+		Histogram(final ValuesProbe probe, final int offset, final int numBins, final double min, final double max) {
+			this.probe = probe;
+			this.offset = offset;
+			this.min = min;
+			this.max = max;
+			counts = new double[numBins];
+		}
+
+		/**
+		 * @return the global count of each bin as of the last reduction
+		 */
+		public double[] get() {
+			return Arrays.copyOf(counts, counts.length);
+		}
+
+		public double getMin() {
+			return min;
+		}
+
+		public double getMax() {
+			return max;
+		}
+
+		void fill(final double[] buf, final int start) {
+			final int numBins = counts.length;
+			for (final double v : probe.get()) {
+				final int bin = (int) ((v - min) / (max - min) * numBins);
+				buf[start + offset + Math.min(Math.max(bin, 0), numBins - 1)]++;
+			}
+		}
+	}
+
+	final ArrayList<Stat> stats = new ArrayList<Stat>();
+	final ArrayList<Histogram> histograms = new ArrayList<Histogram>();
+	int width = 0;
+	int interval = 1;
+	long lastStep = -1;
+	double[] buf;
+
+	/**
+	 * @param interval the number of steps between two reductions
+	 */
+	public GlobalReduction(final int interval) {
+		setInterval(interval);
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public void setInterval(final int interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval must be positive, got " + interval);
+		this.interval = interval;
+	}
+
+	/**
+	 * @return the step of the last reduction, -1 if no reduction has been done yet
+	 */
+	public long getLastStep() {
+		return lastStep;
+	}
+
+	public Stat registerSum(final Probe probe) {
+		return register(Op.SUM, probe);
+	}
+
+	public Stat registerMin(final Probe probe) {
+		return register(Op.MIN, probe);
+	}
+
+	public Stat registerMax(final Probe probe) {
+		return register(Op.MAX, probe);
+	}
+
+	/**
+	 * Registers a probe, must be called on all the nodes in the same order
+	 *
+	 * @param op
+	 * @param probe
+	 * @return the handle to read the reduced value from
+	 */
+	public Stat register(final Op op, final Probe probe) {
+		final Stat s = new Stat(op, probe, width++);
+		stats.add(s);
+		buf = null;
+		return s;
+	}
+
+	/**
+	 * Registers a histogram, must be called on all the nodes in the same order
+	 *
+	 * @param probe
+	 * @param numBins
+	 * @param min
+	 * @param max
+	 * @return the handle to read the global histogram from
+	 */
+	public Histogram registerHistogram(final ValuesProbe probe, final int numBins, final double min,
+			final double max) {
+		if (numBins <= 0 || max <= min)
+			throw new IllegalArgumentException("Invalid histogram: " + numBins + " bins over [" + min + ", " + max + ")");
+
+		final Histogram h = new Histogram(probe, width, numBins, min, max);
+		width += numBins;
+		histograms.add(h);
+		buf = null;
+		return h;
+	}
+
+	/**
+	 * @param steps
+	 * @return true if a reduction is due at the given step
+	 */
+	public boolean isDue(final long steps) {
+		return width > 0 && steps % interval == 0 && steps != lastStep;
+	}
+
+	/**
+	 * Evaluates all the probes and reduces them across all the nodes in the given
+	 * communicator using a single allGather. Must be called by all the nodes
+	 * together.
+	 *
+	 * @param comm
+	 * @param steps the current step
+	 * @throws MPIException
+	 */
+	public void reduce(final Comm comm, final long steps) throws MPIException {
+		final int np = comm.getSize(), pid = comm.getRank();
+
+		if (buf == null || buf.length != width * np)
+			buf = new double[width * np];
+		else
+			Arrays.fill(buf, pid * width, (pid + 1) * width, 0);
+
+		final int start = pid * width;
+		for (final Stat s : stats)
+			buf[start + s.offset] = s.probe.get();
+		for (final Histogram h : histograms)
+			h.fill(buf, start);
+
+		comm.allGather(buf, width, MPI.DOUBLE);
+
+		for (final Stat s : stats) {
+			double v = buf[s.offset];
+			for (int i = 1; i < np; i++) {
+				final double x = buf[i * width + s.offset];
+				v = s.op == Op.SUM ? v + x : s.op == Op.MIN ? Math.min(v, x) : Math.max(v, x);
+			}
+			s.value = v;
+		}
+
+		for (final Histogram h : histograms) {
+			Arrays.fill(h.counts, 0);
+			for (int i = 0; i < np; i++)
+				for (int j = 0; j < h.counts.length; j++)
+					h.counts[j] += buf[i * width + h.offset + j];
+		}
+
+		lastStep = steps;
+	}
+}
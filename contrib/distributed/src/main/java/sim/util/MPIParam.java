@@ -79,6 +79,25 @@ public class MPIParam {
 		}
 	}
 
+	/**
+	 * Only records the rectangles, in coordinates local to bound, without any MPI
+	 * datatype. Enough for the storages that pack their objects by rectangle,
+	 * such as ContStorage, and usable without initializing MPI.
+	 * 
+	 * @param rects
+	 * @param bound
+	 */
+	public MPIParam(List<IntHyperRect> rects, IntHyperRect bound) {
+		this.idx = 0;
+		this.size = 0;
+		this.rects = new ArrayList<IntHyperRect>();
+
+		for (IntHyperRect rect : rects) {
+			this.size += rect.getArea();
+			this.rects.add(rect.rshift(bound.ul.c));
+		}
+	}
+
 	/**
 	 * Create Nd subarray MPI datatype
 	 * 
@@ -0,0 +1,87 @@
+package sim.engine;
+
+import junit.framework.TestCase;
+import sim.field.partitioning.IntPoint;
+
+/**
+ * Tests which scheduled agents writePartitionCheckpoint() saves, and that they
+ * can be scheduled again on restart.
+ */
+public class PartitionCheckpointTest extends TestCase {
+
+	static class Agent implements Stopping {
+		private static final long serialVersionUID = 1;
+		Stoppable stop;
+		int steps;
+
+		public void step(final SimState state) {
+			steps++;
+		}
+
+		public Stoppable getStoppable() {
+			return stop;
+		}
+
+		public void setStoppable(final Stoppable stop) {
+			this.stop = stop;
+		}
+	}
+
+	public PartitionCheckpointTest(final String testName) {
+		super(testName);
+	}
+
+	public void testRestartAfterOneShotAgentHasRun() {
+		final SimState state = new SimState(0);
+		final DistributedSchedule schedule = new DistributedSchedule();
+		final IntPoint loc = new IntPoint(0, 0);
+
+		final Agent done = new Agent();
+		final Agent pending = new Agent();
+		schedule.scheduleOnce(1.0, 0, done);
+		schedule.scheduleOnce(5.0, 0, pending);
+		schedule.step(state);
+		assertEquals(1.0, schedule.getTime(), 0.0);
+		assertEquals(1, done.steps);
+
+		// the agent which has already been stepped is not saved
+		assertNull(DSimState.getScheduledAgent(done, loc, schedule.getTime()));
+		final PartitionCheckpoint.ScheduledAgent saved = DSimState.getScheduledAgent(pending, loc,
+				schedule.getTime());
+		assertNotNull(saved);
+		assertEquals(5.0, saved.time, 0.0);
+		assertEquals(0.0, saved.interval, 0.0);
+
+		// restart at the checkpoint's time, as readPartitionCheckpoint() does
+		final DistributedSchedule restored = new DistributedSchedule();
+		restored.steps = schedule.getSteps();
+		restored.time = schedule.getTime();
+		assertTrue(restored.scheduleOnce(saved.time, saved.ordering, saved.agent));
+		while (restored.step(state))
+			;
+		assertEquals(1, done.steps);
+		assertEquals(1, pending.steps);
+	}
+
+	public void testRepeatingAgentIsSaved() {
+		final SimState state = new SimState(0);
+		final DistributedSchedule schedule = new DistributedSchedule();
+		final Agent agent = new Agent();
+		schedule.scheduleRepeating(1.0, 0, agent, 2.0);
+		schedule.step(state);
+
+		final PartitionCheckpoint.ScheduledAgent saved = DSimState.getScheduledAgent(agent, new IntPoint(0, 0),
+				schedule.getTime());
+		assertNotNull(saved);
+		assertEquals(3.0, saved.time, 0.0);
+		assertEquals(2.0, saved.interval, 0.0);
+	}
+
+	public void testStoppedAgentIsNotSaved() {
+		final DistributedSchedule schedule = new DistributedSchedule();
+		final Agent agent = new Agent();
+		schedule.scheduleOnce(1.0, 0, agent);
+		agent.getStoppable().stop();
+		assertNull(DSimState.getScheduledAgent(agent, new IntPoint(0, 0), schedule.getTime()));
+	}
+}
@@ -0,0 +1,162 @@
+package sim.field.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import sim.field.partitioning.DoublePoint;
+import sim.field.partitioning.IntHyperRect;
+import sim.field.partitioning.IntPoint;
+import sim.field.partitioning.NdPoint;
+import sim.util.MPIParam;
+
+/**
+ * Tests FlatContStorage against ContStorage, and its nearest neighbors against
+ * an exhaustive search.
+ */
+public class FlatContStorageTest extends TestCase {
+
+	static final IntHyperRect shape = new IntHyperRect(0, new IntPoint(10, 20), new IntPoint(60, 90));
+	static final double[] discretizations = new double[] { 5, 5 };
+
+	Random random;
+	Integer[] objs;
+	FlatContStorage<Integer> flat;
+	ContStorage<Integer> cont;
+
+	public FlatContStorageTest(final String testName) {
+		super(testName);
+	}
+
+	protected void setUp() {
+		random = new Random(42);
+		objs = new Integer[500];
+		flat = new FlatContStorage<>(shape, discretizations);
+		cont = new ContStorage<>(shape, discretizations);
+
+		for (int i = 0; i < objs.length; i++) {
+			objs[i] = new Integer(i);
+			setLocation(objs[i], randomPoint());
+		}
+	}
+
+	DoublePoint randomPoint() {
+		return new DoublePoint(10 + random.nextDouble() * 50, 20 + random.nextDouble() * 70);
+	}
+
+	void setLocation(final Integer obj, final NdPoint p) {
+		flat.setLocation(obj, p);
+		cont.setLocation(obj, p);
+	}
+
+	// Move, remove and add back some of the objects, some within their cell
+	void shuffle() {
+		for (int i = 0; i < objs.length / 4; i++) {
+			final Integer obj = objs[random.nextInt(objs.length)];
+			final NdPoint old = cont.getLocation(obj);
+
+			if (old == null)
+				setLocation(obj, randomPoint());
+			else if (random.nextInt(10) == 0) {
+				flat.removeObject(obj);
+				cont.removeObject(obj);
+			} else if (random.nextBoolean()) {
+				final double[] c = old.getArrayInDouble();
+				setLocation(obj, new DoublePoint(Math.min(c[0] + random.nextDouble() * 0.1, 59.9),
+						Math.min(c[1] + random.nextDouble() * 0.1, 89.9)));
+			} else
+				setLocation(obj, randomPoint());
+		}
+	}
+
+	public void testNeighborsWithin() {
+		for (int round = 0; round < 20; round++) {
+			shuffle();
+
+			for (final Integer obj : objs) {
+				if (cont.getLocation(obj) == null)
+					continue;
+
+				for (final double radius : new double[] { 0, 2.5, 7, 30 }) {
+					final List<Integer> result = new ArrayList<>();
+					assertEquals(flat.getNeighborsWithin(obj, radius, result), result.size());
+					assertEquals("round " + round + ", " + obj + " within " + radius,
+							new HashSet<>(cont.getNeighborsWithin(obj, radius)), new HashSet<>(result));
+				}
+			}
+		}
+	}
+
+	public void testNearestNeighbors() {
+		for (int round = 0; round < 10; round++) {
+			shuffle();
+
+			for (final Integer obj : objs) {
+				final NdPoint loc = cont.getLocation(obj);
+				if (loc == null)
+					continue;
+
+				// the distances of all the other objects, sorted
+				final ArrayList<Double> all = new ArrayList<>();
+				for (final Integer other : cont.m.keySet())
+					if (other != obj)
+						all.add(cont.getLocation(other).getDistance(loc, 2));
+				all.sort(null);
+
+				for (final int k : new int[] { 0, 1, 5, 20, objs.length }) {
+					final List<Integer> nearest = flat.getNearestNeighbors(obj, k);
+					assertEquals(Math.min(k, all.size()), nearest.size());
+					for (int i = 0; i < nearest.size(); i++)
+						assertEquals("round " + round + ", " + obj + " k " + k, all.get(i),
+								flat.getLocation(nearest.get(i)).getDistance(loc, 2), 1e-9);
+				}
+			}
+		}
+	}
+
+	public void testPackUnpack() {
+		shuffle();
+
+		final List<IntHyperRect> rects = Arrays.asList(
+				new IntHyperRect(1, new IntPoint(10, 20), new IntPoint(22, 90)),
+				new IntHyperRect(2, new IntPoint(33, 47), new IntPoint(60, 61)));
+		final MPIParam mp = new MPIParam(rects, shape);
+
+		// objects already in the unpack area are overwritten, the others are kept
+		final FlatContStorage<Integer> flatTo = new FlatContStorage<>(shape, discretizations);
+		final ContStorage<Integer> contTo = new ContStorage<>(shape, discretizations);
+		final Integer[] others = new Integer[100];
+		for (int i = 0; i < others.length; i++) {
+			others[i] = new Integer(-i - 1);
+			final DoublePoint p = randomPoint();
+			flatTo.setLocation(others[i], p);
+			contTo.setLocation(others[i], p);
+		}
+
+		contTo.unpack(mp, cont.pack(mp));
+		int count = 0;
+		for (final IntHyperRect rect : rects)
+			count += cont.getObjects(rect).size();
+		assertEquals(count, flatTo.unpack(mp, flat.pack(mp)));
+
+		for (final IntHyperRect rect : rects)
+			assertEquals(new HashSet<>(cont.getObjects(rect)), new HashSet<>(flatTo.getObjects(rect)));
+		assertEquals(new HashSet<>(contTo.getObjects(shape)), new HashSet<>(flatTo.getObjects(shape)));
+		assertEquals(contTo.m.keySet(), flatTo.m.keySet());
+
+		for (final Integer obj : flatTo.m.keySet()) {
+			final double[] expected = contTo.getLocation(obj).getArrayInDouble();
+			final double[] actual = flatTo.getLocation(obj).getArrayInDouble();
+			assertEquals(expected[0], actual[0], 1e-9);
+			assertEquals(expected[1], actual[1], 1e-9);
+		}
+
+		// the unpacked storage still answers queries like the original
+		for (final Integer obj : flatTo.m.keySet())
+			assertEquals(new HashSet<>(contTo.getNeighborsWithin(obj, 7)),
+					new HashSet<>(flatTo.getNeighborsWithin(obj, 7)));
+	}
+}
@@ -17,6 +17,7 @@ import com.vividsolutions.jts.geom.*;
 import com.vividsolutions.jts.linearref.LengthIndexedLine;
 import com.vividsolutions.jts.planargraph.Node;
 import java.util.ArrayList;
+import java.util.List;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.util.geo.GeomPlanarGraphDirectedEdge;
@@ -56,7 +57,7 @@ public final class Agent implements Steppable
     GeomPlanarGraphEdge currentEdge = null;
     int linkDirection = 1;
     double speed = 0; // useful for graph
-    ArrayList<GeomPlanarGraphDirectedEdge> pathFromHomeToWork =
+    List<GeomPlanarGraphDirectedEdge> pathFromHomeToWork =
         new ArrayList<GeomPlanarGraphDirectedEdge>();
     int indexOnPath = 0;
     int pathDirection = 1;
@@ -143,9 +144,8 @@ public final class Agent implements Steppable
             return; // just a check
         }
         // find the appropriate A* path between them
-        AStar pathfinder = new AStar();
-        ArrayList<GeomPlanarGraphDirectedEdge> path =
-            pathfinder.astarPath(currentJunction, destinationJunction);
+        List<GeomPlanarGraphDirectedEdge> path =
+            geoTest.routes.getPath(currentJunction, destinationJunction);
 
         // if the path works, lay it in
         if (path != null && path.size() > 0)
@@ -33,6 +33,9 @@ import sim.io.geo.ShapeFileImporter;
 import sim.util.geo.GeomPlanarGraph;
 import sim.util.geo.GeomPlanarGraphEdge;
 import sim.util.geo.MasonGeometry;
+import sim.util.geo.RouteCache;
+import sim.util.geo.Router;
+import sim.util.geo.RoutingGraph;
 
 
 
@@ -68,6 +71,10 @@ public class Gridlock extends SimState
     public GeomVectorField censusTracts = new GeomVectorField();
     // traversable network
     public GeomPlanarGraph network = new GeomPlanarGraph();
+    // shortest paths over the network, shared by all the agents
+    Router router;
+    // most agents share their home and work junctions
+    RouteCache routes;
     public GeomVectorField junctions = new GeomVectorField();
     // mapping between unique edge IDs and edge structures themselves
     HashMap<Integer, GeomPlanarGraphEdge> idsToEdges =
@@ -225,6 +232,10 @@ public class Gridlock extends SimState
         }
 
         addIntersectionNodes(network.nodeIterator(), junctions);
+
+        // edges cost the straight line distance between their junctions
+        router = new Router(new RoutingGraph(network, RoutingGraph.DISTANCE));
+        routes = new RouteCache(router, 10000);
     }
 
 
@@ -0,0 +1,558 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.field.geo;
+
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygonal;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import sim.util.Bag;
+import sim.util.IntBag;
+import sim.util.geo.MasonGeometry;
+
+
+
+/**
+ * A field of moving points, e.g. agents, stored as primitive coordinates.
+ * <p>
+ * Moving a point in a GeomVectorField means changing its JTS Point, which
+ * invalidates its envelope and the spatial index. Here a point is an id
+ * into arrays of x and y coordinates, indexed by a uniform grid over the
+ * bounds given at construction, so setLocation() only updates two doubles
+ * and, when the point changes cell, two linked lists. JTS objects are only
+ * created on demand, by getPoint() and getGeometry().
+ * <p>
+ * The field works alongside GeomVectorField: getCoveringObjects() finds the
+ * geometries of a GeomVectorField under a point, using its raster index if
+ * it has one, and getObjectsCoveredBy() the points inside a geometry.
+ * GeomPointFieldPortrayal draws the field.
+ * <p>
+ * Points may wander outside the bounds; they are then kept in the border
+ * cells, which still gives correct, if slower, queries.
+ * <p>
+ * As with the other MASON fields, the field must not be changed by several
+ * threads at once.
+ * <p/>
+ * @see sim.portrayal.geo.GeomPointFieldPortrayal
+ */
+public class GeomPointField extends GeomField
+{
+
+    private static final long serialVersionUID = 2216396813472281164L;
+
+    /** Number of grid cells along the longer side of the bounds by default */
+    private static final int DEFAULT_CELLS = 256;
+
+    private static final GeometryFactory geomFactory = new GeometryFactory();
+
+    // per id
+    private double[] xs = new double[64];
+    private double[] ys = new double[64];
+    private Object[] objects = new Object[64];
+    private int[] cellOf = new int[64];  // -1 for unused ids
+    private int[] next = new int[64];
+    private int[] prev = new int[64];
+
+    /** Unused ids below numIds */
+    private IntBag freeIds = new IntBag();
+    private int numIds = 0;
+    private int size = 0;
+
+    private final IdentityHashMap<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+
+    // the grid
+    private final Envelope bounds;
+    private final double originX, originY;
+    private final double cellSize;
+    private final int gridWidth, gridHeight;
+    private final int[] cellHead;
+
+
+
+    /**
+     * Indexes the points with a grid of about 256 cells along the longer side
+     * of the bounds
+     */
+    public GeomPointField(Envelope bounds)
+    {
+        this(bounds, Math.max(bounds.getWidth(), bounds.getHeight()) / DEFAULT_CELLS);
+    }
+
+
+
+    /**
+     * @param bounds    the area the points usually are in
+     * @param cellSize  side of the grid cells; about the usual query distance
+     *                  works well
+     */
+    public GeomPointField(Envelope bounds, double cellSize)
+    {
+        super();
+
+        if (bounds.isNull())
+        {
+            throw new IllegalArgumentException("Bounds must not be empty");
+        }
+        if (!(cellSize > 0))
+        {
+            // bounds of a single point
+            cellSize = 1;
+        }
+
+        this.bounds = new Envelope(bounds);
+        originX = bounds.getMinX();
+        originY = bounds.getMinY();
+        this.cellSize = cellSize;
+        gridWidth = Math.max(1, (int) Math.ceil(bounds.getWidth() / cellSize));
+        gridHeight = Math.max(1, (int) Math.ceil(bounds.getHeight() / cellSize));
+        cellHead = new int[gridWidth * gridHeight];
+        Arrays.fill(cellHead, -1);
+
+        setMBR(new Envelope(bounds));
+    }
+
+
+
+    /**
+     * Adds the object at (x, y)
+     * <p/>
+     * @return the id of the point, valid until it is removed
+     */
+    public int add(Object object, double x, double y)
+    {
+        if (ids.containsKey(object))
+        {
+            throw new IllegalArgumentException("Object " + object + " is already in the field");
+        }
+        int cell = cell(x, y);
+
+        int id;
+        if (freeIds.numObjs > 0)
+        {
+            id = freeIds.pop();
+        }
+        else
+        {
+            id = numIds++;
+            if (id == xs.length)
+            {
+                int capacity = 2 * xs.length;
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                objects = Arrays.copyOf(objects, capacity);
+                cellOf = Arrays.copyOf(cellOf, capacity);
+                next = Arrays.copyOf(next, capacity);
+                prev = Arrays.copyOf(prev, capacity);
+            }
+        }
+
+        xs[id] = x;
+        ys[id] = y;
+        objects[id] = object;
+        link(id, cell);
+        ids.put(object, id);
+        size++;
+
+        MBR.expandToInclude(x, y);
+        return id;
+    }
+
+
+
+    /** Removes the point */
+    public void remove(int id)
+    {
+        checkId(id);
+        unlink(id);
+        cellOf[id] = -1;
+        ids.remove(objects[id]);
+        objects[id] = null;
+        freeIds.add(id);
+        size--;
+    }
+
+
+
+    /**
+     * Removes the object
+     * <p/>
+     * @return false if it is not in the field
+     */
+    public boolean remove(Object object)
+    {
+        Integer id = ids.get(object);
+        if (id == null)
+        {
+            return false;
+        }
+        remove((int) id);
+        return true;
+    }
+
+
+
+    /** Moves the point to (x, y) */
+    public void setLocation(int id, double x, double y)
+    {
+        checkId(id);
+        int cell = cell(x, y);
+        xs[id] = x;
+        ys[id] = y;
+
+        if (cell != cellOf[id])
+        {
+            unlink(id);
+            link(id, cell);
+        }
+
+        MBR.expandToInclude(x, y);
+    }
+
+
+
+    /** Removes all the points */
+    @Override
+    public void clear()
+    {
+        super.clear();
+        setMBR(new Envelope(bounds));
+
+        Arrays.fill(cellHead, -1);
+        Arrays.fill(objects, 0, numIds, null);
+        Arrays.fill(cellOf, 0, numIds, -1);
+        freeIds.clear();
+        ids.clear();
+        numIds = 0;
+        size = 0;
+    }
+
+
+
+    /** @return the number of points */
+    public int size()
+    {
+        return size;
+    }
+
+
+
+    /** @return the id of the object, or -1 if it is not in the field */
+    public int getId(Object object)
+    {
+        Integer id = ids.get(object);
+        return id == null ? -1 : id;
+    }
+
+
+
+    /** @return whether id is the id of a point of the field */
+    public boolean isValid(int id)
+    {
+        return id >= 0 && id < numIds && cellOf[id] >= 0;
+    }
+
+
+
+    public double getX(int id)
+    {
+        checkId(id);
+        return xs[id];
+    }
+
+
+
+    public double getY(int id)
+    {
+        checkId(id);
+        return ys[id];
+    }
+
+
+
+    public Object getObject(int id)
+    {
+        checkId(id);
+        return objects[id];
+    }
+
+
+
+    /** @return the ids of all the points */
+    public IntBag getIds(IntBag result)
+    {
+        for (int id = 0; id < numIds; id++)
+        {
+            if (cellOf[id] >= 0)
+            {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+
+
+    /** @return a new JTS Point at the location of the point */
+    public Point getPoint(int id)
+    {
+        checkId(id);
+        return geomFactory.createPoint(new Coordinate(xs[id], ys[id]));
+    }
+
+
+
+    /**
+     * @return a new MasonGeometry for the point, whose user data is its
+     *         object; moving it does not move the point
+     */
+    public MasonGeometry getGeometry(int id)
+    {
+        return new MasonGeometry(getPoint(id), objects[id]);
+    }
+
+
+
+    /**
+     * Adds to result the ids of the points within the envelope
+     * <p/>
+     * @return result
+     */
+    public IntBag getIds(Envelope e, IntBag result)
+    {
+        if (e.isNull())
+        {
+            return result;
+        }
+
+        int cx0 = column(e.getMinX()), cx1 = column(e.getMaxX());
+        int cy0 = row(e.getMinY()), cy1 = row(e.getMaxY());
+        for (int cy = cy0; cy <= cy1; cy++)
+        {
+            for (int cx = cx0; cx <= cx1; cx++)
+            {
+                for (int id = cellHead[cy * gridWidth + cx]; id >= 0; id = next[id])
+                {
+                    if (e.intersects(xs[id], ys[id]))
+                    {
+                        result.add(id);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Adds to result the ids of the points within distance of (x, y)
+     * <p/>
+     * @return result
+     */
+    public IntBag getIdsWithinDistance(double x, double y, double distance, IntBag result)
+    {
+        double distanceSq = distance * distance;
+        int cx0 = column(x - distance), cx1 = column(x + distance);
+        int cy0 = row(y - distance), cy1 = row(y + distance);
+        for (int cy = cy0; cy <= cy1; cy++)
+        {
+            for (int cx = cx0; cx <= cx1; cx++)
+            {
+                for (int id = cellHead[cy * gridWidth + cx]; id >= 0; id = next[id])
+                {
+                    double dx = xs[id] - x, dy = ys[id] - y;
+                    if (dx * dx + dy * dy <= distanceSq)
+                    {
+                        result.add(id);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    /**
+     * @return the objects whose points lie within the envelope
+     */
+    public Bag queryField(Envelope e)
+    {
+        return toObjects(getIds(e, new IntBag()));
+    }
+
+
+
+    /**
+     * @return the objects whose points lie within distance of (x, y)
+     */
+    public Bag getObjectsWithinDistance(double x, double y, double distance)
+    {
+        return toObjects(getIdsWithinDistance(x, y, distance, new IntBag()));
+    }
+
+
+
+    /**
+     * @return the objects whose points lie within distance of the geometry,
+     *         following the JTS convention of the distance between closest
+     *         points
+     */
+    public Bag getObjectsWithinDistance(Geometry g, double distance)
+    {
+        if (g instanceof Point)
+        {
+            return getObjectsWithinDistance(((Point) g).getX(), ((Point) g).getY(), distance);
+        }
+
+        Envelope e = new Envelope(g.getEnvelopeInternal());
+        e.expandBy(distance);
+        IntBag candidates = getIds(e, new IntBag());
+
+        Bag result = new Bag();
+        for (int i = 0; i < candidates.numObjs; i++)
+        {
+            int id = candidates.objs[i];
+            if (g.isWithinDistance(getPoint(id), distance))
+            {
+                result.add(objects[id]);
+            }
+        }
+        return result;
+    }
+
+
+
+    /**
+     * @return the objects whose points the geometry covers, i.e. contains or
+     *         has on its boundary
+     */
+    public Bag getObjectsCoveredBy(Geometry g)
+    {
+        IntBag candidates = getIds(g.getEnvelopeInternal(), new IntBag());
+
+        Bag result = new Bag();
+        IndexedPointInAreaLocator locator = g instanceof Polygonal && candidates.numObjs > 0 ? new IndexedPointInAreaLocator(g) : null;
+        Coordinate c = new Coordinate();
+        for (int i = 0; i < candidates.numObjs; i++)
+        {
+            int id = candidates.objs[i];
+            c.x = xs[id];
+            c.y = ys[id];
+            boolean covered = locator != null ? locator.locate(c) != Location.EXTERIOR : g.covers(getPoint(id));
+            if (covered)
+            {
+                result.add(objects[id]);
+            }
+        }
+        return result;
+    }
+
+
+
+    /**
+     * @return the geometries of the field covering the point, using the
+     *         raster index of the field if it has one
+     * <p/>
+     * @see GeomVectorField#buildRasterIndex(int, int)
+     */
+    public Bag getCoveringObjects(int id, GeomVectorField field)
+    {
+        // the field uses its raster index for points, and drops geometries equal to the point
+        return field.getCoveringObjects(getPoint(id));
+    }
+
+
+
+    private Bag toObjects(IntBag ids)
+    {
+        Bag result = new Bag(ids.numObjs);
+        for (int i = 0; i < ids.numObjs; i++)
+        {
+            result.add(objects[ids.objs[i]]);
+        }
+        return result;
+    }
+
+
+
+    private int column(double x)
+    {
+        return Math.max(0, Math.min(gridWidth - 1, (int) Math.floor((x - originX) / cellSize)));
+    }
+
+
+
+    private int row(double y)
+    {
+        return Math.max(0, Math.min(gridHeight - 1, (int) Math.floor((y - originY) / cellSize)));
+    }
+
+
+
+    private int cell(double x, double y)
+    {
+        // also catches NaN, which would otherwise land in cell 0
+        if (Double.isNaN(x) || Double.isNaN(y))
+        {
+            throw new IllegalArgumentException("Invalid location (" + x + ", " + y + ")");
+        }
+        return row(y) * gridWidth + column(x);
+    }
+
+
+
+    private void link(int id, int cell)
+    {
+        cellOf[id] = cell;
+        prev[id] = -1;
+        next[id] = cellHead[cell];
+        if (next[id] >= 0)
+        {
+            prev[next[id]] = id;
+        }
+        cellHead[cell] = id;
+    }
+
+
+
+    private void unlink(int id)
+    {
+        if (prev[id] >= 0)
+        {
+            next[prev[id]] = next[id];
+        }
+        else
+        {
+            cellHead[cellOf[id]] = next[id];
+        }
+        if (next[id] >= 0)
+        {
+            prev[next[id]] = prev[id];
+        }
+    }
+
+
+
+    private void checkId(int id)
+    {
+        if (!isValid(id))
+        {
+            throw new IllegalArgumentException("No point with id " + id);
+        }
+    }
+
+}
@@ -20,10 +20,12 @@ import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.portrayal.DrawInfo2D;
 import sim.util.Bag;
+import sim.util.geo.AttributeTable;
 import sim.util.geo.AttributeValue;
 import sim.util.geo.GeometryUtilities;
 import sim.util.geo.MasonGeometry;
@@ -37,6 +39,17 @@ import sim.util.geo.MasonGeometry;
  * rectangle (MBR) is expanded to include the new object. This allows a
  * determination of the area of the field.
  * <p/>
+ * <p>Geometries flagged with MasonGeometry.isMovable, or moved with
+ * setGeometryLocation(), are kept apart in a uniform grid that is updated
+ * object by object as they move, so that the quadtree holding the static
+ * geometries never has to be rebuilt because agents moved.
+ * <p/>
+ * <p>Queries on the field may run concurrently with each other, but wait for
+ * changes to the field, including setGeometryLocation(), until their exact
+ * geometric tests are done. Agents querying the field in parallel while others
+ * move should use getSnapshot(), which can be read without any locking and
+ * offers batch queries.
+ * <p/>
  * <p>Note that the field assumes the geometries use the same coordinate system.
  */
 public class GeomVectorField extends GeomField
@@ -46,11 +59,66 @@ public class GeomVectorField extends GeomField
 
 
     /**
-     * A spatial index of all the geometries in the field.
+     * A spatial index of all the static geometries in the field.
      */
     private Quadtree spatialIndex = new Quadtree();
 
 
+    /**
+     * A spatial index of the moving geometries in the field.
+     * <p/>
+     * @see updateSpatialIndex()
+     * @see setMovingCellSize()
+     */
+    private GeometryGrid movingIndex = new GeometryGrid(0);
+
+
+    /**
+     * Is true if the cell size of movingIndex follows the MBR rather than
+     * being set by the user.
+     */
+    private boolean autoCellSize = true;
+
+
+    /**
+     * Number of cells along the larger side of the MBR when the cell size is
+     * chosen automatically.
+     */
+    private static final int AUTO_CELLS = 256;
+
+
+    /**
+     * Guards spatialIndex, movingIndex, geometries and the coordinates of moved
+     * geometries: queries take the read lock for both the index lookup and the
+     * exact tests, changes to the field the write lock.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Last published read-only view of the index, or null if getSnapshot()
+     * was never called.
+     * <p/>
+     * @see getSnapshot()
+     * @see updateSpatialIndex()
+     */
+    private volatile GeomVectorFieldSnapshot snapshot;
+
+
+    /**
+     * Packed index of the static geometries shared by the snapshots, and the
+     * value of staticModCount when it was built.
+     */
+    private PackedRTree staticTree;
+    private int staticTreeModCount;
+
+
+    /**
+     * Incremented whenever the set of static geometries changes
+     */
+    private int staticModCount = 0;
+
+
     /**
      * Redundant container of MasonGeometry used to quickly rebuild spatial
      * index and save some overhead with regards to returning all MasonGeometry.
@@ -80,16 +148,34 @@ public class GeomVectorField extends GeomField
 
 
     /**
-     * Is true if the spatial index needs to be rebuilt
+     * Is true if the quadtree needs to be rebuilt, i.e. a static geometry
+     * could not be found under its envelope because it was changed without
+     * going through setGeometryLocation()
      * <p/>
      * @see removeGeometry()
      * @see clear()
      * @see updateSpatialIndex()
-     * @see setGeometryLocation()
      */
     private boolean needToRebuildIndex = false;
 
 
+    /**
+     * Column store for the attributes of the geometries; null until
+     * getAttributeTable() is first called
+     */
+    private AttributeTable attributeTable;
+
+
+    /**
+     * Optional rasterized index for point queries, and the value of
+     * staticModCount when it was built
+     *
+     * @see buildRasterIndex()
+     */
+    private PolygonRasterIndex rasterIndex;
+    private int rasterIndexModCount;
+
+
 
     public GeomVectorField()
     {
@@ -112,13 +198,36 @@ public class GeomVectorField extends GeomField
 
     /**
      * Adds the MasonGeometry to the field and also expands the MBR
+     * <p>
+     * If g.isMovable is set, g is indexed as a moving geometry.
      */
     public void addGeometry(final MasonGeometry g)
     {
-        Envelope e = g.getGeometry().getEnvelopeInternal();
-        MBR.expandToInclude(e);
-        spatialIndex.insert(e, g);
-        geometries.add(g);
+        lock.writeLock().lock();
+        try
+        {
+            Envelope e = g.getGeometry().getEnvelopeInternal();
+            MBR.expandToInclude(e);
+            if (g.isMovable)
+            {
+                addMoving(g);
+            }
+            else
+            {
+                spatialIndex.insert(e, g);
+                staticModCount++;
+            }
+            geometries.add(g);
+
+            if (attributeTable != null)
+            {
+                attributeTable.add(g);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
     }
 
 
@@ -126,18 +235,36 @@ public class GeomVectorField extends GeomField
     /**
      * Removes the given geometry
      * <p>
-     * <em>NOTE:</em> removing geometry can be computationally expensive as the
-     * significant chunks of the spatial index may have to be rebuilt depending
-     * on the removed geometry. Therefore the spatial index is not updated to
-     * reflect that the geometry no longer exists. You must explicitly invoke
-     * updateSpatialIndex() to get the spatial index in sync.
+     * The geometry is removed from the spatial index right away, unless it is
+     * a static geometry that was changed without going through
+     * setGeometryLocation(); it then remains in the index until the next
+     * updateSpatialIndex().
      */
     public void removeGeometry(final MasonGeometry g)
     {
-//        spatialIndex.remove(g.getGeometry().getEnvelopeInternal(), g);
-        geometries.remove(g); // TODO: O(n); maybe store Bag index w/ g?
+        lock.writeLock().lock();
+        try
+        {
+            geometries.remove(g); // TODO: O(n); maybe store Bag index w/ g?
 
-        needToRebuildIndex = true;
+            if (attributeTable != null)
+            {
+                attributeTable.remove(g);
+            }
+
+            if (!movingIndex.remove(g))
+            {
+                if (!spatialIndex.remove(g.getGeometry().getEnvelopeInternal(), g))
+                {
+                    needToRebuildIndex = true;
+                }
+                staticModCount++;
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
     }
 
 
@@ -148,11 +275,26 @@ public class GeomVectorField extends GeomField
     @Override
     public void clear()
     {
-        super.clear();
-        spatialIndex = new Quadtree();
-        geometries.clear();
+        lock.writeLock().lock();
+        try
+        {
+            super.clear();
+            spatialIndex = new Quadtree();
+            movingIndex.clear();
+            geometries.clear();
 
-        needToRebuildIndex = false;
+            if (attributeTable != null)
+            {
+                attributeTable.clear();
+            }
+
+            needToRebuildIndex = false;
+            staticModCount++;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
     }
 
 
@@ -255,26 +397,34 @@ public class GeomVectorField extends GeomField
      * @return all the geometries that intersect the provided envelope; will be
      *         empty if none intersect
      */
-    public synchronized Bag queryField(Envelope e)
+    public Bag queryField(Envelope e)
     {
-        List<?> gList = spatialIndex.query(e);
-        Bag geometries = new Bag(gList.size());
-
-        // However, the JTS QuadTree query is a little sloppy, which means it
-        // may return objects that are still outside the range.  We need to do
-        // a second pass to trim out the objects that are further than distance.
-
-        for (int i = 0; i < gList.size(); i++)
+        lock.readLock().lock();
+        try
         {
-            MasonGeometry tempGeometry = (MasonGeometry) gList.get(i);
+            List<?> gList = query(e);
+            Bag geometries = new Bag(gList.size());
+
+            // However, the JTS QuadTree query is a little sloppy, which means it
+            // may return objects that are still outside the range.  We need to do
+            // a second pass to trim out the objects that are further than distance.
 
-            if (e.intersects(tempGeometry.getGeometry().getEnvelopeInternal()))
+            for (int i = 0; i < gList.size(); i++)
             {
-                geometries.add(tempGeometry);
+                MasonGeometry tempGeometry = (MasonGeometry) gList.get(i);
+
+                if (e.intersects(tempGeometry.getGeometry().getEnvelopeInternal()))
+                {
+                    geometries.add(tempGeometry);
+                }
             }
-        }
 
-        return geometries;
+            return geometries;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
 
@@ -300,27 +450,36 @@ public class GeomVectorField extends GeomField
      */
     public Bag getObjectsWithinDistance(final Geometry g, final double dist)
     {
-        Bag nearbyObjects = new Bag();
-        Envelope e = g.getEnvelopeInternal();
-        e.expandBy(dist);
-
-        List<?> gList = spatialIndex.query(e);
+        lock.readLock().lock();
+        try
+        {
+            Bag nearbyObjects = new Bag();
+            // expand a copy, as g caches its own envelope
+            Envelope e = new Envelope(g.getEnvelopeInternal());
+            e.expandBy(dist);
 
-        // However, the JTS QuadTree query is a little sloppy, which means it
-        // may return objects that are still outside the range.  We need to do
-        // a second pass to trim out the objects that are further than distance.
+            List<?> gList = query(e);
 
-        for (int i = 0; i < gList.size(); i++)
-        {
-            MasonGeometry tempGeometry = (MasonGeometry) gList.get(i);
+            // However, the JTS QuadTree query is a little sloppy, which means it
+            // may return objects that are still outside the range.  We need to do
+            // a second pass to trim out the objects that are further than distance.
 
-            if (g.isWithinDistance(tempGeometry.getGeometry(), dist))
+            for (int i = 0; i < gList.size(); i++)
             {
-                nearbyObjects.add(tempGeometry);
+                MasonGeometry tempGeometry = (MasonGeometry) gList.get(i);
+
+                if (g.isWithinDistance(tempGeometry.getGeometry(), dist))
+                {
+                    nearbyObjects.add(tempGeometry);
+                }
             }
-        }
 
-        return nearbyObjects;
+            return nearbyObjects;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
 
@@ -339,19 +498,35 @@ public class GeomVectorField extends GeomField
      */
     public final Bag getCoveringObjects(final Geometry g)
     {
-        Bag coveringObjects = new Bag();
-        Envelope e = g.getEnvelopeInternal();
-        List<?> gList = spatialIndex.query(e);
-        for (int i = 0; i < gList.size(); i++)
+        lock.readLock().lock();
+        try
         {
-            MasonGeometry gm = (MasonGeometry) gList.get(i);
-            Geometry g1 = gm.getGeometry();
-            if (!g.equals(g1) && g1.covers(g))
+            Bag coveringObjects = new Bag();
+
+            PolygonRasterIndex raster = getRasterIndex();
+            if (raster != null && g instanceof Point)
+            {
+                raster.getCoveringObjects(((Point) g).getX(), ((Point) g).getY(), coveringObjects);
+                return removeEqual(coveringObjects, g);
+            }
+
+            Envelope e = g.getEnvelopeInternal();
+            List<?> gList = query(e);
+            for (int i = 0; i < gList.size(); i++)
             {
-                coveringObjects.add(gm);
+                MasonGeometry gm = (MasonGeometry) gList.get(i);
+                Geometry g1 = gm.getGeometry();
+                if (!g.equals(g1) && g1.covers(g))
+                {
+                    coveringObjects.add(gm);
+                }
             }
+            return coveringObjects;
+        }
+        finally
+        {
+            lock.readLock().unlock();
         }
-        return coveringObjects;
     }
 
 
@@ -373,23 +548,31 @@ public class GeomVectorField extends GeomField
      */
     public final Bag getCoveredObjects(MasonGeometry g)
     {
-        Bag coveringObjects = new Bag();
-
-        if (g.preparedGeometry == null)
+        lock.readLock().lock();
+        try
         {
-            g.preparedGeometry = PreparedGeometryFactory.prepare(g.getGeometry());
-        }
+            Bag coveringObjects = new Bag();
 
-        for (int i = 0; i < geometries.size(); i++)
-        {
-            MasonGeometry gm = (MasonGeometry) geometries.get(i);
-            Geometry g1 = gm.getGeometry();
-            if (g.preparedGeometry.covers(g1))
+            if (g.preparedGeometry == null)
             {
-                coveringObjects.add(gm);
+                g.preparedGeometry = PreparedGeometryFactory.prepare(g.getGeometry());
             }
+
+            for (int i = 0; i < geometries.size(); i++)
+            {
+                MasonGeometry gm = (MasonGeometry) geometries.get(i);
+                Geometry g1 = gm.getGeometry();
+                if (g.preparedGeometry.covers(g1))
+                {
+                    coveringObjects.add(gm);
+                }
+            }
+            return coveringObjects;
+        }
+        finally
+        {
+            lock.readLock().unlock();
         }
-        return coveringObjects;
     }
 
 
@@ -402,19 +585,35 @@ public class GeomVectorField extends GeomField
      */
     public final Bag getContainingObjects(final Geometry g)
     {
-        Bag containingObjects = new Bag();
-        Envelope e = g.getEnvelopeInternal();
-        List<?> gList = spatialIndex.query(e);
-        for (int i = 0; i < gList.size(); i++)
+        lock.readLock().lock();
+        try
         {
-            MasonGeometry gm = (MasonGeometry) gList.get(i);
-            Geometry g1 = gm.getGeometry();
-            if (!g.equals(g1) && g1.contains(g))
+            Bag containingObjects = new Bag();
+
+            PolygonRasterIndex raster = getRasterIndex();
+            if (raster != null && g instanceof Point)
+            {
+                raster.getContainingObjects(((Point) g).getX(), ((Point) g).getY(), containingObjects);
+                return removeEqual(containingObjects, g);
+            }
+
+            Envelope e = g.getEnvelopeInternal();
+            List<?> gList = query(e);
+            for (int i = 0; i < gList.size(); i++)
             {
-                containingObjects.add(gm);
+                MasonGeometry gm = (MasonGeometry) gList.get(i);
+                Geometry g1 = gm.getGeometry();
+                if (!g.equals(g1) && g1.contains(g))
+                {
+                    containingObjects.add(gm);
+                }
             }
+            return containingObjects;
+        }
+        finally
+        {
+            lock.readLock().unlock();
         }
-        return containingObjects;
     }
 
 
@@ -433,26 +632,34 @@ public class GeomVectorField extends GeomField
      */
     public final Bag getTouchingObjects(MasonGeometry mg)
     {
-        Bag touchingObjects = new Bag();
-        Envelope e = mg.getGeometry().getEnvelopeInternal();
-        e.expandBy(java.lang.Math.max(e.getHeight(), e.getWidth()) * 0.01);
-        List<?> gList = spatialIndex.query(e);
-
-        if (mg.preparedGeometry == null)
+        lock.readLock().lock();
+        try
         {
-            mg.preparedGeometry = PreparedGeometryFactory.prepare(mg.getGeometry());
-        }
+            Bag touchingObjects = new Bag();
+            Envelope e = new Envelope(mg.getGeometry().getEnvelopeInternal());
+            e.expandBy(java.lang.Math.max(e.getHeight(), e.getWidth()) * 0.01);
+            List<?> gList = query(e);
 
-        for (int i = 0; i < gList.size(); i++)
-        {
-            MasonGeometry gm = (MasonGeometry) gList.get(i);
-            Geometry g1 = gm.getGeometry();
-            if (!mg.equals(gm) && mg.getGeometry().touches(g1))
+            if (mg.preparedGeometry == null)
+            {
+                mg.preparedGeometry = PreparedGeometryFactory.prepare(mg.getGeometry());
+            }
+
+            for (int i = 0; i < gList.size(); i++)
             {
-                touchingObjects.add(gm);
+                MasonGeometry gm = (MasonGeometry) gList.get(i);
+                Geometry g1 = gm.getGeometry();
+                if (!mg.equals(gm) && mg.getGeometry().touches(g1))
+                {
+                    touchingObjects.add(gm);
+                }
             }
+            return touchingObjects;
+        }
+        finally
+        {
+            lock.readLock().unlock();
         }
-        return touchingObjects;
     }
 
 
@@ -465,22 +672,30 @@ public class GeomVectorField extends GeomField
      */
     public boolean isCovered(MasonGeometry g)
     {
-        Envelope e = g.getGeometry().getEnvelopeInternal();
-        List<?> gList = spatialIndex.query(e);
-        if (g.preparedGeometry == null)
+        lock.readLock().lock();
+        try
         {
-            g.preparedGeometry = PreparedGeometryFactory.prepare(g.getGeometry());
-        }
+            Envelope e = g.getGeometry().getEnvelopeInternal();
+            List<?> gList = query(e);
+            if (g.preparedGeometry == null)
+            {
+                g.preparedGeometry = PreparedGeometryFactory.prepare(g.getGeometry());
+            }
 
-        for (int i = 0; i < gList.size(); i++)
-        {
-            Geometry g1 = ((MasonGeometry) gList.get(i)).getGeometry();
-            if (!g.equals(g1) && g.preparedGeometry.covers(g1))
+            for (int i = 0; i < gList.size(); i++)
             {
-                return true;
+                Geometry g1 = ((MasonGeometry) gList.get(i)).getGeometry();
+                if (!g.equals(g1) && g.preparedGeometry.covers(g1))
+                {
+                    return true;
+                }
             }
+            return false;
+        }
+        finally
+        {
+            lock.readLock().unlock();
         }
-        return false;
     }
 
 
@@ -494,18 +709,98 @@ public class GeomVectorField extends GeomField
      */
     public boolean isCovered(final Coordinate point)
     {
-        Envelope e = new Envelope(point);
-        List<?> gList = spatialIndex.query(e);
-        PreparedPoint p = new PreparedPoint(geomFactory.createPoint(point));
-        for (int i = 0; i < gList.size(); i++)
+        lock.readLock().lock();
+        try
         {
-            Geometry g1 = ((MasonGeometry) gList.get(i)).getGeometry();
-            if (p.intersects(g1))
+            PolygonRasterIndex raster = getRasterIndex();
+            if (raster != null)
+            {
+                return raster.isCovered(point.x, point.y);
+            }
+
+            Envelope e = new Envelope(point);
+            List<?> gList = query(e);
+            PreparedPoint p = new PreparedPoint(geomFactory.createPoint(point));
+            for (int i = 0; i < gList.size(); i++)
             {
-                return true;
+                Geometry g1 = ((MasonGeometry) gList.get(i)).getGeometry();
+                if (p.intersects(g1))
+                {
+                    return true;
+                }
             }
+            return false;
         }
-        return false;
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+
+    /**
+     * Rasterizes the geometries of the field into a width by height grid over
+     * the MBR, which getContainingObjects(), getCoveringObjects() and
+     * isCovered() then use for points, down to an array lookup for points
+     * well inside a polygon. Results are the same as without it.
+     * <p>
+     * The index is used until geometries are added or removed, and only while
+     * there are no moving geometries; it must then be built again.
+     * <p/>
+     * @return the index
+     */
+    public PolygonRasterIndex buildRasterIndex(int width, int height)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            rasterIndex = new PolygonRasterIndex(geometries, MBR, width, height);
+            rasterIndexModCount = staticModCount;
+            return rasterIndex;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+
+    /**
+     * @return the index built by buildRasterIndex(), or null if there is
+     *         none, or it no longer matches the geometries of the field
+     */
+    public PolygonRasterIndex getRasterIndex()
+    {
+        lock.readLock().lock();
+        try
+        {
+            if (rasterIndex != null && rasterIndexModCount == staticModCount && movingIndex.size() == 0)
+            {
+                return rasterIndex;
+            }
+            return null;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+
+    /** Drops the geometries equal to g from the bag, as the exact queries do */
+    private static Bag removeEqual(Bag bag, Geometry g)
+    {
+        for (int i = bag.numObjs - 1; i >= 0; i--)
+        {
+            if (g.equals(((MasonGeometry) bag.objs[i]).getGeometry()))
+            {
+                bag.remove(i);
+            }
+        }
+        return bag;
     }
 
 
@@ -531,53 +826,265 @@ public class GeomVectorField extends GeomField
     /**
      * Moves the centroid of the given geometry to the provided point.
      * <p>
-     * <em>Note</em> that the spatial index is not notified of the geometry
-     * changes. It is strongly recommended that updateSpatialIndex() be invoked
-     * after all geometry position changes.
+     * The spatial index is updated for this geometry only. A static geometry
+     * moved this way is from then on indexed as a moving geometry.
      * <p/>
      * @see GeomVectorField#updateSpatialIndex()
      */
     public void setGeometryLocation(MasonGeometry g, CoordinateSequenceFilter p)
     {
-        MasonGeometry g1 = findGeometry(g);
-        if (g1 != null)
+        lock.writeLock().lock();
+        try
         {
-            // 1/8/2013, spatial index no longer updated; use updateSpatialIndex()
-//             spatialIndex.remove(g1.getGeometry().getEnvelopeInternal(), g1);
-            g1.geometry.apply(p);
-            g1.geometry.geometryChanged();
-//             spatialIndex.insert(g1.geometry.getEnvelopeInternal(), g1);
+            MasonGeometry g1 = findGeometry(g);
+            if (g1 != null)
+            {
+                if (!movingIndex.contains(g1))
+                {
+                    // promote to the moving geometries, if indexed at all
+                    if (spatialIndex.remove(g1.getGeometry().getEnvelopeInternal(), g1))
+                    {
+                        addMoving(g1);
+                    }
+                    else
+                    {
+                        needToRebuildIndex = true;
+                    }
+                    staticModCount++;
+                }
+
+                g1.geometry.apply(p);
+                g1.geometry.geometryChanged();
+                movingIndex.update(g1);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
         }
-
-        needToRebuildIndex = true;
     }
 
 
 
     /**
-     * Rebuild the spatial index from the current set of geometry
+     * Bring the spatial index up to date with the current set of geometry
      * <p>
-     * If the objects contained in this field have moved, then the spatial index
-     * will have to be updated. This is done by replacing the current spatial
-     * index with an entirely new one built from the same stored geometry.
+     * Moving geometries whose location was changed directly, rather than
+     * through setGeometryLocation(), are re-indexed; this only costs time
+     * proportional to the number of moving geometries. The quadtree of static
+     * geometries is only rebuilt if a static geometry changed behind the
+     * field's back and was then removed or moved.
+     * <p>
+     * Once getSnapshot() has been called, this also publishes a new snapshot
+     * of the index.
      */
     public void updateSpatialIndex()
     {
-        if (needToRebuildIndex)
+        lock.writeLock().lock();
+        try
         {
-            spatialIndex = new Quadtree();
+            if (needToRebuildIndex)
+            {
+                GeometryGrid oldMovingIndex = movingIndex;
+                spatialIndex = new Quadtree();
+                movingIndex = new GeometryGrid(oldMovingIndex.getCellSize());
+
+                for (int i = 0; i < geometries.size(); i++)
+                {
+                    MasonGeometry g = (MasonGeometry) geometries.get(i);
+                    if (g.isMovable || oldMovingIndex.contains(g))
+                    {
+                        addMoving(g);
+                    }
+                    else
+                    {
+                        spatialIndex.insert(g.geometry.getEnvelopeInternal(), g);
+                    }
+                }
+
+                needToRebuildIndex = false;
+                staticModCount++;
+            }
+            else
+            {
+                for (GeometryGrid.Entry entry : movingIndex.getEntries())
+                {
+                    movingIndex.update(entry);
+                }
+            }
 
-            for (int i = 0; i < geometries.size(); i++)
+            if (autoCellSize && movingIndex.size() > 0)
             {
-                spatialIndex.insert(((MasonGeometry) geometries.get(i)).geometry.getEnvelopeInternal(), geometries.get(i));
+                // follow the MBR as movers spread out
+                double target = autoCellSize();
+                double current = movingIndex.getCellSize();
+                if (current > 2 * target || current < target / 2)
+                {
+                    movingIndex.setCellSize(target);
+                }
             }
 
-            needToRebuildIndex = false;
+            if (snapshot != null)
+            {
+                snapshot = buildSnapshot();
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
         }
     }
 
 
 
+    /**
+     * Sets the size of the cells of the grid indexing the moving geometries,
+     * in the coordinate system of the field
+     * <p>
+     * It should be about the distance used by the queries. By default it is
+     * 1/256th of the larger side of the MBR.
+     */
+    public void setMovingCellSize(double cellSize)
+    {
+        if (!(cellSize > 0))
+        {
+            throw new IllegalArgumentException("Cell size must be positive, got " + cellSize);
+        }
+        lock.writeLock().lock();
+        try
+        {
+            autoCellSize = false;
+            movingIndex.setCellSize(cellSize);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+
+    public double getMovingCellSize()
+    {
+        return movingIndex.getCellSize();
+    }
+
+
+
+    private void addMoving(MasonGeometry g)
+    {
+        if (movingIndex.getCellSize() == 0)
+        {
+            movingIndex.setCellSize(autoCellSize());
+        }
+        movingIndex.insert(g);
+    }
+
+
+
+    private double autoCellSize()
+    {
+        double size = Math.max(MBR.getWidth(), MBR.getHeight()) / AUTO_CELLS;
+        return size > 0 ? size : 1.0;
+    }
+
+
+
+    /**
+     * @return candidate geometries whose envelope may intersect e, from both
+     *         the static and the moving geometries
+     */
+    private List<?> query(Envelope e)
+    {
+        lock.readLock().lock();
+        try
+        {
+            List gList = spatialIndex.query(e);
+            movingIndex.query(e, gList);
+            return gList;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+
+    /**
+     * Returns a read-only view of the spatial index as of the last
+     * updateSpatialIndex(), which can be queried from many threads without
+     * locking.
+     * <p>
+     * The first call takes the snapshot right away; from then on
+     * updateSpatialIndex() publishes a new one each time it runs, e.g. once
+     * per step with scheduleSpatialIndexUpdater(). The static geometries are
+     * packed only when they change.
+     */
+    public GeomVectorFieldSnapshot getSnapshot()
+    {
+        GeomVectorFieldSnapshot s = snapshot;
+        if (s == null)
+        {
+            lock.writeLock().lock();
+            try
+            {
+                if (snapshot == null)
+                {
+                    snapshot = buildSnapshot();
+                }
+                s = snapshot;
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+        return s;
+    }
+
+
+
+    private GeomVectorFieldSnapshot buildSnapshot()
+    {
+        if (staticTree == null || staticTreeModCount != staticModCount)
+        {
+            MasonGeometry[] items = new MasonGeometry[geometries.size() - movingIndex.size()];
+            double[] envelopes = new double[4 * items.length];
+            int n = 0;
+            for (int i = 0; i < geometries.size() && n < items.length; i++)
+            {
+                MasonGeometry g = (MasonGeometry) geometries.get(i);
+                if (!movingIndex.contains(g))
+                {
+                    items[n] = g;
+                    PackedRTree.toArray(g.getGeometry().getEnvelopeInternal(), envelopes, n);
+                    n++;
+                }
+            }
+            staticTree = new PackedRTree(items, null, envelopes, n);
+            staticTreeModCount = staticModCount;
+        }
+
+        // copy the moving geometries, so that the exact tests of the snapshot
+        // don't read them while they move
+        MasonGeometry[] items = new MasonGeometry[movingIndex.size()];
+        Geometry[] shapes = new Geometry[items.length];
+        double[] envelopes = new double[4 * items.length];
+        int n = 0;
+        for (GeometryGrid.Entry entry : movingIndex.getEntries())
+        {
+            items[n] = entry.geometry;
+            shapes[n] = (Geometry) entry.geometry.getGeometry().clone();
+            PackedRTree.toArray(shapes[n].getEnvelopeInternal(), envelopes, n);
+            n++;
+        }
+
+        return new GeomVectorFieldSnapshot(staticTree, new PackedRTree(items, shapes, envelopes, n));
+    }
+
+
+
     /**
      * Schedules a repeating Steppable that updates spatial index
      * <p>
@@ -612,9 +1119,9 @@ public class GeomVectorField extends GeomField
      * <p/>
      * @return located geometry; will return g if not found.
      */
-    public synchronized MasonGeometry findGeometry(MasonGeometry g)
+    public MasonGeometry findGeometry(MasonGeometry g)
     {
-        List<?> gList = spatialIndex.query(g.getGeometry().getEnvelopeInternal());
+        List<?> gList = query(g.getGeometry().getEnvelopeInternal());
 
         for (int i = 0; i < gList.size(); i++)
         {
@@ -670,6 +1177,42 @@ public class GeomVectorField extends GeomField
         return null;
     }
 
+
+
+    /**
+     * Returns the column store for the attributes of the geometries of this
+     * field, for fast filters and aggregations over them, e.g.
+     * getAttributeTable().selectRange("POP", 1000, 5000) or
+     * getAttributeTable().mean("AREA").
+     * <p>
+     * The first call moves the attributes of all the geometries into the
+     * table, and from then on those of the geometries added to the field; a
+     * geometry removed from the field takes its attributes back. Geometries
+     * whose attributes already are in the table of another field stay there.
+     */
+    public AttributeTable getAttributeTable()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if (attributeTable == null)
+            {
+                attributeTable = new AttributeTable();
+                for (int i = 0; i < geometries.numObjs; i++)
+                {
+                    attributeTable.add((MasonGeometry) geometries.objs[i]);
+                }
+            }
+            return attributeTable;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+
     public Envelope clipEnvelope;
     DrawInfo2D myInfo;
     public AffineTransform worldToScreen;
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.field.geo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import java.util.stream.IntStream;
+import sim.util.Bag;
+
+
+
+/**
+ * Read-only view of the spatial index of a GeomVectorField, as of the last
+ * GeomVectorField.updateSpatialIndex().
+ * <p>
+ * A snapshot never changes, so any number of threads can query it without
+ * locking, e.g. agents stepped in a ParallelSequence, while the geometries
+ * keep moving. All the tests use the geometries as they were when the
+ * snapshot was taken: the moving geometries are copied into it. The static
+ * geometries are not copied, so they must not change while the snapshot is
+ * in use, whether behind the field's back or by setGeometryLocation().
+ * <p>
+ * The batch methods take arrays of queries and fill preallocated Bags, and
+ * spread the queries over all the available cores.
+ * <p/>
+ * @see GeomVectorField#getSnapshot()
+ */
+public final class GeomVectorFieldSnapshot implements java.io.Serializable
+{
+
+    private static final long serialVersionUID = 8415370911826393346L;
+
+    private static final GeometryFactory geomFactory = new GeometryFactory();
+
+    private final PackedRTree staticTree;
+    private final PackedRTree movingTree;
+
+
+
+    GeomVectorFieldSnapshot(PackedRTree staticTree, PackedRTree movingTree)
+    {
+        this.staticTree = staticTree;
+        this.movingTree = movingTree;
+    }
+
+
+
+    /**
+     * @return the number of geometries in the snapshot
+     */
+    public int size()
+    {
+        return staticTree.size() + movingTree.size();
+    }
+
+
+
+    /**
+     * @return all the geometries whose envelope intersects the provided
+     *         envelope; will be empty if none intersect
+     */
+    public Bag queryField(Envelope e)
+    {
+        return queryField(e, new Bag());
+    }
+
+
+
+    /**
+     * Adds to result all the geometries whose envelope intersects e
+     * <p/>
+     * @return result
+     */
+    public Bag queryField(Envelope e, Bag result)
+    {
+        if (!e.isNull())
+        {
+            staticTree.query(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY(), result);
+            movingTree.query(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY(), result);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Runs queryField() for every envelope in parallel; results[i] is
+     * cleared, then receives the geometries intersecting envelopes[i].
+     */
+    public void queryField(final Envelope[] envelopes, final Bag[] results)
+    {
+        checkLengths(envelopes.length, results.length);
+
+        IntStream.range(0, envelopes.length).parallel().forEach(i ->
+        {
+            results[i].clear();
+            queryField(envelopes[i], results[i]);
+        });
+    }
+
+
+
+    /**
+     * Returns a bag containing all those objects within distance of the given
+     * geometry. The distance calculation follows the JTS convention, which
+     * determines the distance between the closest points of two geometries.
+     */
+    public Bag getObjectsWithinDistance(final Geometry g, final double dist)
+    {
+        return getObjectsWithinDistance(g, dist, new Bag());
+    }
+
+
+
+    /**
+     * Adds to result all those objects within distance of the given geometry
+     * <p/>
+     * @return result
+     */
+    public Bag getObjectsWithinDistance(final Geometry g, final double dist, final Bag result)
+    {
+        if (g instanceof Point)
+        {
+            Point p = (Point) g;
+            return getObjectsWithinDistance(p.getX(), p.getY(), dist, result);
+        }
+
+        staticTree.queryWithinDistance(g, dist, result);
+        movingTree.queryWithinDistance(g, dist, result);
+        return result;
+    }
+
+
+
+    /**
+     * Adds to result all those objects within distance of the point (x, y)
+     * <p/>
+     * @return result
+     */
+    public Bag getObjectsWithinDistance(double x, double y, double dist, Bag result)
+    {
+        Point p = geomFactory.createPoint(new Coordinate(x, y));
+        staticTree.queryWithinDistance(x, y, p, dist, result);
+        movingTree.queryWithinDistance(x, y, p, dist, result);
+        return result;
+    }
+
+
+
+    /**
+     * Finds in parallel the objects within distance of each point
+     * (xs[i], ys[i]); results[i] is cleared, then receives those objects.
+     */
+    public void getObjectsWithinDistance(final double[] xs, final double[] ys, final double dist, final Bag[] results)
+    {
+        checkLengths(xs.length, ys.length);
+        checkLengths(xs.length, results.length);
+
+        IntStream.range(0, xs.length).parallel().forEach(i ->
+        {
+            results[i].clear();
+            getObjectsWithinDistance(xs[i], ys[i], dist, results[i]);
+        });
+    }
+
+
+
+    /**
+     * Finds in parallel the objects within distance of each geometry;
+     * results[i] is cleared, then receives those objects.
+     */
+    public void getObjectsWithinDistance(final Geometry[] geometries, final double dist, final Bag[] results)
+    {
+        checkLengths(geometries.length, results.length);
+
+        IntStream.range(0, geometries.length).parallel().forEach(i ->
+        {
+            results[i].clear();
+            getObjectsWithinDistance(geometries[i], dist, results[i]);
+        });
+    }
+
+
+
+    private static void checkLengths(int queries, int results)
+    {
+        if (queries != results)
+        {
+            throw new IllegalArgumentException("Got " + queries + " queries but " + results + " result bags");
+        }
+    }
+
+}
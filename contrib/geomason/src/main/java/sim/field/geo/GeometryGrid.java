@@ -0,0 +1,364 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.field.geo;
+
+import com.vividsolutions.jts.geom.Envelope;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import sim.util.geo.MasonGeometry;
+
+
+
+/**
+ * Uniform hash grid over the envelopes of moving geometries.
+ * <p>
+ * Moving a geometry only touches the cells it leaves and enters, and nothing
+ * at all if it stays within the same cells, so the grid can be kept in sync
+ * every step at a cost proportional to the number of movers. Geometries
+ * spanning more than MAX_CELLS cells are kept in a separate list that every
+ * query scans.
+ * <p>
+ * Used by GeomVectorField for the geometries that move.
+ */
+final class GeometryGrid implements java.io.Serializable
+{
+
+    private static final long serialVersionUID = 2873606396584367813L;
+
+    private static final int MAX_CELLS = 64;
+
+
+    /**
+     * Where a geometry is indexed
+     */
+    static final class Entry implements java.io.Serializable
+    {
+        private static final long serialVersionUID = -4402393380101582839L;
+
+        final MasonGeometry geometry;
+
+        // envelope under which the geometry is indexed
+        double minX, minY, maxX, maxY;
+
+        // covered cells; x0 > x1 if the geometry is in the oversized list
+        int x0, y0, x1, y1;
+
+        Entry(MasonGeometry geometry)
+        {
+            this.geometry = geometry;
+        }
+
+        boolean intersects(Envelope e)
+        {
+            return !(e.getMinX() > maxX || e.getMaxX() < minX || e.getMinY() > maxY || e.getMaxY() < minY);
+        }
+    }
+
+
+    private double cellSize;
+
+    private HashMap<Long, ArrayList<Entry>> cells = new HashMap<Long, ArrayList<Entry>>();
+
+    private final IdentityHashMap<MasonGeometry, Entry> entries = new IdentityHashMap<MasonGeometry, Entry>();
+
+    private final ArrayList<Entry> oversized = new ArrayList<Entry>();
+
+
+
+    GeometryGrid(double cellSize)
+    {
+        this.cellSize = cellSize;
+    }
+
+
+
+    double getCellSize()
+    {
+        return cellSize;
+    }
+
+
+
+    /**
+     * Changes the cell size and re-indexes all the geometries
+     */
+    void setCellSize(double cellSize)
+    {
+        this.cellSize = cellSize;
+
+        cells = new HashMap<Long, ArrayList<Entry>>();
+        oversized.clear();
+        for (Entry entry : entries.values())
+        {
+            place(entry, entry.geometry.getGeometry().getEnvelopeInternal());
+        }
+    }
+
+
+
+    int size()
+    {
+        return entries.size();
+    }
+
+
+
+    boolean contains(MasonGeometry g)
+    {
+        return entries.containsKey(g);
+    }
+
+
+
+    Collection<Entry> getEntries()
+    {
+        return entries.values();
+    }
+
+
+
+    void insert(MasonGeometry g)
+    {
+        if (entries.containsKey(g))
+        {
+            update(g);
+            return;
+        }
+
+        Entry entry = new Entry(g);
+        entries.put(g, entry);
+        place(entry, g.getGeometry().getEnvelopeInternal());
+    }
+
+
+
+    boolean remove(MasonGeometry g)
+    {
+        Entry entry = entries.remove(g);
+        if (entry == null)
+        {
+            return false;
+        }
+
+        unplace(entry);
+        return true;
+    }
+
+
+
+    /**
+     * Re-indexes the geometry under its current envelope
+     * <p>
+     * @return true if the geometry had moved since it was last indexed
+     */
+    boolean update(MasonGeometry g)
+    {
+        Entry entry = entries.get(g);
+        if (entry == null)
+        {
+            return false;
+        }
+        return update(entry);
+    }
+
+
+
+    boolean update(Entry entry)
+    {
+        Envelope e = entry.geometry.getGeometry().getEnvelopeInternal();
+
+        if (e.getMinX() == entry.minX && e.getMinY() == entry.minY && e.getMaxX() == entry.maxX && e.getMaxY() == entry.maxY)
+        {
+            return false;
+        }
+
+        if (entry.x0 <= entry.x1
+            && cell(e.getMinX()) == entry.x0 && cell(e.getMinY()) == entry.y0
+            && cell(e.getMaxX()) == entry.x1 && cell(e.getMaxY()) == entry.y1)
+        {
+            // still in the same cells
+            setEnvelope(entry, e);
+            return true;
+        }
+
+        unplace(entry);
+        place(entry, e);
+        return true;
+    }
+
+
+
+    /**
+     * Appends to result the geometries whose indexed envelope intersects e,
+     * each exactly once.
+     */
+    void query(Envelope e, List result)
+    {
+        if (entries.isEmpty() || e.isNull())
+        {
+            return;
+        }
+
+        for (int i = 0; i < oversized.size(); i++)
+        {
+            Entry entry = oversized.get(i);
+            if (entry.intersects(e))
+            {
+                result.add(entry.geometry);
+            }
+        }
+
+        int qx0 = cell(e.getMinX()), qy0 = cell(e.getMinY());
+        int qx1 = cell(e.getMaxX()), qy1 = cell(e.getMaxY());
+
+        if ((double) (qx1 - qx0 + 1) * (qy1 - qy0 + 1) > cells.size())
+        {
+            // the query covers more cells than are occupied
+            for (Entry entry : entries.values())
+            {
+                if (entry.x0 <= entry.x1 && entry.intersects(e))
+                {
+                    result.add(entry.geometry);
+                }
+            }
+            return;
+        }
+
+        for (int x = qx0; x <= qx1; x++)
+        {
+            for (int y = qy0; y <= qy1; y++)
+            {
+                ArrayList<Entry> list = cells.get(key(x, y));
+                if (list == null)
+                {
+                    continue;
+                }
+
+                for (int i = 0; i < list.size(); i++)
+                {
+                    Entry entry = list.get(i);
+
+                    // report a geometry spanning several cells only from the
+                    // first of its cells that the query covers
+                    if (x == Math.max(entry.x0, qx0) && y == Math.max(entry.y0, qy0) && entry.intersects(e))
+                    {
+                        result.add(entry.geometry);
+                    }
+                }
+            }
+        }
+    }
+
+
+
+    void clear()
+    {
+        cells.clear();
+        entries.clear();
+        oversized.clear();
+    }
+
+
+
+    private void place(Entry entry, Envelope e)
+    {
+        setEnvelope(entry, e);
+
+        int x0 = cell(e.getMinX()), y0 = cell(e.getMinY());
+        int x1 = cell(e.getMaxX()), y1 = cell(e.getMaxY());
+
+        if ((double) (x1 - x0 + 1) * (y1 - y0 + 1) > MAX_CELLS)
+        {
+            entry.x0 = 1;
+            entry.x1 = 0;
+            oversized.add(entry);
+            return;
+        }
+
+        entry.x0 = x0;
+        entry.y0 = y0;
+        entry.x1 = x1;
+        entry.y1 = y1;
+
+        for (int x = x0; x <= x1; x++)
+        {
+            for (int y = y0; y <= y1; y++)
+            {
+                Long k = key(x, y);
+                ArrayList<Entry> list = cells.get(k);
+                if (list == null)
+                {
+                    list = new ArrayList<Entry>(4);
+                    cells.put(k, list);
+                }
+                list.add(entry);
+            }
+        }
+    }
+
+
+
+    private void unplace(Entry entry)
+    {
+        if (entry.x0 > entry.x1)
+        {
+            oversized.remove(entry);
+            return;
+        }
+
+        for (int x = entry.x0; x <= entry.x1; x++)
+        {
+            for (int y = entry.y0; y <= entry.y1; y++)
+            {
+                Long k = key(x, y);
+                ArrayList<Entry> list = cells.get(k);
+
+                // swap with the last one, order within a cell does not matter
+                int i = list.indexOf(entry);
+                int last = list.size() - 1;
+                list.set(i, list.get(last));
+                list.remove(last);
+
+                if (list.isEmpty())
+                {
+                    cells.remove(k);
+                }
+            }
+        }
+    }
+
+
+
+    private static void setEnvelope(Entry entry, Envelope e)
+    {
+        entry.minX = e.getMinX();
+        entry.minY = e.getMinY();
+        entry.maxX = e.getMaxX();
+        entry.maxY = e.getMaxY();
+    }
+
+
+
+    private int cell(double v)
+    {
+        return (int) Math.floor(v / cellSize);
+    }
+
+
+
+    private static long key(int x, int y)
+    {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.field.geo;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+import java.util.Arrays;
+import java.util.Comparator;
+import sim.util.Bag;
+import sim.util.geo.MasonGeometry;
+
+
+
+/**
+ * Immutable R-tree over geometry envelopes, bulk loaded with the
+ * Sort-Tile-Recursive algorithm and stored in flat arrays.
+ * <p>
+ * Level 0 holds the items, in STR order; each node of level l + 1 covers
+ * NODE_CAPACITY consecutive entries of level l, so the tree needs no child
+ * pointers. Since nothing changes after construction, any number of threads
+ * can query it without locking.
+ * <p>
+ * The exact distance tests use the shapes given to the constructor, which
+ * may be copies of the items' geometries taken while nothing was moving, or
+ * else the items' geometries themselves.
+ */
+final class PackedRTree implements java.io.Serializable
+{
+
+    private static final long serialVersionUID = -3261473829410628441L;
+
+    static final int NODE_CAPACITY = 16;
+
+    final MasonGeometry[] items;
+
+    // shapes used by the exact tests, in the same order as items; null to use the items' own
+    private final Geometry[] shapes;
+
+    // bounds of every entry of every level; level l starts at levelStart[l]
+    private final double[] minX, minY, maxX, maxY;
+    private final int[] levelStart;
+
+
+
+    /**
+     * @param items      geometries to index
+     * @param shapes     shape of each item for the exact tests, or null to
+     *                   use the items' geometries
+     * @param envelopes  minX, minY, maxX, maxY of each item, 4 per item
+     * @param n          number of items
+     */
+    PackedRTree(MasonGeometry[] items, Geometry[] shapes, final double[] envelopes, int n)
+    {
+        // STR: sort by center x into vertical slices, then each slice by y
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+        {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return Double.compare(envelopes[4 * a] + envelopes[4 * a + 2], envelopes[4 * b] + envelopes[4 * b + 2]);
+            }
+        });
+
+        int numLeaves = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = NODE_CAPACITY * (int) Math.ceil(Math.sqrt(numLeaves));
+        Comparator<Integer> byY = new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return Double.compare(envelopes[4 * a + 1] + envelopes[4 * a + 3], envelopes[4 * b + 1] + envelopes[4 * b + 3]);
+            }
+        };
+        for (int start = 0; start < n; start += sliceSize)
+        {
+            Arrays.sort(order, start, Math.min(n, start + sliceSize), byY);
+        }
+
+        // size of all the levels
+        int numLevels = 1;
+        int total = n;
+        for (int count = n; count > 1; numLevels++)
+        {
+            count = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            total += count;
+        }
+
+        this.items = new MasonGeometry[n];
+        this.shapes = shapes == null ? null : new Geometry[n];
+        minX = new double[total];
+        minY = new double[total];
+        maxX = new double[total];
+        maxY = new double[total];
+        levelStart = new int[numLevels + 1];
+
+        for (int i = 0; i < n; i++)
+        {
+            int k = order[i];
+            this.items[i] = items[k];
+            if (shapes != null)
+            {
+                this.shapes[i] = shapes[k];
+            }
+            minX[i] = envelopes[4 * k];
+            minY[i] = envelopes[4 * k + 1];
+            maxX[i] = envelopes[4 * k + 2];
+            maxY[i] = envelopes[4 * k + 3];
+        }
+
+        levelStart[1] = n;
+        for (int l = 1; l < numLevels; l++)
+        {
+            int childStart = levelStart[l - 1], childEnd = levelStart[l];
+            int node = childEnd;
+            for (int c = childStart; c < childEnd; c += NODE_CAPACITY, node++)
+            {
+                double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+                double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+                for (int i = c; i < Math.min(childEnd, c + NODE_CAPACITY); i++)
+                {
+                    x0 = Math.min(x0, minX[i]);
+                    y0 = Math.min(y0, minY[i]);
+                    x1 = Math.max(x1, maxX[i]);
+                    y1 = Math.max(y1, maxY[i]);
+                }
+                minX[node] = x0;
+                minY[node] = y0;
+                maxX[node] = x1;
+                maxY[node] = y1;
+            }
+            levelStart[l + 1] = node;
+        }
+    }
+
+
+
+    int size()
+    {
+        return items.length;
+    }
+
+
+
+    /**
+     * Adds to result the items whose envelope intersects the given bounds
+     */
+    void query(double x0, double y0, double x1, double y1, Bag result)
+    {
+        if (items.length == 0)
+        {
+            return;
+        }
+        int top = levelStart.length - 2;
+        query(top, levelStart[top], x0, y0, x1, y1, result);
+    }
+
+
+
+    private void query(int level, int index, double x0, double y0, double x1, double y1, Bag result)
+    {
+        if (x0 > maxX[index] || x1 < minX[index] || y0 > maxY[index] || y1 < minY[index])
+        {
+            return;
+        }
+
+        if (level == 0)
+        {
+            result.add(items[index]);
+            return;
+        }
+
+        int below = levelStart[level - 1];
+        int first = below + (index - levelStart[level]) * NODE_CAPACITY;
+        int last = Math.min(levelStart[level], first + NODE_CAPACITY);
+        for (int c = first; c < last; c++)
+        {
+            query(level - 1, c, x0, y0, x1, y1, result);
+        }
+    }
+
+
+
+    /**
+     * Adds to result the items within distance of the geometry g
+     */
+    void queryWithinDistance(Geometry g, double distance, Bag result)
+    {
+        if (items.length == 0)
+        {
+            return;
+        }
+        Envelope e = g.getEnvelopeInternal();
+        int top = levelStart.length - 2;
+        queryWithinDistance(top, levelStart[top], e.getMinX() - distance, e.getMinY() - distance,
+                            e.getMaxX() + distance, e.getMaxY() + distance, g, distance, result);
+    }
+
+
+
+    private void queryWithinDistance(int level, int index, double x0, double y0, double x1, double y1,
+                                     Geometry g, double distance, Bag result)
+    {
+        if (x0 > maxX[index] || x1 < minX[index] || y0 > maxY[index] || y1 < minY[index])
+        {
+            return;
+        }
+
+        if (level == 0)
+        {
+            if (g.isWithinDistance(getShape(index), distance))
+            {
+                result.add(items[index]);
+            }
+            return;
+        }
+
+        int below = levelStart[level - 1];
+        int first = below + (index - levelStart[level]) * NODE_CAPACITY;
+        int last = Math.min(levelStart[level], first + NODE_CAPACITY);
+        for (int c = first; c < last; c++)
+        {
+            queryWithinDistance(level - 1, c, x0, y0, x1, y1, g, distance, result);
+        }
+    }
+
+
+
+    /**
+     * Adds to result the items within distance of the point (x, y), which is
+     * also given as p for the items that aren't points
+     */
+    void queryWithinDistance(double x, double y, Geometry p, double distance, Bag result)
+    {
+        if (items.length == 0)
+        {
+            return;
+        }
+        int top = levelStart.length - 2;
+        queryWithinDistance(top, levelStart[top], x, y, p, distance, result);
+    }
+
+
+
+    private void queryWithinDistance(int level, int index, double x, double y, Geometry p, double distance, Bag result)
+    {
+        double dx = Math.max(0, Math.max(minX[index] - x, x - maxX[index]));
+        double dy = Math.max(0, Math.max(minY[index] - y, y - maxY[index]));
+        if (dx * dx + dy * dy > distance * distance)
+        {
+            return;
+        }
+
+        if (level == 0)
+        {
+            // the envelope test is exact for points; check the others
+            Geometry shape = getShape(index);
+            if (shape instanceof Point || shape.isWithinDistance(p, distance))
+            {
+                result.add(items[index]);
+            }
+            return;
+        }
+
+        int below = levelStart[level - 1];
+        int first = below + (index - levelStart[level]) * NODE_CAPACITY;
+        int last = Math.min(levelStart[level], first + NODE_CAPACITY);
+        for (int c = first; c < last; c++)
+        {
+            queryWithinDistance(level - 1, c, x, y, p, distance, result);
+        }
+    }
+
+
+
+    private Geometry getShape(int index)
+    {
+        return shapes == null ? items[index].getGeometry() : shapes[index];
+    }
+
+
+
+    static void toArray(Envelope e, double[] envelopes, int i)
+    {
+        envelopes[4 * i] = e.getMinX();
+        envelopes[4 * i + 1] = e.getMinY();
+        envelopes[4 * i + 2] = e.getMaxX();
+        envelopes[4 * i + 3] = e.getMaxY();
+    }
+
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.field.geo;
+
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.algorithm.locate.PointOnGeometryLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.Polygonal;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import sim.field.grid.IntGrid2D;
+import sim.util.Bag;
+import sim.util.geo.MasonGeometry;
+
+
+
+/**
+ * Rasterized index for finding the polygons under a point.
+ * <p>
+ * The ids of the polygons, i.e. their position in the Bag the index was built
+ * from, are burned into an IntGrid2D covering the given bounds. A cell lying
+ * entirely inside a single polygon, and touching no other, holds the id of
+ * that polygon, so that a point in it is resolved with an array lookup. A
+ * cell crossed by polygon edges, or overlapped by several polygons, keeps the
+ * list of polygons touching it, and those are tested exactly. Any other cell
+ * is EMPTY. Results are therefore the same as the exact JTS predicates; the
+ * finer the grid, the fewer exact tests are needed.
+ * <p>
+ * As with GeomGridField, cell (0, 0) is at the top left, i.e. at the minimum x
+ * and maximum y of the bounds.
+ * <p>
+ * The index does not follow later changes of the geometries. It can be
+ * queried by any number of threads at once.
+ * <p/>
+ * @see GeomVectorField#buildRasterIndex(int, int)
+ */
+public class PolygonRasterIndex implements java.io.Serializable
+{
+
+    private static final long serialVersionUID = -5204788016934226375L;
+
+    /** Cell value of cells that no geometry touches */
+    public static final int EMPTY = -1;
+
+    private static final GeometryFactory geomFactory = new GeometryFactory();
+
+    private final MasonGeometry[] geometries;
+
+    /**
+     * Id of the geometry fully covering the cell, EMPTY, or -2 - k for the
+     * k-th cell needing exact tests
+     */
+    private final IntGrid2D grid;
+
+    private final double minX, minY, maxX, maxY;
+    private final double cellWidth, cellHeight;
+
+    /** ids of the geometries to test for the k-th cell needing exact tests */
+    private final int[] candidateStart;
+    private final int[] candidates;
+
+    /** Exact point locators for the valid polygonal geometries */
+    private transient PointOnGeometryLocator[] locators;
+
+    // Lists of (geometry, kind) entries per cell, used during construction
+    private transient int[] head;
+    private transient int[] entries = new int[1024];
+    private transient int[] next = new int[1024];
+    private transient int numEntries;
+
+
+
+    /**
+     * @param geometries  the MasonGeometry objects to index
+     * @param bounds      area covered by the grid, usually the MBR of the
+     *                    geometries; points outside it are tested exactly
+     * @param width       number of columns of the grid
+     * @param height      number of rows of the grid
+     */
+    public PolygonRasterIndex(Bag geometries, Envelope bounds, int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+        {
+            throw new IllegalArgumentException("Grid size must be positive, got " + width + " x " + height);
+        }
+
+        this.geometries = new MasonGeometry[geometries.numObjs];
+        for (int i = 0; i < geometries.numObjs; i++)
+        {
+            this.geometries[i] = (MasonGeometry) geometries.objs[i];
+        }
+
+        minX = bounds.getMinX();
+        minY = bounds.getMinY();
+        maxX = bounds.getMaxX();
+        maxY = bounds.getMaxY();
+        // keep the cells non degenerate for a single point, or a line
+        cellWidth = Math.max(bounds.getWidth(), Double.MIN_NORMAL) / width;
+        cellHeight = Math.max(bounds.getHeight(), Double.MIN_NORMAL) / height;
+
+        grid = new IntGrid2D(width, height, EMPTY);
+        head = new int[width * height];
+        Arrays.fill(head, -1);
+
+        for (int id = 0; id < this.geometries.length; id++)
+        {
+            Geometry g = this.geometries[id].getGeometry();
+            if (g == null || g.isEmpty())
+            {
+                continue;
+            }
+            if (g instanceof Polygonal && g.isValid())
+            {
+                burnPolygon(id, g);
+            }
+            else
+            {
+                // lines and points cover no cell, and the inside of invalid
+                // polygons is ill defined, so test them exactly
+                markGeometry(id, g);
+            }
+        }
+
+        // turn the cell lists into grid values and candidate arrays
+        int numMixed = 0;
+        for (int cell = 0; cell < head.length; cell++)
+        {
+            if (head[cell] >= 0 && !isSingleInterior(cell))
+            {
+                numMixed++;
+            }
+        }
+
+        candidateStart = new int[numMixed + 1];
+        int numCandidates = 0;
+        for (int cell = 0, k = 0; cell < head.length; cell++)
+        {
+            if (head[cell] >= 0 && !isSingleInterior(cell))
+            {
+                for (int e = head[cell]; e >= 0; e = next[e])
+                {
+                    numCandidates++;
+                }
+                candidateStart[++k] = numCandidates;
+            }
+        }
+
+        candidates = new int[numCandidates];
+        for (int cell = 0, k = 0; cell < head.length; cell++)
+        {
+            int x = cell % width, y = cell / width;
+            if (head[cell] < 0)
+            {
+                continue;
+            }
+            if (isSingleInterior(cell))
+            {
+                grid.field[x][y] = entries[head[cell]] >> 1;
+                continue;
+            }
+
+            // the lists hold the most recent geometry first; store by id
+            int end = candidateStart[k + 1];
+            for (int e = head[cell]; e >= 0; e = next[e])
+            {
+                candidates[--end] = entries[e] >> 1;
+            }
+            grid.field[x][y] = -2 - k;
+            k++;
+        }
+
+        head = null;
+        entries = null;
+        next = null;
+
+        buildLocators();
+    }
+
+
+
+    /**
+     * @return the grid of geometry ids; see the class comment for its values
+     */
+    public IntGrid2D getGrid()
+    {
+        return grid;
+    }
+
+
+
+    /**
+     * @return the grid wrapped in a GeomGridField over the bounds, e.g. for
+     *         display
+     */
+    public GeomGridField toGridField()
+    {
+        GeomGridField field = new GeomGridField(grid);
+        field.setMBR(new Envelope(minX, maxX, minY, maxY));
+        return field;
+    }
+
+
+
+    /**
+     * @return the geometry with the given id
+     */
+    public MasonGeometry getGeometry(int id)
+    {
+        return geometries[id];
+    }
+
+
+
+    /**
+     * @return the number of indexed geometries
+     */
+    public int size()
+    {
+        return geometries.length;
+    }
+
+
+
+    /**
+     * @return the first geometry, by id, covering the point (x, y), i.e.
+     *         containing it or having it on its boundary; null if none does
+     */
+    public MasonGeometry getCoveringObject(double x, double y)
+    {
+        int id = find(x, y, true, null);
+        return id < 0 ? null : geometries[id];
+    }
+
+
+
+    /**
+     * @return true if any geometry covers the point (x, y)
+     */
+    public boolean isCovered(double x, double y)
+    {
+        return find(x, y, true, null) >= 0;
+    }
+
+
+
+    /**
+     * Adds to result the geometries covering the point (x, y), i.e.
+     * containing it or having it on their boundary
+     * <p/>
+     * @return result
+     */
+    public Bag getCoveringObjects(double x, double y, Bag result)
+    {
+        find(x, y, true, result);
+        return result;
+    }
+
+
+
+    /**
+     * Adds to result the geometries containing the point (x, y); unlike cover,
+     * contain excludes points on the boundary
+     * <p/>
+     * @return result
+     */
+    public Bag getContainingObjects(double x, double y, Bag result)
+    {
+        find(x, y, false, result);
+        return result;
+    }
+
+
+
+    /**
+     * Finds the geometries covering, or containing, the point.
+     * <p/>
+     * @param result if not null, receives all of them
+     * <p/>
+     * @return id of the first one, or -1 if none
+     */
+    private int find(double x, double y, boolean boundary, Bag result)
+    {
+        if (!(x >= minX && x <= maxX && y >= minY && y <= maxY))
+        {
+            return findOutside(x, y, boundary, result);
+        }
+
+        int value = grid.field[column(x)][row(y)];
+        if (value >= 0)
+        {
+            // cell lies in the interior of a single geometry
+            if (result != null)
+            {
+                result.add(geometries[value]);
+            }
+            return value;
+        }
+
+        int first = -1;
+        if (value != EMPTY)
+        {
+            int k = -2 - value;
+            for (int c = candidateStart[k]; c < candidateStart[k + 1]; c++)
+            {
+                int id = candidates[c];
+                if (test(id, x, y, boundary))
+                {
+                    if (first < 0)
+                    {
+                        first = id;
+                    }
+                    if (result == null)
+                    {
+                        break;
+                    }
+                    result.add(geometries[id]);
+                }
+            }
+        }
+        return first;
+    }
+
+
+
+    /** Points outside the grid are checked against every geometry */
+    private int findOutside(double x, double y, boolean boundary, Bag result)
+    {
+        int first = -1;
+        for (int id = 0; id < geometries.length; id++)
+        {
+            Geometry g = geometries[id].getGeometry();
+            if (g != null && g.getEnvelopeInternal().intersects(x, y) && test(id, x, y, boundary))
+            {
+                if (first < 0)
+                {
+                    first = id;
+                }
+                if (result == null)
+                {
+                    break;
+                }
+                result.add(geometries[id]);
+            }
+        }
+        return first;
+    }
+
+
+
+    private boolean test(int id, double x, double y, boolean boundary)
+    {
+        if (locators[id] != null)
+        {
+            int location = locators[id].locate(new Coordinate(x, y));
+            return location == Location.INTERIOR || (boundary && location == Location.BOUNDARY);
+        }
+
+        Point p = geomFactory.createPoint(new Coordinate(x, y));
+        Geometry g = geometries[id].getGeometry();
+        return boundary ? g.covers(p) : g.contains(p);
+    }
+
+
+
+    private int column(double x)
+    {
+        return Math.max(0, Math.min(grid.getWidth() - 1, (int) Math.floor((x - minX) / cellWidth)));
+    }
+
+
+
+    private int row(double y)
+    {
+        return Math.max(0, Math.min(grid.getHeight() - 1, (int) Math.floor((maxY - y) / cellHeight)));
+    }
+
+
+
+    /**
+     * Marks the cells crossed by the edges of the polygon as needing exact
+     * tests, then fills the cells whose center lies inside it, scanline by
+     * scanline. No edge goes through a filled cell, so it lies entirely
+     * inside the polygon.
+     */
+    private void burnPolygon(int id, Geometry g)
+    {
+        Envelope e = g.getEnvelopeInternal();
+        int row0 = row(e.getMaxY());
+        int row1 = row(e.getMinY());
+
+        // crossings of the edges with the horizontal line through the
+        // centers of each row
+        double[][] crossings = new double[row1 - row0 + 1][4];
+        int[] numCrossings = new int[row1 - row0 + 1];
+
+        for (int p = 0; p < g.getNumGeometries(); p++)
+        {
+            Polygon polygon = (Polygon) g.getGeometryN(p);
+            for (int r = -1; r < polygon.getNumInteriorRing(); r++)
+            {
+                Coordinate[] ring = (r < 0 ? polygon.getExteriorRing() : polygon.getInteriorRingN(r)).getCoordinates();
+                for (int i = 0; i + 1 < ring.length; i++)
+                {
+                    double ax = ring[i].x, ay = ring[i].y, bx = ring[i + 1].x, by = ring[i + 1].y;
+                    markSegment(id, ax, ay, bx, by);
+
+                    // rows whose center y satisfies min(ay, by) <= yc < max(ay, by)
+                    double low = Math.min(ay, by), high = Math.max(ay, by);
+                    int first = Math.max(row0, (int) Math.floor((maxY - high) / cellHeight - 0.5));
+                    int last = Math.min(row1, (int) Math.floor((maxY - low) / cellHeight - 0.5) + 1);
+                    for (int row = first; row <= last; row++)
+                    {
+                        double yc = maxY - (row + 0.5) * cellHeight;
+                        if ((ay > yc) != (by > yc))
+                        {
+                            int j = row - row0;
+                            if (numCrossings[j] == crossings[j].length)
+                            {
+                                crossings[j] = Arrays.copyOf(crossings[j], 2 * numCrossings[j]);
+                            }
+                            crossings[j][numCrossings[j]++] = ax + (yc - ay) * (bx - ax) / (by - ay);
+                        }
+                    }
+                }
+            }
+        }
+
+        int width = grid.getWidth();
+        for (int row = row0; row <= row1; row++)
+        {
+            int j = row - row0;
+            double[] xs = crossings[j];
+            Arrays.sort(xs, 0, numCrossings[j]);
+
+            // even-odd rule: the center line is inside between pairs
+            for (int c = 0; c + 1 < numCrossings[j]; c += 2)
+            {
+                int first = Math.max(0, (int) Math.ceil((xs[c] - minX) / cellWidth - 0.5));
+                int last = Math.min(width - 1, (int) Math.floor((xs[c + 1] - minX) / cellWidth - 0.5));
+                for (int column = first; column <= last; column++)
+                {
+                    int cell = row * width + column;
+                    if (head[cell] < 0 || entries[head[cell]] >> 1 != id)
+                    {
+                        addEntry(cell, id, true);
+                    }
+                }
+            }
+        }
+    }
+
+
+
+    /** Marks the cells crossed by the segment, with a little slack */
+    private void markSegment(int id, double ax, double ay, double bx, double by)
+    {
+        double slackY = cellHeight * 1e-6;
+        int row0 = row(Math.max(ay, by) + slackY);
+        int row1 = row(Math.min(ay, by) - slackY);
+
+        for (int row = row0; row <= row1; row++)
+        {
+            double x0, x1;
+            if (ay == by)
+            {
+                x0 = Math.min(ax, bx);
+                x1 = Math.max(ax, bx);
+            }
+            else
+            {
+                // part of the segment within the band of the row
+                double top = maxY - row * cellHeight + slackY;
+                double bottom = maxY - (row + 1) * cellHeight - slackY;
+                double t0 = Math.max(0, Math.min(1, (top - ay) / (by - ay)));
+                double t1 = Math.max(0, Math.min(1, (bottom - ay) / (by - ay)));
+                double xa = ax + t0 * (bx - ax);
+                double xb = ax + t1 * (bx - ax);
+                x0 = Math.min(xa, xb);
+                x1 = Math.max(xa, xb);
+            }
+            markColumns(id, row, x0, x1);
+        }
+    }
+
+
+
+    private void markGeometry(int id, Geometry g)
+    {
+        if (g instanceof LineString)
+        {
+            Coordinate[] line = g.getCoordinates();
+            for (int i = 0; i + 1 < line.length; i++)
+            {
+                markSegment(id, line[i].x, line[i].y, line[i + 1].x, line[i + 1].y);
+            }
+        }
+        else if (g instanceof GeometryCollection)
+        {
+            for (int i = 0; i < g.getNumGeometries(); i++)
+            {
+                markGeometry(id, g.getGeometryN(i));
+            }
+        }
+        else if (!g.isEmpty())
+        {
+            Envelope e = g.getEnvelopeInternal();
+            markRect(id, e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY());
+        }
+    }
+
+
+
+    private void markRect(int id, double x0, double y0, double x1, double y1)
+    {
+        double slackY = cellHeight * 1e-6;
+        for (int row = row(y1 + slackY); row <= row(y0 - slackY); row++)
+        {
+            markColumns(id, row, x0, x1);
+        }
+    }
+
+
+
+    private void markColumns(int id, int row, double x0, double x1)
+    {
+        double slackX = cellWidth * 1e-6;
+        int width = grid.getWidth();
+        for (int column = column(x0 - slackX); column <= column(x1 + slackX); column++)
+        {
+            int cell = row * width + column;
+            // entries of this geometry are the most recent ones of the cell
+            if (head[cell] >= 0 && entries[head[cell]] >> 1 == id)
+            {
+                continue;
+            }
+            addEntry(cell, id, false);
+        }
+    }
+
+
+
+    private void addEntry(int cell, int id, boolean interior)
+    {
+        if (numEntries == entries.length)
+        {
+            entries = Arrays.copyOf(entries, 2 * numEntries);
+            next = Arrays.copyOf(next, 2 * numEntries);
+        }
+        entries[numEntries] = (id << 1) | (interior ? 1 : 0);
+        next[numEntries] = head[cell];
+        head[cell] = numEntries++;
+    }
+
+
+
+    private boolean isSingleInterior(int cell)
+    {
+        int e = head[cell];
+        return next[e] < 0 && (entries[e] & 1) != 0;
+    }
+
+
+
+    private void buildLocators()
+    {
+        locators = new PointOnGeometryLocator[geometries.length];
+        boolean[] needed = new boolean[geometries.length];
+        for (int c = 0; c < candidates.length; c++)
+        {
+            needed[candidates[c]] = true;
+        }
+        for (int id = 0; id < geometries.length; id++)
+        {
+            Geometry g = geometries[id].getGeometry();
+            if (g instanceof Polygonal && !g.isEmpty() && needed[id] && g.isValid())
+            {
+                locators[id] = new IndexedPointInAreaLocator(g);
+            }
+        }
+    }
+
+
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        buildLocators();
+    }
+
+}
@@ -12,16 +12,22 @@ package sim.io.geo;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.stream.IntStream;
 import sim.field.geo.GeomGridField;
 import sim.field.grid.DoubleGrid2D;
 import sim.field.grid.IntGrid2D;
 
 /** Write a GeomGridField to an Arc/Grid formatted output stream.
  *
+ * Rows are formatted in parallel batches and each row is handed to the
+ * Writer in a single call.
  */
 public class ArcInfoASCGridExporter
 {
     private static final int DEFAULT_NODATA_VALUE = -9999;
+
+    /** Number of rows formatted at once before being written */
+    private static final int ROWS_PER_BATCH = 64;
     
     /**
      * Not intended to be instantiated.
@@ -66,36 +72,62 @@ public class ArcInfoASCGridExporter
         outputStream.write( "\n" );
 
 
+        final int height = gridField.getGridHeight();
+        final StringBuilder[] rows = new StringBuilder[Math.min(ROWS_PER_BATCH, height)];
+        for (int i = 0; i < rows.length; i++)
+        {
+            rows[i] = new StringBuilder();
+        }
+        char[] chars = new char[0];
+
+        for (int y = 0; y < height; y += rows.length)
+        {
+            final int first = y;
+            final int n = Math.min(rows.length, height - y);
+
+            IntStream.range(0, n).parallel().forEach(i -> formatRow(gridField, first + i, rows[i]));
+
+            for (int i = 0; i < n; i++)
+            {
+                if (chars.length < rows[i].length())
+                {
+                    chars = new char[rows[i].length()];
+                }
+                rows[i].getChars(0, rows[i].length(), chars, 0);
+                outputStream.write(chars, 0, rows[i].length());
+            }
+        }
+    }
+
+
+
+    /** Formats row y of the grid, each value followed by a space, into row
+     */
+    private static void formatRow(final GeomGridField gridField, int y, StringBuilder row)
+    {
+        row.setLength(0);
+
         switch( gridField.getGridDataType() )
         {
             case INTEGER :
                 IntGrid2D intGrid = (IntGrid2D) gridField.getGrid();
 
-                for (int y = 0; y < intGrid.getHeight(); y++)
+                for (int x = 0; x < intGrid.getWidth(); x++)
                 {
-                    for (int x = 0; x < intGrid.getWidth(); x++)
-                    {
-                        outputStream.write( Integer.toString(intGrid.get(x, y)) );
-                        outputStream.write( " " );
-                    }
-                    outputStream.write( "\n" );
+                    row.append(intGrid.field[x][y]).append(' ');
                 }
                 break;
 
             case DOUBLE :
                 DoubleGrid2D doubleGrid = (DoubleGrid2D) gridField.getGrid();
 
-                for (int y = 0; y < doubleGrid.getHeight(); y++)
+                for (int x = 0; x < doubleGrid.getWidth(); x++)
                 {
-                    for (int x = 0; x < doubleGrid.getWidth(); x++)
-                    {
-                        outputStream.write( Double.toString(doubleGrid.get(x, y)) );
-                        outputStream.write( " " );
-                    }
-                    outputStream.write( "\n" );
+                    row.append(doubleGrid.field[x][y]).append(' ');
                 }
                 break;
         }
+        row.append('\n');
     }
 
 
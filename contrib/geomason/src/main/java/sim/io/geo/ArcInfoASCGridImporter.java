@@ -1,4 +1,4 @@
-/* 
+/*
  * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
  * George Mason University Mason University Licensed under the Academic
  * Free License version 3.0
@@ -11,12 +11,20 @@
 package sim.io.geo;
 
 import com.vividsolutions.jts.geom.Envelope;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Locale;
-import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import sim.field.geo.GeomGridField;
 import sim.field.grid.AbstractGrid2D;
 import sim.field.grid.DoubleGrid2D;
@@ -26,9 +34,41 @@ import sim.field.grid.IntGrid2D;
 
 /** Importer for ESRI Arc/Info ASCII GRID formatted files
  *
+ * The cell values are parsed by hand rather than with a Scanner: the text is
+ * read in large blocks, each block is cut into pieces at whitespace, and the
+ * pieces are parsed in parallel straight into the grid's backing array.
+ *
+ * When reading from a File, the grid can also be cached in a binary sidecar
+ * file next to it, so that later runs skip parsing the text altogether.
  */
 public class ArcInfoASCGridImporter //extends GeomImporter
 {
+    /** Size of the blocks of text read from the stream at once */
+    static final int BLOCK_SIZE = 1 << 24;
+
+    /** Smallest piece of a block worth parsing in its own task */
+    static final int MIN_PIECE_SIZE = 1 << 16;
+
+    /** Identifies cache files; the last byte is the format version */
+    static final int CACHE_MAGIC = 0x41534301;
+
+    /** magic, source length and date, data type, width, height, xllcorner,
+     * yllcorner and cellsize */
+    static final int CACHE_HEADER_SIZE = 4 + 8 + 8 + 4 + 4 + 4 + 8 + 8 + 8;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+
+
     /** Not intended to be instantiated as there is no local state
      */
     private ArcInfoASCGridImporter() {}
@@ -42,48 +82,59 @@ public class ArcInfoASCGridImporter //extends GeomImporter
      * @param source is the data stream for the file
      * @param type denotes the base type as either integer or double-based
      * @param field to be populated
-     * 
-     * 
+     *
+     *
      */
     public static void read(InputStream source, final GeomGridField.GridDataType type, GeomGridField field)
     {
         try
         {
+            Block block = new Block(source);
+
+            // ncols, nrows, xllcorner, yllcorner and cellsize, then optionally
+            // NODATA_value; keywords are case insensitive
             int width = 0;
             int height = 0;
 
-            Scanner scanner = new Scanner(source);
-            scanner.useLocale(Locale.US);
-
-            scanner.next(); // skip "ncols"
-            width = scanner.nextInt();
-
-            scanner.next(); // skip "nrows"
-            height = scanner.nextInt();
-
-
             double xllcorner = 0.0; // X lower left corner
             double yllcorner = 0.0; // Y "     "    "
             double cellSize = 0.0;  // dimensions of grid cell in coordinate
                                     // system units
+            boolean center = false; // whether xllcenter and yllcenter were given
 
-            scanner.next(); // skip "xllcorner"
-            xllcorner = scanner.nextDouble();
-
-            scanner.next(); // skip "yllcorner"
-            yllcorner = scanner.nextDouble();
-
-            scanner.next(); // skip "cellsize"
-            cellSize = scanner.nextDouble();
-
-            // Skip the optional NODATA line if it exists
-            if ( scanner.hasNext("NODATA_value") )
+            while (block.nextTokenIsKeyword())
             {
-                // Have to do this twice to get past the NODATA line
-                String nextLine = scanner.nextLine();
-                nextLine = scanner.nextLine();
+                String keyword = block.nextToken().toLowerCase(Locale.US);
+                String value = block.nextToken();
+
+                if (keyword.equals("ncols"))
+                {
+                    width = Integer.parseInt(value);
+                }
+                else if (keyword.equals("nrows"))
+                {
+                    height = Integer.parseInt(value);
+                }
+                else if (keyword.equals("xllcorner") || keyword.equals("xllcenter"))
+                {
+                    xllcorner = Double.parseDouble(value);
+                    center = keyword.endsWith("center");
+                }
+                else if (keyword.equals("yllcorner") || keyword.equals("yllcenter"))
+                {
+                    yllcorner = Double.parseDouble(value);
+                }
+                else if (keyword.equals("cellsize"))
+                {
+                    cellSize = Double.parseDouble(value);
+                }
+                // else NODATA_value, or something we don't use
+            }
 
-//                System.out.println("nextLine: " + nextLine);
+            if (center)
+            {
+                xllcorner -= cellSize / 2;
+                yllcorner -= cellSize / 2;
             }
 
             // We should now be at the first line of data.  Given how the user
@@ -96,29 +147,18 @@ public class ArcInfoASCGridImporter //extends GeomImporter
             {
                 case INTEGER:
                     grid = new IntGrid2D(width, height);
-                    readIntegerBased(scanner, width, height, (IntGrid2D) grid);
+                    readValues(block, width, height, ((IntGrid2D) grid).field, null);
                     break;
                 case DOUBLE:
                     grid = new DoubleGrid2D(width, height);
-                    readDoubleBased(scanner, width, height, (DoubleGrid2D) grid);
+                    readValues(block, width, height, null, ((DoubleGrid2D) grid).field);
                     break;
             }
 
-            field.setGrid(grid);
-
-            // Before we go, ensure that we've got the MBR and cell dimensions
-            // all sorted.
-
-            field.setPixelHeight(cellSize);
-            field.setPixelWidth(cellSize);
+            setGrid(field, grid, xllcorner, yllcorner, cellSize);
 
-            Envelope MBR = new Envelope(xllcorner, xllcorner + cellSize * width,
-                                        yllcorner + cellSize * height, yllcorner);
+            source.close();
 
-            field.setMBR(MBR);
-
-            scanner.close();
-            
         } catch (IOException ex)
         {  // XXX Yes, but is this due to missing file or some other problem?
             Logger.getLogger(ArcInfoASCGridImporter.class.getName()).log(Level.SEVERE, null, ex);
@@ -127,49 +167,663 @@ public class ArcInfoASCGridImporter //extends GeomImporter
 
     }
 
-    /** Reads integer-based geospatial data from ARC/INFO ASCII GRID file
+
+
+    /** Read geospatial grid data from the given file into given field
      *
-     * intGrid2D.field populated with data found in reader.
+     * @param source is the ASCII GRID file
+     * @param type denotes the base type as either integer or double-based
+     * @param field to be populated
+     * @param useCache if true, the grid is read from the binary cache file
+     * next to source if that is up to date, and the cache is written otherwise
      *
-     * @throws IOException if problem reading data
-     * 
-     * @see read()
+     * @see #getCacheFile(java.io.File)
      */
-    private static void readIntegerBased(Scanner scanner, int width, int height, IntGrid2D intGrid2D) throws IOException
+    public static void read(File source, final GeomGridField.GridDataType type, GeomGridField field, boolean useCache)
     {
-        int currentInt;
+        File cache = getCacheFile(source);
 
-        for (int y = 0; y < height; y++)
+        try
         {
-            for (int x = 0; x < width; x++)
+            if (useCache && cache.exists() && readCache(source, cache, type, field))
             {
-                currentInt = scanner.nextInt();
-                intGrid2D.set(x, y, currentInt);
+                return;
+            }
+        } catch (IOException ex)
+        {
+            Logger.getLogger(ArcInfoASCGridImporter.class.getName()).log(Level.WARNING, "Ignoring unreadable cache " + cache, ex);
+        }
+
+        try
+        {
+            read(new FileInputStream(source), type, field);
+        } catch (IOException ex)
+        {
+            Logger.getLogger(ArcInfoASCGridImporter.class.getName()).log(Level.SEVERE, null, ex);
+            throw new RuntimeException(ex);
+        }
+
+        if (useCache)
+        {
+            try
+            {
+                writeCache(source, cache, field);
+            } catch (IOException ex)
+            {
+                // e.g. a read-only directory; the next run will just parse again
+                Logger.getLogger(ArcInfoASCGridImporter.class.getName()).log(Level.WARNING, "Could not write cache " + cache, ex);
+                cache.delete();
             }
         }
     }
-    
 
-    /** Reads real-based geospatial data from ARC/INFO ASCII GRID file
+
+
+    /**
+     * @return the binary cache file for the given ASCII GRID file, which is
+     * the same file with ".bin" appended
+     */
+    public static File getCacheFile(File source)
+    {
+        return new File(source.getPath() + ".bin");
+    }
+
+
+
+    private static boolean isSpace(byte b)
+    {
+        return b >= 0 && b <= ' ';
+    }
+
+
+
+    private static void setGrid(GeomGridField field, AbstractGrid2D grid, double xllcorner, double yllcorner, double cellSize)
+    {
+        field.setGrid(grid);
+
+        // Before we go, ensure that we've got the MBR and cell dimensions
+        // all sorted.
+
+        field.setPixelHeight(cellSize);
+        field.setPixelWidth(cellSize);
+
+        Envelope MBR = new Envelope(xllcorner, xllcorner + cellSize * grid.getWidth(),
+                                    yllcorner + cellSize * grid.getHeight(), yllcorner);
+
+        field.setMBR(MBR);
+    }
+
+
+
+    /** Reads width * height values, row by row, into ints[x][y] or doubles[x][y]
      *
-     * doubleGrid2D.field populated with data found in reader.
+     * @throws IOException if problem reading data or too few values
+     */
+    private static void readValues(Block block, int width, int height, int[][] ints, double[][] doubles) throws IOException
+    {
+        long total = (long) width * height;
+        long cell = 0;
+
+        while (cell < total)
+        {
+            int end = block.fillToTokenBoundary();
+            if (end == block.pos)
+            {
+                throw new IOException("Expected " + total + " values but found only " + cell);
+            }
+
+            cell += parseBlock(block.buf, block.pos, end, cell, total, width, ints, doubles);
+            block.pos = end;
+        }
+    }
+
+
+
+    /** Parses the values in buf[from, to), which starts and ends at token
+     * boundaries, splitting the work in pieces parsed in parallel
      *
-     * @throws IOException if problem reading data
+     * @return number of values found
+     */
+    private static long parseBlock(final byte[] buf, int from, int to, final long firstCell, final long total,
+                                   final int width, final int[][] ints, final double[][] doubles)
+    {
+        int numPieces = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, (to - from) / MIN_PIECE_SIZE));
+
+        // cut at whitespace so that no token is split
+        final int[] bounds = new int[numPieces + 1];
+        bounds[0] = from;
+        bounds[numPieces] = to;
+        for (int i = 1; i < numPieces; i++)
+        {
+            int b = Math.max(bounds[i - 1], from + (int) ((long) (to - from) * i / numPieces));
+            while (b < to && !isSpace(buf[b]))
+            {
+                b++;
+            }
+            bounds[i] = b;
+        }
+
+        final long[] counts = new long[numPieces + 1];
+        IntStream.range(0, numPieces).parallel().forEach(i -> counts[i + 1] = countTokens(buf, bounds[i], bounds[i + 1]));
+        for (int i = 0; i < numPieces; i++)
+        {
+            counts[i + 1] += counts[i];
+        }
+
+        IntStream.range(0, numPieces).parallel().forEach(i ->
+        {
+            long start = firstCell + counts[i];
+            if (start < total)
+            {
+                parsePiece(buf, bounds[i], bounds[i + 1], start, total, width, ints, doubles);
+            }
+        });
+
+        return counts[numPieces];
+    }
+
+
+
+    private static long countTokens(byte[] buf, int from, int to)
+    {
+        long count = 0;
+        boolean inToken = false;
+        for (int i = from; i < to; i++)
+        {
+            boolean space = isSpace(buf[i]);
+            if (!space && !inToken)
+            {
+                count++;
+            }
+            inToken = !space;
+        }
+        return count;
+    }
+
+
+
+    private static void parsePiece(byte[] buf, int from, int to, long cell, long total, int width, int[][] ints, double[][] doubles)
+    {
+        int x = (int) (cell % width);
+        int y = (int) (cell / width);
+
+        int i = from;
+        while (cell < total)
+        {
+            while (i < to && isSpace(buf[i]))
+            {
+                i++;
+            }
+            if (i == to)
+            {
+                return;
+            }
+            int start = i;
+            while (i < to && !isSpace(buf[i]))
+            {
+                i++;
+            }
+
+            if (ints != null)
+            {
+                ints[x][y] = parseInt(buf, start, i);
+            }
+            else
+            {
+                doubles[x][y] = parseDouble(buf, start, i);
+            }
+
+            cell++;
+            if (++x == width)
+            {
+                x = 0;
+                y++;
+            }
+        }
+    }
+
+
+
+    static int parseInt(byte[] buf, int from, int to)
+    {
+        int i = from;
+        boolean negative = buf[i] == '-';
+        if (negative || buf[i] == '+')
+        {
+            i++;
+        }
+        if (i == to || to - i > 9)
+        {
+            return Integer.parseInt(new String(buf, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+
+        int value = 0;
+        for (; i < to; i++)
+        {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return Integer.parseInt(new String(buf, from, to - from, StandardCharsets.ISO_8859_1));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+
+
+    /** Parses decimal numbers of up to 15 significant digits exactly, since
+     * both the digits and the power of ten are then exact doubles; anything
+     * else goes to Double.parseDouble()
+     */
+    static double parseDouble(byte[] buf, int from, int to)
+    {
+        int i = from;
+        boolean negative = buf[i] == '-';
+        if (negative || buf[i] == '+')
+        {
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0; // digits after the decimal point
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+
+        for (; i < to; i++)
+        {
+            int c = buf[i];
+            if (c >= '0' && c <= '9')
+            {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0')
+                {
+                    // leading zeros don't count as significant
+                    if (seenPoint)
+                    {
+                        scale++;
+                    }
+                    continue;
+                }
+                if (++digits > 15)
+                {
+                    return slowParseDouble(buf, from, to);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint)
+                {
+                    scale++;
+                }
+            }
+            else if (c == '.' && !seenPoint)
+            {
+                seenPoint = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        if (!seenDigit)
+        {
+            return slowParseDouble(buf, from, to);
+        }
+
+        if (i < to)
+        {
+            // exponent
+            if (buf[i] != 'e' && buf[i] != 'E' || i + 1 == to)
+            {
+                return slowParseDouble(buf, from, to);
+            }
+            i++;
+            boolean negativeExponent = buf[i] == '-';
+            if (negativeExponent || buf[i] == '+')
+            {
+                i++;
+            }
+            if (i == to || to - i > 3)
+            {
+                return slowParseDouble(buf, from, to);
+            }
+            int exponent = 0;
+            for (; i < to; i++)
+            {
+                int digit = buf[i] - '0';
+                if (digit < 0 || digit > 9)
+                {
+                    return slowParseDouble(buf, from, to);
+                }
+                exponent = exponent * 10 + digit;
+            }
+            scale -= negativeExponent ? -exponent : exponent;
+        }
+
+        double value;
+        if (mantissa == 0)
+        {
+            value = 0;
+        }
+        else if (scale >= 0 && scale < POWERS_OF_TEN.length)
+        {
+            value = mantissa / POWERS_OF_TEN[scale];
+        }
+        else if (scale < 0 && -scale < POWERS_OF_TEN.length)
+        {
+            value = mantissa * POWERS_OF_TEN[-scale];
+        }
+        else
+        {
+            return slowParseDouble(buf, from, to);
+        }
+        return negative ? -value : value;
+    }
+
+
+
+    private static double slowParseDouble(byte[] buf, int from, int to)
+    {
+        return Double.parseDouble(new String(buf, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+
+
+    /** Large buffer over the input stream
+     */
+    static final class Block
+    {
+        final InputStream in;
+        byte[] buf = new byte[BLOCK_SIZE];
+        int pos = 0;   // next unread byte
+        int limit = 0; // end of the valid bytes
+        boolean eof = false;
+
+
+
+        Block(InputStream in) throws IOException
+        {
+            this.in = in;
+            fill();
+        }
+
+
+
+        /** Moves the unread bytes to the front of buf and reads as many more
+         * as fit
+         */
+        void fill() throws IOException
+        {
+            if (pos > 0)
+            {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            while (!eof && limit < buf.length)
+            {
+                int n = in.read(buf, limit, buf.length - limit);
+                if (n < 0)
+                {
+                    eof = true;
+                }
+                else
+                {
+                    limit += n;
+                }
+            }
+        }
+
+
+
+        /** Refills the buffer if needed
+         *
+         * @return index just past the last complete token in the buffer
+         */
+        int fillToTokenBoundary() throws IOException
+        {
+            if (!eof)
+            {
+                fill();
+            }
+            if (eof)
+            {
+                return limit;
+            }
+
+            int end = limit;
+            while (end > pos && !isSpace(buf[end - 1]))
+            {
+                end--;
+            }
+            if (end == pos)
+            {
+                // a single token filling the whole buffer; grow it
+                buf = Arrays.copyOf(buf, buf.length * 2);
+                return fillToTokenBoundary();
+            }
+            return end;
+        }
+
+
+
+        private void skipWhitespace() throws IOException
+        {
+            while (true)
+            {
+                while (pos < limit && isSpace(buf[pos]))
+                {
+                    pos++;
+                }
+                if (pos < limit || eof)
+                {
+                    return;
+                }
+                fill();
+            }
+        }
+
+
+
+        /** Header keywords start with a letter, values do not (except for
+         * NaN and Infinity)
+         */
+        boolean nextTokenIsKeyword() throws IOException
+        {
+            skipWhitespace();
+            if (pos == limit)
+            {
+                return false;
+            }
+            int c = buf[pos] | 0x20; // lower case
+            return c >= 'a' && c <= 'z' && !startsWith("nan") && !startsWith("inf");
+        }
+
+
+
+        private boolean startsWith(String keyword)
+        {
+            if (limit - pos < keyword.length())
+            {
+                return false;
+            }
+            for (int i = 0; i < keyword.length(); i++)
+            {
+                if ((buf[pos + i] | 0x20) != keyword.charAt(i))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+
+
+        String nextToken() throws IOException
+        {
+            skipWhitespace();
+            if (pos == limit)
+            {
+                throw new IOException("Unexpected end of ASCII GRID header");
+            }
+            int start = pos;
+            while (pos < limit && !isSpace(buf[pos]))
+            {
+                pos++;
+            }
+            return new String(buf, start, pos - start, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+
+
+    /** Reads the grid from the cache file if it was written for the current
+     * contents of source and for the same data type
      *
-     * @see read()
+     * @return true if the grid was read
      */
-    private static void readDoubleBased(Scanner scanner, int width, int height, DoubleGrid2D doubleGrid2D) throws IOException
+    private static boolean readCache(File source, File cache, GeomGridField.GridDataType type, GeomGridField field) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(cache, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(CACHE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            header.flip();
+
+            if (header.getInt() != CACHE_MAGIC
+                || header.getLong() != source.length()
+                || header.getLong() != source.lastModified()
+                || header.getInt() != type.ordinal())
+            {
+                return false;
+            }
+
+            int width = header.getInt();
+            int height = header.getInt();
+            double xllcorner = header.getDouble();
+            double yllcorner = header.getDouble();
+            double cellSize = header.getDouble();
+
+            AbstractGrid2D grid;
+            ByteBuffer column;
+            if (type == GeomGridField.GridDataType.INTEGER)
+            {
+                IntGrid2D intGrid = new IntGrid2D(width, height);
+                column = ByteBuffer.allocateDirect(4 * height).order(ByteOrder.LITTLE_ENDIAN);
+                for (int x = 0; x < width; x++)
+                {
+                    column.clear();
+                    readFully(channel, column);
+                    column.flip();
+                    column.asIntBuffer().get(intGrid.field[x]);
+                }
+                grid = intGrid;
+            }
+            else
+            {
+                DoubleGrid2D doubleGrid = new DoubleGrid2D(width, height);
+                column = ByteBuffer.allocateDirect(8 * height).order(ByteOrder.LITTLE_ENDIAN);
+                for (int x = 0; x < width; x++)
+                {
+                    column.clear();
+                    readFully(channel, column);
+                    column.flip();
+                    column.asDoubleBuffer().get(doubleGrid.field[x]);
+                }
+                grid = doubleGrid;
+            }
+
+            setGrid(field, grid, xllcorner, yllcorner, cellSize);
+            return true;
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+
+    /** Writes the grid of field, column by column, to the cache file */
+    private static void writeCache(File source, File cache, GeomGridField field) throws IOException
     {
-        double currentDouble;
+        RandomAccessFile file = new RandomAccessFile(cache, "rw");
+        try
+        {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+
+            int width = field.getGridWidth();
+            int height = field.getGridHeight();
+            Envelope MBR = field.getMBR();
+
+            ByteBuffer header = ByteBuffer.allocate(CACHE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CACHE_MAGIC);
+            header.putLong(source.length());
+            header.putLong(source.lastModified());
+            header.putInt(field.getGridDataType().ordinal());
+            header.putInt(width);
+            header.putInt(height);
+            header.putDouble(MBR.getMinX());
+            header.putDouble(MBR.getMinY());
+            header.putDouble(field.getPixelWidth());
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer column;
+            if (field.getGridDataType() == GeomGridField.GridDataType.INTEGER)
+            {
+                int[][] values = ((IntGrid2D) field.getGrid()).field;
+                column = ByteBuffer.allocateDirect(4 * height).order(ByteOrder.LITTLE_ENDIAN);
+                for (int x = 0; x < width; x++)
+                {
+                    column.clear();
+                    column.asIntBuffer().put(values[x]);
+                    writeFully(channel, column);
+                }
+            }
+            else
+            {
+                double[][] values = ((DoubleGrid2D) field.getGrid()).field;
+                column = ByteBuffer.allocateDirect(8 * height).order(ByteOrder.LITTLE_ENDIAN);
+                for (int x = 0; x < width; x++)
+                {
+                    column.clear();
+                    column.asDoubleBuffer().put(values[x]);
+                    writeFully(channel, column);
+                }
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
 
-        for (int y = 0; y < height; y++)
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
         {
-            for (int x = 0; x < width; x++)
+            if (channel.read(buffer) < 0)
             {
-                currentDouble = scanner.nextDouble();
-                doubleGrid2D.set(x, y, currentDouble);
+                throw new IOException("Cache file is truncated");
             }
         }
     }
 
+
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
 }
@@ -9,23 +9,28 @@
  */
 package sim.io.geo;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import com.vividsolutions.jts.algorithm.CGAlgorithms;
 //import org.geotools.data.shapefile.ShapefileDataStore;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
@@ -40,6 +45,11 @@ import sim.util.geo.MasonGeometry;
 /**
  * A native Java importer to read ERSI shapefile data into the GeomVectorField.
  * We assume the input file follows the standard ESRI shapefile format.
+ *
+ * Local files are memory mapped and decoded in parallel batches; only the
+ * requested attributes are decoded, and records outside an optional envelope
+ * are skipped before being decoded. Other URLs, e.g. resources inside a jar,
+ * are read as streams.
  */
 public class ShapeFileImporter {
 
@@ -125,7 +135,6 @@ public class ShapeFileImporter {
 	 *
 	 */
 	private static Geometry createPolygon(final LinearRing[] parts) {
-		System.out.println("createPolygon");
 		final GeometryFactory geomFactory = new GeometryFactory();
 
 		if (parts.length == 1) {
@@ -310,11 +319,67 @@ public class ShapeFileImporter {
 
 	public static void read(final URL shpFile, final URL dbFile, final GeomVectorField field, final Bag masked,
 			final Class<?> masonGeometryClass) throws FileNotFoundException, IOException, Exception {
+		read(shpFile, dbFile, field, masked, null, masonGeometryClass);
+	}
+
+	/**
+	 * Populate field from the shape file given in fileName
+	 *
+	 * @param shpFile            to be read from
+	 * @param dbFile             to be read from
+	 * @param field              to contain read in data
+	 * @param masked             dictates the subset of attributes we want; null
+	 *                           for all
+	 * @param filter             only the geometries whose bounding box
+	 *                           intersects filter are read; null for all
+	 * @param masonGeometryClass allows us to over-ride the default MasonGeometry
+	 *                           wrapper
+	 * @throws FileNotFoundException
+	 */
+	public static void read(final URL shpFile, final URL dbFile, final GeomVectorField field, final Bag masked,
+			final Envelope filter, final Class<?> masonGeometryClass)
+			throws FileNotFoundException, IOException, Exception {
 		if (!MasonGeometry.class.isAssignableFrom(masonGeometryClass)) // Not a subclass? No go
 		{
 			throw new IllegalArgumentException("masonGeometryClass not a MasonGeometry class or subclass");
 		}
 
+		final File shp = toFile(shpFile);
+		final File db = toFile(dbFile);
+
+		if (shp == null || db == null) {
+			readStream(shpFile, dbFile, field, masked, filter, masonGeometryClass);
+			return;
+		}
+
+		try {
+			readMapped(shp, db, field, masked, filter, masonGeometryClass);
+		} catch (final IOException e) {
+			System.out.println("Error in ShapeFileImporter!!");
+			System.out.println("SHP filename: " + shp + "; DB filename: " + db);
+
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the local file the URL points to, or null if it is not a local
+	 *         file
+	 */
+	private static File toFile(final URL url) {
+		if (url == null || !"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		} catch (final URISyntaxException | IllegalArgumentException e) {
+			return new File(url.getPath());
+		}
+	}
+
+	private static void readStream(final URL shpFile, final URL dbFile, final GeomVectorField field,
+			final Bag masked, final Envelope filter, final Class<?> masonGeometryClass)
+			throws FileNotFoundException, IOException, Exception {
 		try {
 			class FieldDirEntry {
 				public String name;
@@ -378,7 +443,7 @@ public class ShapeFileImporter {
 
 				final int recordType = readInt(shpFileInputStream, true);
 
-				if (!isSupported(recordType)) {
+				if (recordType != NULL_SHAPE && !isSupported(recordType)) {
 					System.out.println("Error: ShapeFileImporter.ingest(...): ShapeType " + typeToString(recordType)
 							+ " not supported.");
 					return; // all shapes are the same type so don't bother reading any more
@@ -523,11 +588,14 @@ public class ShapeFileImporter {
 						geom = createPolygon(parts);
 					}
 					break;
+				case NULL_SHAPE:
+					// no geometry, but its attributes have been read to keep the files in step
+					break;
 				default:
 					System.err.println("Unknown shape type in " + recordType);
 				}
 
-				if (geom != null) {
+				if (geom != null && (filter == null || filter.intersects(geom.getEnvelopeInternal()))) {
 					// The user *may* have created their own MasonGeometry
 					// class, so use the given masonGeometry class; by
 					// default it's MasonGeometry.
@@ -552,6 +620,335 @@ public class ShapeFileImporter {
 		}
 	}
 
+	/** Number of records the mapped reader decodes at once, in parallel */
+	static final int BATCH_SIZE = 4096;
+
+	/** Size of the pieces the mapped reader maps files in */
+	static final int WINDOW_SIZE = 1 << 28;
+
+	/**
+	 * Part of a file mapped in memory; files larger than 2 GB cannot be mapped
+	 * in one piece, so the window is moved along the file as it is read.
+	 */
+	static class MappedWindow {
+		final FileChannel channel;
+		final long size;
+		ByteBuffer buffer;
+		long start;
+
+		MappedWindow(final FileChannel channel) throws IOException {
+			this.channel = channel;
+			size = channel.size();
+		}
+
+		boolean contains(final long pos, final long length) {
+			return buffer != null && pos >= start && pos + length <= start + buffer.limit();
+		}
+
+		/**
+		 * Maps bytes pos to pos + length - 1, moving the window if needed.
+		 *
+		 * @return the index of pos in buffer
+		 */
+		int map(final long pos, final long length) throws IOException {
+			if (!contains(pos, length)) {
+				if (pos + length > size) {
+					throw new IOException("Unexpected end of file at byte " + pos);
+				}
+				final long n = Math.min(size - pos, Math.max(length, WINDOW_SIZE));
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, n).order(ByteOrder.LITTLE_ENDIAN);
+				start = pos;
+			}
+			return (int) (pos - start);
+		}
+	}
+
+	/** Attribute column read by the mapped reader */
+	static class Column {
+		String name;
+		char type;
+		int offset; // within a row
+		int length;
+	}
+
+	private static void readMapped(final File shp, final File db, final GeomVectorField field, final Bag masked,
+			final Envelope filter, final Class<?> masonGeometryClass) throws IOException, Exception {
+		try (RandomAccessFile shpRaf = new RandomAccessFile(shp, "r");
+				RandomAccessFile dbRaf = new RandomAccessFile(db, "r")) {
+			final MappedWindow shpWindow = new MappedWindow(shpRaf.getChannel());
+			final MappedWindow dbWindow = new MappedWindow(dbRaf.getChannel());
+
+			// The dBase header is little endian; the first byte of each row is the
+			// deletion flag
+			int o = dbWindow.map(0, 32);
+			final int headerSize = dbWindow.buffer.getShort(o + 8) & 0xffff;
+			final int recordSize = dbWindow.buffer.getShort(o + 10) & 0xffff;
+
+			// Only keep the columns the user asked for
+			o = dbWindow.map(0, headerSize);
+			final ArrayList<Column> columnList = new ArrayList<Column>();
+			int offset = 1;
+			for (int p = 32; p + 32 <= headerSize && dbWindow.buffer.get(o + p) != 0x0D; p += 32) {
+				int j = 0;
+				while (j < 11 && dbWindow.buffer.get(o + p + j) != 0) {
+					j++;
+				}
+				final byte[] name = new byte[j];
+				for (int k = 0; k < j; k++) {
+					name[k] = dbWindow.buffer.get(o + p + k);
+				}
+
+				final Column column = new Column();
+				column.name = new String(name);
+				column.type = (char) dbWindow.buffer.get(o + p + 11);
+				column.offset = offset;
+				column.length = dbWindow.buffer.get(o + p + 16) & 0xff;
+				offset += column.length;
+
+				if (masked == null || masked.contains(column.name)) {
+					columnList.add(column);
+				}
+			}
+			final Column[] columns = columnList.toArray(new Column[columnList.size()]);
+
+			final GeometryFactory geomFactory = new GeometryFactory();
+			final int[] shapes = new int[BATCH_SIZE];
+			final Geometry[] geometries = new Geometry[BATCH_SIZE];
+			@SuppressWarnings("unchecked")
+			final Map<String, AttributeValue>[] attributes = new Map[BATCH_SIZE];
+
+			long pos = 100; // skip the shapefile header
+			long row = 0;
+			boolean done = false;
+
+			while (!done && pos + 8 <= shpWindow.size) {
+				// Collect the records that lie in the current window
+				int n = 0;
+				while (n < BATCH_SIZE && pos + 8 <= shpWindow.size) {
+					if (n > 0 && !shpWindow.contains(pos, 12)) {
+						break;
+					}
+
+					// record number and content length (in 16 bit words) are big endian
+					o = shpWindow.map(pos, 12);
+					final long length = 8 + 2L * (Integer.reverseBytes(shpWindow.buffer.getInt(o + 4)) & 0xffffffffL);
+					if (!shpWindow.contains(pos, length)) {
+						if (n > 0) {
+							break;
+						}
+						o = shpWindow.map(pos, length);
+					}
+
+					final int recordType = shpWindow.buffer.getInt(o + 8);
+					if (recordType != NULL_SHAPE && !isSupported(recordType)) {
+						System.out.println("Error: ShapeFileImporter.ingest(...): ShapeType " + typeToString(recordType)
+								+ " not supported.");
+						done = true; // all shapes are the same type so don't bother reading any more
+						break;
+					}
+
+					shapes[n++] = o + 8;
+					pos += length;
+				}
+
+				if (n == 0) {
+					break;
+				}
+
+				final ByteBuffer shpBuffer = shpWindow.buffer;
+				final int rows = dbWindow.map(headerSize + row * recordSize, (long) n * recordSize);
+				final ByteBuffer dbBuffer = dbWindow.buffer;
+
+				IntStream.range(0, n).parallel().forEach(i -> {
+					geometries[i] = readShape(geomFactory, shpBuffer, shapes[i], filter);
+					attributes[i] = geometries[i] == null ? null
+							: readAttributes(dbBuffer, rows + i * recordSize, columns);
+				});
+
+				for (int i = 0; i < n; i++) {
+					if (geometries[i] != null) {
+						// The user *may* have created their own MasonGeometry
+						// class, so use the given masonGeometry class; by
+						// default it's MasonGeometry.
+						final MasonGeometry masonGeometry = (MasonGeometry) masonGeometryClass.newInstance();
+						masonGeometry.geometry = geometries[i];
+
+						if (!attributes[i].isEmpty()) {
+							masonGeometry.addAttributes(attributes[i]);
+						}
+
+						field.addGeometry(masonGeometry);
+					}
+					geometries[i] = null;
+					attributes[i] = null;
+				}
+
+				row += n;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the shape starting at index o of the buffer.
+	 *
+	 * @return the shape, or null if it is a null shape or its bounding box does
+	 *         not intersect filter
+	 */
+	private static Geometry readShape(final GeometryFactory geomFactory, final ByteBuffer b, final int o,
+			final Envelope filter) {
+		final int recordType = b.getInt(o);
+
+		switch (recordType) {
+		case POINT:
+		case POINTZ: {
+			final double x = b.getDouble(o + 4);
+			final double y = b.getDouble(o + 12);
+			if (filter != null && !filter.intersects(x, y)) {
+				return null;
+			}
+			final Coordinate pt = recordType == POINT ? new Coordinate(x, y) : new Coordinate(x, y, b.getDouble(o + 20));
+			return geomFactory.createPoint(pt);
+		}
+		case POLYLINE:
+		case POLYGON: {
+			if (filter != null && (b.getDouble(o + 4) > filter.getMaxX() || b.getDouble(o + 20) < filter.getMinX()
+					|| b.getDouble(o + 12) > filter.getMaxY() || b.getDouble(o + 28) < filter.getMinY())) {
+				return null;
+			}
+
+			final int numParts = b.getInt(o + 36);
+			final int numPoints = b.getInt(o + 40);
+			final int points = o + 44 + 4 * numParts;
+
+			final Geometry[] parts = new Geometry[numParts];
+			for (int i = 0; i < numParts; i++) {
+				final int start = b.getInt(o + 44 + 4 * i);
+				final int end = (i < numParts - 1) ? b.getInt(o + 48 + 4 * i) : numPoints;
+
+				final Coordinate coords[] = new Coordinate[end - start];
+				for (int j = 0; j < coords.length; j++) {
+					final int p = points + 16 * (start + j);
+					coords[j] = new Coordinate(b.getDouble(p), b.getDouble(p + 8));
+				}
+
+				if (recordType == POLYLINE) {
+					parts[i] = geomFactory.createLineString(coords);
+				} else {
+					parts[i] = geomFactory.createLinearRing(coords);
+				}
+			}
+
+			if (recordType == POLYLINE) {
+				if (numParts == 1) {
+					return parts[0];
+				}
+				final LineString[] ls = new LineString[numParts];
+				for (int i = 0; i < numParts; i++) {
+					ls[i] = (LineString) parts[i];
+				}
+				return geomFactory.createMultiLineString(ls);
+			}
+			return createPolygon(parts);
+		}
+		default: // NULL_SHAPE
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes the given columns of the row starting at index row of the buffer,
+	 * with the same conventions as the stream reader.
+	 */
+	private static Map<String, AttributeValue> readAttributes(final ByteBuffer b, final int row,
+			final Column[] columns) {
+		final Map<String, AttributeValue> attributes = new HashMap<String, AttributeValue>(columns.length * 2);
+
+		for (final Column column : columns) {
+			// trim like String.trim()
+			int start = row + column.offset;
+			int end = start + column.length;
+			while (start < end && (b.get(start) & 0xff) <= ' ') {
+				start++;
+			}
+			while (end > start && (b.get(end - 1) & 0xff) <= ' ') {
+				end--;
+			}
+
+			final AttributeValue attributeValue = new AttributeValue();
+
+			if (start == end) {
+				attributeValue.setString("");
+			} else {
+				switch (column.type) {
+				case 'N': // Numeric
+					if (hasDot(b, start, end)) {
+						attributeValue.setDouble(Double.valueOf(ascii(b, start, end)));
+					} else {
+						attributeValue.setInteger(parseInt(b, start, end));
+					}
+					break;
+				case 'L': // Logical
+					attributeValue.setValue(Boolean.valueOf(ascii(b, start, end)));
+					break;
+				case 'F': // Float
+					attributeValue.setValue(Double.valueOf(ascii(b, start, end)));
+					break;
+				default:
+					final byte[] bytes = new byte[end - start];
+					for (int i = 0; i < bytes.length; i++) {
+						bytes[i] = b.get(start + i);
+					}
+					attributeValue.setString(new String(bytes));
+					break;
+				}
+			}
+			attributes.put(column.name, attributeValue);
+		}
+		return attributes;
+	}
+
+	private static boolean hasDot(final ByteBuffer b, final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			if (b.get(i) == '.') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String ascii(final ByteBuffer b, final int start, final int end) {
+		final byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = b.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Parses short integers without building a String; anything else goes
+	 * through Integer.valueOf(), so that errors are reported the same way.
+	 */
+	private static int parseInt(final ByteBuffer b, final int start, final int end) {
+		int i = start;
+		final boolean negative = b.get(i) == '-';
+		if (negative || b.get(i) == '+') {
+			i++;
+		}
+		if (i == end || end - i > 9) {
+			return Integer.valueOf(ascii(b, start, end));
+		}
+
+		int value = 0;
+		for (; i < end; i++) {
+			final int digit = b.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return Integer.valueOf(ascii(b, start, end));
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
 	/**
 	 * Populate field from the shape file given in fileName
 	 *
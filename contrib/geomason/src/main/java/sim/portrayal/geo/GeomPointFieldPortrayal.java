@@ -0,0 +1,186 @@
+/*
+ *
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and George Mason University Mason University Licensed
+ * under the Academic Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.portrayal.geo;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+
+import sim.display.GUIState;
+import sim.field.geo.GeomPointField;
+import sim.portrayal.*;
+import sim.portrayal.simple.OvalPortrayal2D;
+import sim.util.Bag;
+import sim.util.Double2D;
+import sim.util.IntBag;
+import sim.util.geo.GeometryUtilities;
+
+/**
+ * Portrayal for the objects of a GeomPointField.
+ *
+ * <p>
+ * Each object is drawn at its point with the SimplePortrayal2D FieldPortrayal would pick for it, an
+ * OvalPortrayal2D by default, scaled as GeomVectorFieldPortrayal scales SimplePortrayal2Ds. Only the points
+ * within the clip are visited, and no JTS object is created.
+ */
+public class GeomPointFieldPortrayal extends FieldPortrayal2D
+{
+
+	private static final long serialVersionUID = -1837925328217346491L;
+
+	/** The underlying portrayal */
+	SimplePortrayal2D defaultPortrayal = new OvalPortrayal2D();
+
+	/** Margin around the clip, in pixels, within which points are still drawn */
+	double margin = 16;
+
+	public GeomPointFieldPortrayal()
+	{
+		super();
+		setImmutableField(false);
+	}
+
+	@Override
+	public Portrayal getDefaultPortrayal()
+	{
+		return defaultPortrayal;
+	}
+
+	/**
+	 * Points up to this many pixels outside the clip are still drawn, so that objects larger than a point are not
+	 * cut off at the edges. Defaults to 16.
+	 */
+	public void setMargin(double margin)
+	{
+		this.margin = margin;
+	}
+
+	public double getMargin()
+	{
+		return margin;
+	}
+
+	/** Sets the underlying field, after ensuring its a GeomPointField. */
+	@Override
+	public void setField(Object field)
+	{
+		if (field instanceof GeomPointField)
+		{
+			super.setField(field);
+		}
+		else
+		{
+			throw new RuntimeException("Invalid field for GeomPointFieldPortrayal: " + field);
+		}
+	}
+
+	@Override
+	protected void hitOrDraw(Graphics2D graphics, DrawInfo2D info, Bag putInHere)
+	{
+		final GeomPointField pointField = (GeomPointField) field;
+		if (pointField == null || pointField.size() == 0) { return; }
+
+		AffineTransform worldToScreen = GeometryUtilities.worldToScreenTransform(pointField.getMBR(), info);
+
+		// the clip, in world coordinates
+		Point2D p1 = GeometryUtilities.screenToWorldPointTransform(worldToScreen, info.clip.x - margin, info.clip.y
+				- margin);
+		Point2D p2 = GeometryUtilities.screenToWorldPointTransform(worldToScreen, info.clip.x + info.clip.width
+				+ margin, info.clip.y + info.clip.height + margin);
+		IntBag ids = pointField.getIds(new Envelope(p1.getX(), p2.getX(), p1.getY(), p2.getY()), new IntBag());
+
+		final double xScale = pointField.getFieldWidth() > 0 ? info.draw.width / pointField.getFieldWidth() : 1;
+		final double yScale = pointField.getFieldHeight() > 0 ? info.draw.height / pointField.getFieldHeight() : 1;
+		DrawInfo2D newinfo = new DrawInfo2D(info.gui, info.fieldPortrayal, new Rectangle2D.Double(0, 0, xScale, yScale),
+				info.clip);
+		newinfo.fieldPortrayal = this;
+
+		boolean objectSelected = !selectedWrappers.isEmpty();
+		Point2D.Double screen = new Point2D.Double();
+
+		for (int i = 0; i < ids.numObjs; i++)
+		{
+			int id = ids.objs[i];
+			Object object = pointField.getObject(id);
+
+			Portrayal p = getPortrayalForObject(object);
+			if (!(p instanceof SimplePortrayal2D)) { throw new RuntimeException("Unexpected Portrayal " + p
+					+ " for object " + object + " -- expected a SimplePortrayal2D"); }
+			SimplePortrayal2D portrayal = (SimplePortrayal2D) p;
+
+			screen.setLocation(pointField.getX(id), pointField.getY(id));
+			worldToScreen.transform(screen, screen);
+			newinfo.draw.x = screen.x;
+			newinfo.draw.y = screen.y;
+
+			if (graphics == null)
+			{
+				if (portrayal.hitObject(object, newinfo))
+				{
+					putInHere.add(getWrapper(object, info.gui));
+				}
+			}
+			else
+			{
+				newinfo.selected = (objectSelected && selectedWrappers.get(object) != null);
+				portrayal.draw(object, graphics, newinfo);
+			}
+		}
+	}
+
+	/** Returns a wrapper whose location follows the object as it moves */
+	public LocationWrapper getWrapper(final Object obj, GUIState gui)
+	{
+		final GeomPointField pointField = (GeomPointField) field;
+		return new LocationWrapper(obj, null, this)
+		{
+			@Override
+			public Object getLocation()
+			{
+				int id = pointField.getId(obj);
+				return id < 0 ? null : new Double2D(pointField.getX(id), pointField.getY(id));
+			}
+
+			@Override
+			public String getLocationName()
+			{
+				Object location = getLocation();
+				return location == null ? "Gone" : location.toString();
+			}
+		};
+	}
+
+	HashMap<Object, LocationWrapper> selectedWrappers = new HashMap<Object, LocationWrapper>();
+
+	@Override
+	public boolean setSelected(LocationWrapper wrapper, boolean selected)
+	{
+		if (wrapper == null) { return true; }
+		if (wrapper.getFieldPortrayal() != this) { return true; }
+
+		Object obj = wrapper.getObject();
+		boolean b = getPortrayalForObject(obj).setSelected(wrapper, selected);
+		if (selected)
+		{
+			if (b == false) { return false; }
+			selectedWrappers.put(obj, wrapper);
+		}
+		else
+		{
+			selectedWrappers.remove(obj);
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,1033 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ *
+ */
+package sim.util.geo;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.DoublePredicate;
+import sim.util.Bag;
+
+
+
+/** Column-oriented store for the attributes of many MasonGeometry objects
+ *
+ * Each geometry in the table owns a row, and each attribute name a column.
+ * Columns whose values are all Integer, Double or String are kept in
+ * primitive arrays (strings are dictionary encoded), so a table of a million
+ * parcels needs a handful of arrays rather than a million HashMaps, and
+ * filters and aggregations over a column are simple loops over an array.
+ * A column that mixes value types falls back to an array of objects, so
+ * that each value keeps the exact type it was given.
+ *
+ * The geometries keep working as before: their attribute accessors read
+ * and write their row, and getAttributes() returns a live view of it.
+ *
+ * The methods of the table are synchronized, so agents stepping in parallel
+ * may read and change the attributes of their geometries.  But geometries
+ * should not be added to or removed from the table meanwhile, as removing a
+ * geometry moves another into its row; and the arrays returned by
+ * getIntColumn() and getDoubleColumn() are not guarded at all.
+ *
+ * @see sim.field.geo.GeomVectorField#getAttributeTable()
+ */
+public class AttributeTable implements java.io.Serializable
+{
+    private static final long serialVersionUID = 4470186318473011295L;
+
+    MasonGeometry[] rows = new MasonGeometry[16];
+    int numRows = 0;
+
+    final LinkedHashMap<String, Column> columns = new LinkedHashMap<String, Column>();
+
+
+
+    /** Moves the attributes of the geometry into a new row of the table
+     *
+     * @return false if the geometry already belongs to a table
+     */
+    public synchronized boolean add(MasonGeometry g)
+    {
+        if (g.attributeTable != null)
+        {
+            return false;
+        }
+
+        if (numRows == rows.length)
+        {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        int row = numRows++;
+        rows[row] = g;
+
+        if (g.attributes != null)
+        {
+            for (Map.Entry<String, AttributeValue> entry : g.attributes.entrySet())
+            {
+                put(row, entry.getKey(), entry.getValue().getValue(), entry.getValue().isHidden());
+            }
+        }
+
+        g.attributes = null;
+        g.attributeTable = this;
+        g.attributeRow = row;
+        return true;
+    }
+
+
+
+    /** Gives the geometry back its own attribute map and frees its row
+     *
+     * @return false if the geometry does not belong to this table
+     */
+    public synchronized boolean remove(MasonGeometry g)
+    {
+        if (g.attributeTable != this)
+        {
+            return false;
+        }
+
+        int row = g.attributeRow;
+        HashMap<String, AttributeValue> attributes = new HashMap<String, AttributeValue>();
+        for (Column column : columns.values())
+        {
+            if (column.present.get(row))
+            {
+                attributes.put(column.name, new AttributeValue(column.get(row), column.hidden.get(row)));
+            }
+        }
+
+        // move the last row into the hole
+        int last = numRows - 1;
+        for (Column column : columns.values())
+        {
+            if (row != last)
+            {
+                column.move(last, row);
+            }
+            column.clear(last);
+        }
+        rows[row] = rows[last];
+        rows[row].attributeRow = row;
+        rows[last] = null;
+        numRows--;
+
+        g.attributeTable = null;
+        g.attributeRow = -1;
+        g.attributes = attributes;
+        return true;
+    }
+
+
+
+    /** Removes all the geometries, which get their own attribute maps back */
+    public synchronized void clear()
+    {
+        while (numRows > 0)
+        {
+            remove(rows[numRows - 1]);
+        }
+        columns.clear();
+    }
+
+
+
+    /** @return number of rows, i.e. of geometries */
+    public int size()
+    {
+        return numRows;
+    }
+
+
+
+    public MasonGeometry getGeometry(int row)
+    {
+        return rows[row];
+    }
+
+
+
+    public Set<String> getColumnNames()
+    {
+        return columns.keySet();
+    }
+
+
+
+    /**
+     * @return Integer.class, Double.class or String.class if all the values of
+     * the column have that type, Object.class if they are mixed, or null if
+     * there is no such column
+     */
+    public synchronized Class<?> getColumnType(String name)
+    {
+        Column column = columns.get(name);
+        return column == null ? null : column.getType();
+    }
+
+
+
+    /**
+     * @return the values of an Integer column, indexed by row; only the first
+     * size() are meaningful, and only for rows that have the attribute
+     */
+    public synchronized int[] getIntColumn(String name)
+    {
+        Column column = columns.get(name);
+        return column instanceof IntColumn ? ((IntColumn) column).values : null;
+    }
+
+
+
+    /**
+     * @return the values of a Double column, indexed by row; only the first
+     * size() are meaningful, and only for rows that have the attribute
+     */
+    public synchronized double[] getDoubleColumn(String name)
+    {
+        Column column = columns.get(name);
+        return column instanceof DoubleColumn ? ((DoubleColumn) column).values : null;
+    }
+
+
+
+    /** @return whether the geometry in the given row has the attribute */
+    public synchronized boolean has(int row, String name)
+    {
+        Column column = columns.get(name);
+        return column != null && column.present.get(row);
+    }
+
+
+
+    /** @return the value of the attribute in the given row, or null */
+    public synchronized Object get(int row, String name)
+    {
+        Column column = columns.get(name);
+        return column != null && column.present.get(row) ? column.get(row) : null;
+    }
+
+
+
+    /** Sets the value of the attribute in the given row */
+    public synchronized void set(int row, String name, Object value)
+    {
+        Column column = columns.get(name);
+        put(row, name, value, column != null && column.hidden.get(row));
+    }
+
+
+
+    /** Geometries whose attribute equals value (which may also be given as an
+     * AttributeValue)
+     */
+    public synchronized Bag selectEquals(String name, Object value)
+    {
+        Bag result = new Bag();
+        Column column = columns.get(name);
+        if (column == null)
+        {
+            return result;
+        }
+        if (value instanceof AttributeValue)
+        {
+            value = ((AttributeValue) value).getValue();
+        }
+
+        BitSet present = column.present;
+        if (column instanceof IntColumn)
+        {
+            if (value instanceof Integer)
+            {
+                int v = (Integer) value;
+                int[] values = ((IntColumn) column).values;
+                for (int i = 0; i < numRows; i++)
+                {
+                    if (values[i] == v && present.get(i))
+                    {
+                        result.add(rows[i]);
+                    }
+                }
+            }
+        }
+        else if (column instanceof DoubleColumn)
+        {
+            if (value instanceof Double)
+            {
+                long v = Double.doubleToLongBits((Double) value);
+                double[] values = ((DoubleColumn) column).values;
+                for (int i = 0; i < numRows; i++)
+                {
+                    if (Double.doubleToLongBits(values[i]) == v && present.get(i))
+                    {
+                        result.add(rows[i]);
+                    }
+                }
+            }
+        }
+        else if (column instanceof StringColumn)
+        {
+            Integer code = ((StringColumn) column).codes.get(value);
+            if (code != null)
+            {
+                int c = code;
+                int[] values = ((StringColumn) column).values;
+                for (int i = 0; i < numRows; i++)
+                {
+                    if (values[i] == c && present.get(i))
+                    {
+                        result.add(rows[i]);
+                    }
+                }
+            }
+        }
+        else
+        {
+            Object[] values = ((ObjectColumn) column).values;
+            for (int i = 0; i < numRows; i++)
+            {
+                if (present.get(i) && Objects.equals(values[i], value))
+                {
+                    result.add(rows[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    /** Geometries whose numeric attribute lies between min and max, inclusive */
+    public Bag selectRange(String name, final double min, final double max)
+    {
+        return select(name, new DoublePredicate()
+        {
+            public boolean test(double v)
+            {
+                return v >= min && v <= max;
+            }
+        });
+    }
+
+
+
+    /** Geometries whose numeric attribute passes the test */
+    public synchronized Bag select(String name, DoublePredicate test)
+    {
+        Bag result = new Bag();
+        Column column = columns.get(name);
+        if (column == null)
+        {
+            return result;
+        }
+
+        BitSet present = column.present;
+        if (column instanceof IntColumn)
+        {
+            int[] values = ((IntColumn) column).values;
+            for (int i = 0; i < numRows; i++)
+            {
+                if (test.test(values[i]) && present.get(i))
+                {
+                    result.add(rows[i]);
+                }
+            }
+        }
+        else if (column instanceof DoubleColumn)
+        {
+            double[] values = ((DoubleColumn) column).values;
+            for (int i = 0; i < numRows; i++)
+            {
+                if (test.test(values[i]) && present.get(i))
+                {
+                    result.add(rows[i]);
+                }
+            }
+        }
+        else if (column instanceof ObjectColumn)
+        {
+            Object[] values = ((ObjectColumn) column).values;
+            for (int i = 0; i < numRows; i++)
+            {
+                if (values[i] instanceof Number && present.get(i) && test.test(((Number) values[i]).doubleValue()))
+                {
+                    result.add(rows[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    /** @return number of geometries having the attribute */
+    public synchronized int count(String name)
+    {
+        Column column = columns.get(name);
+        return column == null ? 0 : column.present.get(0, numRows).cardinality();
+    }
+
+
+
+    /** @return sum of the numeric values of the attribute */
+    public double sum(String name)
+    {
+        return aggregate(name)[0];
+    }
+
+
+
+    /** @return mean of the numeric values of the attribute, NaN if none */
+    public double mean(String name)
+    {
+        double[] a = aggregate(name);
+        return a[3] == 0 ? Double.NaN : a[0] / a[3];
+    }
+
+
+
+    /** @return smallest numeric value of the attribute, NaN if none */
+    public double min(String name)
+    {
+        double[] a = aggregate(name);
+        return a[3] == 0 ? Double.NaN : a[1];
+    }
+
+
+
+    /** @return largest numeric value of the attribute, NaN if none */
+    public double max(String name)
+    {
+        double[] a = aggregate(name);
+        return a[3] == 0 ? Double.NaN : a[2];
+    }
+
+
+
+    /** @return number of geometries for each distinct value of the attribute */
+    public synchronized Map<Object, Integer> countValues(String name)
+    {
+        HashMap<Object, Integer> counts = new HashMap<Object, Integer>();
+        Column column = columns.get(name);
+        if (column == null)
+        {
+            return counts;
+        }
+
+        if (column instanceof StringColumn)
+        {
+            // count the codes, then translate
+            StringColumn strings = (StringColumn) column;
+            int[] byCode = new int[strings.dictionary.size()];
+            for (int i = column.present.nextSetBit(0); i >= 0 && i < numRows; i = column.present.nextSetBit(i + 1))
+            {
+                byCode[strings.values[i]]++;
+            }
+            for (int c = 0; c < byCode.length; c++)
+            {
+                if (byCode[c] > 0)
+                {
+                    counts.put(strings.dictionary.get(c), byCode[c]);
+                }
+            }
+            return counts;
+        }
+
+        for (int i = column.present.nextSetBit(0); i >= 0 && i < numRows; i = column.present.nextSetBit(i + 1))
+        {
+            Object v = column.get(i);
+            Integer n = counts.get(v);
+            counts.put(v, n == null ? 1 : n + 1);
+        }
+        return counts;
+    }
+
+
+
+    /** sum, min, max and count of the numeric values of a column */
+    private synchronized double[] aggregate(String name)
+    {
+        double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        int n = 0;
+
+        Column column = columns.get(name);
+        if (column != null)
+        {
+            BitSet present = column.present;
+            for (int i = present.nextSetBit(0); i >= 0 && i < numRows; i = present.nextSetBit(i + 1))
+            {
+                double v;
+                if (column instanceof IntColumn)
+                {
+                    v = ((IntColumn) column).values[i];
+                }
+                else if (column instanceof DoubleColumn)
+                {
+                    v = ((DoubleColumn) column).values[i];
+                }
+                else if (column instanceof ObjectColumn && ((ObjectColumn) column).values[i] instanceof Number)
+                {
+                    v = ((Number) ((ObjectColumn) column).values[i]).doubleValue();
+                }
+                else
+                {
+                    continue;
+                }
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                n++;
+            }
+        }
+        return new double[] { sum, min, max, n };
+    }
+
+
+
+    synchronized void put(int row, String name, Object value, boolean hidden)
+    {
+        Column column = columns.get(name);
+        if (column == null)
+        {
+            column = newColumn(name, value);
+            columns.put(name, column);
+        }
+        else if (!column.accepts(value))
+        {
+            column = column.toObjectColumn(rows.length);
+            columns.put(name, column);
+        }
+
+        column.ensureCapacity(rows.length);
+        column.set(row, value);
+        column.present.set(row);
+        column.hidden.set(row, hidden);
+    }
+
+
+
+    synchronized boolean removeCell(int row, String name)
+    {
+        Column column = columns.get(name);
+        if (column == null || !column.present.get(row))
+        {
+            return false;
+        }
+        column.clear(row);
+        return true;
+    }
+
+
+
+    synchronized boolean isHidden(int row, String name)
+    {
+        Column column = columns.get(name);
+        return column != null && column.hidden.get(row);
+    }
+
+
+
+    synchronized void setHidden(int row, String name, boolean hidden)
+    {
+        Column column = columns.get(name);
+        if (column != null && column.present.get(row))
+        {
+            column.hidden.set(row, hidden);
+        }
+    }
+
+
+
+    /** @return the attribute in the given row, detached from the table, or null */
+    synchronized AttributeValue copy(int row, String name)
+    {
+        Column column = columns.get(name);
+        return column != null && column.present.get(row) ? new AttributeValue(column.get(row), column.hidden.get(row)) : null;
+    }
+
+
+
+    /** @return the names of the attributes the given row has */
+    synchronized ArrayList<String> getNames(int row)
+    {
+        ArrayList<String> names = new ArrayList<String>();
+        for (Column column : columns.values())
+        {
+            if (column.present.get(row))
+            {
+                names.add(column.name);
+            }
+        }
+        return names;
+    }
+
+
+
+    private static Column newColumn(String name, Object value)
+    {
+        if (value instanceof Integer)
+        {
+            return new IntColumn(name);
+        }
+        if (value instanceof Double)
+        {
+            return new DoubleColumn(name);
+        }
+        if (value instanceof String)
+        {
+            return new StringColumn(name);
+        }
+        return new ObjectColumn(name);
+    }
+
+
+
+    abstract static class Column implements java.io.Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+        final BitSet present = new BitSet();
+        final BitSet hidden = new BitSet();
+
+        Column(String name)
+        {
+            this.name = name;
+        }
+
+        abstract Class<?> getType();
+
+        /** @return whether the value can be stored without changing its type */
+        abstract boolean accepts(Object value);
+
+        abstract Object get(int row);
+
+        abstract void set(int row, Object value);
+
+        abstract void ensureCapacity(int capacity);
+
+        void move(int from, int to)
+        {
+            if (present.get(from))
+            {
+                set(to, get(from));
+            }
+            present.set(to, present.get(from));
+            hidden.set(to, hidden.get(from));
+        }
+
+        void clear(int row)
+        {
+            present.clear(row);
+            hidden.clear(row);
+        }
+
+        ObjectColumn toObjectColumn(int capacity)
+        {
+            ObjectColumn column = new ObjectColumn(name);
+            column.ensureCapacity(capacity);
+            for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1))
+            {
+                column.values[i] = get(i);
+            }
+            column.present.or(present);
+            column.hidden.or(hidden);
+            return column;
+        }
+    }
+
+
+
+    static final class IntColumn extends Column
+    {
+        private static final long serialVersionUID = 1L;
+
+        int[] values = new int[0];
+
+        IntColumn(String name)
+        {
+            super(name);
+        }
+
+        Class<?> getType()
+        {
+            return Integer.class;
+        }
+
+        boolean accepts(Object value)
+        {
+            return value instanceof Integer;
+        }
+
+        Object get(int row)
+        {
+            return values[row];
+        }
+
+        void set(int row, Object value)
+        {
+            values[row] = (Integer) value;
+        }
+
+        void ensureCapacity(int capacity)
+        {
+            if (values.length < capacity)
+            {
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+    }
+
+
+
+    static final class DoubleColumn extends Column
+    {
+        private static final long serialVersionUID = 1L;
+
+        double[] values = new double[0];
+
+        DoubleColumn(String name)
+        {
+            super(name);
+        }
+
+        Class<?> getType()
+        {
+            return Double.class;
+        }
+
+        boolean accepts(Object value)
+        {
+            return value instanceof Double;
+        }
+
+        Object get(int row)
+        {
+            return values[row];
+        }
+
+        void set(int row, Object value)
+        {
+            values[row] = (Double) value;
+        }
+
+        void ensureCapacity(int capacity)
+        {
+            if (values.length < capacity)
+            {
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+    }
+
+
+
+    /** Strings replaced by their index in a dictionary of distinct values */
+    static final class StringColumn extends Column
+    {
+        private static final long serialVersionUID = 1L;
+
+        int[] values = new int[0];
+        final ArrayList<String> dictionary = new ArrayList<String>();
+        final HashMap<Object, Integer> codes = new HashMap<Object, Integer>();
+
+        StringColumn(String name)
+        {
+            super(name);
+        }
+
+        Class<?> getType()
+        {
+            return String.class;
+        }
+
+        boolean accepts(Object value)
+        {
+            return value instanceof String;
+        }
+
+        Object get(int row)
+        {
+            return dictionary.get(values[row]);
+        }
+
+        void set(int row, Object value)
+        {
+            Integer code = codes.get(value);
+            if (code == null)
+            {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                codes.put(value, code);
+            }
+            values[row] = code;
+        }
+
+        void ensureCapacity(int capacity)
+        {
+            if (values.length < capacity)
+            {
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+    }
+
+
+
+    static final class ObjectColumn extends Column
+    {
+        private static final long serialVersionUID = 1L;
+
+        Object[] values = new Object[0];
+
+        ObjectColumn(String name)
+        {
+            super(name);
+        }
+
+        Class<?> getType()
+        {
+            return Object.class;
+        }
+
+        boolean accepts(Object value)
+        {
+            return true;
+        }
+
+        Object get(int row)
+        {
+            return values[row];
+        }
+
+        void set(int row, Object value)
+        {
+            values[row] = value;
+        }
+
+        void ensureCapacity(int capacity)
+        {
+            if (values.length < capacity)
+            {
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+
+        void clear(int row)
+        {
+            super.clear(row);
+            values[row] = null;
+        }
+    }
+
+
+
+    /** An attribute of a geometry in the table; reading or changing it reads
+     * or changes the table
+     */
+    static final class Cell extends AttributeValue
+    {
+        private static final long serialVersionUID = 1L;
+
+        final MasonGeometry geometry;
+        final String name;
+
+        Cell(MasonGeometry geometry, String name)
+        {
+            this.geometry = geometry;
+            this.name = name;
+        }
+
+        @Override
+        public Object getValue()
+        {
+            AttributeTable table = geometry.attributeTable;
+            if (table == null)
+            {
+                // the geometry has left the table since
+                AttributeValue value = geometry.attributes == null ? null : geometry.attributes.get(name);
+                return value == null ? null : value.getValue();
+            }
+            return table.get(geometry.attributeRow, name);
+        }
+
+        @Override
+        public void setValue(Object value)
+        {
+            AttributeTable table = geometry.attributeTable;
+            if (table == null)
+            {
+                geometry.addAttribute(name, value);
+                return;
+            }
+            table.set(geometry.attributeRow, name, value);
+        }
+
+        @Override
+        public boolean isHidden()
+        {
+            AttributeTable table = geometry.attributeTable;
+            if (table == null)
+            {
+                AttributeValue value = geometry.attributes == null ? null : geometry.attributes.get(name);
+                return value != null && value.isHidden();
+            }
+            return table.isHidden(geometry.attributeRow, name);
+        }
+
+        @Override
+        public void setHidden(boolean hidden)
+        {
+            AttributeTable table = geometry.attributeTable;
+            if (table == null)
+            {
+                AttributeValue value = geometry.attributes == null ? null : geometry.attributes.get(name);
+                if (value != null)
+                {
+                    value.setHidden(hidden);
+                }
+                return;
+            }
+            table.setHidden(geometry.attributeRow, name, hidden);
+        }
+    }
+
+
+
+    /** The attributes of a geometry in the table, seen as a Map */
+    static final class RowMap extends AbstractMap<String, AttributeValue> implements java.io.Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final MasonGeometry geometry;
+
+        RowMap(MasonGeometry geometry)
+        {
+            this.geometry = geometry;
+        }
+
+        @Override
+        public AttributeValue get(Object key)
+        {
+            AttributeTable table = geometry.attributeTable;
+            if (table == null)
+            {
+                return geometry.getAttributes().get(key);
+            }
+            return key instanceof String && table.has(geometry.attributeRow, (String) key) ? new Cell(geometry, (String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            AttributeTable table = geometry.attributeTable;
+            if (table == null)
+            {
+                return geometry.getAttributes().containsKey(key);
+            }
+            return key instanceof String && table.has(geometry.attributeRow, (String) key);
+        }
+
+        @Override
+        public AttributeValue put(String key, AttributeValue value)
+        {
+            AttributeTable table = geometry.attributeTable;
+            if (table == null)
+            {
+                return geometry.getAttributes().put(key, value);
+            }
+            AttributeValue old = copy(key);
+            table.put(geometry.attributeRow, key, value.getValue(), value.isHidden());
+            return old;
+        }
+
+        @Override
+        public AttributeValue remove(Object key)
+        {
+            AttributeTable table = geometry.attributeTable;
+            if (table == null)
+            {
+                return geometry.getAttributes().remove(key);
+            }
+            if (!(key instanceof String))
+            {
+                return null;
+            }
+            AttributeValue old = copy((String) key);
+            table.removeCell(geometry.attributeRow, (String) key);
+            return old;
+        }
+
+        /** Current value, detached from the table */
+        private AttributeValue copy(String key)
+        {
+            return geometry.attributeTable.copy(geometry.attributeRow, key);
+        }
+
+        @Override
+        public Set<Map.Entry<String, AttributeValue>> entrySet()
+        {
+            if (geometry.attributeTable == null)
+            {
+                return geometry.getAttributes().entrySet();
+            }
+
+            return new AbstractSet<Map.Entry<String, AttributeValue>>()
+            {
+                public int size()
+                {
+                    return geometry.attributeTable.getNames(geometry.attributeRow).size();
+                }
+
+                public Iterator<Map.Entry<String, AttributeValue>> iterator()
+                {
+                    // the names are copied, so that other threads may change the table meanwhile
+                    final Iterator<String> names = geometry.attributeTable.getNames(geometry.attributeRow).iterator();
+
+                    return new Iterator<Map.Entry<String, AttributeValue>>()
+                    {
+                        String last = null;
+
+                        public boolean hasNext()
+                        {
+                            return names.hasNext();
+                        }
+
+                        public Map.Entry<String, AttributeValue> next()
+                        {
+                            last = names.next();
+                            return new AbstractMap.SimpleImmutableEntry<String, AttributeValue>(last, new Cell(geometry, last));
+                        }
+
+                        public void remove()
+                        {
+                            if (last == null)
+                            {
+                                throw new IllegalStateException();
+                            }
+                            geometry.attributeTable.removeCell(geometry.attributeRow, last);
+                            last = null;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+}
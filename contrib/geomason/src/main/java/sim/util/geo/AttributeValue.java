@@ -85,19 +85,23 @@ public class AttributeValue implements java.io.Serializable
             return false;
         }
         
-        if (getClass() != obj.getClass())
+        // use the accessors, as values of attributes kept in an AttributeTable
+        // live in the table
+        if (!(obj instanceof AttributeValue))
         {
             return false;
         }
 
         final AttributeValue other = (AttributeValue) obj;
+        final Object value = getValue();
+        final Object otherValue = other.getValue();
 
-        if (this.value != other.value && (this.value == null || !this.value.equals(other.value)))
+        if (value != otherValue && (value == null || !value.equals(otherValue)))
         {
             return false;
         }
 
-        if (this.hidden != other.hidden)
+        if (isHidden() != other.isHidden())
         {
             return false;
         }
@@ -112,8 +116,9 @@ public class AttributeValue implements java.io.Serializable
     {
         int hash = 3;
         
-        hash = 79 * hash + (this.value != null ? this.value.hashCode() : 0);
-        hash = 79 * hash + (this.hidden ? 1 : 0);
+        final Object value = getValue();
+        hash = 79 * hash + (value != null ? value.hashCode() : 0);
+        hash = 79 * hash + (isHidden() ? 1 : 0);
 
         return hash;
     }
@@ -0,0 +1,838 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ *
+ */
+package sim.util.geo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Contraction hierarchy over a RoutingGraph
+ *
+ * Road networks are usually static for a whole run, so it pays to
+ * preprocess them once: nodes are contracted one at a time from the least
+ * to the most important, adding shortcut edges that preserve the shortest
+ * paths among the remaining nodes.  A query then only needs a bidirectional
+ * search that climbs the hierarchy from both ends, which settles a few
+ * hundred nodes even on large networks.
+ *
+ * The hierarchy is only valid for the weights it was built with; once the
+ * weights of the graph change isValid() returns false (Router then falls
+ * back to A*).  It can be written next to the shapefile the network was
+ * read from and read back on the next run, see loadOrBuild().
+ *
+ * @see Router#setContractionHierarchy(ContractionHierarchy)
+ *
+ */
+public class ContractionHierarchy
+{
+    private static final int MAGIC = 0x4d434831; // "MCH1"
+
+    // limit on the nodes settled by each witness search while building
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    final RoutingGraph graph;
+    final long fingerprint;
+    final int version;
+
+    // order in which the nodes were contracted
+    final int[] rank;
+
+    // shortcut s is edge numEdges + s of the hierarchy, from scFrom[s] to scTo[s],
+    // and stands for edge scFirst[s] followed by edge scSecond[s]
+    final int numEdges;
+    final int[] scFrom, scTo, scFirst, scSecond;
+    final double[] scWeight;
+
+    // edges from each node to higher ranked nodes
+    final int[] upStart, upTarget, upEdge;
+    final double[] upWeight;
+
+    // edges into each node from higher ranked nodes, for the backward search
+    final int[] downStart, downSource, downEdge;
+    final double[] downWeight;
+
+    final ThreadLocal<Query> scratch = new ThreadLocal<Query>()
+    {
+        protected Query initialValue()
+        {
+            return new Query(rank.length);
+        }
+    };
+
+
+
+    ContractionHierarchy(RoutingGraph graph, int[] rank, int[] scFrom, int[] scTo,
+        int[] scFirst, int[] scSecond, double[] scWeight)
+    {
+        this.graph = graph;
+        this.fingerprint = getFingerprint(graph);
+        this.version = graph.getVersion();
+        this.rank = rank;
+        this.numEdges = graph.getNumEdges();
+        this.scFrom = scFrom;
+        this.scTo = scTo;
+        this.scFirst = scFirst;
+        this.scSecond = scSecond;
+        this.scWeight = scWeight;
+
+        int n = rank.length;
+        int total = numEdges + scFrom.length;
+
+        upStart = new int[n + 1];
+        downStart = new int[n + 1];
+        for (int e = 0; e < total; e++)
+        {
+            if (rank[getFrom(e)] < rank[getTo(e)])
+            {
+                upStart[getFrom(e) + 1]++;
+            }
+            else
+            {
+                downStart[getTo(e) + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++)
+        {
+            upStart[i + 1] += upStart[i];
+            downStart[i + 1] += downStart[i];
+        }
+
+        upTarget = new int[upStart[n]];
+        upEdge = new int[upStart[n]];
+        upWeight = new double[upStart[n]];
+        downSource = new int[downStart[n]];
+        downEdge = new int[downStart[n]];
+        downWeight = new double[downStart[n]];
+
+        int[] upFill = Arrays.copyOf(upStart, n);
+        int[] downFill = Arrays.copyOf(downStart, n);
+        for (int e = 0; e < total; e++)
+        {
+            int from = getFrom(e), to = getTo(e);
+            if (rank[from] < rank[to])
+            {
+                int k = upFill[from]++;
+                upTarget[k] = to;
+                upEdge[k] = e;
+                upWeight[k] = getEdgeWeight(e);
+            }
+            else
+            {
+                int k = downFill[to]++;
+                downSource[k] = from;
+                downEdge[k] = e;
+                downWeight[k] = getEdgeWeight(e);
+            }
+        }
+    }
+
+
+
+    public RoutingGraph getGraph()
+    {
+        return graph;
+    }
+
+
+
+    /**
+     * @return false if the weights of the graph have changed since the
+     * hierarchy was built
+     */
+    public boolean isValid()
+    {
+        return graph.getVersion() == version;
+    }
+
+
+
+    public int getNumShortcuts()
+    {
+        return scFrom.length;
+    }
+
+
+
+    /** Shortest path between two node indices
+     *
+     * @return indices of the graph edges along the path, null if the goal
+     * cannot be reached
+     */
+    public int[] getEdgePath(int start, int goal)
+    {
+        Query query = scratch.get();
+        int meet = query.search(this, start, goal);
+        return meet == -1 ? null : query.path(this, start, goal, meet);
+    }
+
+
+
+    /**
+     * @return cost of the shortest path between two node indices,
+     * Double.POSITIVE_INFINITY if the goal cannot be reached
+     */
+    public double getCost(int start, int goal)
+    {
+        Query query = scratch.get();
+        int meet = query.search(this, start, goal);
+        return meet == -1 ? Double.POSITIVE_INFINITY : query.dist[meet] + query.distBack[meet];
+    }
+
+
+
+    int getFrom(int e)
+    {
+        return e < numEdges ? graph.source[e] : scFrom[e - numEdges];
+    }
+
+
+
+    int getTo(int e)
+    {
+        return e < numEdges ? graph.target[e] : scTo[e - numEdges];
+    }
+
+
+
+    double getEdgeWeight(int e)
+    {
+        return e < numEdges ? graph.weight[e] : scWeight[e - numEdges];
+    }
+
+
+
+    /** Build the hierarchy for the current weights of the graph */
+    public static ContractionHierarchy build(RoutingGraph graph)
+    {
+        return new Builder(graph).build();
+    }
+
+
+
+    /**
+     * @param shapeFile the file the network was read from
+     * @return the file the hierarchy of that network is stored in, next to
+     * the shapefile
+     */
+    public static File getFile(File shapeFile)
+    {
+        String name = shapeFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(shapeFile.getParentFile(), (dot == -1 ? name : name.substring(0, dot)) + ".ch");
+    }
+
+
+
+    /** Read the hierarchy stored for the network of the given shapefile if it
+     * matches the graph, otherwise build it and try to store it there.
+     *
+     * @param graph
+     * @param shapeFile the file the network was read from
+     */
+    public static ContractionHierarchy loadOrBuild(RoutingGraph graph, File shapeFile)
+    {
+        File file = getFile(shapeFile);
+
+        if (file.exists())
+        {
+            try
+            {
+                return read(graph, file);
+            } catch (IOException ex)
+            {
+                Logger.getLogger(ContractionHierarchy.class.getName()).log(Level.WARNING, "Rebuilding contraction hierarchy " + file, ex);
+            }
+        }
+
+        ContractionHierarchy ch = build(graph);
+
+        try
+        {
+            ch.write(file);
+        } catch (IOException ex)
+        {
+            Logger.getLogger(ContractionHierarchy.class.getName()).log(Level.WARNING, "Could not store contraction hierarchy in " + file, ex);
+        }
+
+        return ch;
+    }
+
+
+
+    public void write(File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeLong(fingerprint);
+            out.writeInt(rank.length);
+            for (int r : rank)
+            {
+                out.writeInt(r);
+            }
+            out.writeInt(scFrom.length);
+            for (int s = 0; s < scFrom.length; s++)
+            {
+                out.writeInt(scFrom[s]);
+                out.writeInt(scTo[s]);
+                out.writeInt(scFirst[s]);
+                out.writeInt(scSecond[s]);
+                out.writeDouble(scWeight[s]);
+            }
+        } finally
+        {
+            out.close();
+        }
+    }
+
+
+
+    /** Read a hierarchy written by write()
+     *
+     * @throws IOException if the file is not a hierarchy or was built for a
+     * different graph or different weights
+     */
+    public static ContractionHierarchy read(RoutingGraph graph, File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try
+        {
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a contraction hierarchy");
+            }
+            if (in.readLong() != getFingerprint(graph))
+            {
+                throw new IOException(file + " was built for a different network");
+            }
+
+            int[] rank = new int[in.readInt()];
+            for (int i = 0; i < rank.length; i++)
+            {
+                rank[i] = in.readInt();
+            }
+
+            int numShortcuts = in.readInt();
+            int[] scFrom = new int[numShortcuts], scTo = new int[numShortcuts];
+            int[] scFirst = new int[numShortcuts], scSecond = new int[numShortcuts];
+            double[] scWeight = new double[numShortcuts];
+            for (int s = 0; s < numShortcuts; s++)
+            {
+                scFrom[s] = in.readInt();
+                scTo[s] = in.readInt();
+                scFirst[s] = in.readInt();
+                scSecond[s] = in.readInt();
+                scWeight[s] = in.readDouble();
+            }
+
+            return new ContractionHierarchy(graph, rank, scFrom, scTo, scFirst, scSecond, scWeight);
+        } finally
+        {
+            in.close();
+        }
+    }
+
+
+
+    /** Hash of the topology, coordinates and weights of the graph */
+    static long getFingerprint(RoutingGraph graph)
+    {
+        long h = 0xcbf29ce484222325L;
+
+        h = mix(h, graph.getNumNodes());
+        h = mix(h, graph.getNumEdges());
+        for (int i = 0; i < graph.getNumNodes(); i++)
+        {
+            h = mix(h, Double.doubleToLongBits(graph.x[i]));
+            h = mix(h, Double.doubleToLongBits(graph.y[i]));
+        }
+        for (int e = 0; e < graph.getNumEdges(); e++)
+        {
+            h = mix(h, graph.source[e]);
+            h = mix(h, graph.target[e]);
+            h = mix(h, Double.doubleToLongBits(graph.weight[e]));
+        }
+
+        return h;
+    }
+
+
+
+    private static long mix(long h, long v)
+    {
+        return (h ^ v) * 0x100000001b3L;
+    }
+
+
+
+    /** Contracts the nodes in the order of their edge difference (shortcuts
+     * added minus edges removed), updated lazily.
+     */
+    static final class Builder
+    {
+        final RoutingGraph graph;
+        final int n;
+
+        // all the edges, shortcuts have first != -1
+        int numEdges = 0;
+        int[] from = new int[16], to = new int[16], first = new int[16], second = new int[16];
+        double[] weight = new double[16];
+
+        // edges leaving and entering each node
+        final int[][] out, in;
+        final int[] outDeg, inDeg;
+
+        final boolean[] contracted;
+        final int[] deletedNeighbors;
+
+        // witness search
+        final double[] dist;
+        final int[] seen, done;
+        final Router.Heap heap = new Router.Heap();
+        int epoch = 0;
+
+        Builder(RoutingGraph graph)
+        {
+            this.graph = graph;
+            n = graph.getNumNodes();
+            out = new int[n][];
+            in = new int[n][];
+            outDeg = new int[n];
+            inDeg = new int[n];
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            dist = new double[n];
+            seen = new int[n];
+            done = new int[n];
+
+            for (int i = 0; i < n; i++)
+            {
+                out[i] = new int[4];
+                in[i] = new int[4];
+            }
+
+            for (int e = 0; e < graph.getNumEdges(); e++)
+            {
+                addEdge(graph.source[e], graph.target[e], graph.weight[e], -1, -1);
+            }
+        }
+
+        ContractionHierarchy build()
+        {
+            int[] rank = new int[n];
+
+            Router.Heap queue = new Router.Heap();
+            for (int v = 0; v < n; v++)
+            {
+                queue.push(v, getPriority(v));
+            }
+
+            int next = 0;
+            while (!queue.isEmpty())
+            {
+                int v = queue.pop();
+                if (contracted[v])
+                {
+                    continue;
+                }
+
+                // lazy update: contract v only if it is still the least important
+                double p = getPriority(v);
+                if (!queue.isEmpty() && p > queue.peekKey())
+                {
+                    queue.push(v, p);
+                    continue;
+                }
+
+                contract(v, false);
+                contracted[v] = true;
+                rank[v] = next++;
+
+                for (int k = 0; k < outDeg[v]; k++)
+                {
+                    deletedNeighbors[to[out[v][k]]]++;
+                }
+                for (int k = 0; k < inDeg[v]; k++)
+                {
+                    deletedNeighbors[from[in[v][k]]]++;
+                }
+            }
+
+            // the original edges come first, so the edge numbers are the same
+            // in the hierarchy
+            int m = graph.getNumEdges();
+            return new ContractionHierarchy(graph, rank,
+                Arrays.copyOfRange(from, m, numEdges), Arrays.copyOfRange(to, m, numEdges),
+                Arrays.copyOfRange(first, m, numEdges), Arrays.copyOfRange(second, m, numEdges),
+                Arrays.copyOfRange(weight, m, numEdges));
+        }
+
+        double getPriority(int v)
+        {
+            int removed = 0;
+            for (int k = 0; k < outDeg[v]; k++)
+            {
+                if (!contracted[to[out[v][k]]])
+                {
+                    removed++;
+                }
+            }
+            for (int k = 0; k < inDeg[v]; k++)
+            {
+                if (!contracted[from[in[v][k]]])
+                {
+                    removed++;
+                }
+            }
+
+            return contract(v, true) - removed + deletedNeighbors[v];
+        }
+
+        /** Add the shortcuts needed to remove v, or only count them if simulate
+         * is true */
+        int contract(int v, boolean simulate)
+        {
+            int count = 0;
+
+            double maxOut = 0;
+            for (int k = 0; k < outDeg[v]; k++)
+            {
+                int e = out[v][k];
+                if (!contracted[to[e]] && to[e] != v)
+                {
+                    maxOut = Math.max(maxOut, weight[e]);
+                }
+            }
+
+            // the edges added below are not seen by the loops, which only
+            // visit the degrees at the start
+            int numIn = inDeg[v], numOut = outDeg[v];
+            for (int i = 0; i < numIn; i++)
+            {
+                int e1 = in[v][i];
+                int u = from[e1];
+                if (contracted[u] || u == v || weight[e1] == Double.POSITIVE_INFINITY)
+                {
+                    continue;
+                }
+
+                witness(u, v, weight[e1] + maxOut);
+
+                for (int j = 0; j < numOut; j++)
+                {
+                    int e2 = out[v][j];
+                    int w = to[e2];
+                    if (contracted[w] || w == v || w == u)
+                    {
+                        continue;
+                    }
+
+                    double cost = weight[e1] + weight[e2];
+                    if (cost < Double.POSITIVE_INFINITY && !(seen[w] == epoch && dist[w] <= cost))
+                    {
+                        count++;
+                        if (!simulate)
+                        {
+                            addEdge(u, w, cost, e1, e2);
+                        }
+                    }
+                }
+            }
+
+            return count;
+        }
+
+        /** Bounded Dijkstra from u that avoids v and the contracted nodes */
+        void witness(int u, int v, double limit)
+        {
+            if (++epoch == Integer.MAX_VALUE)
+            {
+                Arrays.fill(seen, 0);
+                Arrays.fill(done, 0);
+                epoch = 1;
+            }
+            heap.clear();
+
+            dist[u] = 0;
+            seen[u] = epoch;
+            heap.push(u, 0);
+
+            int settled = 0;
+            while (!heap.isEmpty() && heap.peekKey() <= limit && settled < WITNESS_SETTLE_LIMIT)
+            {
+                int x = heap.pop();
+                if (done[x] == epoch)
+                {
+                    continue;
+                }
+                done[x] = epoch;
+                settled++;
+
+                for (int k = 0; k < outDeg[x]; k++)
+                {
+                    int e = out[x][k];
+                    int y = to[e];
+                    double d = dist[x] + weight[e];
+                    if (y != v && !contracted[y] && (seen[y] != epoch || d < dist[y]))
+                    {
+                        dist[y] = d;
+                        seen[y] = epoch;
+                        heap.push(y, d);
+                    }
+                }
+            }
+        }
+
+        void addEdge(int u, int w, double cost, int e1, int e2)
+        {
+            if (numEdges == from.length)
+            {
+                int cap = numEdges * 2;
+                from = Arrays.copyOf(from, cap);
+                to = Arrays.copyOf(to, cap);
+                first = Arrays.copyOf(first, cap);
+                second = Arrays.copyOf(second, cap);
+                weight = Arrays.copyOf(weight, cap);
+            }
+
+            int e = numEdges++;
+            from[e] = u;
+            to[e] = w;
+            weight[e] = cost;
+            first[e] = e1;
+            second[e] = e2;
+
+            if (outDeg[u] == out[u].length)
+            {
+                out[u] = Arrays.copyOf(out[u], outDeg[u] * 2);
+            }
+            out[u][outDeg[u]++] = e;
+
+            if (inDeg[w] == in[w].length)
+            {
+                in[w] = Arrays.copyOf(in[w], inDeg[w] * 2);
+            }
+            in[w][inDeg[w]++] = e;
+        }
+    }
+
+
+
+    /** Per-thread state of a query, see Router.Search */
+    static final class Query
+    {
+        final double[] dist, distBack;
+        final int[] pred, predBack;
+        final int[] seen, seenBack, done, doneBack;
+        final Router.Heap heap = new Router.Heap(), heapBack = new Router.Heap();
+        int[] stack = new int[64];
+        int[] buf = new int[64]; // path being unpacked
+        int size = 0;
+        int epoch = 0;
+
+        Query(int numNodes)
+        {
+            dist = new double[numNodes];
+            distBack = new double[numNodes];
+            pred = new int[numNodes];
+            predBack = new int[numNodes];
+            seen = new int[numNodes];
+            seenBack = new int[numNodes];
+            done = new int[numNodes];
+            doneBack = new int[numNodes];
+        }
+
+        /** @return the node where the two searches met, -1 if goal was not
+         * reached */
+        int search(ContractionHierarchy ch, int start, int goal)
+        {
+            if (++epoch == Integer.MAX_VALUE)
+            {
+                Arrays.fill(seen, 0);
+                Arrays.fill(seenBack, 0);
+                Arrays.fill(done, 0);
+                Arrays.fill(doneBack, 0);
+                epoch = 1;
+            }
+            heap.clear();
+            heapBack.clear();
+
+            dist[start] = 0;
+            seen[start] = epoch;
+            heap.push(start, 0);
+            distBack[goal] = 0;
+            seenBack[goal] = epoch;
+            heapBack.push(goal, 0);
+
+            double best = start == goal ? 0 : Double.POSITIVE_INFINITY;
+            int meet = start == goal ? start : -1;
+
+            // each search stops once it cannot improve on the best path
+            while (Math.min(heap.peekKey(), heapBack.peekKey()) < best)
+            {
+                if (heap.peekKey() <= heapBack.peekKey())
+                {
+                    int u = heap.pop();
+                    if (done[u] == epoch)
+                    {
+                        continue;
+                    }
+                    done[u] = epoch;
+                    if (isStalled(ch.downStart, ch.downSource, ch.downWeight, u, dist, seen))
+                    {
+                        continue;
+                    }
+
+                    for (int k = ch.upStart[u]; k < ch.upStart[u + 1]; k++)
+                    {
+                        int v = ch.upTarget[k];
+                        double d = dist[u] + ch.upWeight[k];
+                        if (d < Double.POSITIVE_INFINITY && (seen[v] != epoch || d < dist[v]))
+                        {
+                            dist[v] = d;
+                            pred[v] = ch.upEdge[k];
+                            seen[v] = epoch;
+                            heap.push(v, d);
+                            if (seenBack[v] == epoch && d + distBack[v] < best)
+                            {
+                                best = d + distBack[v];
+                                meet = v;
+                            }
+                        }
+                    }
+                }
+                else
+                {
+                    int u = heapBack.pop();
+                    if (doneBack[u] == epoch)
+                    {
+                        continue;
+                    }
+                    doneBack[u] = epoch;
+                    if (isStalled(ch.upStart, ch.upTarget, ch.upWeight, u, distBack, seenBack))
+                    {
+                        continue;
+                    }
+
+                    for (int k = ch.downStart[u]; k < ch.downStart[u + 1]; k++)
+                    {
+                        int v = ch.downSource[k];
+                        double d = distBack[u] + ch.downWeight[k];
+                        if (d < Double.POSITIVE_INFINITY && (seenBack[v] != epoch || d < distBack[v]))
+                        {
+                            distBack[v] = d;
+                            predBack[v] = ch.downEdge[k];
+                            seenBack[v] = epoch;
+                            heapBack.push(v, d);
+                            if (seen[v] == epoch && d + dist[v] < best)
+                            {
+                                best = d + dist[v];
+                                meet = v;
+                            }
+                        }
+                    }
+                }
+            }
+
+            return meet;
+        }
+
+        /** Stall-on-demand: u does not need to be expanded if a higher ranked
+         * node that was already reached leads to it with a shorter distance,
+         * as u then cannot be on the shortest path.
+         */
+        boolean isStalled(int[] start, int[] other, double[] weight, int u, double[] dist, int[] seen)
+        {
+            for (int k = start[u]; k < start[u + 1]; k++)
+            {
+                int v = other[k];
+                if (seen[v] == epoch && dist[v] + weight[k] < dist[u])
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Unpack the shortcuts along the path found by search() */
+        int[] path(ContractionHierarchy ch, int start, int goal, int meet)
+        {
+            size = 0;
+
+            // the forward half is collected backwards, then reversed
+            for (int v = meet; v != start; v = ch.getFrom(pred[v]))
+            {
+                int from = size;
+                unpack(ch, pred[v]);
+                reverse(buf, from, size);
+            }
+            reverse(buf, 0, size);
+
+            for (int v = meet; v != goal; v = ch.getTo(predBack[v]))
+            {
+                unpack(ch, predBack[v]);
+            }
+
+            return Arrays.copyOf(buf, size);
+        }
+
+        /** Append the graph edges that e stands for to buf, in order */
+        void unpack(ContractionHierarchy ch, int e)
+        {
+            int top = 0;
+            stack[top++] = e;
+
+            while (top > 0)
+            {
+                int x = stack[--top];
+                if (x < ch.numEdges)
+                {
+                    if (size == buf.length)
+                    {
+                        buf = Arrays.copyOf(buf, size * 2);
+                    }
+                    buf[size++] = x;
+                }
+                else
+                {
+                    if (top + 2 > stack.length)
+                    {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = ch.scSecond[x - ch.numEdges];
+                    stack[top++] = ch.scFirst[x - ch.numEdges];
+                }
+            }
+        }
+
+        static void reverse(int[] a, int from, int to)
+        {
+            for (int i = from, j = to - 1; i < j; i++, j--)
+            {
+                int t = a[i];
+                a[i] = a[j];
+                a[j] = t;
+            }
+        }
+    }
+
+}
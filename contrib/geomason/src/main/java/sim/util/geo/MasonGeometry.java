@@ -43,9 +43,14 @@ public class MasonGeometry implements sim.util.Proxiable, java.io.Serializable
     /** Internal JTS geometry object */
     public Geometry geometry;
 
-    /** Optional attribute-value pairs associated with this geometry
+    /** Optional attribute-value pairs associated with this geometry; null
+     * while they are kept in attributeTable instead
      */
-    private final Map<String,AttributeValue> attributes;
+    Map<String,AttributeValue> attributes;
+
+    /** Table holding the attributes of this geometry, if any, and its row */
+    AttributeTable attributeTable;
+    int attributeRow = -1;
 
 
     /**
@@ -55,7 +60,7 @@ public class MasonGeometry implements sim.util.Proxiable, java.io.Serializable
      */
     public boolean hasHiddenAttributes()
     {
-        for (final AttributeValue value : attributes.values())
+        for (final AttributeValue value : getAttributes().values())
         {
             if ( value.isHidden() )
             {
@@ -71,7 +76,7 @@ public class MasonGeometry implements sim.util.Proxiable, java.io.Serializable
      */
     public boolean hasAttributes()
     {
-        return ! attributes.isEmpty();
+        return ! getAttributes().isEmpty();
     }
 
 
@@ -82,16 +87,25 @@ public class MasonGeometry implements sim.util.Proxiable, java.io.Serializable
      */
     public boolean hasAttribute(final String name)
     {
+        if (attributeTable != null)
+        {
+            return attributeTable.has(attributeRow, name);
+        }
         return attributes.containsKey(name);
     }
 
 
     /**
-     * @return attributes associated with this geometry
+     * @return attributes associated with this geometry; if they are kept in an
+     * AttributeTable, a view of them whose changes go to the table
      */
     public Map<String,AttributeValue> getAttributes()
     {
 //        return Collections.unmodifiableMap(attributes);
+        if (attributeTable != null)
+        {
+            return new AttributeTable.RowMap(this);
+        }
         return attributes;
     }
 
@@ -137,7 +151,7 @@ public class MasonGeometry implements sim.util.Proxiable, java.io.Serializable
             return false;
         }
 
-        if (attributes != other.attributes && (attributes == null || !attributes.equals(other.attributes)))
+        if (!getAttributes().equals(other.getAttributes()))
         {
             return false;
         }
@@ -207,55 +221,67 @@ public class MasonGeometry implements sim.util.Proxiable, java.io.Serializable
     // TODO add test for this in harness
     public void addAttributes(final Map<String,AttributeValue> attributes )
     {
-        this.attributes.putAll(attributes);
+        getAttributes().putAll(attributes);
     }
 
     public void addAttribute(final String name, final Object value)
     {
+        if (attributeTable != null)
+        {
+            attributeTable.put(attributeRow, name, value, false);
+            return;
+        }
         attributes.put(name, new AttributeValue(value));
     }
 
     public Object getAttribute(final String name)
     {
+        if (attributeTable != null)
+        {
+            return attributeTable.has(attributeRow, name) ? new AttributeTable.Cell(this, name) : null;
+        }
         return attributes.get(name);
     }
 
     public void addIntegerAttribute(final String name, final int value)
     {
-        attributes.put(name, new AttributeValue(value));
+        addAttribute(name, value);
     }
 
     public Integer getIntegerAttribute(final String name)
     {
-        final AttributeValue a = attributes.get(name);
-        if(a == null)
-        	return null;
-        return a.getInteger();
+        return (Integer) getAttributeValue(name);
     }
 
     public void addDoubleAttribute(final String name, final double value)
     {
-        attributes.put(name, new AttributeValue(value));
+        addAttribute(name, value);
     }
 
     public Double getDoubleAttribute(final String name)
     {
-        final AttributeValue a = attributes.get(name);
-        if(a == null) { return null; }
-        return attributes.get(name).getDouble();
+        return (Double) getAttributeValue(name);
     }
 
     public void addStringAttribute(final String name, final String value)
     {
-
-        attributes.put(name, new AttributeValue(value));
+        addAttribute(name, value);
     }
 
     public String getStringAttribute(final String name)
     {
+        return (String) getAttributeValue(name);
+    }
+
+    /** @return the value of the attribute, without wrapping it in an AttributeValue */
+    private Object getAttributeValue(final String name)
+    {
+        if (attributeTable != null)
+        {
+            return attributeTable.get(attributeRow, name);
+        }
         final AttributeValue a = attributes.get(name);
-        if(a == null) { return null; }
-        return attributes.get(name).getString();
+        return a == null ? null : a.getValue();
     }
 
 
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ *
+ */
+package sim.util.geo;
+
+import com.vividsolutions.jts.planargraph.Node;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Bounded cache of the routes computed by a Router, keyed by origin and
+ * destination node
+ *
+ * Many agents usually ask for the same few routes (home to work, camp to
+ * water point), so each route is computed once and then shared: the
+ * returned lists are unmodifiable.  The least recently used routes are
+ * evicted once the cache holds more than the given number of routes or of
+ * edges in total.  The cache is split into independently locked segments
+ * so that it can be used from several threads at once.
+ *
+ * The cache listens to the weights of the graph: a route is dropped as soon
+ * as the weight of one of its edges increases (congestion, closures), and
+ * all the routes are dropped when any weight decreases, since a shorter
+ * route may then exist anywhere.
+ *
+ */
+public class RouteCache implements RoutingGraph.WeightListener
+{
+    private static final int NUM_SEGMENTS = 16;
+
+    static final class Route
+    {
+        final int[] edges;
+        final List<GeomPlanarGraphDirectedEdge> path;
+        final long time; // clock when computed
+
+        Route(int[] edges, List<GeomPlanarGraphDirectedEdge> path, long time)
+        {
+            this.edges = edges;
+            this.path = path;
+            this.time = time;
+        }
+    }
+
+    final class Segment extends LinkedHashMap<Long, Route>
+    {
+        private static final long serialVersionUID = 3581642273508719342L;
+
+        long numEdges = 0;
+
+        Segment()
+        {
+            super(16, 0.75f, true); // access order
+        }
+
+        void evict()
+        {
+            Iterator<Map.Entry<Long, Route>> it = entrySet().iterator();
+            while (it.hasNext() && (size() > maxRoutesPerSegment || numEdges > maxEdgesPerSegment))
+            {
+                numEdges -= it.next().getValue().edges.length;
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    final Router router;
+    final Segment[] segments = new Segment[NUM_SEGMENTS];
+    final int maxRoutesPerSegment;
+    final long maxEdgesPerSegment;
+
+    // invalidation: a route computed at time t is stale if clearedAt > t or if
+    // one of its edges got more expensive after t
+    final AtomicLong clock = new AtomicLong();
+    volatile long clearedAt = 0;
+    final AtomicLongArray increasedAt;
+
+    final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+
+
+    /**
+     * @param router
+     * @param maxRoutes maximum number of routes kept
+     */
+    public RouteCache(Router router, int maxRoutes)
+    {
+        this(router, maxRoutes, Long.MAX_VALUE);
+    }
+
+
+
+    /**
+     * @param router
+     * @param maxRoutes maximum number of routes kept
+     * @param maxEdges maximum number of edges over all the routes kept, to bound
+     * the memory used by long routes
+     */
+    public RouteCache(Router router, int maxRoutes, long maxEdges)
+    {
+        if (maxRoutes <= 0 || maxEdges <= 0)
+        {
+            throw new IllegalArgumentException("The cache must hold at least one route");
+        }
+
+        this.router = router;
+        maxRoutesPerSegment = Math.max(1, (maxRoutes + NUM_SEGMENTS - 1) / NUM_SEGMENTS);
+        maxEdgesPerSegment = Math.max(1, maxEdges == Long.MAX_VALUE ? maxEdges : (maxEdges + NUM_SEGMENTS - 1) / NUM_SEGMENTS);
+        increasedAt = new AtomicLongArray(router.getGraph().getNumEdges());
+
+        for (int i = 0; i < NUM_SEGMENTS; i++)
+        {
+            segments[i] = new Segment();
+        }
+
+        router.getGraph().addWeightListener(this);
+    }
+
+
+
+    public Router getRouter()
+    {
+        return router;
+    }
+
+
+
+    /** Shortest path between the two nodes, computed by the router on a miss
+     *
+     * @return the edges along the path, empty if goal is start or cannot be
+     * reached.  The list is shared and cannot be modified.
+     */
+    public List<GeomPlanarGraphDirectedEdge> getPath(Node start, Node goal)
+    {
+        int s = router.toIndex(start), g = router.toIndex(goal);
+        Long key = ((long) s << 32) | g;
+        Segment segment = segments[(int) (mix(key) & (NUM_SEGMENTS - 1))];
+
+        synchronized (segment)
+        {
+            Route route = segment.get(key);
+            if (route != null)
+            {
+                if (isValid(route))
+                {
+                    hits.increment();
+                    return route.path;
+                }
+                segment.remove(key);
+                segment.numEdges -= route.edges.length;
+            }
+        }
+
+        misses.increment();
+
+        // compute outside of the lock, so other threads are not held up
+        long time = clock.get();
+        int[] edges = router.getEdgePath(s, g);
+        if (edges == null)
+        {
+            edges = new int[0];
+        }
+        ArrayList<GeomPlanarGraphDirectedEdge> path = router.toEdges(edges);
+        Route route = new Route(edges, Collections.unmodifiableList(path), time);
+
+        synchronized (segment)
+        {
+            Route old = segment.put(key, route);
+            if (old != null)
+            {
+                segment.numEdges -= old.edges.length;
+            }
+            segment.numEdges += edges.length;
+            segment.evict();
+        }
+
+        return route.path;
+    }
+
+
+
+    boolean isValid(Route route)
+    {
+        if (route.time < clearedAt)
+        {
+            return false;
+        }
+        for (int e : route.edges)
+        {
+            if (increasedAt.get(e) > route.time)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+
+    public void weightChanged(int edge, double oldWeight, double newWeight)
+    {
+        long time = clock.incrementAndGet();
+
+        if (edge != -1 && newWeight >= oldWeight)
+        {
+            increasedAt.set(edge, time);
+        }
+        else
+        {
+            clearedAt = time;
+        }
+    }
+
+
+
+    /** Drop all the routes, e.g. after changing the weights without going
+     * through the RoutingGraph */
+    public void invalidate()
+    {
+        clearedAt = clock.incrementAndGet();
+    }
+
+
+
+    /** Drop the routes that go through the given edge */
+    public void invalidate(GeomPlanarGraphDirectedEdge edge)
+    {
+        int e = router.getGraph().getEdgeIndex(edge);
+        if (e != -1)
+        {
+            increasedAt.set(e, clock.incrementAndGet());
+        }
+    }
+
+
+
+    /** Remove all the routes and reset the counters */
+    public void clear()
+    {
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                segment.clear();
+                segment.numEdges = 0;
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+
+
+    /** Stop listening to the weights of the graph, so that the cache can be
+     * garbage collected */
+    public void dispose()
+    {
+        router.getGraph().removeWeightListener(this);
+    }
+
+
+
+    /** @return the number of routes currently cached, including the stale
+     * ones that have not been dropped yet */
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+
+
+    public double getHitRate()
+    {
+        long h = hits.sum(), m = misses.sum();
+        return h + m == 0 ? 0 : (double) h / (h + m);
+    }
+
+
+
+    private static long mix(long key)
+    {
+        key *= 0x9e3779b97f4a7c15L;
+        return key ^ (key >>> 32);
+    }
+
+}
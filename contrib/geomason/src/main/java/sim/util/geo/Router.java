@@ -0,0 +1,502 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ *
+ */
+package sim.util.geo;
+
+import com.vividsolutions.jts.planargraph.Node;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/** Shortest paths over a RoutingGraph
+ *
+ * Provides A* (with a straight line heuristic scaled so that it never
+ * overestimates) and bidirectional Dijkstra.  Each thread gets its own
+ * scratch arrays, which are reset in constant time between queries, so
+ * a Router can be shared by all the agents and queried from several
+ * threads at once, as long as the weights of the graph are not changed
+ * at the same time.
+ *
+ * Paths are returned as lists of GeomPlanarGraphDirectedEdge, like the
+ * AStar classes of the sample models.  An empty path means that the goal
+ * is the start or cannot be reached.
+ *
+ */
+public class Router
+{
+    final RoutingGraph graph;
+
+    // used instead of A* as long as it is valid
+    ContractionHierarchy hierarchy = null;
+
+    final ThreadLocal<Search> scratch = new ThreadLocal<Search>()
+    {
+        protected Search initialValue()
+        {
+            return new Search(graph.getNumNodes());
+        }
+    };
+
+
+
+    public Router(RoutingGraph graph)
+    {
+        this.graph = graph;
+    }
+
+
+
+    public RoutingGraph getGraph()
+    {
+        return graph;
+    }
+
+
+
+    /** Answer the queries with the given contraction hierarchy, until the
+     * weights of the graph change.  null to always use A*.
+     */
+    public void setContractionHierarchy(ContractionHierarchy hierarchy)
+    {
+        if (hierarchy != null && hierarchy.getGraph() != graph)
+        {
+            throw new IllegalArgumentException("The contraction hierarchy was built for another graph");
+        }
+        this.hierarchy = hierarchy;
+    }
+
+
+
+    public ContractionHierarchy getContractionHierarchy()
+    {
+        return hierarchy;
+    }
+
+
+
+    /** Shortest path using the contraction hierarchy if any, A* otherwise */
+    public ArrayList<GeomPlanarGraphDirectedEdge> getPath(Node start, Node goal)
+    {
+        return toEdges(getEdgePath(toIndex(start), toIndex(goal)));
+    }
+
+
+
+    /** Shortest path using bidirectional Dijkstra, which does better than A*
+     * when the straight line distance is a poor estimate of the cost
+     */
+    public ArrayList<GeomPlanarGraphDirectedEdge> getPathBidirectional(Node start, Node goal)
+    {
+        return toEdges(getEdgePathBidirectional(toIndex(start), toIndex(goal)));
+    }
+
+
+
+    /**
+     * @return cost of the shortest path, Double.POSITIVE_INFINITY if the goal
+     * cannot be reached
+     */
+    public double getCost(Node start, Node goal)
+    {
+        int s = toIndex(start), g = toIndex(goal);
+        ContractionHierarchy ch = hierarchy;
+        if (ch != null && ch.isValid())
+        {
+            return ch.getCost(s, g);
+        }
+
+        Search search = scratch.get();
+        return search.astar(graph, s, g) ? search.dist[g] : Double.POSITIVE_INFINITY;
+    }
+
+
+
+    /** Shortest paths between each pair of start and goal nodes, computed in
+     * parallel
+     *
+     * @return the path from starts.get(i) to goals.get(i) at index i
+     */
+    public ArrayList<ArrayList<GeomPlanarGraphDirectedEdge>> getPaths(final List<Node> starts, final List<Node> goals)
+    {
+        if (starts.size() != goals.size())
+        {
+            throw new IllegalArgumentException("Got " + starts.size() + " starts but " + goals.size() + " goals");
+        }
+
+        final int[] s = new int[starts.size()], g = new int[goals.size()];
+        for (int i = 0; i < s.length; i++)
+        {
+            s[i] = toIndex(starts.get(i));
+            g[i] = toIndex(goals.get(i));
+        }
+
+        final int[][] paths = new int[s.length][];
+        IntStream.range(0, s.length).parallel().forEach(i -> paths[i] = getEdgePath(s[i], g[i]));
+
+        ArrayList<ArrayList<GeomPlanarGraphDirectedEdge>> result = new ArrayList<ArrayList<GeomPlanarGraphDirectedEdge>>(s.length);
+        for (int i = 0; i < s.length; i++)
+        {
+            result.add(toEdges(paths[i]));
+        }
+        return result;
+    }
+
+
+
+    /** Shortest path between two node indices using the contraction
+     * hierarchy if any, A* otherwise
+     *
+     * @return indices of the edges along the path, null if the goal cannot be
+     * reached
+     */
+    public int[] getEdgePath(int start, int goal)
+    {
+        ContractionHierarchy ch = hierarchy;
+        if (ch != null && ch.isValid())
+        {
+            return ch.getEdgePath(start, goal);
+        }
+
+        Search search = scratch.get();
+        return search.astar(graph, start, goal) ? search.forwardPath(graph, start, goal) : null;
+    }
+
+
+
+    /** Shortest path between two node indices using bidirectional Dijkstra
+     *
+     * @return indices of the edges along the path, null if the goal cannot be
+     * reached
+     */
+    public int[] getEdgePathBidirectional(int start, int goal)
+    {
+        Search search = scratch.get();
+        int meet = search.bidirectional(graph, start, goal);
+        return meet == -1 ? null : search.bidirectionalPath(graph, start, goal, meet);
+    }
+
+
+
+    ArrayList<GeomPlanarGraphDirectedEdge> toEdges(int[] path)
+    {
+        ArrayList<GeomPlanarGraphDirectedEdge> result = new ArrayList<GeomPlanarGraphDirectedEdge>(path == null ? 0 : path.length);
+        if (path != null)
+        {
+            for (int e : path)
+            {
+                result.add(graph.edges[e]);
+            }
+        }
+        return result;
+    }
+
+
+
+    int toIndex(Node node)
+    {
+        int i = graph.getNodeIndex(node);
+        if (i == -1)
+        {
+            throw new IllegalArgumentException("Node is not part of the graph: " + node);
+        }
+        return i;
+    }
+
+
+
+    /** Binary min-heap of node indices keyed by double.  Entries are never
+     * updated in place; a node is pushed again with its better key and the
+     * stale entries are skipped when popped.
+     */
+    static final class Heap
+    {
+        int[] nodes = new int[64];
+        double[] keys = new double[64];
+        int size = 0;
+
+        void clear()
+        {
+            size = 0;
+        }
+
+        boolean isEmpty()
+        {
+            return size == 0;
+        }
+
+        double peekKey()
+        {
+            return size == 0 ? Double.POSITIVE_INFINITY : keys[0];
+        }
+
+        void push(int node, double key)
+        {
+            if (size == nodes.length)
+            {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+
+            int i = size++;
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key)
+                {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+        }
+
+        /** remove the minimum, returns its node */
+        int pop()
+        {
+            int top = nodes[0];
+            int node = nodes[--size];
+            double key = keys[size];
+
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= size)
+                {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child])
+                {
+                    child++;
+                }
+                if (key <= keys[child])
+                {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+
+            return top;
+        }
+    }
+
+
+
+    /** Per-thread state of a search.  A node's labels are only valid if its
+     * stamp equals the current epoch, so nothing has to be cleared between
+     * queries.
+     */
+    static final class Search
+    {
+        final double[] dist, distBack;
+        final int[] pred, predBack; // edge through which each node was reached
+        final int[] seen, seenBack, done, doneBack; // stamps
+        final Heap heap = new Heap(), heapBack = new Heap();
+        int epoch = 0;
+
+        Search(int numNodes)
+        {
+            dist = new double[numNodes];
+            distBack = new double[numNodes];
+            pred = new int[numNodes];
+            predBack = new int[numNodes];
+            seen = new int[numNodes];
+            seenBack = new int[numNodes];
+            done = new int[numNodes];
+            doneBack = new int[numNodes];
+        }
+
+        void reset()
+        {
+            if (++epoch == Integer.MAX_VALUE)
+            {
+                Arrays.fill(seen, 0);
+                Arrays.fill(seenBack, 0);
+                Arrays.fill(done, 0);
+                Arrays.fill(doneBack, 0);
+                epoch = 1;
+            }
+            heap.clear();
+            heapBack.clear();
+        }
+
+        /** @return true if goal was reached */
+        boolean astar(RoutingGraph graph, int start, int goal)
+        {
+            reset();
+
+            int[] outStart = graph.outStart, target = graph.target;
+            double[] weight = graph.weight;
+
+            dist[start] = 0;
+            pred[start] = -1;
+            seen[start] = epoch;
+            heap.push(start, graph.getLowerBound(start, goal));
+
+            while (!heap.isEmpty())
+            {
+                int u = heap.pop();
+                if (done[u] == epoch)
+                {
+                    continue; // stale entry
+                }
+                done[u] = epoch;
+                if (u == goal)
+                {
+                    return true;
+                }
+
+                for (int e = outStart[u]; e < outStart[u + 1]; e++)
+                {
+                    int v = target[e];
+                    double d = dist[u] + weight[e];
+                    if (done[v] != epoch && d < Double.POSITIVE_INFINITY && (seen[v] != epoch || d < dist[v]))
+                    {
+                        dist[v] = d;
+                        pred[v] = e;
+                        seen[v] = epoch;
+                        heap.push(v, d + graph.getLowerBound(v, goal));
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        /** @return the node where the two searches met, -1 if goal was not
+         * reached */
+        int bidirectional(RoutingGraph graph, int start, int goal)
+        {
+            reset();
+
+            int[] outStart = graph.outStart, target = graph.target;
+            int[] inStart = graph.inStart, inEdge = graph.inEdge, source = graph.source;
+            double[] weight = graph.weight;
+
+            dist[start] = 0;
+            pred[start] = -1;
+            seen[start] = epoch;
+            heap.push(start, 0);
+            distBack[goal] = 0;
+            predBack[goal] = -1;
+            seenBack[goal] = epoch;
+            heapBack.push(goal, 0);
+
+            double best = start == goal ? 0 : Double.POSITIVE_INFINITY;
+            int meet = start == goal ? start : -1;
+
+            // stop when no path through unsettled nodes can beat the best one
+            while (!heap.isEmpty() && !heapBack.isEmpty() && heap.peekKey() + heapBack.peekKey() < best)
+            {
+                if (heap.peekKey() <= heapBack.peekKey())
+                {
+                    int u = heap.pop();
+                    if (done[u] == epoch)
+                    {
+                        continue;
+                    }
+                    done[u] = epoch;
+
+                    for (int e = outStart[u]; e < outStart[u + 1]; e++)
+                    {
+                        int v = target[e];
+                        double d = dist[u] + weight[e];
+                        if (d < Double.POSITIVE_INFINITY && (seen[v] != epoch || d < dist[v]))
+                        {
+                            dist[v] = d;
+                            pred[v] = e;
+                            seen[v] = epoch;
+                            heap.push(v, d);
+                            if (seenBack[v] == epoch && d + distBack[v] < best)
+                            {
+                                best = d + distBack[v];
+                                meet = v;
+                            }
+                        }
+                    }
+                }
+                else
+                {
+                    int u = heapBack.pop();
+                    if (doneBack[u] == epoch)
+                    {
+                        continue;
+                    }
+                    doneBack[u] = epoch;
+
+                    for (int k = inStart[u]; k < inStart[u + 1]; k++)
+                    {
+                        int e = inEdge[k];
+                        int v = source[e];
+                        double d = distBack[u] + weight[e];
+                        if (d < Double.POSITIVE_INFINITY && (seenBack[v] != epoch || d < distBack[v]))
+                        {
+                            distBack[v] = d;
+                            predBack[v] = e;
+                            seenBack[v] = epoch;
+                            heapBack.push(v, d);
+                            if (seen[v] == epoch && d + dist[v] < best)
+                            {
+                                best = d + dist[v];
+                                meet = v;
+                            }
+                        }
+                    }
+                }
+            }
+
+            return meet;
+        }
+
+        int[] forwardPath(RoutingGraph graph, int start, int goal)
+        {
+            int n = 0;
+            for (int v = goal; v != start; v = graph.source[pred[v]])
+            {
+                n++;
+            }
+
+            int[] path = new int[n];
+            for (int v = goal; v != start; v = graph.source[pred[v]])
+            {
+                path[--n] = pred[v];
+            }
+            return path;
+        }
+
+        int[] bidirectionalPath(RoutingGraph graph, int start, int goal, int meet)
+        {
+            int[] head = forwardPath(graph, start, meet);
+
+            int n = 0;
+            for (int v = meet; v != goal; v = graph.target[predBack[v]])
+            {
+                n++;
+            }
+
+            int[] path = Arrays.copyOf(head, head.length + n);
+            n = head.length;
+            for (int v = meet; v != goal; v = graph.target[predBack[v]])
+            {
+                path[n++] = predBack[v];
+            }
+            return path;
+        }
+    }
+
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ *
+ */
+package sim.util.geo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.planargraph.Node;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/** A GeomPlanarGraph compiled into flat arrays for routing
+ *
+ * Nodes are numbered from 0 to getNumNodes() - 1 and the directed edges
+ * leaving node i are numbered from outStart[i] to outStart[i + 1] - 1
+ * (compressed sparse row layout), with a second index of the edges
+ * entering each node for backward searches.  Searches over these arrays
+ * need no per-node objects or hash lookups.
+ *
+ * The topology is fixed once compiled, but the edge weights can be updated
+ * (e.g., for congestion or closures); every update increments getVersion().
+ *
+ * @see Router
+ *
+ */
+public class RoutingGraph
+{
+    /** Computes the cost of traversing a directed edge */
+    public interface EdgeWeight
+    {
+        double getWeight(GeomPlanarGraphDirectedEdge edge);
+    }
+
+    /** Notified when edge weights change, e.g. to invalidate cached routes */
+    public interface WeightListener
+    {
+        /**
+         * @param edge index of the edge, or -1 if all the weights were
+         * recomputed
+         * @param oldWeight previous weight of the edge, NaN if edge is -1
+         * @param newWeight new weight of the edge, NaN if edge is -1
+         */
+        void weightChanged(int edge, double oldWeight, double newWeight);
+    }
+
+    /** Length of the line underlying the edge */
+    public static final EdgeWeight LENGTH = new EdgeWeight()
+    {
+        public double getWeight(GeomPlanarGraphDirectedEdge edge)
+        {
+            return ((GeomPlanarGraphEdge) edge.getEdge()).getLine().getLength();
+        }
+    };
+
+    /** Straight line distance between the end nodes of the edge */
+    public static final EdgeWeight DISTANCE = new EdgeWeight()
+    {
+        public double getWeight(GeomPlanarGraphDirectedEdge edge)
+        {
+            return edge.getFromNode().getCoordinate().distance(edge.getToNode().getCoordinate());
+        }
+    };
+
+    final Node[] nodes;
+    final HashMap<Node, Integer> nodeIndex;
+    final double[] x, y;
+
+    // outgoing edges of node i are outStart[i] .. outStart[i + 1] - 1
+    final int[] outStart;
+    final int[] source, target;
+    final GeomPlanarGraphDirectedEdge[] edges;
+    final IdentityHashMap<GeomPlanarGraphDirectedEdge, Integer> edgeIndex;
+
+    // inEdge[inStart[i] .. inStart[i + 1] - 1] are the edges entering node i
+    final int[] inStart, inEdge;
+
+    final double[] weight;
+
+    // largest factor such that factor * straight line distance never
+    // overestimates the cost between two nodes, used by A*
+    double heuristicScale;
+
+    int version = 0;
+
+    final ArrayList<WeightListener> listeners = new ArrayList<WeightListener>();
+
+
+
+    /** Compile the graph with edge lengths as weights */
+    public RoutingGraph(GeomPlanarGraph graph)
+    {
+        this(graph, LENGTH);
+    }
+
+
+
+    /** Compile the graph
+     *
+     * @param graph
+     * @param edgeWeight weight of each directed edge, must not be negative
+     */
+    public RoutingGraph(GeomPlanarGraph graph, EdgeWeight edgeWeight)
+    {
+        int numNodes = graph.getNodes().size();
+
+        nodes = new Node[numNodes];
+        nodeIndex = new HashMap<Node, Integer>(numNodes * 2);
+        x = new double[numNodes];
+        y = new double[numNodes];
+
+        int i = 0;
+        int numEdges = 0;
+        for (Iterator it = graph.nodeIterator(); it.hasNext(); i++)
+        {
+            Node node = (Node) it.next();
+            nodes[i] = node;
+            nodeIndex.put(node, i);
+            x[i] = node.getCoordinate().x;
+            y[i] = node.getCoordinate().y;
+            numEdges += node.getOutEdges().getDegree();
+        }
+
+        outStart = new int[numNodes + 1];
+        source = new int[numEdges];
+        target = new int[numEdges];
+        edges = new GeomPlanarGraphDirectedEdge[numEdges];
+        edgeIndex = new IdentityHashMap<GeomPlanarGraphDirectedEdge, Integer>(numEdges);
+        weight = new double[numEdges];
+
+        int e = 0;
+        for (i = 0; i < numNodes; i++)
+        {
+            outStart[i] = e;
+            for (Object o : nodes[i].getOutEdges().getEdges())
+            {
+                GeomPlanarGraphDirectedEdge edge = (GeomPlanarGraphDirectedEdge) o;
+                edges[e] = edge;
+                edgeIndex.put(edge, e);
+                source[e] = i;
+                target[e] = nodeIndex.get(edge.getToNode());
+                e++;
+            }
+        }
+        outStart[numNodes] = e;
+
+        // reverse index, bucketed by target node
+        inStart = new int[numNodes + 1];
+        inEdge = new int[numEdges];
+        for (e = 0; e < numEdges; e++)
+        {
+            inStart[target[e] + 1]++;
+        }
+        for (i = 0; i < numNodes; i++)
+        {
+            inStart[i + 1] += inStart[i];
+        }
+        int[] fill = Arrays.copyOf(inStart, numNodes);
+        for (e = 0; e < numEdges; e++)
+        {
+            inEdge[fill[target[e]]++] = e;
+        }
+
+        setWeights(edgeWeight);
+    }
+
+
+
+    public int getNumNodes()
+    {
+        return nodes.length;
+    }
+
+
+
+    public int getNumEdges()
+    {
+        return edges.length;
+    }
+
+
+
+    public Node getNode(int index)
+    {
+        return nodes[index];
+    }
+
+
+
+    /**
+     * @return index of the node, or -1 if it is not part of the graph
+     */
+    public int getNodeIndex(Node node)
+    {
+        Integer i = nodeIndex.get(node);
+        return i == null ? -1 : i;
+    }
+
+
+
+    public GeomPlanarGraphDirectedEdge getEdge(int index)
+    {
+        return edges[index];
+    }
+
+
+
+    /**
+     * @return index of the directed edge, or -1 if it is not part of the graph
+     */
+    public int getEdgeIndex(GeomPlanarGraphDirectedEdge edge)
+    {
+        Integer e = edgeIndex.get(edge);
+        return e == null ? -1 : e;
+    }
+
+
+
+    public int getSource(int edge)
+    {
+        return source[edge];
+    }
+
+
+
+    public int getTarget(int edge)
+    {
+        return target[edge];
+    }
+
+
+
+    public double getWeight(int edge)
+    {
+        return weight[edge];
+    }
+
+
+
+    public Coordinate getCoordinate(int node)
+    {
+        return new Coordinate(x[node], y[node]);
+    }
+
+
+
+    /** Straight line distance between two nodes */
+    public double getDistance(int from, int to)
+    {
+        double dx = x[from] - x[to];
+        double dy = y[from] - y[to];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+
+
+    /**
+     * @return lower bound of the cost of any path between the two nodes
+     */
+    public double getLowerBound(int from, int to)
+    {
+        return heuristicScale * getDistance(from, to);
+    }
+
+
+
+    /**
+     * @return the number of times the weights have been changed, so that
+     * results computed with older weights can be recognized
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+
+
+    public void addWeightListener(WeightListener listener)
+    {
+        listeners.add(listener);
+    }
+
+
+
+    public void removeWeightListener(WeightListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+
+
+    /** Recompute the weights of all the edges */
+    public void setWeights(EdgeWeight edgeWeight)
+    {
+        for (int e = 0; e < edges.length; e++)
+        {
+            weight[e] = checkWeight(edgeWeight.getWeight(edges[e]));
+        }
+
+        heuristicScale = Double.POSITIVE_INFINITY;
+        for (int e = 0; e < edges.length; e++)
+        {
+            updateHeuristicScale(e);
+        }
+        if (heuristicScale == Double.POSITIVE_INFINITY)
+        {
+            heuristicScale = 0;
+        }
+
+        version++;
+
+        for (WeightListener listener : listeners)
+        {
+            listener.weightChanged(-1, Double.NaN, Double.NaN);
+        }
+    }
+
+
+
+    /** Change the weight of a single edge, e.g., to close a road set it to
+     * Double.POSITIVE_INFINITY
+     */
+    public void setWeight(GeomPlanarGraphDirectedEdge edge, double w)
+    {
+        int e = getEdgeIndex(edge);
+        if (e == -1)
+        {
+            throw new IllegalArgumentException("Edge is not part of the graph: " + edge);
+        }
+
+        double old = weight[e];
+        weight[e] = checkWeight(w);
+        updateHeuristicScale(e);
+        version++;
+
+        for (WeightListener listener : listeners)
+        {
+            listener.weightChanged(e, old, w);
+        }
+    }
+
+
+
+    private double checkWeight(double w)
+    {
+        if (!(w >= 0))
+        {
+            throw new IllegalArgumentException("Edge weights must not be negative, got " + w);
+        }
+        return w;
+    }
+
+
+
+    private void updateHeuristicScale(int e)
+    {
+        double d = getDistance(source[e], target[e]);
+        if (d > 0)
+        {
+            heuristicScale = Math.min(heuristicScale, weight[e] / d);
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * $Id$
+ */
+package sim.field.geo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import sim.util.Bag;
+import sim.util.IntBag;
+
+
+
+/**
+ * Tests the queries of GeomPointField against an exhaustive search, as its
+ * points move, leave the bounds and are removed.
+ */
+public class GeomPointFieldTest
+{
+
+    private GeometryFactory factory = new GeometryFactory();
+
+    private Random random;
+    private GeomPointField field;
+    private Object[] objects;
+    private int[] ids;
+
+
+
+    @Before
+    public void setUp()
+    {
+        random = new Random(31);
+        field = new GeomPointField(new Envelope(0, 100, 0, 50), 7);
+        objects = new Object[300];
+        ids = new int[objects.length];
+        for (int i = 0; i < objects.length; i++)
+        {
+            objects[i] = "agent " + i;
+            ids[i] = field.add(objects[i], random.nextDouble() * 100, random.nextDouble() * 50);
+        }
+    }
+
+
+
+    // some points leave the bounds, where the border cells keep them
+    private void move()
+    {
+        for (int i = 0; i < objects.length; i++)
+        {
+            if (field.isValid(ids[i]) && field.getObject(ids[i]) == objects[i])
+            {
+                field.setLocation(ids[i], random.nextDouble() * 140 - 20, random.nextDouble() * 90 - 20);
+            }
+        }
+    }
+
+
+
+    private Set<Object> getObjectsWithin(Envelope e)
+    {
+        Set<Object> result = new HashSet<Object>();
+        IntBag all = field.getIds(new IntBag());
+        for (int i = 0; i < all.numObjs; i++)
+        {
+            int id = all.objs[i];
+            if (e.intersects(field.getX(id), field.getY(id)))
+            {
+                result.add(field.getObject(id));
+            }
+        }
+        return result;
+    }
+
+
+
+    private Set<Object> getObjectsWithinDistance(Geometry g, double distance)
+    {
+        Set<Object> result = new HashSet<Object>();
+        IntBag all = field.getIds(new IntBag());
+        for (int i = 0; i < all.numObjs; i++)
+        {
+            if (g.distance(field.getPoint(all.objs[i])) <= distance)
+            {
+                result.add(field.getObject(all.objs[i]));
+            }
+        }
+        return result;
+    }
+
+
+
+    private void checkQueries()
+    {
+        for (int i = 0; i < 50; i++)
+        {
+            double x = random.nextDouble() * 160 - 30, y = random.nextDouble() * 110 - 30;
+            Envelope e = new Envelope(x, x + random.nextDouble() * 40, y, y + random.nextDouble() * 40);
+            assertEquals(getObjectsWithin(e), toSet(field.queryField(e)));
+
+            double distance = random.nextDouble() * 25;
+            assertEquals(getObjectsWithinDistance(factory.createPoint(new Coordinate(x, y)), distance),
+                toSet(field.getObjectsWithinDistance(x, y, distance)));
+
+            Geometry line = factory.createLineString(new Coordinate[] { new Coordinate(x, y), new Coordinate(e.getMaxX(), e.getMaxY()) });
+            assertEquals(getObjectsWithinDistance(line, distance), toSet(field.getObjectsWithinDistance(line, distance)));
+        }
+    }
+
+
+
+    @Test
+    public void testQueriesAfterMoves()
+    {
+        System.out.println("queriesAfterMoves");
+
+        checkQueries();
+        for (int round = 0; round < 5; round++)
+        {
+            move();
+            checkQueries();
+        }
+    }
+
+
+
+    @Test
+    public void testMBR()
+    {
+        System.out.println("MBR");
+
+        assertEquals(new Envelope(0, 100, 0, 50), field.getMBR());
+
+        field.setLocation(ids[0], -10, 20);
+        field.setLocation(ids[1], 50, 70);
+        int id = field.add("outside", 120, -5);
+        assertEquals(new Envelope(-10, 120, -5, 70), field.getMBR());
+
+        // moving a point back does not shrink it
+        field.setLocation(id, 50, 25);
+        assertEquals(new Envelope(-10, 120, -5, 70), field.getMBR());
+
+        field.clear();
+        assertEquals(new Envelope(0, 100, 0, 50), field.getMBR());
+    }
+
+
+
+    @Test
+    public void testRemoveAndReuse()
+    {
+        System.out.println("removeAndReuse");
+
+        // remove every third point, by id or by object
+        for (int i = 0; i < objects.length; i += 3)
+        {
+            if (i % 2 == 0)
+            {
+                field.remove(ids[i]);
+            }
+            else
+            {
+                assertTrue(field.remove(objects[i]));
+            }
+            assertFalse(field.isValid(ids[i]));
+            assertEquals(-1, field.getId(objects[i]));
+            assertFalse(field.remove(objects[i]));
+        }
+        assertEquals(objects.length - 100, field.size());
+        try
+        {
+            field.setLocation(ids[0], 1, 1);
+            fail("moved a removed point");
+        } catch (IllegalArgumentException ex)
+        {
+        }
+        checkQueries();
+
+        // the ids of the removed points are reused
+        Set<Integer> freed = new HashSet<Integer>();
+        for (int i = 0; i < objects.length; i += 3)
+        {
+            freed.add(ids[i]);
+        }
+        for (int i = 0; i < objects.length; i += 3)
+        {
+            objects[i] = "new agent " + i;
+            ids[i] = field.add(objects[i], random.nextDouble() * 100, random.nextDouble() * 50);
+            assertTrue(freed.remove(ids[i]));
+            assertSame(objects[i], field.getObject(ids[i]));
+            assertEquals(ids[i], field.getId(objects[i]));
+        }
+        assertEquals(objects.length, field.size());
+        assertEquals(objects.length, field.getIds(new IntBag()).numObjs);
+
+        move();
+        checkQueries();
+
+        try
+        {
+            field.add(objects[1], 0, 0);
+            fail("added an object twice");
+        } catch (IllegalArgumentException ex)
+        {
+        }
+    }
+
+
+
+    @Test
+    public void testObjectsCoveredBy()
+    {
+        System.out.println("objectsCoveredBy");
+
+        // some points exactly on the boundaries of the geometries below
+        field.setLocation(ids[0], 20, 10);
+        field.setLocation(ids[1], 50, 10);
+        field.setLocation(ids[2], 40, 20);
+        field.setLocation(ids[3], 35, 25);
+        field.setLocation(ids[4], 10, 45);
+
+        LinearRing shell = factory.createLinearRing(((Geometry) factory.toGeometry(new Envelope(20, 60, 10, 40))).getCoordinates());
+        LinearRing hole = factory.createLinearRing(((Geometry) factory.toGeometry(new Envelope(30, 40, 20, 30))).getCoordinates());
+        Geometry[] geometries = new Geometry[]
+        {
+            factory.createPolygon(shell, new LinearRing[] { hole }),
+            factory.createPolygon(shell, null),
+            factory.createLineString(new Coordinate[] { new Coordinate(0, 45), new Coordinate(100, 45) }),
+            factory.createPoint(new Coordinate(20, 10)),
+            factory.createPolygon(shell, null).buffer(-5)
+        };
+
+        for (int round = 0; round < 3; round++)
+        {
+            for (Geometry g : geometries)
+            {
+                Set<Object> expected = new HashSet<Object>();
+                IntBag all = field.getIds(new IntBag());
+                for (int i = 0; i < all.numObjs; i++)
+                {
+                    if (g.covers(field.getPoint(all.objs[i])))
+                    {
+                        expected.add(field.getObject(all.objs[i]));
+                    }
+                }
+                assertEquals(g.toString(), expected, toSet(field.getObjectsCoveredBy(g)));
+            }
+
+            move();
+        }
+    }
+
+
+
+    private static Set<Object> toSet(Bag bag)
+    {
+        Set<Object> set = new HashSet<Object>();
+        for (int i = 0; i < bag.numObjs; i++)
+        {
+            set.add(bag.objs[i]);
+        }
+        assertEquals(bag.numObjs, set.size());
+        return set;
+    }
+
+}
@@ -235,6 +235,107 @@ public class GeomVectorFieldTest
         assertTrue( result.size() == 5 );
     }
 
+
+
+    /**
+     * Test of getSnapshot method, of class GeomVectorField.
+     */
+    @Test
+    public void testGetSnapshot()
+    {
+        System.out.println("getSnapshot");
+
+        GeomVectorField instance = new GeomVectorField();
+        addEvenlySpacedPoints(10, 10, 10, instance);
+        MasonGeometry square = new MasonGeometry(factory.toGeometry(new Envelope(42, 48, 42, 48)));
+        square.isMovable = true;
+        instance.addGeometry(square);
+
+        GeomVectorFieldSnapshot snapshot = instance.getSnapshot();
+        assertEquals(101, snapshot.size());
+
+        // the snapshot agrees with the field
+        Envelope e = new Envelope(35, 55, 35, 55);
+        assertEquals(instance.queryField(e).size(), snapshot.queryField(e).size());
+        assertEquals(5, snapshot.queryField(e).size());
+        Point p = createPoint(50, 50);
+        assertEquals(instance.getObjectsWithinDistance(p, 10.0).size(),
+                     snapshot.getObjectsWithinDistance(p, 10.0).size());
+        assertEquals(6, snapshot.getObjectsWithinDistance(p, 10.0).size());
+        Geometry line = factory.createLineString(new Coordinate[] { new Coordinate(0, 45), new Coordinate(30, 45) });
+        assertEquals(8, snapshot.getObjectsWithinDistance(line, 5.0).size());
+
+        // moving the square leaves the snapshot as it was, exact tests included
+        instance.setGeometryLocation(square, new AffineTransformation().translate(0, 20));
+        assertEquals(6, snapshot.getObjectsWithinDistance(50, 50, 10.0, new Bag()).size());
+        assertTrue(snapshot.getObjectsWithinDistance(50, 50, 10.0, new Bag()).contains(square));
+        assertFalse(snapshot.getObjectsWithinDistance(45, 70, 2.5, new Bag()).contains(square));
+
+        // until the next update of the index
+        instance.updateSpatialIndex();
+        GeomVectorFieldSnapshot next = instance.getSnapshot();
+        assertNotSame(snapshot, next);
+        assertFalse(next.getObjectsWithinDistance(50, 50, 10.0, new Bag()).contains(square));
+        assertTrue(next.getObjectsWithinDistance(45, 70, 2.5, new Bag()).contains(square));
+
+        // batch queries
+        Bag[] results = new Bag[] { new Bag(), new Bag() };
+        next.getObjectsWithinDistance(new double[] { 0, 50 }, new double[] { 0, 50 }, 10.0, results);
+        assertEquals(3, results[0].size());
+        assertEquals(5, results[1].size());
+    }
+
+
+
+    /**
+     * Test of PackedRTree with empty, single, full and overflowing nodes.
+     */
+    @Test
+    public void testPackedRTree()
+    {
+        System.out.println("PackedRTree");
+
+        for (int n : new int[] { 0, 1, PackedRTree.NODE_CAPACITY, PackedRTree.NODE_CAPACITY + 1 })
+        {
+            MasonGeometry[] items = new MasonGeometry[n];
+            double[] envelopes = new double[4 * n];
+            for (int i = 0; i < n; i++)
+            {
+                items[i] = new MasonGeometry(createPoint(i % 5, i / 5));
+                PackedRTree.toArray(items[i].getGeometry().getEnvelopeInternal(), envelopes, i);
+            }
+            PackedRTree tree = new PackedRTree(items, null, envelopes, n);
+            assertEquals(n, tree.size());
+
+            Bag all = new Bag();
+            tree.query(-1, -1, 10, 10, all);
+            assertEquals(n, all.size());
+
+            // every item, and only it, is found at its own location
+            for (int i = 0; i < n; i++)
+            {
+                Bag result = new Bag();
+                tree.query(i % 5, i / 5, i % 5, i / 5, result);
+                assertEquals(1, result.size());
+                assertSame(items[i], result.objs[0]);
+
+                result.clear();
+                Point p = createPoint(i % 5 + 0.5, i / 5);
+                tree.queryWithinDistance(i % 5 + 0.5, i / 5, p, 0.6, result);
+                assertTrue(result.contains(items[i]));
+                assertEquals(i % 5 == 4 || i + 1 == n ? 1 : 2, result.size());
+
+                result.clear();
+                tree.queryWithinDistance(p, 0.6, result);
+                assertEquals(i % 5 == 4 || i + 1 == n ? 1 : 2, result.size());
+            }
+
+            Bag none = new Bag();
+            tree.query(20, 20, 30, 30, none);
+            tree.queryWithinDistance(20, 20, createPoint(20, 20), 1.0, none);
+            assertTrue(none.isEmpty());
+        }
+    }
 //
 //
 //    /**
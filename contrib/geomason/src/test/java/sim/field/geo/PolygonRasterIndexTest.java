@@ -0,0 +1,152 @@
+/*
+ * $Id$
+ */
+package sim.field.geo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import sim.util.Bag;
+import sim.util.geo.MasonGeometry;
+
+
+
+/**
+ */
+public class PolygonRasterIndexTest
+{
+
+    private GeometryFactory factory = new GeometryFactory();
+
+    private GeomVectorField field;
+    private MasonGeometry dot;
+
+    // interior, boundaries, shared edges, overlap, hole and outside the bounds
+    private final double[][] points = new double[][]
+    {
+        { 1, 1 }, { 2, 2 }, { 12.5, 2.5 }, { 17, 7 },
+        { 0, 0 }, { 10, 5 }, { 15, 5 }, { 25, 15 }, { 5, 12 },
+        { 5, 5 }, { 4, 5 }, { 4.5, 4.5 },
+        { -1, 5 }, { 30, 5 }, { 5, 20 }
+    };
+
+    private Point createPoint(double x, double y)
+    {
+        return factory.createPoint(new Coordinate(x,y));
+    }
+
+
+
+    @Before
+    public void setUp()
+    {
+        LinearRing shell = factory.createLinearRing(((Geometry) factory.toGeometry(new Envelope(0, 10, 0, 10))).getCoordinates());
+        LinearRing hole = factory.createLinearRing(((Geometry) factory.toGeometry(new Envelope(4, 6, 4, 6))).getCoordinates());
+
+        field = new GeomVectorField();
+        field.addGeometry(new MasonGeometry(factory.createPolygon(shell, new LinearRing[] { hole })));
+        field.addGeometry(new MasonGeometry(factory.toGeometry(new Envelope(10, 20, 0, 10))));
+        field.addGeometry(new MasonGeometry(factory.toGeometry(new Envelope(15, 25, 5, 15))));
+        field.addGeometry(new MasonGeometry(factory.createLineString(new Coordinate[] { new Coordinate(0, 12), new Coordinate(10, 12) })));
+        dot = new MasonGeometry(createPoint(2, 2));
+        field.addGeometry(dot);
+    }
+
+
+
+    /**
+     * Test of getCoveringObjects and getContainingObjects methods, of class
+     * PolygonRasterIndex, against the exact JTS predicates.
+     */
+    @Test
+    public void testAgainstExact()
+    {
+        System.out.println("againstExact");
+
+        for (int[] size : new int[][] { { 1, 1 }, { 5, 3 }, { 40, 30 } })
+        {
+            PolygonRasterIndex raster = field.buildRasterIndex(size[0], size[1]);
+            Bag geometries = field.getGeometries();
+
+            for (double[] xy : points)
+            {
+                Point p = createPoint(xy[0], xy[1]);
+                Set<Object> covering = new HashSet<Object>();
+                Set<Object> containing = new HashSet<Object>();
+                for (int i = 0; i < geometries.numObjs; i++)
+                {
+                    MasonGeometry mg = (MasonGeometry) geometries.objs[i];
+                    if (mg.getGeometry().covers(p))
+                    {
+                        covering.add(mg);
+                    }
+                    if (mg.getGeometry().contains(p))
+                    {
+                        containing.add(mg);
+                    }
+                }
+
+                String where = size[0] + "x" + size[1] + " at (" + xy[0] + ", " + xy[1] + ")";
+                assertEquals(where, covering, toSet(raster.getCoveringObjects(xy[0], xy[1], new Bag())));
+                assertEquals(where, containing, toSet(raster.getContainingObjects(xy[0], xy[1], new Bag())));
+                assertEquals(where, !covering.isEmpty(), raster.isCovered(xy[0], xy[1]));
+            }
+        }
+    }
+
+
+
+    /**
+     * Test that the raster index gives the same results as the exact queries
+     * of GeomVectorField and GeomPointField, which leave out the geometries
+     * equal to the point.
+     */
+    @Test
+    public void testFieldQueries()
+    {
+        System.out.println("fieldQueries");
+
+        GeomPointField pointField = new GeomPointField(new Envelope(-5, 35, -5, 25));
+        int[] ids = new int[points.length];
+        for (int i = 0; i < points.length; i++)
+        {
+            ids[i] = pointField.add("point " + i, points[i][0], points[i][1]);
+        }
+
+        Set<?>[] exact = new Set<?>[points.length];
+        for (int i = 0; i < points.length; i++)
+        {
+            exact[i] = toSet(field.getCoveringObjects(createPoint(points[i][0], points[i][1])));
+        }
+        assertFalse(exact[1].contains(dot));
+
+        field.buildRasterIndex(5, 3);
+        assertNotNull(field.getRasterIndex());
+        for (int i = 0; i < points.length; i++)
+        {
+            assertEquals(exact[i], toSet(field.getCoveringObjects(createPoint(points[i][0], points[i][1]))));
+            assertEquals(exact[i], toSet(pointField.getCoveringObjects(ids[i], field)));
+        }
+    }
+
+
+
+    private static Set<Object> toSet(Bag bag)
+    {
+        Set<Object> set = new HashSet<Object>();
+        for (int i = 0; i < bag.numObjs; i++)
+        {
+            set.add(bag.objs[i]);
+        }
+        return set;
+    }
+
+}
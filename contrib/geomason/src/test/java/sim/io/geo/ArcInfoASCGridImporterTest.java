@@ -0,0 +1,411 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.io.geo;
+
+import com.vividsolutions.jts.geom.Envelope;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sim.field.geo.GeomGridField;
+import sim.field.geo.GeomGridField.GridDataType;
+import sim.field.grid.DoubleGrid2D;
+import sim.field.grid.IntGrid2D;
+
+
+
+/**
+ * Tests the hand written parsing of ArcInfoASCGridImporter against the JDK,
+ * and its binary cache.
+ */
+public class ArcInfoASCGridImporterTest
+{
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+
+    private static double parseDouble(String s)
+    {
+        byte[] buf = (" " + s + " ").getBytes(StandardCharsets.ISO_8859_1);
+        return ArcInfoASCGridImporter.parseDouble(buf, 1, buf.length - 1);
+    }
+
+
+
+    private static int parseInt(String s)
+    {
+        byte[] buf = (" " + s + " ").getBytes(StandardCharsets.ISO_8859_1);
+        return ArcInfoASCGridImporter.parseInt(buf, 1, buf.length - 1);
+    }
+
+
+
+    // compares the bits, so that -0.0 and NaN are checked too
+    private static void assertSameDouble(String s, double expected, double actual)
+    {
+        assertEquals(s, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+
+
+    @Test
+    public void testParseDouble()
+    {
+        System.out.println("parseDouble");
+
+        String[] values = new String[]
+        {
+            "0", "-0", "+0", "0.0", "-0.0", "00", "007", "-007.50", "000.000125",
+            "1", "-1", "+1", "1.", ".5", "-.5", "+.5", "3.14159", "-9999",
+            "1e5", "1E5", "1e+5", "1e-5", "-2.5e-3", "+2.5E+03", "0e999", "1e0", "1e22", "1e23",
+            "1e-22", "1e-23", "123456789012345e-22", "1e308", "1e309", "1e-324", "4.9e-324", "1e0005",
+            "123456789012345", "1234567890123456", "12345678901234567890", "0.1234567890123456789",
+            "9007199254740993", "1.00000000000000000001", "100000000000000000000000",
+            "0.000000000000000000000001", "2.2250738585072014E-308", "1.7976931348623157E308",
+            "NaN", "-NaN", "+NaN", "Infinity", "-Infinity", "+Infinity",
+            "1d", "1f", "1.5D"
+        };
+
+        for (String s : values)
+        {
+            assertSameDouble(s, Double.parseDouble(s), parseDouble(s));
+        }
+
+        // the shortest representation of random doubles, as written by the
+        // exporter, and of random short decimals
+        Random random = new Random(17);
+        for (int i = 0; i < 100000; i++)
+        {
+            String s = Double.toString(i % 2 == 0
+                ? Double.longBitsToDouble(random.nextLong())
+                : (random.nextInt(2000000) - 1000000) / Math.pow(10, random.nextInt(12)));
+            assertSameDouble(s, Double.parseDouble(s), parseDouble(s));
+        }
+
+        for (String s : new String[] { "", "-", "+", ".", "e5", "1e", "1e+", "1.2.3", "1-2", "abc" })
+        {
+            try
+            {
+                parseDouble(s);
+                fail("parsed " + s);
+            } catch (NumberFormatException ex)
+            {
+            }
+        }
+    }
+
+
+
+    @Test
+    public void testParseInt()
+    {
+        System.out.println("parseInt");
+
+        String[] values = new String[]
+        {
+            "0", "-0", "+0", "007", "-9999", "+42", "123456789", "-123456789", "1234567890",
+            "2147483647", "-2147483648", "0000000000001"
+        };
+
+        for (String s : values)
+        {
+            assertEquals(s, Integer.parseInt(s), parseInt(s));
+        }
+
+        for (String s : new String[] { "-", "+", "2147483648", "1.5", "1e5", "abc" })
+        {
+            try
+            {
+                parseInt(s);
+                fail("parsed " + s);
+            } catch (NumberFormatException ex)
+            {
+            }
+        }
+    }
+
+
+
+    /** Returns the bytes in small, odd sized reads, like a slow stream */
+    private static InputStream trickle(byte[] data)
+    {
+        return new ByteArrayInputStream(data)
+        {
+            public synchronized int read(byte[] b, int off, int len)
+            {
+                return super.read(b, off, Math.min(len, 4093));
+            }
+        };
+    }
+
+
+
+    /** Values larger than one block, so that they have to be parsed in
+     * several blocks, with a token straddling the end of the first one */
+    @Test
+    public void testBlockBoundary() throws IOException
+    {
+        System.out.println("blockBoundary");
+
+        int width = 1500, height = 1600;
+        String[] tokens = new String[width * height];
+        StringBuilder body = new StringBuilder();
+        Random random = new Random(23);
+        for (int i = 0; i < tokens.length; i++)
+        {
+            tokens[i] = Double.toString((random.nextInt(2000000) - 1000000) / Math.pow(10, random.nextInt(4)));
+            body.append(tokens[i]).append((i + 1) % width == 0 ? "\n" : " ");
+        }
+
+        // pad the header until the first block ends inside a token
+        String padding = "";
+        byte[] data;
+        while (true)
+        {
+            String header = "ncols " + width + "\nnrows " + height + "\nxllcenter 10.5\nyllcenter -20.5\ncellsize 1\nNODATA_value -9999" + padding + "\n";
+            data = (header + body).getBytes(StandardCharsets.ISO_8859_1);
+            int b = ArcInfoASCGridImporter.BLOCK_SIZE;
+            if (data[b - 1] != ' ' && data[b - 1] != '\n' && data[b] != ' ' && data[b] != '\n')
+            {
+                break;
+            }
+            padding += " ";
+        }
+        assertTrue(data.length > ArcInfoASCGridImporter.BLOCK_SIZE);
+
+        GeomGridField field = new GeomGridField();
+        ArcInfoASCGridImporter.read(trickle(data), GridDataType.DOUBLE, field);
+
+        assertEquals(width, field.getGridWidth());
+        assertEquals(height, field.getGridHeight());
+        assertEquals(new Envelope(10, 10 + width, -21, -21 + height), field.getMBR());
+        double[][] values = ((DoubleGrid2D) field.getGrid()).field;
+        for (int i = 0; i < tokens.length; i++)
+        {
+            assertSameDouble(tokens[i], Double.parseDouble(tokens[i]), values[i % width][i / width]);
+        }
+
+        // one value short
+        int end = data.length - 1;
+        while (data[end - 1] != ' ')
+        {
+            end--;
+        }
+        byte[] truncated = Arrays.copyOf(data, end);
+        try
+        {
+            ArcInfoASCGridImporter.read(trickle(truncated), GridDataType.DOUBLE, new GeomGridField());
+            fail("read a grid with a missing value");
+        } catch (RuntimeException ex)
+        {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+    }
+
+
+
+    private static GeomGridField createField(GridDataType type, int width, int height)
+    {
+        Random random = new Random(29);
+        GeomGridField field;
+        if (type == GridDataType.INTEGER)
+        {
+            IntGrid2D grid = new IntGrid2D(width, height);
+            for (int x = 0; x < width; x++)
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    grid.field[x][y] = random.nextInt(5) == 0 ? -9999 : random.nextInt();
+                }
+            }
+            field = new GeomGridField(grid);
+        }
+        else
+        {
+            DoubleGrid2D grid = new DoubleGrid2D(width, height);
+            for (int x = 0; x < width; x++)
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    grid.field[x][y] = random.nextInt(5) == 0 ? -9999 : random.nextGaussian() * Math.pow(10, random.nextInt(20) - 10);
+                }
+            }
+            field = new GeomGridField(grid);
+        }
+        field.setPixelWidth(2.5);
+        field.setPixelHeight(2.5);
+        field.setMBR(new Envelope(100, 100 + 2.5 * width, 50, 50 + 2.5 * height));
+        return field;
+    }
+
+
+
+    private static void assertSameGrid(GeomGridField expected, GeomGridField actual)
+    {
+        assertEquals(expected.getGridDataType(), actual.getGridDataType());
+        assertEquals(expected.getGridWidth(), actual.getGridWidth());
+        assertEquals(expected.getGridHeight(), actual.getGridHeight());
+        assertEquals(expected.getMBR(), actual.getMBR());
+        assertEquals(expected.getPixelWidth(), actual.getPixelWidth(), 0);
+        assertEquals(expected.getPixelHeight(), actual.getPixelHeight(), 0);
+
+        for (int x = 0; x < expected.getGridWidth(); x++)
+        {
+            for (int y = 0; y < expected.getGridHeight(); y++)
+            {
+                if (expected.getGridDataType() == GridDataType.INTEGER)
+                {
+                    assertEquals(((IntGrid2D) expected.getGrid()).field[x][y], ((IntGrid2D) actual.getGrid()).field[x][y]);
+                }
+                else
+                {
+                    assertSameDouble(x + ", " + y, ((DoubleGrid2D) expected.getGrid()).field[x][y], ((DoubleGrid2D) actual.getGrid()).field[x][y]);
+                }
+            }
+        }
+    }
+
+
+
+    private static void export(GeomGridField field, File file) throws IOException
+    {
+        Writer writer = new FileWriter(file);
+        try
+        {
+            ArcInfoASCGridExporter.write(field, writer);
+        } finally
+        {
+            writer.close();
+        }
+    }
+
+
+
+    @Test
+    public void testExportImportAndCache() throws IOException
+    {
+        System.out.println("exportImportAndCache");
+
+        for (GridDataType type : GridDataType.values())
+        {
+            GeomGridField original = createField(type, 37, 23);
+            File file = folder.newFile("grid-" + type + ".asc");
+            File cache = ArcInfoASCGridImporter.getCacheFile(file);
+            export(original, file);
+
+            // without the cache
+            GeomGridField field = new GeomGridField();
+            ArcInfoASCGridImporter.read(file, type, field, false);
+            assertSameGrid(original, field);
+            assertFalse(cache.exists());
+
+            // parsed, then cached
+            field = new GeomGridField();
+            ArcInfoASCGridImporter.read(file, type, field, true);
+            assertSameGrid(original, field);
+            assertTrue(cache.exists());
+
+            // read back from the cache
+            field = new GeomGridField();
+            ArcInfoASCGridImporter.read(file, type, field, true);
+            assertSameGrid(original, field);
+        }
+    }
+
+
+
+    @Test
+    public void testStaleCache() throws IOException
+    {
+        System.out.println("staleCache");
+
+        GeomGridField original = createField(GridDataType.INTEGER, 20, 10);
+        File file = folder.newFile("grid.asc");
+        File cache = ArcInfoASCGridImporter.getCacheFile(file);
+        export(original, file);
+        ArcInfoASCGridImporter.read(file, GridDataType.INTEGER, new GeomGridField(), true);
+        long modified = file.lastModified();
+
+        // the cache is used as long as the size and date of the file match
+        int changed = ((IntGrid2D) original.getGrid()).field[3][4] == 1 ? 2 : 1;
+        overwrite(file, 3, 4, changed);
+        assertTrue(file.setLastModified(modified));
+        GeomGridField field = new GeomGridField();
+        ArcInfoASCGridImporter.read(file, GridDataType.INTEGER, field, true);
+        assertSameGrid(original, field);
+
+        // but not once the date changes
+        assertTrue(file.setLastModified(modified - 10000));
+        field = new GeomGridField();
+        ArcInfoASCGridImporter.read(file, GridDataType.INTEGER, field, true);
+        assertEquals(changed, ((IntGrid2D) field.getGrid()).field[3][4]);
+
+        // nor for another data type
+        field = new GeomGridField();
+        ArcInfoASCGridImporter.read(file, GridDataType.DOUBLE, field, true);
+        assertEquals(GridDataType.DOUBLE, field.getGridDataType());
+        assertEquals(changed, ((DoubleGrid2D) field.getGrid()).field[3][4], 0);
+
+        // a truncated cache is parsed again and rewritten
+        RandomAccessFile raf = new RandomAccessFile(cache, "rw");
+        raf.setLength(raf.length() / 2);
+        raf.close();
+        field = new GeomGridField();
+        ArcInfoASCGridImporter.read(file, GridDataType.DOUBLE, field, true);
+        assertEquals(changed, ((DoubleGrid2D) field.getGrid()).field[3][4], 0);
+        field = new GeomGridField();
+        ArcInfoASCGridImporter.read(file, GridDataType.DOUBLE, field, true);
+        assertEquals(changed, ((DoubleGrid2D) field.getGrid()).field[3][4], 0);
+    }
+
+
+
+    /** Replace the value of cell (x, y) in the exported file by a single
+     * digit, padded with spaces so that the size of the file does not change
+     */
+    private static void overwrite(File file, int x, int y, int digit) throws IOException
+    {
+        byte[] data = Files.readAllBytes(file.toPath());
+        String text = new String(data, StandardCharsets.ISO_8859_1);
+
+        // skip the header lines, then y rows, then x values
+        int pos = 0;
+        for (int i = 0; i < 6 + y; i++)
+        {
+            pos = text.indexOf('\n', pos) + 1;
+        }
+        for (int i = 0; i < x; i++)
+        {
+            pos = text.indexOf(' ', pos) + 1;
+        }
+        int end = text.indexOf(' ', pos);
+
+        data[pos] = (byte) ('0' + digit);
+        for (int i = pos + 1; i < end; i++)
+        {
+            data[i] = ' ';
+        }
+        Files.write(file.toPath(), data);
+    }
+
+}
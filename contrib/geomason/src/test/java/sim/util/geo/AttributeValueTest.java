@@ -10,6 +10,8 @@
 package sim.util.geo;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.*;
 import sim.util.geo.AttributeValue;
 
@@ -273,4 +275,73 @@ public class AttributeValueTest
         assertEquals(hidden,instance.isHidden());
     }
 
+
+
+    /**
+     * Test of equals and hashCode for an attribute kept in an AttributeTable.
+     */
+    @Test
+    public void testTableCell()
+    {
+        System.out.println("tableCell");
+        MasonGeometry geometry = new MasonGeometry();
+        geometry.addIntegerAttribute("count", 42);
+        AttributeTable table = new AttributeTable();
+        table.add(geometry);
+
+        AttributeValue cell = (AttributeValue) geometry.getAttribute("count");
+        AttributeValue instance = new AttributeValue(new Integer(42));
+
+        assertEquals(instance, cell);
+        assertEquals(cell, instance);
+        assertEquals(instance.hashCode(), cell.hashCode());
+
+        cell.setHidden(true);
+        assertFalse(instance.equals(cell));
+        instance.setHidden(true);
+        assertEquals(instance, cell);
+
+        // the cell reads the table, so sees changes made through the geometry
+        geometry.addIntegerAttribute("count", 43);
+        assertEquals(new Integer(43), cell.getValue());
+        assertFalse(instance.equals(cell));
+    }
+
+
+
+    /**
+     * Test of an attribute whose geometry is removed from its AttributeTable.
+     */
+    @Test
+    public void testRemoveFromTable()
+    {
+        System.out.println("removeFromTable");
+        MasonGeometry first = new MasonGeometry();
+        first.addStringAttribute("name", "first");
+        MasonGeometry second = new MasonGeometry();
+        second.addStringAttribute("name", "second");
+        second.addDoubleAttribute("area", 1.5);
+        AttributeTable table = new AttributeTable();
+        table.add(first);
+        table.add(second);
+
+        AttributeValue cell = (AttributeValue) first.getAttribute("name");
+        cell.setHidden(true);
+        assertTrue(table.remove(first));
+        assertEquals(1, table.size());
+
+        // the geometry gets its attributes back, and the cell follows it there
+        AttributeValue expResult = new AttributeValue("first");
+        expResult.setHidden(true);
+        assertEquals(expResult, first.getAttributes().get("name"));
+        assertEquals(expResult, cell);
+        assertEquals(expResult.hashCode(), cell.hashCode());
+        assertFalse(first.hasAttribute("area"));
+
+        // the other geometry, moved into the freed row, keeps its own
+        assertEquals("second", second.getStringAttribute("name"));
+        assertEquals(new Double(1.5), second.getDoubleAttribute("area"));
+        assertFalse(((AttributeValue) second.getAttribute("name")).isHidden());
+    }
+
 }
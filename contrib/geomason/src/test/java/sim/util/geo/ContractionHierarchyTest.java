@@ -0,0 +1,148 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.util.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+
+/**
+ * Tests ContractionHierarchy against Dijkstra on the random graphs of
+ * RouterTest.
+ */
+public class ContractionHierarchyTest
+{
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RoutingGraph graph;
+    private ContractionHierarchy hierarchy;
+
+
+
+    @Before
+    public void setUp()
+    {
+        graph = RouterTest.createRandomGraph(new Random(11));
+        hierarchy = ContractionHierarchy.build(graph);
+    }
+
+
+
+    /** Compare the paths and costs of the hierarchy with Dijkstra for every
+     * pair of nodes */
+    private void checkAllPairs(ContractionHierarchy ch)
+    {
+        int n = graph.getNumNodes();
+        double[] dist = new double[n];
+
+        for (int s = 0; s < n; s++)
+        {
+            int[] pred = RouterTest.dijkstra(graph, s, dist);
+            for (int g = 0; g < n; g++)
+            {
+                String where = s + " -> " + g;
+                assertArrayEquals(where, RouterTest.getPath(graph, pred, g), ch.getEdgePath(s, g));
+                assertEquals(where, dist[g], ch.getCost(s, g), 1e-9);
+            }
+        }
+    }
+
+
+
+    @Test
+    public void testAgainstDijkstra()
+    {
+        System.out.println("againstDijkstra");
+
+        assertTrue(hierarchy.isValid());
+        assertTrue(hierarchy.getNumShortcuts() > 0);
+        checkAllPairs(hierarchy);
+
+        for (int s = 0; s < graph.getNumNodes(); s++)
+        {
+            assertEquals(0, hierarchy.getEdgePath(s, s).length);
+            assertEquals(0, hierarchy.getCost(s, s), 0);
+        }
+
+        // Router uses the hierarchy until the weights change
+        Router router = new Router(graph);
+        router.setContractionHierarchy(hierarchy);
+        graph.setWeight(graph.getEdge(0), Double.POSITIVE_INFINITY);
+        assertFalse(hierarchy.isValid());
+        checkAllPairs(ContractionHierarchy.build(graph));
+        int[] pred = RouterTest.dijkstra(graph, graph.getSource(0), new double[graph.getNumNodes()]);
+        assertArrayEquals(RouterTest.getPath(graph, pred, graph.getTarget(0)),
+            router.getEdgePath(graph.getSource(0), graph.getTarget(0)));
+    }
+
+
+
+    @Test
+    public void testWriteAndRead() throws IOException
+    {
+        System.out.println("writeAndRead");
+
+        File file = folder.newFile("roads.ch");
+        hierarchy.write(file);
+        ContractionHierarchy read = ContractionHierarchy.read(graph, file);
+
+        assertTrue(read.isValid());
+        assertEquals(hierarchy.getNumShortcuts(), read.getNumShortcuts());
+        assertArrayEquals(hierarchy.rank, read.rank);
+        checkAllPairs(read);
+
+        // a hierarchy of other weights is refused
+        graph.setWeight(graph.getEdge(0), 2 * graph.getWeight(0));
+        try
+        {
+            ContractionHierarchy.read(graph, file);
+            fail("read a hierarchy built for other weights");
+        } catch (IOException ex)
+        {
+        }
+    }
+
+
+
+    @Test
+    public void testLoadOrBuild() throws IOException
+    {
+        System.out.println("loadOrBuild");
+
+        File shapeFile = new File(folder.getRoot(), "roads.shp");
+        File file = ContractionHierarchy.getFile(shapeFile);
+        assertEquals(new File(folder.getRoot(), "roads.ch"), file);
+        assertFalse(file.exists());
+
+        ContractionHierarchy built = ContractionHierarchy.loadOrBuild(graph, shapeFile);
+        assertTrue(file.exists());
+        checkAllPairs(built);
+
+        ContractionHierarchy loaded = ContractionHierarchy.loadOrBuild(graph, shapeFile);
+        assertArrayEquals(built.rank, loaded.rank);
+        checkAllPairs(loaded);
+
+        // an unreadable file is replaced
+        file.delete();
+        assertTrue(file.createNewFile());
+        checkAllPairs(ContractionHierarchy.loadOrBuild(graph, shapeFile));
+        assertTrue(file.length() > 0);
+    }
+
+}
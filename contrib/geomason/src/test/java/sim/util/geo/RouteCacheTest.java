@@ -0,0 +1,310 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.util.geo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+
+
+/**
+ * Tests the eviction, counters and invalidation of RouteCache on the random
+ * graphs of RouterTest.
+ */
+public class RouteCacheTest
+{
+
+    private RoutingGraph graph;
+    private Router router;
+
+
+
+    @Before
+    public void setUp()
+    {
+        graph = RouterTest.createRandomGraph(new Random(13));
+        router = new Router(graph);
+    }
+
+
+
+    private List<GeomPlanarGraphDirectedEdge> getPath(RouteCache cache, int s, int g)
+    {
+        return cache.getPath(graph.getNode(s), graph.getNode(g));
+    }
+
+
+
+    /**
+     * @return the segment of the cache holding the route from s to g
+     */
+    private RouteCache.Segment getSegment(RouteCache cache, int s, int g)
+    {
+        Long key = ((long) s << 32) | g;
+        for (RouteCache.Segment segment : cache.segments)
+        {
+            if (segment.containsKey(key))
+            {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+
+
+    /** Check that the cached path from s to g is a hit or a miss */
+    private void checkPath(RouteCache cache, int s, int g, boolean hit)
+    {
+        long hits = cache.getHits(), misses = cache.getMisses();
+        List<GeomPlanarGraphDirectedEdge> path = getPath(cache, s, g);
+
+        assertEquals(router.getPath(graph.getNode(s), graph.getNode(g)), path);
+        assertEquals(s + " -> " + g, hits + (hit ? 1 : 0), cache.getHits());
+        assertEquals(s + " -> " + g, misses + (hit ? 0 : 1), cache.getMisses());
+    }
+
+
+
+    @Test
+    public void testHitsAndMisses()
+    {
+        System.out.println("hitsAndMisses");
+
+        RouteCache cache = new RouteCache(router, 1000);
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++)
+        {
+            int s = random.nextInt(graph.getNumNodes()), g = random.nextInt(graph.getNumNodes());
+            checkPath(cache, s, g, getSegment(cache, s, g) != null);
+            checkPath(cache, s, g, true);
+        }
+        assertEquals(cache.getHits() + cache.getMisses(), 100);
+        assertEquals(cache.getMisses(), cache.size());
+        assertEquals((double) cache.getHits() / 100, cache.getHitRate(), 0);
+        assertEquals(0, cache.getEvictions());
+
+        try
+        {
+            getPath(cache, 0, 1).clear();
+            fail("modified a cached path");
+        } catch (UnsupportedOperationException ex)
+        {
+        }
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(0, cache.getHitRate(), 0);
+        checkPath(cache, 0, 1, false);
+    }
+
+
+
+    @Test
+    public void testLeastRecentlyUsedEviction()
+    {
+        System.out.println("leastRecentlyUsedEviction");
+
+        // two routes per segment
+        RouteCache cache = new RouteCache(router, 32);
+        assertEquals(2, cache.maxRoutesPerSegment);
+
+        // find three routes that share a segment
+        int[][] routes = new int[3][];
+        int found = 0;
+        RouteCache.Segment segment = null;
+        for (int s = 0; s < graph.getNumNodes() && found < 3; s++)
+        {
+            for (int g = 0; g < graph.getNumNodes() && found < 3; g++)
+            {
+                getPath(cache, s, g);
+                RouteCache.Segment sg = getSegment(cache, s, g);
+                if (segment == null || sg == segment)
+                {
+                    segment = sg;
+                    routes[found++] = new int[] { s, g };
+                }
+                cache.clear();
+            }
+        }
+        assertEquals(3, found);
+        int[] a = routes[0], b = routes[1], c = routes[2];
+
+        checkPath(cache, a[0], a[1], false);
+        checkPath(cache, b[0], b[1], false);
+        checkPath(cache, a[0], a[1], true);
+
+        // b is now the least recently used route of the segment
+        checkPath(cache, c[0], c[1], false);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, segment.size());
+        assertNull(getSegment(cache, b[0], b[1]));
+        checkPath(cache, a[0], a[1], true);
+        checkPath(cache, c[0], c[1], true);
+        checkPath(cache, b[0], b[1], false);
+        assertEquals(2, cache.getEvictions());
+        assertNull(getSegment(cache, a[0], a[1]));
+
+        // no segment ever goes over its bound
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++)
+        {
+            getPath(cache, random.nextInt(graph.getNumNodes()), random.nextInt(graph.getNumNodes()));
+            assertTrue(cache.size() <= 32);
+        }
+        assertEquals(cache.getMisses() - cache.size(), cache.getEvictions());
+    }
+
+
+
+    @Test
+    public void testEdgeBound()
+    {
+        System.out.println("edgeBound");
+
+        RouteCache cache = new RouteCache(router, 1000, 16 * 20);
+        Random random = new Random(3);
+        for (int i = 0; i < 500; i++)
+        {
+            getPath(cache, random.nextInt(graph.getNumNodes()), random.nextInt(graph.getNumNodes()));
+
+            for (RouteCache.Segment segment : cache.segments)
+            {
+                long numEdges = 0;
+                for (RouteCache.Route route : segment.values())
+                {
+                    numEdges += route.edges.length;
+                }
+                assertEquals(numEdges, segment.numEdges);
+                assertTrue(numEdges <= 20);
+            }
+        }
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+
+
+    @Test
+    public void testInvalidation()
+    {
+        System.out.println("invalidation");
+
+        RouteCache cache = new RouteCache(router, 1000);
+
+        // a route through some edge, and one that does not use it
+        int[] through = null, other = null;
+        int edge = -1;
+        for (int s = 0; s < graph.getNumNodes() && other == null; s++)
+        {
+            for (int g = 0; g < graph.getNumNodes() && other == null; g++)
+            {
+                int[] path = router.getEdgePath(s, g);
+                if (path == null || path.length < 2)
+                {
+                    continue;
+                }
+                if (through == null)
+                {
+                    through = new int[] { s, g };
+                    edge = path[0];
+                }
+                else if (!contains(path, edge))
+                {
+                    other = new int[] { s, g };
+                }
+            }
+        }
+        assertNotNull(other);
+
+        ArrayList<int[]> all = new ArrayList<int[]>();
+        all.add(through);
+        all.add(other);
+
+        // a higher weight only drops the routes through the edge
+        fill(cache, all);
+        graph.setWeight(graph.getEdge(edge), graph.getWeight(edge) * 1.5);
+        checkPath(cache, through[0], through[1], false);
+        checkPath(cache, other[0], other[1], true);
+
+        // a lower weight drops everything
+        fill(cache, all);
+        graph.setWeight(graph.getEdge(edge), graph.getWeight(edge) / 2);
+        checkPath(cache, through[0], through[1], false);
+        checkPath(cache, other[0], other[1], false);
+
+        // so does recomputing all the weights
+        fill(cache, all);
+        graph.setWeights(RoutingGraph.LENGTH);
+        checkPath(cache, through[0], through[1], false);
+        checkPath(cache, other[0], other[1], false);
+
+        // and the invalidation hooks
+        fill(cache, all);
+        int[] otherPath = router.getEdgePath(other[0], other[1]);
+        edge = -1;
+        for (int e : router.getEdgePath(through[0], through[1]))
+        {
+            if (edge == -1 && !contains(otherPath, e))
+            {
+                edge = e;
+            }
+        }
+        assertTrue(edge != -1);
+        cache.invalidate(graph.getEdge(edge));
+        checkPath(cache, through[0], through[1], false);
+        checkPath(cache, other[0], other[1], true);
+
+        fill(cache, all);
+        cache.invalidate();
+        checkPath(cache, through[0], through[1], false);
+        checkPath(cache, other[0], other[1], false);
+
+        // a disposed cache no longer listens to the graph
+        fill(cache, all);
+        cache.dispose();
+        graph.setWeights(RoutingGraph.DISTANCE);
+        long hits = cache.getHits();
+        getPath(cache, other[0], other[1]);
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+
+
+    // make sure all the routes are cached and valid
+    private void fill(RouteCache cache, List<int[]> routes)
+    {
+        for (int[] route : routes)
+        {
+            getPath(cache, route[0], route[1]);
+            checkPath(cache, route[0], route[1], true);
+        }
+    }
+
+
+
+    private static boolean contains(int[] path, int edge)
+    {
+        for (int e : path)
+        {
+            if (e == edge)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2011 by Mark Coletti, Keith Sullivan, Sean Luke, and
+ * George Mason University Mason University Licensed under the Academic
+ * Free License version 3.0
+ *
+ * See the file "LICENSE" for more information
+ *
+ * $Id$
+ */
+package sim.util.geo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.planargraph.Node;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import sim.field.geo.GeomVectorField;
+
+
+
+/**
+ * Tests Router against a plain Dijkstra search over the same RoutingGraph.
+ */
+public class RouterTest
+{
+
+    private RoutingGraph graph;
+    private Router router;
+
+
+
+    @Before
+    public void setUp()
+    {
+        graph = createRandomGraph(new Random(7));
+        router = new Router(graph);
+    }
+
+
+
+    /** A jittered grid with some of its edges missing and some diagonals,
+     * so that it stays planar, plus a separate segment that cannot be
+     * reached from the grid.  Each direction of an edge costs its length
+     * times a random factor, so that the shortest paths are unique.
+     */
+    static RoutingGraph createRandomGraph(final Random random)
+    {
+        final int n = 8;
+        GeometryFactory factory = new GeometryFactory();
+        Coordinate[][] grid = new Coordinate[n][n];
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                grid[i][j] = new Coordinate(i * 10 + random.nextDouble() * 4, j * 10 + random.nextDouble() * 4);
+            }
+        }
+
+        GeomVectorField field = new GeomVectorField();
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                if (i + 1 < n && random.nextDouble() < 0.8)
+                {
+                    field.addGeometry(new MasonGeometry(factory.createLineString(new Coordinate[] { grid[i][j], grid[i + 1][j] })));
+                }
+                if (j + 1 < n && random.nextDouble() < 0.8)
+                {
+                    field.addGeometry(new MasonGeometry(factory.createLineString(new Coordinate[] { grid[i][j], grid[i][j + 1] })));
+                }
+                if (i + 1 < n && j + 1 < n && random.nextDouble() < 0.2)
+                {
+                    field.addGeometry(new MasonGeometry(factory.createLineString(new Coordinate[] { grid[i][j], grid[i + 1][j + 1] })));
+                }
+            }
+        }
+        field.addGeometry(new MasonGeometry(factory.createLineString(new Coordinate[] { new Coordinate(200, 200), new Coordinate(210, 200) })));
+
+        GeomPlanarGraph network = new GeomPlanarGraph();
+        network.createFromGeomField(field);
+
+        final IdentityHashMap<GeomPlanarGraphDirectedEdge, Double> factors = new IdentityHashMap<GeomPlanarGraphDirectedEdge, Double>();
+        return new RoutingGraph(network, new RoutingGraph.EdgeWeight()
+        {
+            public double getWeight(GeomPlanarGraphDirectedEdge edge)
+            {
+                Double factor = factors.get(edge);
+                if (factor == null)
+                {
+                    factor = 1 + random.nextDouble() * 2;
+                    factors.put(edge, factor);
+                }
+                return factor * RoutingGraph.LENGTH.getWeight(edge);
+            }
+        });
+    }
+
+
+
+    /** Plain Dijkstra from start over the current weights
+     *
+     * @return edge through which each node is reached, -1 for the start and
+     * -2 for the nodes that cannot be reached
+     */
+    static int[] dijkstra(RoutingGraph graph, int start, double[] dist)
+    {
+        int n = graph.getNumNodes();
+        int[] pred = new int[n];
+        boolean[] done = new boolean[n];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        Arrays.fill(pred, -2);
+        dist[start] = 0;
+        pred[start] = -1;
+
+        while (true)
+        {
+            int u = -1;
+            for (int v = 0; v < n; v++)
+            {
+                if (!done[v] && dist[v] < Double.POSITIVE_INFINITY && (u == -1 || dist[v] < dist[u]))
+                {
+                    u = v;
+                }
+            }
+            if (u == -1)
+            {
+                return pred;
+            }
+            done[u] = true;
+
+            for (int e = 0; e < graph.getNumEdges(); e++)
+            {
+                if (graph.getSource(e) == u && dist[u] + graph.getWeight(e) < dist[graph.getTarget(e)])
+                {
+                    dist[graph.getTarget(e)] = dist[u] + graph.getWeight(e);
+                    pred[graph.getTarget(e)] = e;
+                }
+            }
+        }
+    }
+
+
+
+    /**
+     * @return the edges from the start of the search to goal, null if goal
+     * cannot be reached
+     */
+    static int[] getPath(RoutingGraph graph, int[] pred, int goal)
+    {
+        if (pred[goal] == -2)
+        {
+            return null;
+        }
+
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        for (int v = goal; pred[v] != -1; v = graph.getSource(pred[v]))
+        {
+            path.add(0, pred[v]);
+        }
+
+        int[] result = new int[path.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = path.get(i);
+        }
+        return result;
+    }
+
+
+
+    /** Compare all the searches of the router with Dijkstra for every pair
+     * of nodes */
+    private void checkAllPairs()
+    {
+        int n = graph.getNumNodes();
+        double[] dist = new double[n];
+        int unreachable = 0;
+
+        for (int s = 0; s < n; s++)
+        {
+            int[] pred = dijkstra(graph, s, dist);
+            for (int g = 0; g < n; g++)
+            {
+                String where = s + " -> " + g;
+                int[] expected = getPath(graph, pred, g);
+                if (expected == null)
+                {
+                    unreachable++;
+                }
+
+                assertArrayEquals(where, expected, router.getEdgePath(s, g));
+                assertArrayEquals(where, expected, router.getEdgePathBidirectional(s, g));
+                assertEquals(where, dist[g], router.getCost(graph.getNode(s), graph.getNode(g)), 1e-9);
+
+                List<GeomPlanarGraphDirectedEdge> edges = router.getPath(graph.getNode(s), graph.getNode(g));
+                assertEquals(where, expected == null ? 0 : expected.length, edges.size());
+                for (int i = 0; i < edges.size(); i++)
+                {
+                    assertSame(where, graph.getEdge(expected[i]), edges.get(i));
+                }
+            }
+        }
+
+        // the separate segment
+        assertTrue(unreachable > 0);
+    }
+
+
+
+    @Test
+    public void testAgainstDijkstra()
+    {
+        System.out.println("againstDijkstra");
+
+        checkAllPairs();
+
+        for (int s = 0; s < graph.getNumNodes(); s++)
+        {
+            assertEquals(0, router.getEdgePath(s, s).length);
+            assertEquals(0, router.getEdgePathBidirectional(s, s).length);
+            assertEquals(0, router.getCost(graph.getNode(s), graph.getNode(s)), 0);
+        }
+    }
+
+
+
+    @Test
+    public void testWeightChanges()
+    {
+        System.out.println("weightChanges");
+
+        final int[] changed = new int[] { -2 };
+        graph.addWeightListener(new RoutingGraph.WeightListener()
+        {
+            public void weightChanged(int edge, double oldWeight, double newWeight)
+            {
+                changed[0] = edge;
+            }
+        });
+
+        // close the edges of a few shortest paths, then double every weight
+        Random random = new Random(3);
+        int version = graph.getVersion();
+        for (int i = 0; i < 10; i++)
+        {
+            int[] path = router.getEdgePath(random.nextInt(graph.getNumNodes()), random.nextInt(graph.getNumNodes()));
+            if (path != null && path.length > 0)
+            {
+                int e = path[random.nextInt(path.length)];
+                graph.setWeight(graph.getEdge(e), Double.POSITIVE_INFINITY);
+                assertEquals(e, changed[0]);
+                assertEquals(++version, graph.getVersion());
+            }
+        }
+        checkAllPairs();
+
+        graph.setWeights(new RoutingGraph.EdgeWeight()
+        {
+            public double getWeight(GeomPlanarGraphDirectedEdge edge)
+            {
+                return 2 * graph.getWeight(graph.getEdgeIndex(edge));
+            }
+        });
+        assertEquals(-1, changed[0]);
+        assertEquals(++version, graph.getVersion());
+        checkAllPairs();
+    }
+
+
+
+    @Test
+    public void testGetPaths()
+    {
+        System.out.println("getPaths");
+
+        Random random = new Random(5);
+        List<Node> starts = new ArrayList<Node>(), goals = new ArrayList<Node>();
+        for (int i = 0; i < 200; i++)
+        {
+            starts.add(graph.getNode(random.nextInt(graph.getNumNodes())));
+            goals.add(graph.getNode(random.nextInt(graph.getNumNodes())));
+        }
+
+        ArrayList<ArrayList<GeomPlanarGraphDirectedEdge>> paths = router.getPaths(starts, goals);
+        for (int i = 0; i < starts.size(); i++)
+        {
+            assertEquals(router.getPath(starts.get(i), goals.get(i)), paths.get(i));
+        }
+    }
+
+}
@@ -517,6 +517,9 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
             @deprecated use paintComponent() or paint(...) */
         public void paintComponent(Graphics g, boolean buffer)
             {
+            // a frame just rendered by the rendering thread?  Then don't bother the model
+            if (movieMaker == null && drawRenderedFrame(g)) return;
+            
             synchronized(Display2D.this.simulation.state.schedule)  // for getTime()
                 {
                 if (movieMaker!=null)  // we're writing a movie
@@ -588,15 +591,18 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
             {
             synchronized(Display2D.this.simulation.state.schedule)
                 {
-                BufferedImage result = null;
-                Rectangle2D clip = computeClip();
-                if (!buffered)
-                    paintUnbuffered((Graphics2D)graphics,clip);
-                else
-                    result= paintBuffered((Graphics2D)graphics,clip);
-                if (!shared) buffer = null; // kill it so paintBuffered(graphics,clip) makes a new one next time
-                if (result != null) result.flush();  // just in case
-                return result;
+                synchronized(renderLock)
+                    {
+                    BufferedImage result = null;
+                    Rectangle2D clip = computeClip();
+                    if (!buffered)
+                        paintUnbuffered((Graphics2D)graphics,clip);
+                    else
+                        result= paintBuffered((Graphics2D)graphics,clip);
+                    if (!shared) buffer = null; // kill it so paintBuffered(graphics,clip) makes a new one next time
+                    if (result != null) result.flush();  // just in case
+                    return result;
+                    }
                 }
             }
                  
@@ -639,6 +645,12 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
         /** Paints an image unbuffered inside the provided clip. Not synchronized.
             You should probably call paintComponent() instead. */
         void paintUnbuffered(Graphics2D g, Rectangle2D clip)
+            {
+            paintUnbuffered(g, clip, null);
+            }
+            
+        /** Paints the given frame, or if it is null the fields themselves, inside the provided clip. */
+        void paintUnbuffered(Graphics2D g, Rectangle2D clip, RenderFrame frame)
             {
             if (g==null) return;
             
@@ -654,11 +666,11 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
                     g.fillRect((int)clip.getX(),(int)clip.getY(),(int)clip.getWidth(),(int)clip.getHeight());
                     }
                 
-                Iterator iter = portrayals.iterator();
-                while (iter.hasNext())
+                Object[] holders = (frame == null ? portrayals.toArray() : frame.holders);
+                for(int i = 0; i < holders.length; i++)
                     {
-                    FieldPortrayal2DHolder p = (FieldPortrayal2DHolder)(iter.next());
-                    if (p.visible)
+                    FieldPortrayal2DHolder p = (FieldPortrayal2DHolder)(holders[i]);
+                    if (frame == null ? p.visible : frame.visible[i])
                         {
                         // set buffering if necessary
                         int buf = p.portrayal.getBuffering();
@@ -668,8 +680,11 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
                         g.setClip(g.getClip());
                         
                         // do the drawing
-                        p.portrayal.draw(p.portrayal.getField(), // I could have passed null in here too
-                            g, getDrawInfo2D(p, clip));
+                        if (frame == null)
+                            p.portrayal.draw(p.portrayal.getField(), // I could have passed null in here too
+                                g, getDrawInfo2D(p, clip));
+                        else
+                            p.portrayal.drawSnapshot(frame.snapshots[i], g, getDrawInfo2D(p, clip));
                         
                         // reset the buffering if necessary
                         p.portrayal.setBuffering(buf);
@@ -1142,6 +1157,7 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
         if (stopper!=null) stopper.stop();
         stopper = null;
         stopMovie();
+        setAsynchronousRendering(false);
         }
         
     /** Resets the Display2D so it reschedules itself and clears out all selections.  This is useful when reusing the Display2D. */
@@ -1550,21 +1566,24 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
     */
     public Bag[] objectsHitBy( final Rectangle2D.Double rect )
         {
-        Bag[] hitObjs = new Bag[portrayals.size()];
-        Iterator iter = portrayals.iterator();
-        int x=0;
-                
-        while (iter.hasNext())
+        synchronized(renderLock)  // the rendering thread may be drawing snapshots in place of the fields
             {
-            hitObjs[x] = new Bag();
-            FieldPortrayal2DHolder p = (FieldPortrayal2DHolder)(iter.next());
-            if (p.visible)
+            Bag[] hitObjs = new Bag[portrayals.size()];
+            Iterator iter = portrayals.iterator();
+            int x=0;
+                
+            while (iter.hasNext())
                 {
-                p.portrayal.hitObjects(getDrawInfo2D(p, rect), hitObjs[x]);
+                hitObjs[x] = new Bag();
+                FieldPortrayal2DHolder p = (FieldPortrayal2DHolder)(iter.next());
+                if (p.visible)
+                    {
+                    p.portrayal.hitObjects(getDrawInfo2D(p, rect), hitObjs[x]);
+                    }
+                x++;
                 }
-            x++;
+            return hitObjs;
             }
-        return hitObjs;
         }
         
     /** Returns LocationWrappers for all the objects which overlap with the point specified by 'point'.  This 
@@ -2040,6 +2059,194 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
             }
         }
         
+    /////// ASYNCHRONOUS RENDERING
+    
+    /** Held while drawing the fields, or snapshots in their place, and while hit-testing them. 
+        Always acquired after the schedule, never before. */
+    final Object renderLock = new Object();
+    /** Guards the frames passed between the model thread, the rendering thread, and Swing */
+    final Object frameLock = new Object();
+    
+    boolean asynchronousRendering = false;
+    Thread renderThread = null;
+    
+    /** The latest frame published by step() and not yet rendered */
+    RenderFrame pendingFrame = null;
+    /** The latest rendered frame, its image, and whether it has been drawn to the screen yet */
+    RenderFrame renderedFrame = null;
+    BufferedImage renderedImage = null;
+    boolean renderedFrameFresh = false;
+    /** Images the rendering thread alternates between, so it never draws into the one on screen */
+    BufferedImage[] renderImages = new BufferedImage[2];
+    
+    /** Snapshots of the visible fields, and the view they are to be drawn in */
+    static class RenderFrame
+        {
+        Object[] holders;
+        boolean[] visible;
+        Object[] snapshots;
+        Rectangle2D clip;
+        double scale;
+        double xOffset;
+        double yOffset;
+                
+        boolean sameView(RenderFrame other)
+            {
+            return other != null && clip.equals(other.clip) && scale == other.scale && 
+                xOffset == other.xOffset && yOffset == other.yOffset && Arrays.equals(visible, other.visible);
+            }
+        }
+    
+    /** Sets whether the Display2D renders in its own thread.  When it does, each time step() decides
+        to update (see the update rules in the Options pane, which thus set the rendering cadence),
+        it only asks each visible FieldPortrayal2D for a snapshot of its field (see 
+        FieldPortrayal2D.getFieldSnapshot()) and returns; a separate thread then draws the latest 
+        snapshots, dropping frames if the model is faster than the drawing, and Swing merely copies
+        the result to the screen.  The model thus no longer waits for the drawing.  If any visible
+        portrayal can't make a snapshot, or while a movie is being recorded, drawing happens as usual.
+        Off by default. */
+    public void setAsynchronousRendering(boolean val)
+        {
+        synchronized(frameLock)
+            {
+            if (val == asynchronousRendering) return;
+            asynchronousRendering = val;
+            pendingFrame = null;
+            renderedFrame = null;
+            renderedImage = null;
+            renderImages = new BufferedImage[2];
+            if (val)
+                {
+                renderThread = new Thread(new Runnable()
+                    {
+                    public void run() { renderLoop(); }
+                    });
+                renderThread.setName("Display2D Renderer");
+                renderThread.setDaemon(true);
+                renderThread.start();
+                }
+            else
+                {
+                renderThread = null;
+                frameLock.notifyAll();  // wake the rendering thread up so it can quit
+                }
+            }
+        }
+        
+    /** Returns whether the Display2D renders in its own thread. */
+    public boolean getAsynchronousRendering() { synchronized(frameLock) { return asynchronousRendering; } }
+    
+    /** Takes snapshots of the visible fields and hands them to the rendering thread, replacing any frame
+        it has not started on yet.  Called with the schedule locked.  Returns false if some field could not
+        be snapshotted. */
+    boolean publishFrame()
+        {
+        RenderFrame frame = new RenderFrame();
+        frame.holders = portrayals.toArray();
+        frame.visible = new boolean[frame.holders.length];
+        frame.snapshots = new Object[frame.holders.length];
+        for(int i = 0; i < frame.holders.length; i++)
+            {
+            FieldPortrayal2DHolder p = (FieldPortrayal2DHolder)(frame.holders[i]);
+            if (!p.visible) continue;
+            frame.visible[i] = true;
+            frame.snapshots[i] = p.portrayal.getFieldSnapshot();
+            if (frame.snapshots[i] == null && p.portrayal.getField() != null) return false;
+            }
+        frame.clip = insideDisplay.computeClip();
+        frame.scale = getScale();
+        frame.xOffset = insideDisplay.xOffset;
+        frame.yOffset = insideDisplay.yOffset;
+        
+        synchronized(frameLock)
+            {
+            if (!asynchronousRendering) return false;
+            pendingFrame = frame;
+            frameLock.notifyAll();
+            }
+        return true;
+        }
+    
+    /** The rendering thread: draws the latest published frame into an image, then asks Swing to show it. */
+    void renderLoop()
+        {
+        Thread me = Thread.currentThread();
+        while(true)
+            {
+            RenderFrame frame;
+            BufferedImage image;
+            synchronized(frameLock)
+                {
+                while (pendingFrame == null && renderThread == me)
+                    {
+                    try { frameLock.wait(); }
+                    catch (InterruptedException e) { }
+                    }
+                if (renderThread != me) return;
+                frame = pendingFrame;
+                pendingFrame = null;
+                // draw into whichever image isn't on screen
+                image = (renderImages[0] != null && renderImages[0] == renderedImage) ? renderImages[1] : renderImages[0];
+                }
+                
+            int w = (int)frame.clip.getWidth();
+            int h = (int)frame.clip.getHeight();
+            if (w <= 0 || h <= 0) continue;
+            if (image == null || image.getWidth() != w || image.getHeight() != h)
+                {
+                GraphicsConfiguration config = insideDisplay.getGraphicsConfiguration();
+                image = (config == null ? new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB) : config.createCompatibleImage(w, h));
+                }
+                        
+            Graphics2D g = (Graphics2D)(image.getGraphics());
+            g.setColor(port.getBackground());
+            g.fillRect(0, 0, w, h);
+            g.translate(-(int)frame.clip.getX(), -(int)frame.clip.getY());
+            synchronized(renderLock)
+                {
+                insideDisplay.paintUnbuffered(g, frame.clip, frame);
+                }
+            g.dispose();
+
+            synchronized(frameLock)
+                {
+                if (renderThread != me) return;
+                if (renderImages[0] == null || renderImages[0] == renderedImage) renderImages[1] = image;
+                else renderImages[0] = image;
+                renderedImage = image;
+                renderedFrame = frame;
+                renderedFrameFresh = true;
+                }
+            insideDisplay.repaint();
+            }
+        }
+    
+    /** Copies the frame just rendered by the rendering thread to the screen, if any, and if the view
+        hasn't changed since.  Returns false if Swing should paint as usual instead, as for repaints
+        requested by anything else than the rendering thread. */
+    boolean drawRenderedFrame(Graphics g)
+        {
+        synchronized(frameLock)
+            {
+            if (!asynchronousRendering || !renderedFrameFresh || renderedImage == null) return false;
+            renderedFrameFresh = false;
+            
+            RenderFrame now = new RenderFrame();
+            now.clip = insideDisplay.computeClip();
+            now.scale = getScale();
+            now.xOffset = insideDisplay.xOffset;
+            now.yOffset = insideDisplay.yOffset;
+            now.visible = new boolean[portrayals.size()];
+            for(int i = 0; i < now.visible.length; i++)
+                now.visible[i] = ((FieldPortrayal2DHolder)(portrayals.get(i))).visible;
+            if (!now.sameView(renderedFrame)) return false;
+            
+            ((Graphics2D)g).setRenderingHints(insideDisplay.bufferedHints);
+            g.drawImage(renderedImage, (int)(renderedFrame.clip.getX()), (int)(renderedFrame.clip.getY()), null);
+            return true;
+            }
+        }
+
     /** Used internally and by Display3D to indicate */
     public final static int UPDATE_RULE_STEPS = 0;
     public final static int UPDATE_RULE_INTERNAL_TIME = 1;
@@ -2517,7 +2724,9 @@ public class Display2D extends JComponent implements Steppable, Manipulating2D
             if (insideDisplay.isShowing()
                 && (getFrame().getExtendedState() & java.awt.Frame.ICONIFIED) == 0)   // not minimized on the Mac
                 {
-                insideDisplay.repaint();
+                // hand a snapshot to the rendering thread if we can, else repaint as usual
+                if (!(asynchronousRendering && movieMaker == null && publishFrame()))
+                    insideDisplay.repaint();
                 }
             else if (movieMaker != null)  // we're not being displayed but we still need to output to a movie
                 {
@@ -0,0 +1,267 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.display;
+import sim.engine.*;
+import sim.portrayal.*;
+import sim.util.media.*;
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+   HeadlessDisplay2D draws FieldPortrayal2Ds into off-screen images and saves them as a numbered
+   sequence of PNG files, without Swing, a GUIState, or a Console.  This lets you make movies of long
+   runs from a plain SimState, for example one run with SimState.doLoop(...) from the command line.
+
+   <p>Attach portrayals as you would to a Display2D, then schedule the HeadlessDisplay2D, typically
+   in your SimState's start() method:
+
+   <pre><tt>
+   HeadlessDisplay2D display = new HeadlessDisplay2D(600, 600, new File("frames"), "heatbugs");
+   display.attach(bugPortrayal, "Bugs");
+   display.schedule(this, 10);    // a frame every 10 steps
+   </tt></pre>
+
+   ... and call display.finish() in your SimState's finish() method.  The frames are named
+   <i>prefix</i>000000.png, <i>prefix</i>000001.png, and so on; tools such as ffmpeg will stitch them into a movie.
+
+   <p>Drawing is done in step(), on the model thread, as the fields may not be changed while being drawn.
+   Encoding and writing the PNG files, which takes much longer, is handed to a pool of background threads,
+   each of which can also spread the compression of its image over several threads (see
+   PNGEncoder.setNumThreads(...)).  The pool holds a bounded number of waiting frames: once it's full,
+   the model thread encodes the next frame itself, so the model can't outrun the disk by more than that.
+
+   <p>The DrawInfo2Ds handed to the portrayals have a null GUIState, so portrayals which rely on it will not work here.
+*/
+
+public class HeadlessDisplay2D implements Steppable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** A portrayal and where it's drawn */
+    static class Layer implements Serializable
+        {
+        FieldPortrayal2D portrayal;
+        String name;
+        Rectangle2D.Double bounds;
+        private static final long serialVersionUID = 1;
+
+        Layer(FieldPortrayal2D portrayal, String name, Rectangle2D.Double bounds)
+            {
+            this.portrayal = portrayal;
+            this.name = name;
+            this.bounds = bounds;
+            }
+        }
+
+    int width;
+    int height;
+    File directory;
+    String prefix;
+    ArrayList layers = new ArrayList();
+    Paint backdrop = Color.white;
+
+    int frame = 0;
+    int compressionLevel = 9;
+    int numEncoders = Runtime.getRuntime().availableProcessors();
+    int threadsPerFrame = 1;
+    int maxWaitingFrames = 2 * Runtime.getRuntime().availableProcessors();
+
+    transient ThreadPoolExecutor encoders = null;
+    transient IOException exception = null;
+    final Object[] exceptionLock = new Object[0];  // an array is a unique, serializable object
+
+    /** Creates a HeadlessDisplay2D which draws frames of the given width and height in pixels, saving them
+        into the given directory with file names beginning with the given prefix. */
+    public HeadlessDisplay2D(int width, int height, File directory, String prefix)
+        {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Width and height must be > 0");
+        this.width = width;
+        this.height = height;
+        this.directory = directory;
+        this.prefix = (prefix == null ? "" : prefix);
+        }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /** Attaches a portrayal with an origin at (0,0) and a width and height equal to those of the frames.
+        Portrayals are drawn in the order that they are attached. */
+    public void attach(FieldPortrayal2D portrayal, String name)
+        {
+        attach(portrayal, name, new Rectangle2D.Double(0, 0, width, height));
+        }
+
+    /** Attaches a portrayal with its origin, width and height, in pixels, given in the bounds rectangle.
+        Portrayals are drawn in the order that they are attached. */
+    public void attach(FieldPortrayal2D portrayal, String name, Rectangle2D.Double bounds)
+        {
+        layers.add(new Layer(portrayal, name, bounds));
+        }
+
+    /** Detatches all portrayals */
+    public void detatchAll()
+        {
+        layers.clear();
+        }
+
+    /** Sets the paint drawn behind the portrayals.  By default this is white.  */
+    public void setBackdrop(Paint c) { backdrop = c; }
+
+    /** Returns the paint drawn behind the portrayals. */
+    public Paint getBackdrop() { return backdrop; }
+
+    /** Sets the PNG compression level, from 0 to 9.  By default this is 9, as in Display2D's snapshots. */
+    public void setCompressionLevel(int level)
+        {
+        if (level < 0 || level > 9) throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        compressionLevel = level;
+        }
+
+    public int getCompressionLevel() { return compressionLevel; }
+
+    /** Sets how many frames may be encoded at once, how many threads each frame may be compressed with,
+        and how many frames may wait to be encoded before the model thread starts encoding them itself.
+        By default frames are encoded on as many threads as there are processors, each on a single thread,
+        with up to twice as many frames waiting.  Takes effect on the next frame after finish(). */
+    public void setThreads(int numEncoders, int threadsPerFrame, int maxWaitingFrames)
+        {
+        if (numEncoders < 1 || threadsPerFrame < 1 || maxWaitingFrames < 1)
+            throw new IllegalArgumentException("Numbers of threads and frames must be >= 1");
+        this.numEncoders = numEncoders;
+        this.threadsPerFrame = threadsPerFrame;
+        this.maxWaitingFrames = maxWaitingFrames;
+        }
+
+    /** Returns the number of the next frame to be saved. */
+    public int getFrame() { return frame; }
+
+    /** Sets the number of the next frame to be saved.  Frames are numbered from 0 by default. */
+    public void setFrame(int frame) { this.frame = frame; }
+
+    /** Schedules the HeadlessDisplay2D to save a frame every <i>interval</i> steps, after all the agents
+        stepped at that time. */
+    public Stoppable schedule(SimState state, double interval)
+        {
+        return state.schedule.scheduleRepeating(Schedule.EPOCH, Integer.MAX_VALUE, this, interval);
+        }
+
+    /** Draws the attached portrayals into a new image, on the current thread.  This does not save the image. */
+    public BufferedImage render()
+        {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        paint(g);
+        g.dispose();
+        return image;
+        }
+
+    /** Draws the attached portrayals into the given graphics, over an area of getWidth() by getHeight() pixels. */
+    public void paint(Graphics2D g)
+        {
+        Rectangle2D.Double clip = new Rectangle2D.Double(0, 0, width, height);
+        g.setPaint(backdrop);
+        g.fill(clip);
+        for(int i = 0; i < layers.size(); i++)
+            {
+            Layer layer = (Layer)(layers.get(i));
+            DrawInfo2D info = new DrawInfo2D(null, layer.portrayal, layer.bounds, clip, null);
+            layer.portrayal.draw(layer.portrayal.getField(), g, info);
+            }
+        }
+
+    /** Draws a frame and hands it to the background threads to be saved. */
+    public void step(SimState state)
+        {
+        checkException();
+
+        final BufferedImage image = render();
+        final File file = new File(directory, prefix + String.format("%06d", new Object[] { Integer.valueOf(frame++) }) + ".png");
+
+        if (encoders == null)
+            {
+            encoders = new ThreadPoolExecutor(numEncoders, numEncoders, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue(maxWaitingFrames),
+                new ThreadFactory()
+                    {
+                    public Thread newThread(Runnable r)
+                        {
+                        Thread thread = new Thread(r);
+                        thread.setName("HeadlessDisplay2D Encoder");
+                        thread.setDaemon(true);
+                        return thread;
+                        }
+                    },
+                new ThreadPoolExecutor.CallerRunsPolicy());   // the queue is full: encode on the model thread
+            }
+
+        encoders.execute(new Runnable()
+            {
+            public void run()
+                {
+                PNGEncoder encoder = new PNGEncoder(image, false, PNGEncoder.FILTER_NONE, compressionLevel);
+                encoder.setNumThreads(threadsPerFrame);
+                OutputStream stream = null;
+                try
+                    {
+                    // encode before opening the file, so that a failed frame leaves no empty file behind
+                    byte[] png = encoder.pngEncode();
+                    if (png == null)
+                        throw new IOException("Could not encode " + file + " as a PNG image");
+                    stream = new BufferedOutputStream(new FileOutputStream(file));
+                    stream.write(png);
+                    }
+                catch (IOException e)
+                    {
+                    synchronized(exceptionLock) { if (exception == null) exception = e; }
+                    }
+                finally
+                    {
+                    try { if (stream != null) stream.close(); }
+                    catch (IOException e) { synchronized(exceptionLock) { if (exception == null) exception = e; } }
+                    }
+                }
+            });
+        }
+
+    /** Waits for all the frames handed to the background threads to be saved, then shuts the threads down.
+        If any frame could not be saved, throws a RuntimeException wrapping the first IOException.
+        The HeadlessDisplay2D may continue to be used afterwards. */
+    public void finish()
+        {
+        if (encoders != null)
+            {
+            encoders.shutdown();
+            try
+                {
+                while(!encoders.awaitTermination(1, TimeUnit.SECONDS));
+                }
+            catch (InterruptedException e)
+                {
+                Thread.currentThread().interrupt();
+                }
+            encoders = null;
+            }
+        checkException();
+        }
+
+    void checkException()
+        {
+        synchronized(exceptionLock)
+            {
+            if (exception != null)
+                {
+                IOException e = exception;
+                exception = null;
+                throw new RuntimeException("HeadlessDisplay2D could not save a frame", e);
+                }
+            }
+        }
+    }
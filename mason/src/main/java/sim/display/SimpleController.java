@@ -639,25 +639,13 @@ public class SimpleController implements Controller
                 final int xx = x; // duh, Java's anonymous classes are awful compared to true closures...
                 Steppable stepper = new Steppable()
                     {
+                    Inspector inspector = (Inspector)(inspectors.objs[xx]);
                     public void step(final SimState state)
                         {
-                        SwingUtilities.invokeLater(new Runnable()
-                            {
-                            Inspector inspector = (Inspector)(inspectors.objs[xx]);
-                            public void run()
-                                {
-                                synchronized(state.schedule)
-                                    {
-                                    // this is called while we have a lock on state.schedule,
-                                    // so we have control over the model.
-                                    if (inspector.isVolatile()) 
-                                        {
-                                        inspector.updateInspector();
-                                        inspector.repaint();
-                                        }
-                                    }
-                                }
-                            });
+                        // the InspectorUpdater updates the inspector along with all the others, on the
+                        // Event Dispatch Thread, while holding the lock on state.schedule
+                        if (inspector.isVolatile()) 
+                            InspectorUpdater.request(inspector, state);
                         }
                     };
                 
@@ -135,9 +135,26 @@ public abstract class SparseField implements java.io.Serializable
         {
         removeEmptyBags = other.removeEmptyBags;
         replaceLargeBags = other.replaceLargeBags;
-        locationAndIndexHash = buildMap(other.locationAndIndexHash);
-        objectHash = buildMap(other.objectHash);
         allObjects = new Bag(other.allObjects);
+        
+        // the bags and LocationAndIndex objects are changed in place as objects come and go, so copy them too
+        objectHash = buildMap(other.objectHash.size());
+        Iterator i = other.objectHash.entrySet().iterator();
+        while(i.hasNext())
+            {
+            Map.Entry entry = (Map.Entry)(i.next());
+            objectHash.put(entry.getKey(), new Bag((Bag)(entry.getValue())));
+            }
+        locationAndIndexHash = buildMap(other.locationAndIndexHash.size());
+        i = other.locationAndIndexHash.entrySet().iterator();
+        while(i.hasNext())
+            {
+            Map.Entry entry = (Map.Entry)(i.next());
+            LocationAndIndex lai = (LocationAndIndex)(entry.getValue());
+            LocationAndIndex copy = new LocationAndIndex(lai.location, lai.index);
+            copy.otherObjectsAtLocation = (Bag)(objectHash.get(lai.location));
+            locationAndIndexHash.put(entry.getKey(), copy);
+            }
         }
         
     /** Returns the index of the object in the allObjects Bag, if the object exists, else returns -1. */
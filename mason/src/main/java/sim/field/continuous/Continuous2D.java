@@ -107,6 +107,7 @@ public /*strictfp*/ class Continuous2D extends SparseField implements SparseFiel
     public Continuous2D(Continuous2D other)
         {
         super(other);
+        doubleLocationHash = buildMap(other.doubleLocationHash);
         discretization = other.discretization;
         width = other.width;
         height = other.height;
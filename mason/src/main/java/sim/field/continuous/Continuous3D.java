@@ -96,6 +96,7 @@ public /*strictfp*/ class Continuous3D extends SparseField implements SparseFiel
     public Continuous3D(Continuous3D other)
         {
         super(other);
+        doubleLocationHash = buildMap(other.doubleLocationHash);
         discretization = other.discretization;
         width = other.width;
         height = other.height;
@@ -0,0 +1,158 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.portrayal;
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import sim.util.gui.*;
+
+/**
+   A raster of how many objects fall on each pixel of the clip, drawn through a ColorMap in the style of
+   FastValueGridPortrayal2D.  ContinuousPortrayal2D and SparseGridPortrayal2D use it to draw fields so
+   crowded that drawing the objects one by one would only pile them onto the same pixels.
+   NetworkPortrayal2D likewise uses it to count how many edges cross each pixel.
+
+   <p>To use: reset(...) the raster to the clip, add(...) the on-screen position of each object
+   (or addLine(...) each edge), then draw(...).
+   Empty pixels are left transparent; the others are given map.getRGB(<i>count</i>).
+*/
+
+public class DensityRaster
+    {
+    /** The default map: light grey for a single object, going to black at 32 objects per pixel. */
+    public static final ColorMap DEFAULT_MAP = new SimpleColorMap(1, 32, Color.lightGray, Color.black);
+
+    ColorMap map = DEFAULT_MAP;
+
+    int x;
+    int y;
+    int width;
+    int height;
+    int[] counts = new int[0];
+    int[] data = new int[0];
+    BufferedImage buffer;
+    WritableRaster raster;
+
+    public ColorMap getMap() { return map; }
+    public void setMap(ColorMap map)
+        {
+        if (map == null) throw new RuntimeException("map must be non-null");
+        this.map = map;
+        }
+
+    /** Clears the raster and sizes it to cover the given clip, in pixels. */
+    public void reset(Rectangle2D clip)
+        {
+        x = (int)Math.floor(clip.getX());
+        y = (int)Math.floor(clip.getY());
+        width = Math.max(0, (int)Math.ceil(clip.getX() + clip.getWidth()) - x);
+        height = Math.max(0, (int)Math.ceil(clip.getY() + clip.getHeight()) - y);
+        if (counts.length != width * height)
+            {
+            counts = new int[width * height];
+            data = new int[width * height];
+            }
+        else java.util.Arrays.fill(counts, 0);
+        }
+
+    /** Counts an object at the given on-screen position.  Positions outside the clip are ignored. */
+    public void add(double screenX, double screenY)
+        {
+        int px = (int)Math.floor(screenX) - x;
+        int py = (int)Math.floor(screenY) - y;
+        if (px >= 0 && px < width && py >= 0 && py < height)
+            counts[py * width + px]++;
+        }
+
+    /** Counts each pixel crossed by the line from (x0, y0) to (x1, y1), in on-screen coordinates.
+        The parts of the line outside the clip are ignored. */
+    public void addLine(double x0, double y0, double x1, double y1)
+        {
+        // clip the line to the raster first (Liang-Barsky), else long lines would cost us dearly
+        final double dx = x1 - x0;
+        final double dy = y1 - y0;
+        t0 = 0;
+        t1 = 1;
+        if (!clipTest(-dx, x0 - x) || !clipTest(dx, x + width - x0) ||
+            !clipTest(-dy, y0 - y) || !clipTest(dy, y + height - y0))
+            return;
+        final double sx = x0 + t0 * dx;
+        final double sy = y0 + t0 * dy;
+        final double ex = x0 + t1 * dx;
+        final double ey = y0 + t1 * dy;
+                
+        // step along the longer axis one pixel at a time
+        final int steps = (int)Math.ceil(Math.max(Math.abs(ex - sx), Math.abs(ey - sy)));
+        final double stepX = (steps == 0 ? 0 : (ex - sx) / steps);
+        final double stepY = (steps == 0 ? 0 : (ey - sy) / steps);
+        int last = -1;
+        for(int i = 0; i <= steps; i++)
+            {
+            int px = (int)Math.floor(sx + i * stepX) - x;
+            int py = (int)Math.floor(sy + i * stepY) - y;
+            if (px >= 0 && px < width && py >= 0 && py < height)
+                {
+                int pixel = py * width + px;
+                if (pixel != last) counts[pixel]++;  // don't count a pixel twice
+                last = pixel;
+                }
+            }
+        }
+        
+    double t0;
+    double t1;
+        
+    // One Liang-Barsky test of the line against a side of the raster, narrowing [t0, t1].
+    // Returns false if the line falls entirely outside.
+    boolean clipTest(double p, double q)
+        {
+        if (p == 0) return q >= 0;
+        double r = q / p;
+        if (p < 0)
+            {
+            if (r > t1) return false;
+            if (r > t0) t0 = r;
+            }
+        else
+            {
+            if (r < t0) return false;
+            if (r < t1) t1 = r;
+            }
+        return true;
+        }
+
+    /** Draws the counts over the clip given to reset(...). */
+    public void draw(Graphics2D graphics)
+        {
+        if (width == 0 || height == 0) return;
+        if (buffer == null || buffer.getWidth() != width || buffer.getHeight() != height)
+            {
+            if (buffer != null) buffer.flush();
+            buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB); // transparency allowed
+            raster = buffer.getRaster();
+            }
+
+        final int[] counts = this.counts;
+        final int[] data = this.data;
+        final ColorMap map = this.map;
+        int lastCount = 0;
+        int lastRGB = 0;
+        for(int i = 0; i < counts.length; i++)
+            {
+            final int c = counts[i];
+            if (c == 0) data[i] = 0;  // transparent
+            else
+                {
+                // neighboring pixels tend to have the same counts, so don't bother the map
+                if (c != lastCount) { lastCount = c; lastRGB = map.getRGB(c); }
+                data[i] = lastRGB;
+                }
+            }
+        raster.setDataElements(0, 0, width, height, data);
+        graphics.drawImage(buffer, x, y, null);
+        }
+    }
@@ -40,7 +40,7 @@ import sim.display.*;
     <p>...where <i>getWrapper(...)</i> returns a LocationWrapper appropriate to the Field.
 */
 
-public abstract class FieldPortrayal2D extends FieldPortrayal implements Portrayal2D
+public abstract class FieldPortrayal2D extends FieldPortrayal implements Portrayal2D, Cloneable
     {
     /** Returns the position on-screen of an object at a given location in the field,
         using another object's location and DrawInfo2D to perform the computation. 
@@ -103,6 +103,45 @@ public abstract class FieldPortrayal2D extends FieldPortrayal implements Portray
         {
         }
     
+    /** Returns a copy of the field which can be drawn by another thread while the model keeps running,
+        or null if this portrayal can't make one, in which case the field will be drawn with the
+        schedule locked as usual.  Called by Display2D, with the schedule locked, when it renders
+        asynchronously.  The default version copies Continuous2D, SparseGrid2D, ObjectGrid2D, IntGrid2D,
+        and DoubleGrid2D fields with their copy constructors, and returns immutable fields as they are.
+        The objects in the fields are not copied, so portrayals which look at the state of the objects
+        may see it while it is changing.  Override this if your portrayal draws some other kind of field. */
+    public Object getFieldSnapshot()
+        {
+        Object f = field;
+        if (f == null || immutableField) return f;
+        if (f instanceof sim.field.continuous.Continuous2D) return new sim.field.continuous.Continuous2D((sim.field.continuous.Continuous2D) f);
+        if (f instanceof sim.field.grid.SparseGrid2D) return new sim.field.grid.SparseGrid2D((sim.field.grid.SparseGrid2D) f);
+        if (f instanceof sim.field.grid.ObjectGrid2D) return new sim.field.grid.ObjectGrid2D((sim.field.grid.ObjectGrid2D) f);
+        if (f instanceof sim.field.grid.IntGrid2D) return new sim.field.grid.IntGrid2D((sim.field.grid.IntGrid2D) f);
+        if (f instanceof sim.field.grid.DoubleGrid2D) return new sim.field.grid.DoubleGrid2D((sim.field.grid.DoubleGrid2D) f);
+        return null;
+        }
+        
+    /** Draws a snapshot of the field, as returned by getFieldSnapshot().  Called by Display2D's rendering
+        thread, without the schedule locked.  The snapshot is drawn by a shallow copy of this portrayal
+        (see clone()) whose field is the snapshot, so this portrayal's own field is never touched and
+        nobody has to wait for the drawing.  The copy shares everything else with this portrayal, so
+        it draws with the same settings; but any caches it fills are lost with it. */
+    public void drawSnapshot(Object snapshot, Graphics2D graphics, DrawInfo2D info)
+        {
+        FieldPortrayal2D copy;
+        try
+            {
+            copy = (FieldPortrayal2D)(clone());
+            }
+        catch (CloneNotSupportedException e)
+            {
+            throw new InternalError("FieldPortrayal2D is Cloneable");  // never happens
+            }
+        copy.field = snapshot;
+        copy.draw(snapshot, graphics, info);
+        }
+
     SimplePortrayal2D simple = new SimplePortrayal2D();
     public Portrayal getDefaultPortrayal()
         {
@@ -165,9 +165,13 @@ public abstract class Inspector extends JPanel
     public String getTitle() { return title; } 
     public void setTitle(String title) { this.title = title; } 
     
+    // how long updateInspector() takes, smoothed, and when it may next be called, in nanoseconds: see InspectorUpdater
+    long updateCost;
+    long nextUpdate;
+
     /**
        Called whenever the system needs to get a Steppable which, when stepped, will update the inspector and
-       repaint it. 
+       repaint it.  The update is made, on the Event Dispatch Thread, by the InspectorUpdater.
     */
     public Steppable getUpdateSteppable()
         {
@@ -175,17 +179,7 @@ public abstract class Inspector extends JPanel
             {
             public void step(final SimState state)
                 {
-                SwingUtilities.invokeLater(new Runnable()
-                    {
-                    public void run()
-                        {
-                        synchronized(state.schedule)
-                            {
-                            Inspector.this.updateInspector();
-                            Inspector.this.repaint();
-                            }
-                        }
-                    });
+                InspectorUpdater.request(Inspector.this, state);
                 }
             };
         }
@@ -248,6 +242,7 @@ public abstract class Inspector extends JPanel
                 {
                 stopper.stop();
                 stopped = true;
+                InspectorUpdater.cancel(Inspector.this);  // drop any update still waiting
                 }
             };
         }
@@ -0,0 +1,139 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.portrayal;
+import sim.engine.*;
+import javax.swing.*;
+import java.awt.event.*;
+import java.util.*;
+
+/**
+   Gathers the updates requested of all open Inspectors into batches run on the Swing Event Dispatch Thread.
+   The Console and the Inspectors' update Steppables call request(...) from the model thread, rather than
+   each posting its own Runnable to the event queue.
+
+   <p>An Inspector asked to update several times before the batch gets to run is updated just once, so
+   a fast model can no longer flood the event queue.  And the batch updates all of its Inspectors while holding
+   the schedule lock just once, so they all show the model as it was at the same moment.
+
+   <p>The batch also measures how long each Inspector takes to update, and holds back expensive ones
+   so that no Inspector spends more than a given fraction of the time updating (see setMaxLoad(...)).  A
+   held-back Inspector is updated by a later batch, so it always catches up with the model eventually.
+*/
+
+public class InspectorUpdater
+    {
+    static final Object lock = new Object();
+    // Inspectors waiting for their update, and the model each is watching, in the order they were requested
+    static LinkedHashMap pending = new LinkedHashMap();
+    static boolean batchPosted = false;
+    static javax.swing.Timer timer = null;
+    static double maxLoad = 0.1;
+
+    InspectorUpdater() { }
+
+    /** Sets the largest fraction of the time which any one Inspector may spend updating itself: an inspector which
+        takes <i>t</i> seconds to update is updated at most once every <i>t</i>/<i>load</i> seconds.  By default
+        the load is 0.1.  A load of 1.0 or more turns this throttling off. */
+    public static void setMaxLoad(double load)
+        {
+        if (!(load > 0)) throw new IllegalArgumentException("Load must be > 0");
+        synchronized(lock) { maxLoad = load; }
+        }
+
+    public static double getMaxLoad() { synchronized(lock) { return maxLoad; } }
+
+    /** Asks that the given inspector, watching the given model, be updated and repainted on the
+        Event Dispatch Thread.  May be called from any thread. */
+    public static void request(Inspector inspector, SimState state)
+        {
+        synchronized(lock)
+            {
+            pending.put(inspector, state);
+            if (batchPosted) return;
+            batchPosted = true;
+            }
+        SwingUtilities.invokeLater(new Runnable() { public void run() { runBatch(); } });
+        }
+
+    /** Forgets any update requested of the given inspector which hasn't happened yet.  Called when
+        the inspector's Stoppable (see Inspector.reviseStopper(...)) is stopped. */
+    public static void cancel(Inspector inspector)
+        {
+        synchronized(lock) { pending.remove(inspector); }
+        }
+
+    static void runBatch()
+        {
+        HashMap batch;
+        double load;
+        synchronized(lock)
+            {
+            batch = pending;
+            pending = new LinkedHashMap();
+            batchPosted = false;
+            load = maxLoad;
+            }
+
+        long wakeup = Long.MAX_VALUE;
+        while(!batch.isEmpty())
+            {
+            // Update together all the inspectors watching the same model
+            Iterator i = batch.entrySet().iterator();
+            SimState state = (SimState)(((Map.Entry)(i.next())).getValue());
+            synchronized(state.schedule)
+                {
+                i = batch.entrySet().iterator();
+                while(i.hasNext())
+                    {
+                    Map.Entry entry = (Map.Entry)(i.next());
+                    if (entry.getValue() != state) continue;
+                    i.remove();
+                    Inspector inspector = (Inspector)(entry.getKey());
+                    if (inspector.stopped) continue;   // closed or removed since it was requested
+                    long now = System.nanoTime();
+                    if (load < 1.0 && now - inspector.nextUpdate < 0)   // not yet: hold it back
+                        {
+                        wakeup = Math.min(wakeup, inspector.nextUpdate - now);
+                        hold(inspector, state);
+                        continue;
+                        }
+
+                    inspector.updateInspector();
+                    inspector.repaint();
+
+                    // the cost of updating is smoothed a bit, as the first few updates are always slow
+                    long cost = System.nanoTime() - now;
+                    inspector.updateCost = (inspector.updateCost == 0 ? cost : (3 * inspector.updateCost + cost) / 4);
+                    inspector.nextUpdate = now + (long)(inspector.updateCost / load);
+                    }
+                }
+            }
+
+        if (wakeup != Long.MAX_VALUE)
+            {
+            if (timer == null)
+                {
+                timer = new javax.swing.Timer(0, new ActionListener()
+                    {
+                    public void actionPerformed(ActionEvent e) { runBatch(); }
+                    });
+                timer.setRepeats(false);
+                }
+            timer.setInitialDelay((int)Math.max(1, wakeup / 1000000));
+            timer.restart();
+            }
+        }
+
+    // Puts a held-back inspector back in the queue, unless it's been asked for again since
+    static void hold(Inspector inspector, SimState state)
+        {
+        synchronized(lock)
+            {
+            if (!pending.containsKey(inspector)) pending.put(inspector, state);
+            }
+        }
+    }
@@ -14,11 +14,16 @@ import java.awt.geom.*;
 import java.util.*;
 import sim.portrayal.inspector.*;
 import sim.display.*;
+import sim.util.gui.ColorMap;
 
 /**
    Portrays Continuous2D fields.  When asked to portray objects, this field computes the buckets
    covered by the requested region, then includes an additional boundary of two buckets in each
-   direction just in case objects leak over the boundary region.
+   direction just in case objects leak over the boundary region.  Unless it is displaying toroidally,
+   it then only visits the objects in those buckets, if there are fewer buckets than objects in the field.
+   
+   <p>If there are more objects in the field than setDensityThreshold(...) objects per pixel, the portrayal
+   draws how many objects fall on each pixel rather than the objects themselves.  See DensityRaster.
    
    The 'location' passed
    into the DrawInfo2D handed to the SimplePortryal2D is a Double2D.
@@ -176,6 +181,53 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
         if they overlap on the edges of the field. */
     public boolean isDisplayingToroidally() { return displayingToroidally; }
         
+    double densityThreshold = Double.POSITIVE_INFINITY;
+    DensityRaster densityRaster = new DensityRaster();
+    
+    /** Sets the number of objects per pixel, on average over the field as drawn, above which the portrayal
+        draws a density raster rather than the objects.  Hit-testing still considers each object.
+        By default this is positive infinity, that is, the objects are always drawn. */
+    public void setDensityThreshold(double val) { densityThreshold = val; }
+
+    /** Returns the number of objects per pixel above which the portrayal draws a density raster. */
+    public double getDensityThreshold() { return densityThreshold; }
+        
+    /** Sets the ColorMap, from objects per pixel to colors, of the density raster. */
+    public void setDensityMap(ColorMap map) { densityRaster.setMap(map); }
+        
+    /** Returns the ColorMap, from objects per pixel to colors, of the density raster. */
+    public ColorMap getDensityMap() { return densityRaster.getMap(); }
+        
+    /** Returns the objects in the buckets overlapping the given region, in the order they appear in
+        field.getAllObjects(), or null if the region has so many buckets that going through all the objects
+        is cheaper. */
+    Bag getObjectsInBuckets(Continuous2D field, double minx, double miny, double maxx, double maxy)
+        {
+        final Bag all = field.getAllObjects();
+        final double discretization = field.discretization;
+        final int bx0 = (int)Math.floor(minx / discretization);
+        final int by0 = (int)Math.floor(miny / discretization);
+        final int bx1 = (int)Math.floor(maxx / discretization);
+        final int by1 = (int)Math.floor(maxy / discretization);
+        if ((bx1 - bx0 + 1L) * (by1 - by0 + 1L) >= all.numObjs) return null;
+                
+        // gather the objects by their index so they're drawn in the usual order
+        IntBag indices = new IntBag();
+        for(int bx = bx0; bx <= bx1; bx++)
+            for(int by = by0; by <= by1; by++)
+                {
+                Bag bucket = field.getObjectsAtDiscretizedLocation(new Int2D(bx, by));
+                if (bucket == null) continue;
+                for(int i = 0; i < bucket.numObjs; i++)
+                    indices.add(field.getObjectIndex(bucket.objs[i]));
+                }
+        indices.sort();
+        Bag result = new Bag(indices.numObjs);
+        for(int i = 0; i < indices.numObjs; i++)
+            result.add(all.objs[indices.objs[i]]);
+        return result;
+        }
+        
     protected void hitOrDraw(Graphics2D graphics, DrawInfo2D info, Bag putInHere)
         {
         final Continuous2D field = (Continuous2D)this.field;
@@ -194,11 +246,20 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
         newinfo.precise = info.precise;
         newinfo.fieldPortrayal = this;
 
-        // hit/draw the objects one by one -- perhaps for large numbers of objects it would
-        // be smarter to grab the objects out of the buckets that specifically are inside
-        // our range...
-        Bag objects = field.getAllObjects();
+        // hit/draw the objects one by one, grabbing them out of the buckets that are inside
+        // our range if that's cheaper.  Toroidal copies may come from anywhere, so we don't then.
         final double discretizationOverlap = field.discretization;
+        Bag objects = null;
+        if (!displayingToroidally)
+            objects = getObjectsInBuckets(field, startx - discretizationOverlap, starty - discretizationOverlap,
+                endx + discretizationOverlap, endy + discretizationOverlap);
+        if (objects == null)
+            objects = field.getAllObjects();
+                
+        // too many objects per pixel to bother drawing them?
+        final boolean dense = (graphics != null && 
+            field.size() > densityThreshold * info.draw.width * info.draw.height);
+        if (dense) densityRaster.reset(info.clip);
         for(int x=0;x<objects.numObjs;x++)
             {
             Object object = (objects.objs[x]);
@@ -225,6 +286,12 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
                 if (loc.x >= startx - discretizationOverlap && loc.x < endx + discretizationOverlap &&
                     loc.y >= starty - discretizationOverlap && loc.y < endy + discretizationOverlap)
                     {
+                    if (dense)
+                        {
+                        densityRaster.add(info.draw.x + (xScale) * loc.x, info.draw.y + (yScale) * loc.y);
+                        continue;
+                        }
+                        
                     Portrayal p = getPortrayalForObject(object);
                     if (!(p instanceof SimplePortrayal2D))
                         throw new RuntimeException("Unexpected Portrayal " + p + " for object " + 
@@ -254,6 +321,7 @@ public class ContinuousPortrayal2D extends FieldPortrayal2D
                 }
             }
             
+        if (dense) densityRaster.draw(graphics);
         drawAxes(graphics, xScale, yScale, info);
         drawBorder(graphics, xScale, info);
         }
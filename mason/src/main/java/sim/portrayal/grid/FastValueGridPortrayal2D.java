@@ -11,6 +11,7 @@ import java.awt.*;
 import java.awt.geom.*;
 import java.awt.image.*;
 import sim.util.gui.ColorMap;
+import sim.util.gui.SimpleColorMap;
 
 /**
    This class works like a ValueGridPortrayal2D, <b>except</b> that it doesn't use an underlying Portrayal for the object
@@ -27,6 +28,13 @@ import sim.util.gui.ColorMap;
    <p>If your grid does change but only occasionally, you can also use this technique as well; just manually call reset() 
    whenever the grid changes to inform the FastValueGridPortrayal2D that it needs to re-compute the buffer.  reset() is threadsafe.
 
+   <p>When the buffer is redrawn, it is reloaded a tile (64x64 cells) at a time, and only for the tiles whose values
+   have changed since they were last drawn.  A tile's values are compared by a 64-bit hash rather than one by one.  A change to a single cell
+   always changes the hash, but two different sets of values could in principle hash the same, with a chance of about 1 in 2^64 per changed
+   tile, in which case the tile will show its old colors until it changes again or reset() is called.  Likewise the buffer is reloaded in full
+   when you give the portrayal a new ColorMap, but not when you change the current ColorMap in place (with setLevels(...) or setColorTable(...),
+   say), so in that case you must call reset() too.
+
    <h3>Important Note on Drawing Methods</h3>
 
    FastValueGridPortrayal2D can draw a grid in two ways.  First, it can draw each of the rects individually ("USE_BUFFER").  Second, it can create a bitmap the size of the grid (one pixel per grid location), poke the colors into the bitmap, then stretch the bitmap over the area and draw it ("DONT_USE_BUFFER").  You can specify the method by calling the <b>setBuffering()</b> method; optionally you can just let FastValueGridPortrayal2D guess which to use ("DEFAULT").  But you should know what you're doing, as methods can be <i>much</i> faster than each other depending on the situation.  Use the following as guides
@@ -102,7 +110,232 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
         
     BufferedImage buffer;
     WritableRaster raster;
-    int[] data = new int[0];
+
+    /** Width and height, in cells, of the tiles the buffer is loaded in. */
+    static final int TILE_SIZE = 64;
+    /** Below this many cells to look at, tiles are loaded in a single thread. */
+    static final int MIN_PARALLEL_CELLS = 256 * 256;
+    /** IntGrid2D values spanning more than this get no color lookup table. */
+    static final int MAX_LOOKUP_TABLE_SIZE = 65536;
+
+    // hashes of the values last loaded into each tile of the buffer, valid only where loadedTiles is true
+    long[] tileHashes = new long[0];
+    boolean[] loadedTiles = new boolean[0];
+    ColorMap loadedMap = null;
+
+    /** Something done to one tile at a time.  Each thread gets its own scratch array of TILE_SIZE * TILE_SIZE. */
+    abstract static class TileJob
+        {
+        abstract void run(int tile, int[] scratch);
+        }
+
+    /** Runs the job on tiles 0 through n-1, spread over the processors if there are enough cells to bother. */
+    static void forEachTile(final int n, int cells, boolean parallel, final TileJob job)
+        {
+        final int numThreads = Math.min(n, Runtime.getRuntime().availableProcessors());
+        if (!parallel || numThreads <= 1 || cells < MIN_PARALLEL_CELLS)
+            {
+            int[] scratch = new int[TILE_SIZE * TILE_SIZE];
+            for(int i = 0; i < n; i++)
+                job.run(i, scratch);
+            return;
+            }
+
+        java.util.ArrayList<java.util.concurrent.Callable<Object>> workers = new java.util.ArrayList<java.util.concurrent.Callable<Object>>();
+        for(int t = 0; t < numThreads; t++)
+            {
+            final int first = t;
+            workers.add(new java.util.concurrent.Callable<Object>()
+                {
+                public Object call()
+                    {
+                    int[] scratch = new int[TILE_SIZE * TILE_SIZE];
+                    for(int i = first; i < n; i += numThreads)
+                        job.run(i, scratch);
+                    return null;
+                    }
+                });
+            }
+        try
+            {
+            java.util.List<java.util.concurrent.Future<Object>> results = java.util.concurrent.ForkJoinPool.commonPool().invokeAll(workers);
+            for(int i = 0; i < results.size(); i++)
+                results.get(i).get();
+            }
+        catch (InterruptedException e)
+            {
+            Thread.currentThread().interrupt();
+            }
+        catch (java.util.concurrent.ExecutionException e)
+            {
+            throw new RuntimeException(e.getCause());
+            }
+        }
+
+    /** Loads the colors of the cells from (sx, sy) to (ex, ey), exclusive, into the buffer, a tile at a time.  
+        Unless reload is true, tiles whose values hash the same as when they were last loaded are skipped (see the
+        class comment about hash collisions), so if you change the ColorMap in place (its levels for example), you
+        should call reset().  IntGrid2D values are colored
+        through a lookup table built once per load if they span a small enough range.  The tiles are spread over 
+        the processors when there are enough of them and the map is a SimpleColorMap or the lookup table is used; 
+        other ColorMaps are only called from this thread as they might not be threadsafe. */
+    void loadBuffer(final Grid2D field, int sx, int sy, int ex, int ey, boolean reload)
+        {
+        final int maxX = field.getWidth();
+        final int maxY = field.getHeight();
+        final int tilesWide = (maxX + TILE_SIZE - 1) / TILE_SIZE;
+        final int tilesHigh = (maxY + TILE_SIZE - 1) / TILE_SIZE;
+        if (tileHashes.length != tilesWide * tilesHigh)
+            {
+            tileHashes = new long[tilesWide * tilesHigh];
+            loadedTiles = new boolean[tilesWide * tilesHigh];
+            }
+        else if (reload || map != loadedMap)
+            java.util.Arrays.fill(loadedTiles, false);
+        loadedMap = map;
+
+        final boolean isDoubleGrid2D = (field instanceof DoubleGrid2D);
+        final double[][] doubleField = (isDoubleGrid2D ? ((DoubleGrid2D) field).field : null);
+        final int[][] intField = (isDoubleGrid2D ? null : ((IntGrid2D) field).field);
+
+        // the tiles overlapping the region
+        final int tx0 = sx / TILE_SIZE;
+        final int ty0 = sy / TILE_SIZE;
+        final int tw = (ex - 1) / TILE_SIZE - tx0 + 1;
+        final int th = (ey - 1) / TILE_SIZE - ty0 + 1;
+        final int n = tw * th;
+        final int cells = Math.min(n * TILE_SIZE * TILE_SIZE, maxX * maxY);
+                
+        // first hash the tiles, gathering the range of int values as we go
+        final long[] hashes = new long[n];
+        final int[] mins = new int[n];
+        final int[] maxs = new int[n];
+        forEachTile(n, cells, true, new TileJob()
+            {
+            void run(int i, int[] scratch)
+                {
+                final int x0 = (tx0 + i % tw) * TILE_SIZE;
+                final int y0 = (ty0 + i / tw) * TILE_SIZE;
+                final int x1 = Math.min(x0 + TILE_SIZE, maxX);
+                final int y1 = Math.min(y0 + TILE_SIZE, maxY);
+                long hash = 0;
+                if (isDoubleGrid2D)
+                    {
+                    for(int x = x0; x < x1; x++)
+                        {
+                        final double[] column = doubleField[x];
+                        for(int y = y0; y < y1; y++)
+                            hash = (Long.rotateLeft(hash, 5) ^ Double.doubleToLongBits(column[y])) * 0x9E3779B97F4A7C15L;
+                        }
+                    }
+                else
+                    {
+                    int min = Integer.MAX_VALUE;
+                    int max = Integer.MIN_VALUE;
+                    for(int x = x0; x < x1; x++)
+                        {
+                        final int[] column = intField[x];
+                        for(int y = y0; y < y1; y++)
+                            {
+                            final int v = column[y];
+                            hash = (Long.rotateLeft(hash, 5) ^ v) * 0x9E3779B97F4A7C15L;
+                            if (v < min) min = v;
+                            if (v > max) max = v;
+                            }
+                        }
+                    mins[i] = min;
+                    maxs[i] = max;
+                    }
+                hashes[i] = hash;
+                }
+            });
+                
+        // which tiles changed?
+        final int[] changed = new int[n];
+        int numChanged = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for(int i = 0; i < n; i++)
+            {
+            final int tile = (ty0 + i / tw) * tilesWide + (tx0 + i % tw);
+            if (loadedTiles[tile] && tileHashes[tile] == hashes[i]) continue;
+            changed[numChanged++] = i;
+            if (mins[i] < min) min = mins[i];
+            if (maxs[i] > max) max = maxs[i];
+            }
+        if (numChanged == 0) return;
+        final int changedCells = Math.min(numChanged * TILE_SIZE * TILE_SIZE, maxX * maxY);
+        
+        // a lookup table for the int values, if it's cheaper than asking the map for every cell
+        final ColorMap map = this.map;
+        int[] _lookupTable = null;
+        if (!isDoubleGrid2D && (long)max - min < Math.min(MAX_LOOKUP_TABLE_SIZE, changedCells))
+            {
+            _lookupTable = new int[max - min + 1];
+            for(int i = 0; i < _lookupTable.length; i++)
+                _lookupTable[i] = map.getRGB(min + i);
+            }
+        final int[] lookupTable = _lookupTable;
+        final int lookupMin = min;
+
+        // now load the changed tiles
+        final int numChangedTiles = numChanged;
+        forEachTile(numChanged, changedCells, lookupTable != null || map instanceof SimpleColorMap, new TileJob()
+            {
+            void run(int c, int[] data)
+                {
+                final int i = changed[c];
+                final int x0 = (tx0 + i % tw) * TILE_SIZE;
+                final int y0 = (ty0 + i / tw) * TILE_SIZE;
+                final int x1 = Math.min(x0 + TILE_SIZE, maxX);
+                final int y1 = Math.min(y0 + TILE_SIZE, maxY);
+                final int w = x1 - x0;
+                if (isDoubleGrid2D)
+                    {
+                    // neighboring cells tend to have the same values, so don't bother the map
+                    double last = Double.NaN;  // never equal to anything
+                    int lastRGB = 0;
+                    for(int x = x0; x < x1; x++)
+                        {
+                        final double[] column = doubleField[x];
+                        for(int y = y0, j = x - x0; y < y1; y++, j += w)
+                            {
+                            final double v = column[y];
+                            if (v != last) { last = v; lastRGB = map.getRGB(v); }
+                            data[j] = lastRGB;
+                            }
+                        }
+                    }
+                else if (lookupTable != null)
+                    {
+                    for(int x = x0; x < x1; x++)
+                        {
+                        final int[] column = intField[x];
+                        for(int y = y0, j = x - x0; y < y1; y++, j += w)
+                            data[j] = lookupTable[column[y] - lookupMin];
+                        }
+                    }
+                else
+                    {
+                    for(int x = x0; x < x1; x++)
+                        {
+                        final int[] column = intField[x];
+                        for(int y = y0, j = x - x0; y < y1; y++, j += w)
+                            data[j] = map.getRGB(column[y]);
+                        }
+                    }
+                raster.setDataElements(x0, y0, w, y1 - y0, data);
+                }
+            });
+                    
+        for(int c = 0; c < numChangedTiles; c++)
+            {
+            final int i = changed[c];
+            final int tile = (ty0 + i / tw) * tilesWide + (tx0 + i % tw);
+            tileHashes[tile] = hashes[i];
+            loadedTiles[tile] = true;
+            }
+        }
 
     // Should draw itself within the box from (0,0) to (1,1)
     public void draw(Object object, Graphics2D graphics, DrawInfo2D info)
@@ -174,42 +407,20 @@ public class FastValueGridPortrayal2D extends ValueGridPortrayal2D
             //_buffer = buffer;
             //}
 
-            if (newBuffer || !immutableField || isDirtyField())  // we have to load the buffer
+            if (immutableField)
+                {
+                // must load ENTIRE buffer
+                if (newBuffer || isDirtyField())
+                    loadBuffer(field, 0, 0, maxX, maxY, true);
+                }
+            else
                 {
                 if (endx > maxX) endx = maxX;
                 if (endy > maxY) endy = maxY;
                 if( startx < 0 ) startx = 0;
                 if( starty < 0 ) starty = 0;
-                
-                final int ex = endx;
-                final int ey = endy;
-                final int sx = startx;
-                final int sy = starty;
-                
-                if (immutableField)
-                    {
-                    // must load ENTIRE buffer
-                    startx = 0; starty = 0; endx = maxX; endy = maxY;
-                    }
-
-                final ColorMap map = this.map;
-            
-                if (ex-sx > 0 && ey-sy > 0)  // could be otherwise if drawing off-screen...
-                    {
-                    int[] data = this.data;  // reuse
-                    if (data.length != (ex-sx)*(ey-sy)) 
-                        data = this.data = new int[(ex-sx)*(ey-sy)];
-                    int i = 0;
-                    if (isDoubleGrid2D)
-                        for(int y=sy;y<ey;y++)
-                            for(int x=sx;x<ex;x++)
-                                data[i++] = map.getRGB(doubleField[x][y]);
-                    else
-                        for(int y=sy;y<ey;y++)
-                            for(int x=sx;x<ex;x++)
-                                data[i++] = map.getRGB(intField[x][y]);
-                    raster.setDataElements(sx,sy,ex-sx,ey-sy,data);
-                    }
+                if (endx-startx > 0 && endy-starty > 0)  // could be otherwise if drawing off-screen...
+                    loadBuffer(field, startx, starty, endx, endy, newBuffer || isDirtyField());
                 }
                 
             // MacOS X 10.3 Panther has a bug which resets the clip, YUCK
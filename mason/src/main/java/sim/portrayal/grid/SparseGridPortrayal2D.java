@@ -15,12 +15,18 @@ import java.util.*;
 import java.awt.geom.*;
 import sim.portrayal.inspector.*;
 import sim.display.*;
+import sim.util.gui.ColorMap;
 
 /**
    Can be used to draw both continuous and discrete sparse fields.
 
    The 'location' passed
    into the DrawInfo2D handed to the SimplePortryal2D is an Int2D.
+   
+   <p>Only the objects in the cells within the requested region (plus a boundary in case objects leak
+   over it) are visited, if there are fewer such cells than objects in the field.  If there are more objects
+   in the field than setDensityThreshold(...) objects per pixel, the portrayal draws how many objects fall
+   on each pixel rather than the objects themselves.  See DensityRaster.
 */
 
 public class SparseGridPortrayal2D extends FieldPortrayal2D
@@ -69,6 +75,38 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
         else throw new RuntimeException("Invalid field for Sparse2DPortrayal: " + field);
         }
     
+    double densityThreshold = Double.POSITIVE_INFINITY;
+    DensityRaster densityRaster = new DensityRaster();
+    
+    /** Sets the number of objects per pixel, on average over the field as drawn, above which the portrayal
+        draws a density raster rather than the objects.  Hit-testing still considers each object.
+        By default this is positive infinity, that is, the objects are always drawn. */
+    public void setDensityThreshold(double val) { densityThreshold = val; }
+
+    /** Returns the number of objects per pixel above which the portrayal draws a density raster. */
+    public double getDensityThreshold() { return densityThreshold; }
+        
+    /** Sets the ColorMap, from objects per pixel to colors, of the density raster. */
+    public void setDensityMap(ColorMap map) { densityRaster.setMap(map); }
+        
+    /** Returns the ColorMap, from objects per pixel to colors, of the density raster. */
+    public ColorMap getDensityMap() { return densityRaster.getMap(); }
+        
+    /** Returns the bags of objects at the cells in the given region, inclusive, or null if the region has so 
+        many cells that going through all the objects is cheaper. */
+    Bag getLocationBags(SparseGrid2D field, int minx, int miny, int maxx, int maxy)
+        {
+        if ((maxx - minx + 1L) * (maxy - miny + 1L) >= field.size()) return null;
+        Bag result = new Bag();
+        for(int x = minx; x <= maxx; x++)
+            for(int y = miny; y <= maxy; y++)
+                {
+                Bag objects = field.getObjectsAtLocation(x, y);
+                if (objects != null) result.add(objects);
+                }
+        return result;
+        }
+
     public Double2D getScale(DrawInfo2D info)
         {
         synchronized(info.gui.state.schedule)
@@ -208,6 +246,14 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
         newinfo.precise = info.precise;
         newinfo.fieldPortrayal = this;
 
+        // the bags at the cells in our range, if that's cheaper than going through everything
+        final Bag locationBags = getLocationBags(field, startx - 2, starty - 2, endx + 3, endy + 3);
+        
+        // too many objects per pixel to bother drawing them?
+        final boolean dense = (graphics != null && 
+            field.size() > densityThreshold * info.draw.width * info.draw.height);
+        if (dense) densityRaster.reset(info.clip);
+
         // If the person has specified a policy, we have to iterate through the
         // bags.  At present we have to do this by using a hash table iterator
         // (yuck -- possibly expensive, have to search through empty locations).
@@ -216,7 +262,7 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
         if (policy != null && graphics != null)
             {
             Bag policyBag = new Bag();
-            Iterator iterator = field.locationBagIterator();
+            Iterator iterator = (locationBags == null ? field.locationBagIterator() : locationBags.iterator());
             while(iterator.hasNext())
                 {
                 Bag objects = (Bag)(iterator.next());
@@ -239,6 +285,12 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
                     if (loc.x >= startx -2 && loc.x < endx + 4 &&
                         loc.y >= starty -2 && loc.y < endy + 4)
                         {
+                        if (dense)
+                            {
+                            densityRaster.add(info.draw.x + (xScale) * (loc.x + 0.5), info.draw.y + (yScale) * (loc.y + 0.5));
+                            continue;
+                            }
+                        
                         Portrayal p = getPortrayalForObject(portrayedObject);
                         if (!(p instanceof SimplePortrayal2D))
                             throw new RuntimeException("Unexpected Portrayal " + p + " for object " + 
@@ -275,6 +327,23 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
         else            // the easy way -- draw the objects one by one
             {
             Bag objects = field.getAllObjects();
+            if (locationBags != null)
+                {
+                // gather the objects in our range by their index so they're drawn in the usual order
+                IntBag indices = new IntBag();
+                for(int i = 0; i < locationBags.numObjs; i++)
+                    {
+                    Bag b = (Bag)(locationBags.objs[i]);
+                    for(int j = 0; j < b.numObjs; j++)
+                        indices.add(field.getObjectIndex(b.objs[j]));
+                    }
+                indices.sort();
+                Bag all = objects;
+                objects = new Bag(indices.numObjs);
+                for(int i = 0; i < indices.numObjs; i++)
+                    objects.add(all.objs[indices.objs[i]]);
+                }
+                
             for(int x=0;x<objects.numObjs;x++)
                 {
                 final Object portrayedObject = objects.objs[x];
@@ -286,6 +355,12 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
                 if (loc.x >= startx -2 && loc.x < endx + 4 &&
                     loc.y >= starty -2 && loc.y < endy + 4)
                     {
+                    if (dense)
+                        {
+                        densityRaster.add(info.draw.x + (xScale) * (loc.x + 0.5), info.draw.y + (yScale) * (loc.y + 0.5));
+                        continue;
+                        }
+                        
                     Portrayal p = getPortrayalForObject(portrayedObject);
                     if (!(p instanceof SimplePortrayal2D))
                         throw new RuntimeException("Unexpected Portrayal " + p + " for object " + 
@@ -327,6 +402,7 @@ public class SparseGridPortrayal2D extends FieldPortrayal2D
                 }
             }
 
+        if (dense) densityRaster.draw(graphics);
         drawGrid(graphics, xScale, yScale, maxX, maxY, info);
         drawBorder(graphics, xScale, info);
         }
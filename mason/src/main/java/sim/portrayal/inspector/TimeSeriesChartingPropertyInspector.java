@@ -32,7 +32,9 @@ import org.jfree.chart.*;
 public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspector
     {
     XYSeries chartSeries = null;
-    XYSeries aggregateSeries = new XYSeries("ChartingPropertyInspector.temp", false);
+    // the samples gathered since the last interval, kept as primitives rather than as XYDataItems
+    DoubleBag aggregateX = new DoubleBag();
+    DoubleBag aggregateY = new DoubleBag();
 
     protected boolean validChartGenerator(ChartGenerator generator) { return generator instanceof TimeSeriesChartGenerator; }
 
@@ -127,8 +129,9 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
         GlobalAttributes globalAttributes = getGlobalAttributes();
                 
         // FIRST, load the aggregate series with the items
-        aggregateSeries.add(time, d = valueFor(properties.getValue(index)), false);
-        int len = aggregateSeries.getItemCount();
+        aggregateX.add(time);
+        aggregateY.add(d = valueFor(properties.getValue(index)));
+        int len = aggregateX.numObjs;
                                         
         // SECOND, determine if it's time to dump stuff into the main series
         long interval = globalAttributes.interval;
@@ -146,16 +149,15 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
         double temp;
         switch(globalAttributes.aggregationMethod)
             {
-            case AGGREGATIONMETHOD_CURRENT:  // in this case the aggregateSeries is sort of worthless
+            case AGGREGATIONMETHOD_CURRENT:  // in this case the aggregate samples are sort of worthless
                 addToMainSeries(time, d, false);
                 break;
             case AGGREGATIONMETHOD_MAX:
                 double maxX = 0;
                 for(int i=0;i<len;i++)
                     {
-                    XYDataItem item = (XYDataItem)(aggregateSeries.getDataItem(i));
-                    y = item.getY().doubleValue();
-                    temp = item.getX().doubleValue();
+                    y = aggregateY.objs[i];
+                    temp = aggregateX.objs[i];
                     if( maxX < temp || i==0) maxX = temp;
                     }
                 addToMainSeries( maxX, y, false );
@@ -164,9 +166,8 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
                 double minX = 0;
                 for(int i=0;i<len;i++)
                     {
-                    XYDataItem item = (XYDataItem)(aggregateSeries.getDataItem(i));
-                    y = item.getY().doubleValue();
-                    temp = item.getX().doubleValue();
+                    y = aggregateY.objs[i];
+                    temp = aggregateX.objs[i];
                     if( minX > temp || i==0) minX = temp;
                     }
                 addToMainSeries( minX, y, false );
@@ -176,9 +177,8 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
                 int n = 0;
                 for(int i=0;i<len;i++)
                     {
-                    XYDataItem item = (XYDataItem)(aggregateSeries.getDataItem(i));
-                    y = item.getY().doubleValue();
-                    sumX += item.getX().doubleValue();
+                    y = aggregateY.objs[i];
+                    sumX += aggregateX.objs[i];
                     n++;
                     }
                 if (n == 0)
@@ -190,7 +190,8 @@ public class TimeSeriesChartingPropertyInspector extends ChartingPropertyInspect
             default:
                 throw new RuntimeException("No valid aggregation method provided");
             }
-        aggregateSeries.clear();
+        aggregateX.clear();
+        aggregateY.clear();
         }
 
     // Should not load data except when the simulation is running
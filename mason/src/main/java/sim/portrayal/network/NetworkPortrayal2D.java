@@ -10,6 +10,7 @@ import sim.field.continuous.*;
 import sim.field.network.*;
 import sim.field.*;
 import sim.util.*;
+import sim.util.gui.*;
 import java.awt.*;
 import java.awt.geom.*;
 import java.util.*;
@@ -19,6 +20,14 @@ import java.util.*;
    ContinuousPortrayal2D or SparseGridPortrayal2D.  The 'location' passed
    into the DrawInfo2D handed to the SimplePortryal2D is the Edge itself,
    while the 'object' passed to the SimplePortryal2D is the Edge's info object. 
+   
+   <p>Edges whose lines pass nowhere near the clip (see setMargin(...)) are neither drawn nor hit.
+   To hit-test, NetworkPortrayal2D looks up the edges near the hit region in an index of the bounding
+   boxes of their lines, which it rebuilds whenever it is drawn or the schedule has stepped since.  If you
+   move nodes or change edges from the GUI between draws without stepping, redraw before hit-testing.
+   And if the network has very many edges for the area it's drawn in (see setDensityThreshold(...)),
+   rather than drawing the edges one by one NetworkPortrayal2D draws how many edges cross each pixel.
+   See DensityRaster.
 */
 
 public class NetworkPortrayal2D extends FieldPortrayal2D
@@ -27,8 +36,238 @@ public class NetworkPortrayal2D extends FieldPortrayal2D
     SimpleEdgePortrayal2D defaultPortrayal = new SimpleEdgePortrayal2D();
     public Portrayal getDefaultPortrayal() { return defaultPortrayal; }
 
+    // how far, in pixels, an edge's line may pass from the clip and still be drawn or hit
+    double margin = 16;
+        
+    /** Sets how far, in pixels, an edge's line may pass outside the clip or hit region and still be drawn, or
+        asked by its portrayal whether it was hit.  Edges further away are passed over without bothering their portrayals.
+        Defaults to 16, which covers SimpleEdgePortrayal2D's five-pixel slop and a fairly wide line.  If your edges
+        are much wider than this, or have long labels, increase the margin, or set it to Double.POSITIVE_INFINITY to
+        consult every edge. */
+    public void setMargin(double margin) { this.margin = margin; }
+        
+    /** Returns how far, in pixels, an edge's line may pass outside the clip or hit region and still be drawn or hit. */
+    public double getMargin() { return margin; }
+
+    double densityThreshold = Double.POSITIVE_INFINITY;
+    DensityRaster densityRaster = new DensityRaster();
+    
+    /** Sets the number of edges per pixel, on average over the field as drawn, above which the portrayal
+        draws a density raster rather than the edges.  Hit-testing still considers the edges themselves.
+        By default this is positive infinity, that is, the edges are always drawn. */
+    public void setDensityThreshold(double val) { densityThreshold = val; }
+
+    /** Returns the number of edges per pixel above which the portrayal draws a density raster. */
+    public double getDensityThreshold() { return densityThreshold; }
+        
+    /** Sets the ColorMap, from edges per pixel to colors, of the density raster. */
+    public void setDensityMap(ColorMap map) { densityRaster.setMap(map); }
+        
+    /** Returns the ColorMap, from edges per pixel to colors, of the density raster. */
+    public ColorMap getDensityMap() { return densityRaster.getMap(); }
+        
+    /** Returns the number of edges in the network, counting undirected edges twice. */
+    int countEdges(Network network)
+        {
+        Bag nodes = network.getAllNodes();
+        int count = 0;
+        for(int x=0;x<nodes.numObjs;x++)
+            count += network.getEdgesOut(nodes.objs[x]).numObjs;
+        return count;
+        }
+
+    /** Returns the pixel, along one axis, at which an object at the given location is drawn: for grids, the center of its cell. */
+    static double toPixel(double loc, double origin, double scale, boolean continuous)
+        {
+        if (continuous) return origin + scale * loc;
+        double pixel = (int)Math.floor(origin + scale * loc);
+        double width = (int)Math.floor(origin + scale * (loc+1)) - pixel;
+        return pixel + width / 2.0;
+        }
+
+    /** Buckets the edges of a SpatialNetwork2D by the bounding boxes of their lines, in field coordinates,
+        so that hit-testing need only look at the edges near the hit region.  An index is a snapshot: it
+        is built for the network as it was at a given step of the schedule, and thrown away when the
+        portrayal is next drawn or the schedule moves on, since nodes may have been moved or edges added. */
+    static class EdgeIndex
+        {
+        // an edge spanning more than this many buckets is not bucketed, but always checked
+        static final int MAX_BUCKETS_PER_EDGE = 16;
+        static final int MAX_BUCKETS_PER_SIDE = 256;
+
+        Network network;
+        SparseField2D field;
+        SparseField2D field2;
+        long steps;
+
+        // each edge, once, with the locations it is drawn from and to
+        Edge[] edges;
+        double[] startX, startY, stopX, stopY;
+
+        // for grids, cells are drawn around their centers
+        double startOffset, stopOffset;
+
+        // the edges of bucket i are bucketEdges[bucketStart[i]] ... bucketEdges[bucketStart[i+1]-1]
+        int buckets;  // along each side
+        double bucketWidth, bucketHeight;
+        int[] bucketStart;
+        int[] bucketEdges;
+        IntBag large = new IntBag();
+
+        // the query in which each edge was last looked at, so each is reported once
+        int[] stamps;
+        int stamp;
+
+        EdgeIndex(SpatialNetwork2D field, SparseField2D otherField, long steps)
+            {
+            this.network = field.network;
+            this.field = field.field;
+            this.field2 = field.field2;
+            this.steps = steps;
+            startOffset = (field.field instanceof Continuous2D ? 0 : 0.5);
+            stopOffset = (otherField instanceof Continuous2D ? 0 : 0.5);
+
+            // gather the edges in the same manner as hitOrDraw(...)
+            Bag nodes = network.getAllNodes();
+            final boolean directed = network.isDirected();
+            HashMap edgemap = new HashMap();
+            Bag found = new Bag();
+            Bag starts = new Bag();
+            Bag stops = new Bag();
+            for(int x=0;x<nodes.numObjs;x++)
+                {
+                Object node = nodes.objs[x];
+                Double2D locStart = field.field.getObjectLocationAsDouble2D(node);
+                if (locStart == null) continue;
+                Bag out = network.getEdgesOut(node);
+                for(int y=0;y<out.numObjs;y++)
+                    {
+                    Edge edge = (Edge)out.objs[y];
+                    if (!directed)
+                        {
+                        if (!edge.from().equals(edge.to()))
+                            {
+                            if (!edge.from().equals(node) &&
+                                field.field.getObjectLocationAsDouble2D(edge.from()) != null) continue;
+                            }
+                        else
+                            {
+                            if (edgemap.containsKey(edge)) continue;
+                            edgemap.put(edge, edge);
+                            }
+                        }
+                    Double2D locStop = otherField.getObjectLocationAsDouble2D(edge.getOtherNode(node));
+                    if (locStop == null) continue;
+                    found.add(edge);
+                    starts.add(locStart);
+                    stops.add(locStop);
+                    }
+                }
+
+            int numEdges = found.numObjs;
+            edges = new Edge[numEdges];
+            startX = new double[numEdges];
+            startY = new double[numEdges];
+            stopX = new double[numEdges];
+            stopY = new double[numEdges];
+            stamps = new int[numEdges];
+            for(int i=0;i<numEdges;i++)
+                {
+                edges[i] = (Edge)found.objs[i];
+                startX[i] = ((Double2D)starts.objs[i]).x;
+                startY[i] = ((Double2D)starts.objs[i]).y;
+                stopX[i] = ((Double2D)stops.objs[i]).x;
+                stopY[i] = ((Double2D)stops.objs[i]).y;
+                }
+
+            // about one edge per bucket
+            Double2D dimensions = field.field.getDimensions();
+            buckets = Math.max(1, Math.min(MAX_BUCKETS_PER_SIDE, (int)Math.sqrt(numEdges)));
+            bucketWidth = (dimensions.x > 0 ? dimensions.x / buckets : 1);
+            bucketHeight = (dimensions.y > 0 ? dimensions.y / buckets : 1);
+
+            // count the edges of each bucket, then fill them in
+            bucketStart = new int[buckets * buckets + 1];
+            for(int pass=0;pass<2;pass++)
+                {
+                if (pass == 1)
+                    {
+                    for(int b=0;b<buckets*buckets;b++) bucketStart[b+1] += bucketStart[b];
+                    bucketEdges = new int[bucketStart[buckets * buckets]];
+                    }
+                for(int i=0;i<numEdges;i++)
+                    {
+                    int bx0 = bucketX(minX(i)), bx1 = bucketX(maxX(i));
+                    int by0 = bucketY(minY(i)), by1 = bucketY(maxY(i));
+                    if ((bx1 - bx0 + 1) * (by1 - by0 + 1) > MAX_BUCKETS_PER_EDGE)
+                        {
+                        if (pass == 0) large.add(i);
+                        continue;
+                        }
+                    for(int bx=bx0;bx<=bx1;bx++)
+                        for(int by=by0;by<=by1;by++)
+                            {
+                            if (pass == 0) bucketStart[bx * buckets + by + 1]++;
+                            else bucketEdges[bucketStart[bx * buckets + by]++] = i;
+                            }
+                    }
+                }
+            // filling in moved each bucket's start to the start of the next one
+            for(int b=buckets*buckets;b>0;b--) bucketStart[b] = bucketStart[b-1];
+            bucketStart[0] = 0;
+            }
+
+        double minX(int i) { return Math.min(startX[i] + startOffset, stopX[i] + stopOffset); }
+        double maxX(int i) { return Math.max(startX[i] + startOffset, stopX[i] + stopOffset); }
+        double minY(int i) { return Math.min(startY[i] + startOffset, stopY[i] + stopOffset); }
+        double maxY(int i) { return Math.max(startY[i] + startOffset, stopY[i] + stopOffset); }
+
+        int bucketX(double x) { return Math.max(0, Math.min(buckets - 1, (int)Math.floor(x / bucketWidth))); }
+        int bucketY(double y) { return Math.max(0, Math.min(buckets - 1, (int)Math.floor(y / bucketHeight))); }
+
+        /** Returns true if the index was built for the given network, fields, and step of the schedule. */
+        boolean isFor(SpatialNetwork2D field, long steps)
+            {
+            return network == field.network && this.field == field.field && field2 == field.field2 && this.steps == steps;
+            }
+
+        /** Places into putInHere the edges, as indices into edges[], whose bounding boxes overlap the given
+            rectangle in field coordinates, and returns it. */
+        IntBag query(double x0, double y0, double x1, double y1, IntBag putInHere)
+            {
+            if (++stamp == Integer.MAX_VALUE)
+                {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+                }
+            for(int k=0;k<large.numObjs;k++)
+                putInHere.add(large.objs[k]);
+
+            int bx1 = bucketX(x1), by1 = bucketY(y1);
+            for(int bx=bucketX(x0);bx<=bx1;bx++)
+                for(int by=bucketY(y0);by<=by1;by++)
+                    {
+                    int b = bx * buckets + by;
+                    for(int k=bucketStart[b];k<bucketStart[b+1];k++)
+                        {
+                        int i = bucketEdges[k];
+                        if (stamps[i] == stamp) continue;
+                        stamps[i] = stamp;
+                        // the bucket clamps edges outside the field into the border buckets, so check the box itself
+                        if (maxX(i) >= x0 && minX(i) <= x1 && maxY(i) >= y0 && minY(i) <= y1)
+                            putInHere.add(i);
+                        }
+                    }
+            return putInHere;
+            }
+        }
+
+    // the edge index used for hit-testing, if any.  Drawing throws it away.
+    EdgeIndex edgeIndex = null;
+
     public void setField(Object field)
         {
+        edgeIndex = null;
         if (field instanceof SpatialNetwork2D ) super.setField(field);
         else throw new RuntimeException("Invalid field for FieldPortrayal2D: " + field);
         }
@@ -37,10 +276,15 @@ public class NetworkPortrayal2D extends FieldPortrayal2D
         {
         final SpatialNetwork2D field = (SpatialNetwork2D)this.field;
         if( field == null ) return;
+        
+        // we're drawing, so the model may have changed since the edge index was built
+        if (graphics != null) edgeIndex = null;
 
         // compute the field for the second endpoint
         SparseField2D otherField = field.field2;  // do we have an auxiliary field?
         if (otherField == null) otherField = field.field;  // I guess not, use the main field
+        final boolean startContinuous = (field.field instanceof Continuous2D);
+        final boolean stopContinuous = (otherField instanceof Continuous2D);
 
         Double2D dimensions = field.field.getDimensions();  // dimensions of the main field
         double xScale = info.draw.width / dimensions.x;
@@ -55,10 +299,32 @@ public class NetworkPortrayal2D extends FieldPortrayal2D
         newinfo.fieldPortrayal = this;
         newinfo.precise = info.precise;
 
-        // draw ALL the edges -- one never knows if an edge will cross into our boundary
+        // go through ALL the edges -- one never knows if an edge will cross into our boundary --
+        // but only bother the portrayals of those whose lines pass within the margin of the clip.
+        // Hit-testing instead looks up the edges near the hit region in the edge index.
         
         Bag nodes = field.network.getAllNodes();
+        final boolean directed = field.network.isDirected();
         HashMap edgemap = new HashMap();        
+
+        final Line2D.Double line = new Line2D.Double();
+        final double mx = info.clip.x - margin;
+        final double my = info.clip.y - margin;
+        final double mw = info.clip.width + 2 * margin;
+        final double mh = info.clip.height + 2 * margin;
+        final boolean cull = (margin < Double.POSITIVE_INFINITY);
+
+        // too many edges per pixel to bother drawing them?  Undirected edges are counted twice, hence the 2.
+        final boolean dense = (graphics != null && densityThreshold < Double.POSITIVE_INFINITY &&
+            countEdges(field.network) > densityThreshold * info.draw.width * info.draw.height * (directed ? 1 : 2));
+        if (dense) densityRaster.reset(info.clip);
+        
+        // hit-testing just needs the edges near the hit region
+        if (graphics == null && cull)
+            {
+            hitIndexed(field, otherField, info, newinfo, putInHere);
+            return;
+            }
                 
         for(int x=0;x<nodes.numObjs;x++)
             {
@@ -68,58 +334,46 @@ public class NetworkPortrayal2D extends FieldPortrayal2D
             if (locStart == null) continue;
                                     
             // coordinates of first endpoint
-            if (field.field instanceof Continuous2D) // it's continuous
-                {
-                newinfo.draw.x = (info.draw.x + (xScale) * locStart.x);
-                newinfo.draw.y = (info.draw.y + (yScale) * locStart.y);
-                }
-            else        // it's a grid
-                {
-                newinfo.draw.x = (int)Math.floor(info.draw.x + (xScale) * locStart.x);
-                newinfo.draw.y = (int)Math.floor(info.draw.y + (yScale) * locStart.y);
-                double width = (int)Math.floor(info.draw.x + (xScale) * (locStart.x+1)) - newinfo.draw.x;
-                double height = (int)Math.floor(info.draw.y + (yScale) * (locStart.y+1)) - newinfo.draw.y;
-
-                // adjust drawX and drawY to center
-                newinfo.draw.x += width / 2.0;
-                newinfo.draw.y += height / 2.0;
-                }
+            newinfo.draw.x = toPixel(locStart.x, info.draw.x, xScale, startContinuous);
+            newinfo.draw.y = toPixel(locStart.y, info.draw.y, yScale, startContinuous);
             
             for(int y=0;y<edges.numObjs;y++)
                 {
                 Edge edge = (Edge)edges.objs[y];
                                 
-                Double2D locStop = otherField.getObjectLocationAsDouble2D(edge.getOtherNode(node));
-                if (locStop == null) continue;
-
-                // only include the edge if we've not included it already.
-                if (!field.network.isDirected())
+                // An undirected edge is in the edges of both its nodes: only include it once, from its from() node,
+                // unless from() has no location in the field, in which case we'd never get there and draw it from to().
+                // A self-loop is in the same node's edges twice, so for them we have to keep track.
+                if (!directed)
                     {
-                    if (edgemap.containsKey(edge)) continue;
-                    edgemap.put(edge, edge);
+                    if (!edge.from().equals(edge.to()))
+                        {
+                        if (!edge.from().equals(node) &&
+                            field.field.getObjectLocationAsDouble2D(edge.from()) != null) continue;
+                        }
+                    else
+                        {
+                        if (edgemap.containsKey(edge)) continue;
+                        edgemap.put(edge, edge);
+                        }
                     }
                                 
+                Double2D locStop = otherField.getObjectLocationAsDouble2D(edge.getOtherNode(node));
+                if (locStop == null) continue;
+
                 // coordinates of second endpoint
-                if (otherField instanceof Continuous2D) // it's continuous
-                    {
-                    newinfo.secondPoint.x = (info.draw.x + (xScale) * locStop.x);
-                    newinfo.secondPoint.y = (info.draw.y + (yScale) * locStop.y);
-                    }
-                else    // it's a grid
+                newinfo.secondPoint.x = toPixel(locStop.x, info.draw.x, xScale, stopContinuous);
+                newinfo.secondPoint.y = toPixel(locStop.y, info.draw.y, yScale, stopContinuous);
+                
+                if (dense)
                     {
-                    newinfo.secondPoint.x = (int)Math.floor(info.draw.x + (xScale) * locStop.x);
-                    newinfo.secondPoint.y = (int)Math.floor(info.draw.y + (yScale) * locStop.y);
-                    double width = (int)Math.floor(info.draw.x + (xScale) * (locStop.x+1)) - newinfo.secondPoint.x;
-                    double height = (int)Math.floor(info.draw.y + (yScale) * (locStop.y+1)) - newinfo.secondPoint.y;
-    
-                    // adjust drawX and drawY to center
-                    newinfo.secondPoint.x += width / 2.0;
-                    newinfo.secondPoint.y += height / 2.0;
+                    densityRaster.addLine(newinfo.draw.x, newinfo.draw.y, newinfo.secondPoint.x, newinfo.secondPoint.y);
+                    continue;
                     }
-                
-                // here's how we could reduce it if we knew that it intersected with the clip.... [cool job, Liviu -- Sean]
-                // Line2D.Double line = new Line2D.Double(newinfo.draw.x, newinfo.draw.y, newinfo.secondPoint.x, newinfo.secondPoint.y);
-                // if (line.intersects (info.clip))
+                                
+                // skip the edge unless it passes near the clip [cool job, Liviu -- Sean]
+                line.setLine(newinfo.draw.x, newinfo.draw.y, newinfo.secondPoint.x, newinfo.secondPoint.y);
+                if (!cull || line.intersects(mx, my, mw, mh))
                     {
                     Portrayal p = getPortrayalForObject(edge);
                     if (!(p instanceof SimpleEdgePortrayal2D))
@@ -145,6 +399,58 @@ public class NetworkPortrayal2D extends FieldPortrayal2D
                     }
                 }
             }
+            
+        if (dense) densityRaster.draw(graphics);
+        }
+        
+    /** Hit-tests the edges whose bounding boxes come within the margin of the hit region, looking them up
+        in the edge index, which is rebuilt if the portrayal has been drawn or the schedule has stepped since. */
+    void hitIndexed(SpatialNetwork2D field, SparseField2D otherField, DrawInfo2D info, EdgeDrawInfo2D newinfo, Bag putInHere)
+        {
+        long steps = (info.gui == null || info.gui.state == null ? -1 : info.gui.state.schedule.getSteps());
+        EdgeIndex index = edgeIndex;  // drawing may throw it away meanwhile
+        if (index == null || !index.isFor(field, steps))
+            edgeIndex = index = new EdgeIndex(field, otherField, steps);
+        
+        Double2D dimensions = field.field.getDimensions();
+        double xScale = info.draw.width / dimensions.x;
+        double yScale = info.draw.height / dimensions.y;
+        final boolean startContinuous = (field.field instanceof Continuous2D);
+        final boolean stopContinuous = (otherField instanceof Continuous2D);
+
+        final Line2D.Double line = new Line2D.Double();
+        final double mx = info.clip.x - margin;
+        final double my = info.clip.y - margin;
+        final double mw = info.clip.width + 2 * margin;
+        final double mh = info.clip.height + 2 * margin;
+
+        // the hit region plus the margin in field coordinates, plus a pixel for grid cells' rounding
+        IntBag found = index.query(
+            (mx - 1 - info.draw.x) / xScale, (my - 1 - info.draw.y) / yScale,
+            (mx + mw + 1 - info.draw.x) / xScale, (my + mh + 1 - info.draw.y) / yScale, new IntBag());
+
+        for(int k=0;k<found.numObjs;k++)
+            {
+            int i = found.objs[k];
+            Edge edge = index.edges[i];
+            newinfo.draw.x = toPixel(index.startX[i], info.draw.x, xScale, startContinuous);
+            newinfo.draw.y = toPixel(index.startY[i], info.draw.y, yScale, startContinuous);
+            newinfo.secondPoint.x = toPixel(index.stopX[i], info.draw.x, xScale, stopContinuous);
+            newinfo.secondPoint.y = toPixel(index.stopY[i], info.draw.y, yScale, stopContinuous);
+
+            line.setLine(newinfo.draw.x, newinfo.draw.y, newinfo.secondPoint.x, newinfo.secondPoint.y);
+            if (!line.intersects(mx, my, mw, mh)) continue;
+            
+            Portrayal p = getPortrayalForObject(edge);
+            if (!(p instanceof SimpleEdgePortrayal2D))
+                throw new RuntimeException("Unexpected Portrayal " + p + " for object " + 
+                    edge + " -- expected a SimpleEdgePortrayal2D");
+            SimpleEdgePortrayal2D portrayal = (SimpleEdgePortrayal2D) p;
+            
+            newinfo.location = edge;
+            if (portrayal.hitObject(edge, newinfo))
+                putInHere.add(getWrapper(edge));
+            }
         }
         
     String edgeLocation(Edge edge)
@@ -115,6 +115,18 @@ public abstract class Properties implements java.io.Serializable
 
     /** Returns the value of the property at the given index. */
     public abstract Object getValue(int index);
+
+    /** Returns the value of the property at the given index as a double: Numbers and Valuables
+        by their doubleValue(), Booleans as 1 or 0, and anything else as NaN.  Charts and parameter
+        sweeps poll properties this way; subclasses may override it to avoid boxing. */
+    public double getDoubleValue(int index)
+        {
+        Object value = getValue(index);
+        if (value instanceof Number) return ((Number)value).doubleValue();
+        else if (value instanceof Valuable) return ((Valuable)value).doubleValue();
+        else if (value instanceof Boolean) return ((Boolean)value).booleanValue() ? 1 : 0;
+        else return Double.NaN;
+        }
     
     /** Returns the domain of the property at the given index. 
         Domains are defined by methods of the form <tt>public Object dom<i>Property</i>()</tt>
@@ -0,0 +1,189 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util;
+import java.util.*;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.function.*;
+
+/**
+   A fast stand-in for Method.invoke(...) on a property's get or set method, used by SimpleProperties.
+
+   <p>Where it can, PropertyAccessor spins a small class implementing Function, ToDoubleFunction,
+   or BiConsumer which calls the method directly, by way of LambdaMetafactory.  The JIT can inline
+   through such a class much as through a direct call; and a getter returning a primitive number can
+   be read with getDouble(...) without boxing.  If the method's class isn't visible from here (it's not
+   public, or was loaded by another ClassLoader), PropertyAccessor falls back to a MethodHandle, and if
+   even that can't be had, to the Method itself.
+
+   <p>Accessors are built once per Method and cached per Class, so they're shared by every
+   SimpleProperties on objects of that class.
+*/
+
+final class PropertyAccessor
+    {
+    static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Accessors for each Method, held per declaring Class.  ClassValue doesn't keep the class from being unloaded.
+    static final ClassValue cache = new ClassValue()
+        {
+        protected Object computeValue(Class type) { return new HashMap(); }
+        };
+
+    /** Returns the accessor for the given get or set method, building it if need be. */
+    static PropertyAccessor get(Method method)
+        {
+        Map map = (Map)(cache.get(method.getDeclaringClass()));
+        synchronized(map)
+            {
+            PropertyAccessor accessor = (PropertyAccessor)(map.get(method));
+            if (accessor == null)
+                {
+                accessor = new PropertyAccessor(method);
+                map.put(method, accessor);
+                }
+            return accessor;
+            }
+        }
+
+    final Method method;
+    final boolean numeric;    // the getter returns a primitive number
+    final Class valueType;    // the setter's argument type, boxed
+
+    Function getter;
+    ToDoubleFunction doubleGetter;
+    BiConsumer setter;
+    MethodHandle handle;        // (Object)Object for getters, (Object,Object)void for setters
+    MethodHandle doubleHandle;  // (Object)double for numeric getters
+
+    PropertyAccessor(Method method)
+        {
+        this.method = method;
+        Class returnType = method.getReturnType();
+        numeric = (returnType.isPrimitive() && returnType != Boolean.TYPE && returnType != Character.TYPE && returnType != Void.TYPE);
+        valueType = (method.getParameterTypes().length == 0 ? null : box(method.getParameterTypes()[0]));
+
+        MethodHandle target = null;
+        try { target = MethodHandles.publicLookup().unreflect(method); }
+        catch (IllegalAccessException e) { return; }  // we'll just use the Method
+
+        if (method.getParameterTypes().length == 0)
+            {
+            handle = target.asType(MethodType.methodType(Object.class, Object.class));
+            if (numeric) doubleHandle = target.asType(MethodType.methodType(Double.TYPE, Object.class));
+            }
+        else handle = target.asType(MethodType.methodType(Void.TYPE, Object.class, Object.class));
+
+        if (linkable(method.getDeclaringClass())) try
+            {
+            Class c = method.getDeclaringClass();
+            if (method.getParameterTypes().length == 0)
+                {
+                getter = (Function)spin(target, "apply", Function.class,
+                    MethodType.methodType(Object.class, Object.class),
+                    MethodType.methodType(box(returnType), c));
+                if (numeric) doubleGetter = (ToDoubleFunction)spin(target, "applyAsDouble", ToDoubleFunction.class,
+                    MethodType.methodType(Double.TYPE, Object.class),
+                    MethodType.methodType(Double.TYPE, c));
+                }
+            else
+                {
+                setter = (BiConsumer)spin(target, "accept", BiConsumer.class,
+                    MethodType.methodType(Void.TYPE, Object.class, Object.class),
+                    MethodType.methodType(Void.TYPE, c, valueType));
+                }
+            }
+        catch (Throwable e)
+            {
+            // can't spin a class for this one; the MethodHandles will do
+            getter = null;
+            doubleGetter = null;
+            setter = null;
+            }
+        }
+
+    /** Returns the current value of the property on the given object. */
+    Object get(Object target) throws Exception
+        {
+        if (getter != null) return getter.apply(target);
+        if (handle != null)
+            {
+            try { return (Object)(handle.invokeExact(target)); }
+            catch (Throwable e) { throw rethrow(e); }
+            }
+        return method.invoke(target, new Object[0]);
+        }
+
+    /** Returns the current value of the property on the given object, which must be numeric. */
+    double getDouble(Object target) throws Exception
+        {
+        if (doubleGetter != null) return doubleGetter.applyAsDouble(target);
+        if (doubleHandle != null)
+            {
+            try { return (double)(doubleHandle.invokeExact(target)); }
+            catch (Throwable e) { throw rethrow(e); }
+            }
+        return ((Number)(method.invoke(target, new Object[0]))).doubleValue();
+        }
+
+    /** Sets the property on the given object to the given value. */
+    void set(Object target, Object value) throws Exception
+        {
+        // Method.invoke would widen some values, such as an Integer for a long: let it do so
+        if (value == null || valueType.isInstance(value))
+            {
+            if (setter != null) { setter.accept(target, value); return; }
+            else if (handle != null)
+                {
+                try { handle.invokeExact(target, value); return; }
+                catch (Throwable e) { throw rethrow(e); }
+                }
+            }
+        method.invoke(target, new Object[] { value });
+        }
+
+    /** Returns true if a class spun here can call methods on c: that is, if c is public and
+        is the class we'd see under its name, rather than one loaded by some other ClassLoader. */
+    static boolean linkable(Class c)
+        {
+        if (!Modifier.isPublic(c.getModifiers())) return false;
+        try
+            {
+            return Class.forName(c.getName(), false, PropertyAccessor.class.getClassLoader()) == c;
+            }
+        catch (Throwable e)
+            {
+            return false;
+            }
+        }
+
+    static Object spin(MethodHandle target, String name, Class type, MethodType erased, MethodType instantiated) throws Throwable
+        {
+        return LambdaMetafactory.metafactory(LOOKUP, name, MethodType.methodType(type),
+            erased, target, instantiated).getTarget().invoke();
+        }
+
+    static Class box(Class c)
+        {
+        if (c == Boolean.TYPE) return Boolean.class;
+        else if (c == Byte.TYPE) return Byte.class;
+        else if (c == Short.TYPE) return Short.class;
+        else if (c == Character.TYPE) return Character.class;
+        else if (c == Integer.TYPE) return Integer.class;
+        else if (c == Long.TYPE) return Long.class;
+        else if (c == Float.TYPE) return Float.class;
+        else if (c == Double.TYPE) return Double.class;
+        else return c;
+        }
+
+    static Exception rethrow(Throwable e)
+        {
+        if (e instanceof Error) throw (Error)e;
+        if (e instanceof Exception) return (Exception)e;
+        return new RuntimeException(e);
+        }
+    }
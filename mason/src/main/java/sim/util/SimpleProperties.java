@@ -121,6 +121,8 @@ public class SimpleProperties extends Properties implements java.io.Serializable
     ArrayList hideMethods; // if not hidden (or explicitly shown), that corresponding spot will be null
     ArrayList nameMethods; // if not hidden (or explicitly shown), that corresponding spot will be null
     Properties auxillary = null;  // if non-null, we use this properties instead
+    transient PropertyAccessor[] getAccessors;  // built lazily from getMethods, see getAccessor(...)
+    transient PropertyAccessor[] setAccessors;  // likewise from setMethods
 
     boolean includeSuperclasses;
     boolean includeGetClass;
@@ -269,6 +271,8 @@ public class SimpleProperties extends Properties implements java.io.Serializable
             a.add(getMethods.get(index[i].intValue()));
             }
         getMethods = a;
+        getAccessors = null;
+        setAccessors = null;
 
         a = new ArrayList();
         for(int i = 0; i < index.length; i++)
@@ -757,7 +761,7 @@ public class SimpleProperties extends Properties implements java.io.Serializable
         if (index < 0 || index >= numProperties()) return null;
         try
             {
-            return ((Method)(getMethods.get(index))).invoke(object, new Object[0]);
+            return getAccessor(index).get(object);
             }
         catch (Exception e)
             {
@@ -765,6 +769,50 @@ public class SimpleProperties extends Properties implements java.io.Serializable
             return null;
             }
         }
+
+    /** Returns the current value of the property as a double, without boxing it if the property
+        is a primitive number.  Booleans are 1 or 0.  Returns NaN if the value isn't numeric, if
+        an error occurs, or if the index is out of the range [0 ... numProperties() - 1 ]*/
+    public double getDoubleValue(int index)
+        {
+        if (auxillary!=null) return auxillary.getDoubleValue(index);
+        if (index < 0 || index >= numProperties()) return Double.NaN;
+        try
+            {
+            PropertyAccessor accessor = getAccessor(index);
+            if (accessor.numeric) return accessor.getDouble(object);
+            }
+        catch (Exception e)
+            {
+            e.printStackTrace();
+            return Double.NaN;
+            }
+        return super.getDoubleValue(index);
+        }
+
+    /* Returns the accessor for the get method of the given property. */
+    PropertyAccessor getAccessor(int index)
+        {
+        PropertyAccessor[] accessors = getAccessors;
+        if (accessors == null || accessors.length != getMethods.size())
+            accessors = getAccessors = new PropertyAccessor[getMethods.size()];
+        PropertyAccessor accessor = accessors[index];
+        if (accessor == null)
+            accessor = accessors[index] = PropertyAccessor.get((Method)(getMethods.get(index)));
+        return accessor;
+        }
+
+    /* Returns the accessor for the set method of the given property, which must exist. */
+    PropertyAccessor setAccessor(int index)
+        {
+        PropertyAccessor[] accessors = setAccessors;
+        if (accessors == null || accessors.length != setMethods.size())
+            accessors = setAccessors = new PropertyAccessor[setMethods.size()];
+        PropertyAccessor accessor = accessors[index];
+        if (accessor == null)
+            accessor = accessors[index] = PropertyAccessor.get((Method)(setMethods.get(index)));
+        return accessor;
+        }
     
     protected Object _setValue(int index, Object value)
         {
@@ -773,7 +821,7 @@ public class SimpleProperties extends Properties implements java.io.Serializable
         try
             {
             if (setMethods.get(index) == null) return null;
-            ((Method)(setMethods.get(index))).invoke(object, new Object[] { value });
+            setAccessor(index).set(object, value);
             return getValue(index);
             }
         catch (Exception e)
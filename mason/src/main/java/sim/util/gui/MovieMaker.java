@@ -16,10 +16,13 @@ import java.awt.image.*;
     
    <p>At this point you can start feeding the MovieMaker frames with add(image).  When you are finished, call stop() and the MovieMaker will flush out the remaining movie frames to disk and create the file.  Throw your MovieMaker away at this point.
     
-   <p>MovieMaker, like MovieEncoder, relies on the Java Media Framework (JMF) to do its magic.  If JMF doesn't exist, MovieMaker doesn't produce an error; instead, it will produce a dialog box informing the user of his mistake.  MovieMaker is coded in an odd way: no actual direct references are made to MovieEncoder.  This is in case the JVM is too smart and tries to load MovieEncoder (and the JMF) immediately rather than lazily as it gets referenced by MovieMaker.
+   <p>MovieMaker offers two kinds of formats.  The first, and the default, is Motion JPEG in an AVI file, written by
+   sim.util.media.MJPEGEncoder in a background thread with nothing but the standard Java libraries.  The others are
+   the uncompressed Quicktime formats of MovieEncoder, which relies on the Java Media Framework (JMF) to do its magic.
+   If JMF doesn't exist, MovieMaker just doesn't offer them.  MovieMaker is coded in an odd way: no actual direct references are made to MovieEncoder.  This is in case the JVM is too smart and tries to load MovieEncoder (and the JMF) immediately rather than lazily as it gets referenced by MovieMaker.
 
    <p><b>Note:</b> Sun's JMF spawns threads in the background which it never cleans up.
-   Thus if you use this class, you'll need to call System.exit(0) to quit your program
+   Thus if you use this class with a JMF format, you'll need to call System.exit(0) to quit your program
    rather than just dropping out of main().
 
 */
@@ -32,6 +35,7 @@ public class MovieMaker
     boolean isRunning;
         
     static final float DEFAULT_FRAME_RATE = 10.0f;
+    static final String MJPEG_FORMAT = "Motion JPEG (AVI), compressed in the background.  Needs no JMF.";
     
     public MovieMaker(Frame parent)
         {
@@ -58,11 +62,12 @@ public class MovieMaker
         
         try
             {
-            // get the list of supported formats
-            Object[] f = (Object[]) encoderClass.
-                getMethod("getEncodingFormats", new Class[] {Float.TYPE, BufferedImage.class}).
-                invoke(null, new Object[] { new Float(fps), typicalImage });
-            if (f==null) return false;
+            // get the list of supported formats: MJPEG, then whatever JMF has if it's there
+            Object[] f = getJMFFormats(fps, typicalImage);
+            Object[] all = new Object[f.length + 1];
+            all[0] = MJPEG_FORMAT;
+            System.arraycopy(f, 0, all, 1, f.length);
+            f = all;
             
             // init the dialog panel
             JPanel p = new JPanel();
@@ -89,12 +94,12 @@ public class MovieMaker
             panel2.setLayout(new BorderLayout());
             panel2.setBorder(new javax.swing.border.TitledBorder("Format"));
             JComboBox encoding = new JComboBox(fmts);
-            if (fmts.length == 3)  // we will assume that this is the default formats, so we want the 24-bit one, which is #2
-                encoding.setSelectedIndex(1);  // item 2
+            encoding.setSelectedIndex(0);  // MJPEG works everywhere
             panel2.add(encoding, BorderLayout.CENTER);
                         
             // add a warning
-            String text1 =      "MASON uses Sun's JMF movie generation code.  JMF saves out movies in uncompressed RGB: they are gigantic. Once saved out, you need to " +
+            String text1 =      "Motion JPEG movies are compressed, and most players and converters can read them.  They are limited to 2GB.\n\n" +
+                "MASON can also use Sun's JMF movie generation code, if it is installed.  JMF saves out movies in uncompressed RGB: they are gigantic. Once saved out, you need to " +
                 "convert them to a better codec (we recommend H.264). " +
                 "However, JMF also produces videos with an incorect codec label. " +
                 "This breaks a number of movie players and converters.  Here's some useful information " +
@@ -103,7 +108,7 @@ public class MovieMaker
                 "However Quicktime does not work with 16-bit RGB: use the 24 or 32 bit RGB formats in MASON.\n\n" +
                 "iMovie 10.  iMovie does not work with 32-bit RGB: use the 16 or 24 RGB bit formats in MASON.\n\n"+
                 "Final Cut Pro.  FCP works with any of the RGB formats.\n\n" +
-                "IN SHORT: We suggest you save out in 24-bit RGB.\n\n" +
+                "IN SHORT: We suggest you save out in Motion JPEG, or with JMF in 24-bit RGB.\n\n" +
                 "See http://cs.gmu.edu/~eclab/projects/mason/extensions/movies/ for more information.";
             int myNumberOfPixels = 600; // our word-wrap pixel length
             JLabel label = new JLabel();
@@ -120,7 +125,7 @@ public class MovieMaker
             p.add(panel3, BorderLayout.SOUTH);
             
             // ask
-            if(JOptionPane.showConfirmDialog(parentForDialogs, p,"Create a Quicktime Movie...",
+            if(JOptionPane.showConfirmDialog(parentForDialogs, p,"Create a Movie...",
                     JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION)
                 return false;
      
@@ -133,9 +138,31 @@ public class MovieMaker
             // format with the right color depth etc. is known, re-query
             // in order to get a composite format that has both the correct fps and color depth
             
-            f = (Object[])encoderClass.
-                getMethod("getEncodingFormats", new Class[] {Float.TYPE, BufferedImage.class}).
-                invoke(null, new Object[] { new Float(fps), typicalImage });
+            if (encodeFormatIndex == 0)
+                {
+                FileDialog fd = new FileDialog(parentForDialogs,"Stream to AVI File...", FileDialog.SAVE);
+                fd.setFile("Untitled.avi");
+                fd.setVisible(true);
+                if (fd.getFile()==null) return false;
+                try
+                    {
+                    encoder = new sim.util.media.MJPEGEncoder(fps, 
+                        new File(fd.getDirectory(), Utilities.ensureFileEndsWith(fd.getFile(),".avi")),
+                        typicalImage);
+                    }
+                catch (IOException e)
+                    {
+                    Utilities.informOfError(e, "The movie file could not be created.", 
+                        (parentForDialogs instanceof JFrame ? (JFrame)parentForDialogs : null));
+                    encoder = null;
+                    return false;
+                    }
+                isRunning = true;
+                return true;
+                }
+                
+            f = getJMFFormats(fps, typicalImage);
+            encodeFormatIndex--;  // skip past MJPEG
             
             // now choose the same one as before but with the fps
             // And we hope that the same encoding formats show up with the different framerate's query--
@@ -189,10 +216,26 @@ public class MovieMaker
         return true;
         }
     
+    /** Returns the formats MovieEncoder offers, or an empty array if JMF isn't installed. */
+    Object[] getJMFFormats(float fps, BufferedImage typicalImage)
+        {
+        if (encoderClass == null) return new Object[0];
+        try
+            {
+            Object[] f = (Object[]) encoderClass.
+                getMethod("getEncodingFormats", new Class[] {Float.TYPE, BufferedImage.class}).
+                invoke(null, new Object[] { new Float(fps), typicalImage });
+            return (f == null ? new Object[0] : f);
+            }
+        catch (Throwable e) { return new Object[0]; }  // JMF's not working
+        }
+
     /** Add an image to the movie stream.  Do this only after starting. */
     public synchronized boolean add(BufferedImage image)
         {
         if (!isRunning) return false;
+        if (encoder instanceof sim.util.media.MJPEGEncoder)
+            return ((sim.util.media.MJPEGEncoder)encoder).add(image);
         //              ((sim.util.media.MovieEncoder)encoder).add(image);
             {
             try  // NOT LIKELY TO HAPPEN
@@ -214,6 +257,11 @@ public class MovieMaker
         {
         boolean success = true;
         if (!isRunning) return false;  // not running -- why stop?
+        if (encoder instanceof sim.util.media.MJPEGEncoder)
+            {
+            isRunning = false;
+            return ((sim.util.media.MJPEGEncoder)encoder).stop();
+            }
         try
             {
             //            ((sim.util.media.MovieEncoder)encoder).stop();
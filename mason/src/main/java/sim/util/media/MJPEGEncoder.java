@@ -0,0 +1,391 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.media;
+import java.io.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+/** <p>MJPEGEncoder encodes BufferedImages into Motion JPEG movies in an AVI file.  Unlike
+ * MovieEncoder, it needs nothing beyond the standard Java libraries (the JPEG writer in
+ * javax.imageio), and so works on headless machines.  The movies are much smaller than
+ * MovieEncoder's uncompressed ones, and most players and converters read them.
+ *
+ * <p>The usage is the same as MovieEncoder's: call the constructor with the frame rate, file,
+ * a prototypical image, and the JPEG quality; drop images in with add(BufferedImage); then call
+ * stop() to finish writing the file.  All images are drawn into frames of the prototypical
+ * image's size, cropping or padding them as necessary.
+ *
+ * <p>add(...) merely copies the image into a free frame buffer and queues it up: the JPEG
+ * compression and writing happen in a background thread.  There is a fixed number of frame
+ * buffers, reused over and over, so if the background thread falls behind, add(...) waits for
+ * one to free up rather than eating memory.
+ *
+ * <p>The file is a plain AVI 1.0 file, which can't grow beyond 2GB.  If it would, or if there is
+ * any other error, add(...) and stop() return false, and the movie is truncated at the last good frame.
+ */
+
+public class MJPEGEncoder
+    {
+    /** The default JPEG quality, from 0 to 1. */
+    public static final float DEFAULT_QUALITY = 0.85f;
+    /** The default number of frames which may be waiting to be compressed. */
+    public static final int DEFAULT_MAX_WAITING_FRAMES = 8;
+
+    static final int AVIF_HASINDEX = 0x10;
+    static final int AVIIF_KEYFRAME = 0x10;
+    static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+    /** How long add(...) waits for a free frame buffer before checking again whether the encoding thread failed, in ms. */
+    static final long POLL_INTERVAL = 100;
+
+    int width;
+    int height;
+    float frameRate;
+    float quality;
+    RandomAccessFile file;
+
+    // positions of things in the file we must fill in when done
+    long riffSizePos;
+    long totalFramesPos;
+    long suggestedBufferSizePos;
+    long lengthPos;
+    long streamBufferSizePos;
+    long moviSizePos;
+    long moviStart;
+
+    // the index: offsets and sizes of the frames
+    int numFrames = 0;
+    int[] frameOffsets = new int[64];
+    int[] frameSizes = new int[64];
+    int maxFrameSize = 0;
+
+    // frame buffers go from free to queue (in add()) then back to free (in the encoding thread)
+    ArrayBlockingQueue free;
+    ArrayBlockingQueue queue;
+    /** Queued up to tell the encoding thread to quit */
+    static final Object STOP = new Object();
+    Thread encodingThread;
+    volatile boolean failed = false;
+    boolean stopped = false;
+
+    /** Creates an MJPEGEncoder writing to the given file, with the default quality and number of waiting frames. */
+    public MJPEGEncoder(float frameRate, File file, BufferedImage typicalImage) throws IOException
+        {
+        this(frameRate, file, typicalImage, DEFAULT_QUALITY, DEFAULT_MAX_WAITING_FRAMES);
+        }
+
+    /** Creates an MJPEGEncoder writing to the given file.  Frames will be the size of the typical image.
+        Quality goes from 0 (tiny and blocky) to 1 (large and nearly lossless).  Up to maxWaitingFrames
+        frames may be waiting to be compressed before add(...) starts waiting in turn. */
+    public MJPEGEncoder(float frameRate, File file, BufferedImage typicalImage, float quality, int maxWaitingFrames) throws IOException
+        {
+        if (frameRate <= 0) throw new IllegalArgumentException("Frame rate must be > 0");
+        if (quality < 0 || quality > 1) throw new IllegalArgumentException("Quality must be between 0 and 1");
+        if (maxWaitingFrames < 1) throw new IllegalArgumentException("Number of waiting frames must be >= 1");
+        this.frameRate = frameRate;
+        this.quality = quality;
+        width = typicalImage.getWidth();
+        height = typicalImage.getHeight();
+
+        // one frame buffer for each waiting frame, plus the one being compressed
+        free = new ArrayBlockingQueue(maxWaitingFrames + 1);
+        queue = new ArrayBlockingQueue(maxWaitingFrames + 2);  // plus room for STOP
+        for(int i = 0; i < maxWaitingFrames + 1; i++)
+            free.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        writeHeader();
+
+        encodingThread = new Thread(new Runnable()
+            {
+            public void run() { encodeFrames(); }
+            });
+        encodingThread.setName("MJPEGEncoder");
+        encodingThread.setDaemon(true);
+        encodingThread.start();
+        }
+
+    /** Adds an image to the movie, cropping or padding it to the size of the typical image.
+        Returns false if the movie could not be written, or has been stopped. */
+    public boolean add(BufferedImage image)
+        {
+        if (stopped || failed) return false;
+        try
+            {
+            // don't wait forever: if the encoding thread fails, it may never free a buffer
+            BufferedImage frame = null;
+            while (frame == null)
+                {
+                if (failed) return false;
+                frame = (BufferedImage)(free.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS));
+                }
+            Graphics2D g = frame.createGraphics();
+            if (image.getWidth() < width || image.getHeight() < height)
+                {
+                g.setColor(Color.black);
+                g.fillRect(0, 0, width, height);
+                }
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            queue.put(frame);
+            }
+        catch (InterruptedException e)
+            {
+            Thread.currentThread().interrupt();
+            return false;
+            }
+        return !failed;
+        }
+
+    /** Waits for the queued frames to be written, completes the file, and closes it.
+        Returns false if the movie could not be written properly. */
+    public boolean stop()
+        {
+        if (stopped) return !failed;
+        stopped = true;
+        try
+            {
+            queue.put(STOP);
+            encodingThread.join();
+            }
+        catch (InterruptedException e)
+            {
+            Thread.currentThread().interrupt();
+            failed = true;
+            }
+
+        try
+            {
+            writeTrailer();
+            }
+        catch (IOException e)
+            {
+            e.printStackTrace();
+            failed = true;
+            }
+        finally
+            {
+            try { file.close(); }
+            catch (IOException e) { failed = true; }
+            }
+        return !failed;
+        }
+
+    /** The encoding thread: compresses and writes frames until told to STOP.  Once anything
+        goes wrong, the remaining frames are just handed back to add(...) unwritten. */
+    void encodeFrames()
+        {
+        ImageWriter writer = null;
+        ImageWriteParam param = null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try
+            {
+            writer = (ImageWriter)(ImageIO.getImageWritersByFormatName("jpeg").next());
+            param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            }
+        catch (Throwable e)
+            {
+            e.printStackTrace();
+            failed = true;
+            }
+
+        try
+            {
+            while(true)
+                {
+                Object frame = queue.take();
+                if (frame == STOP) break;
+                try
+                    {
+                    if (!failed)
+                        {
+                        bytes.reset();
+                        ImageOutputStream stream = new MemoryCacheImageOutputStream(bytes);
+                        writer.setOutput(stream);
+                        writer.write(null, new IIOImage((BufferedImage)frame, null, null), param);
+                        stream.close();
+                        writeFrame(bytes);
+                        }
+                    }
+                catch (Throwable e)  // not just IOExceptions: anything escaping would leave add(...) without buffers
+                    {
+                    e.printStackTrace();
+                    failed = true;
+                    }
+                finally
+                    {
+                    free.put(frame);
+                    }
+                }
+            }
+        catch (InterruptedException e)
+            {
+            failed = true;
+            }
+        finally
+            {
+            if (writer != null) writer.dispose();
+            }
+        }
+
+    /** Writes the RIFF header, the stream header, and the start of the 'movi' list.  Sizes and
+        counts we don't know yet are left as zeros, to be filled in by writeTrailer(). */
+    void writeHeader() throws IOException
+        {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+
+        writeFourCC(b, "RIFF");
+        riffSizePos = b.size();
+        writeInt(b, 0);
+        writeFourCC(b, "AVI ");
+
+        writeFourCC(b, "LIST");
+        writeInt(b, 4 + 8 + 56 + 8 + 4 + 8 + 56 + 8 + 40);
+        writeFourCC(b, "hdrl");
+
+        // main header
+        writeFourCC(b, "avih");
+        writeInt(b, 56);
+        writeInt(b, (int)Math.round(1000000.0 / frameRate));  // microseconds per frame
+        writeInt(b, 0);  // max bytes per second
+        writeInt(b, 0);  // padding granularity
+        writeInt(b, AVIF_HASINDEX);
+        totalFramesPos = b.size();
+        writeInt(b, 0);  // total frames
+        writeInt(b, 0);  // initial frames
+        writeInt(b, 1);  // streams
+        suggestedBufferSizePos = b.size();
+        writeInt(b, 0);  // suggested buffer size
+        writeInt(b, width);
+        writeInt(b, height);
+        writeInt(b, 0); writeInt(b, 0); writeInt(b, 0); writeInt(b, 0);  // reserved
+
+        writeFourCC(b, "LIST");
+        writeInt(b, 4 + 8 + 56 + 8 + 40);
+        writeFourCC(b, "strl");
+
+        // stream header
+        writeFourCC(b, "strh");
+        writeInt(b, 56);
+        writeFourCC(b, "vids");
+        writeFourCC(b, "MJPG");
+        writeInt(b, 0);  // flags
+        writeInt(b, 0);  // priority and language
+        writeInt(b, 0);  // initial frames
+        writeInt(b, 1000);  // scale...
+        writeInt(b, Math.round(frameRate * 1000));  // ...and rate: the frame rate is rate / scale
+        writeInt(b, 0);  // start
+        lengthPos = b.size();
+        writeInt(b, 0);  // length in frames
+        streamBufferSizePos = b.size();
+        writeInt(b, 0);  // suggested buffer size
+        writeInt(b, -1);  // quality: default
+        writeInt(b, 0);  // sample size: varies
+        writeShort(b, 0); writeShort(b, 0); writeShort(b, width); writeShort(b, height);  // frame rectangle
+
+        // stream format: a BITMAPINFOHEADER
+        writeFourCC(b, "strf");
+        writeInt(b, 40);
+        writeInt(b, 40);
+        writeInt(b, width);
+        writeInt(b, height);
+        writeShort(b, 1);  // planes
+        writeShort(b, 24);  // bits per pixel
+        writeFourCC(b, "MJPG");
+        writeInt(b, width * height * 3);
+        writeInt(b, 0); writeInt(b, 0); writeInt(b, 0); writeInt(b, 0);  // resolution and colors
+
+        writeFourCC(b, "LIST");
+        moviSizePos = b.size();
+        writeInt(b, 0);
+        moviStart = b.size();
+        writeFourCC(b, "movi");
+
+        file.write(b.toByteArray());
+        }
+
+    /** Appends a compressed frame to the 'movi' list */
+    void writeFrame(ByteArrayOutputStream jpeg) throws IOException
+        {
+        int size = jpeg.size();
+        long offset = file.getFilePointer();
+        if (offset + 8 + size + 1 + 16L * (numFrames + 1) + 8 > MAX_FILE_SIZE)
+            throw new IOException("AVI file would exceed 2GB");
+
+        ByteArrayOutputStream b = new ByteArrayOutputStream(8);
+        writeFourCC(b, "00dc");
+        writeInt(b, size);
+        file.write(b.toByteArray());
+        file.write(jpeg.toByteArray(), 0, size);
+        if ((size & 1) == 1) file.write(0);  // chunks are padded to even sizes
+
+        if (numFrames == frameOffsets.length)
+            {
+            frameOffsets = Arrays.copyOf(frameOffsets, numFrames * 2);
+            frameSizes = Arrays.copyOf(frameSizes, numFrames * 2);
+            }
+        frameOffsets[numFrames] = (int)(offset - moviStart);
+        frameSizes[numFrames] = size;
+        numFrames++;
+        if (size > maxFrameSize) maxFrameSize = size;
+        }
+
+    /** Writes the index and fills in the sizes and counts in the headers */
+    void writeTrailer() throws IOException
+        {
+        long moviEnd = file.getFilePointer();
+
+        ByteArrayOutputStream b = new ByteArrayOutputStream(8 + 16 * numFrames);
+        writeFourCC(b, "idx1");
+        writeInt(b, 16 * numFrames);
+        for(int i = 0; i < numFrames; i++)
+            {
+            writeFourCC(b, "00dc");
+            writeInt(b, AVIIF_KEYFRAME);
+            writeInt(b, frameOffsets[i]);
+            writeInt(b, frameSizes[i]);
+            }
+        file.write(b.toByteArray());
+        long end = file.getFilePointer();
+
+        patchInt(riffSizePos, (int)(end - 8));
+        patchInt(moviSizePos, (int)(moviEnd - moviStart));
+        patchInt(totalFramesPos, numFrames);
+        patchInt(lengthPos, numFrames);
+        patchInt(suggestedBufferSizePos, maxFrameSize + 8);
+        patchInt(streamBufferSizePos, maxFrameSize + 8);
+        }
+
+    void patchInt(long pos, int val) throws IOException
+        {
+        file.seek(pos);
+        file.write(new byte[] { (byte)val, (byte)(val >>> 8), (byte)(val >>> 16), (byte)(val >>> 24) });
+        }
+
+    // AVI files are little-endian
+    static void writeInt(ByteArrayOutputStream b, int val)
+        {
+        b.write(val); b.write(val >>> 8); b.write(val >>> 16); b.write(val >>> 24);
+        }
+
+    static void writeShort(ByteArrayOutputStream b, int val)
+        {
+        b.write(val); b.write(val >>> 8);
+        }
+
+    static void writeFourCC(ByteArrayOutputStream b, String fourCC)
+        {
+        for(int i = 0; i < 4; i++) b.write(fourCC.charAt(i));
+        }
+    }
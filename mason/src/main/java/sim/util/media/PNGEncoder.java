@@ -61,6 +61,12 @@ public class PNGEncoder extends Object
     int filter;
     int bytesPerPixel;
     int compressionLevel;
+    int numThreads = 1;
+
+    /** Uncompressed bytes per chunk when compressing in parallel */
+    static final int CHUNK_SIZE = 128 * 1024;
+    /** Size of the deflate window, primed from the previous chunk */
+    static final int WINDOW_SIZE = 32 * 1024;
 
     /**
      * Class constructor
@@ -253,6 +259,32 @@ public class PNGEncoder extends Object
         return compressionLevel;
         }
 
+    /**
+     * Set the number of threads to compress the image data with.  With more than one,
+     * the image is compressed in independent chunks of 128K, each primed with the 32K
+     * preceding it, which are stitched into a single zlib stream.  The result is a
+     * hair larger than when compressing in one thread.  The default is 1.
+     *
+     * @param n 1 or more
+     */
+    public void setNumThreads( int n )
+        {
+        if (n >= 1)
+            {
+            this.numThreads = n;
+            }
+        }
+
+    /**
+     * Retrieve the number of threads to compress the image data with
+     *
+     * @return int 1 or more
+     */
+    public int getNumThreads()
+        {
+        return numThreads;
+        }
+
     /**
      * Increase or decrease the length of a byte array.
      *
@@ -462,6 +494,11 @@ public class PNGEncoder extends Object
      */
     boolean writeImageData()
         {
+        if (numThreads > 1)
+            {
+            return writeImageDataInParallel();
+            }
+
         int rowsLeft = height;  // number of rows remaining to write
         int startRow = 0;       // starting row to process this time through
         int nRows;              // how many rows to grab at a time
@@ -588,6 +625,165 @@ public class PNGEncoder extends Object
             }
         }
 
+    /**
+     * Write the image data into the pngBytes array as a single PNG "IDAT" chunk,
+     * compressing it in chunks spread over numThreads threads.  Unlike 
+     * writeImageData(), this grabs the whole image at once.
+     *
+     * @return true if no errors; false if error grabbing pixels
+     */
+    boolean writeImageDataInParallel()
+        {
+        bytesPerPixel = (encodeAlpha) ? 4 : 3;
+
+        int[] pixels = new int[width * height];
+        PixelGrabber pg = new PixelGrabber(image, 0, 0, width, height, pixels, 0, width);
+        try {
+            pg.grabPixels();
+            }
+        catch (Exception e) {
+            System.err.println("WARNING: PNG image write interrupted waiting for pixels\n\n" + e);
+            return false;
+            }
+        if ((pg.getStatus() & ImageObserver.ABORT) != 0) {
+            System.err.println("WARNING: PNG Image fetch aborted or errored.");
+            return false;
+            }
+
+        /*
+         * Build all the scan lines, each starting with its filter byte
+         */
+        final byte[] scanLines = new byte[width * height * bytesPerPixel + height];
+        leftBytes = new byte[16];
+        priorRow = new byte[width*bytesPerPixel];
+        int scanPos = 0;
+        int startPos = 1;
+        for (int i=0; i<width*height; i++)
+            {
+            if (i % width == 0)
+                {
+                scanLines[scanPos++] = (byte) filter; 
+                startPos = scanPos;
+                }
+            scanLines[scanPos++] = (byte) ((pixels[i] >> 16) & 0xff);
+            scanLines[scanPos++] = (byte) ((pixels[i] >>  8) & 0xff);
+            scanLines[scanPos++] = (byte) ((pixels[i]      ) & 0xff);
+            if (encodeAlpha)
+                {
+                scanLines[scanPos++] = (byte) ((pixels[i] >> 24) & 0xff );
+                }
+            if ((i % width == width-1) && (filter != FILTER_NONE))
+                {
+                if (filter == FILTER_SUB)
+                    {
+                    filterSub( scanLines, startPos, width );
+                    }
+                if (filter == FILTER_UP)
+                    {
+                    filterUp( scanLines, startPos, width );
+                    }
+                }
+            }
+
+        /*
+         * Compress the chunks as raw deflate data.  All but the last end on a 
+         * sync flush, that is, on a byte boundary, so they can just be concatenated.
+         */
+        final int length = scanPos;
+        final int nChunks = Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        final byte[][] chunks = new byte[nChunks][];
+        final int level = compressionLevel;
+        final int threads = Math.min(numThreads, nChunks);
+        java.util.ArrayList<java.util.concurrent.Callable<Object>> workers = new java.util.ArrayList<java.util.concurrent.Callable<Object>>();
+        for (int t = 0; t < threads; t++)
+            {
+            final int first = t;
+            workers.add(new java.util.concurrent.Callable<Object>()
+                {
+                public Object call()
+                    {
+                    byte[] buf = new byte[CHUNK_SIZE];
+                    for (int c = first; c < nChunks; c += threads)
+                        {
+                        int start = c * CHUNK_SIZE;
+                        int end = Math.min(start + CHUNK_SIZE, length);
+                        Deflater scrunch = new Deflater( level, true );
+                        if (start > 0)
+                            {
+                            int window = Math.min(WINDOW_SIZE, start);
+                            scrunch.setDictionary( scanLines, start - window, window );
+                            }
+                        scrunch.setInput( scanLines, start, end - start );
+                        ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_SIZE / 2);
+                        if (c == nChunks - 1)
+                            {
+                            scrunch.finish();
+                            while (!scrunch.finished())
+                                {
+                                int count = scrunch.deflate( buf );
+                                out.write( buf, 0, count );
+                                }
+                            }
+                        else
+                            {
+                            int count;
+                            do
+                                {
+                                count = scrunch.deflate( buf, 0, buf.length, Deflater.SYNC_FLUSH );
+                                out.write( buf, 0, count );
+                                }
+                            while (count == buf.length);
+                            }
+                        scrunch.end();
+                        chunks[c] = out.toByteArray();
+                        }
+                    return null;
+                    }
+                });
+            }
+        try
+            {
+            java.util.List<java.util.concurrent.Future<Object>> results = java.util.concurrent.ForkJoinPool.commonPool().invokeAll(workers);
+            for (int i = 0; i < results.size(); i++)
+                {
+                results.get(i).get();
+                }
+            }
+        catch (Exception e)
+            {
+            System.err.println("WARNING: Error while trying to compress PNG image.\n\n" + e.toString());
+            return false;
+            }
+
+        /*
+         * Wrap them in a zlib header and the Adler-32 checksum of the uncompressed data
+         */
+        int nCompressed = 2 + 4;
+        for (int c = 0; c < nChunks; c++)
+            {
+            nCompressed += chunks[c].length;
+            }
+        Adler32 adler = new Adler32();
+        adler.update( scanLines, 0, length );
+        int adlerValue = (int) adler.getValue();
+
+        crc.reset();
+        bytePos = writeInt4( nCompressed, bytePos );
+        int startCRC = bytePos;
+        bytePos = writeString( "IDAT", bytePos );
+        bytePos = writeByte( 0x78, bytePos );  // deflate, 32K window
+        bytePos = writeByte( 0x9C, bytePos );  // default compression, no dictionary
+        for (int c = 0; c < nChunks; c++)
+            {
+            bytePos = writeBytes( chunks[c], bytePos );
+            }
+        bytePos = writeInt4( adlerValue, bytePos );
+        crc.update( pngBytes, startCRC, bytePos - startCRC );
+        crcValue = crc.getValue();
+        bytePos = writeInt4( (int) crcValue, bytePos );
+        return true;
+        }
+
     /**
      * Write a PNG "IEND" chunk into the pngBytes array.
      */
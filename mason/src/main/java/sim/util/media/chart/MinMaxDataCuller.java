@@ -0,0 +1,111 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.media.chart;
+
+import sim.util.*;
+
+/**
+ * This is meant as an on-line algorithm for keeping a constant number of data points
+ * from an on-going time series, while keeping its peaks and troughs.
+ * 
+ * <p>Specifically, once there are too many points, this algorithm divides the time spanned by the
+ * series into equal-width buckets, half as many as the points to keep, and in each bucket keeps only
+ * the point with the smallest Y value and the point with the largest.  The first and last data point
+ * are never touched.  The result is a series of uniform resolution in time which, drawn at screen
+ * resolution, looks just like the whole series would: spikes aren't lost as they are when culling by
+ * X values alone, as MinGapDataCuller does.
+ * 
+ * <p>Each culling is linear in the number of points.  Since by default it drops half of them,
+ * this is amortized constant time per point added.  Points whose Y value is NaN (gaps in
+ * the series) are only kept if their bucket has nothing else.
+ */
+ 
+public class MinMaxDataCuller implements XYDataCuller
+    {
+    int maxPointCount;
+    int pointCountAfterCulling;
+    IntBag reusableIntBag;
+        
+    public MinMaxDataCuller(int maxPointCount)
+        {
+        this(maxPointCount, maxPointCount/2+1);
+        }
+                
+    public MinMaxDataCuller(int maxPointCount, int pointCountAfterCulling)
+        {
+        if (pointCountAfterCulling < 2 || pointCountAfterCulling > maxPointCount)
+            throw new IllegalArgumentException("Need 2 <= pointCountAfterCulling <= maxPointCount");
+        this.maxPointCount = maxPointCount;
+        this.pointCountAfterCulling = pointCountAfterCulling;
+        this.reusableIntBag = new IntBag(maxPointCount-pointCountAfterCulling+1);
+        }
+        
+    public boolean tooManyPoints(int currentPointCount)
+        {
+        return currentPointCount > maxPointCount;
+        }
+        
+    /** Without Y values, every point looks alike: so this just keeps every so many points. */
+    public IntBag cull(double[] xValues, boolean sortOutput)
+        {
+        return cull(xValues, null, sortOutput);
+        }
+        
+    /** Returns the indices of the points to drop, always in increasing order. */
+    public IntBag cull(double[] xValues, double[] yValues, boolean sortOutput)
+        {
+        IntBag dropped = reusableIntBag;
+        dropped.clear();
+        int n = xValues.length;
+        if (n <= pointCountAfterCulling) return dropped;
+                
+        // the first and last points are kept, the rest are divided into buckets
+        int numBuckets = Math.max(1, (pointCountAfterCulling - 2) / 2);
+        double start = xValues[1];
+        double width = (xValues[n-2] - start) / numBuckets;
+                
+        int i = 1;
+        while(i < n - 1)
+            {
+            // the bucket of point i goes until the first point of the next bucket
+            int bucket = (width > 0 ? (int)((xValues[i] - start) / width) : 0);
+            if (bucket >= numBuckets) bucket = numBuckets - 1;
+            int end = i + 1;
+            if (width > 0)
+                {
+                while(end < n - 1 && (xValues[end] - start) / width < bucket + 1) end++;
+                if (bucket == numBuckets - 1) end = n - 1;
+                }
+            else end = n - 1;
+                        
+            int min = -1;
+            int max = -1;
+            if (yValues == null)
+                {
+                min = i;
+                max = end - 1;
+                }
+            else
+                {
+                for(int j = i; j < end; j++)
+                    {
+                    double y = yValues[j];
+                    if (y != y) continue;  // NaN
+                    if (min == -1 || y < yValues[min]) min = j;
+                    if (max == -1 || y > yValues[max]) max = j;
+                    }
+                if (min == -1) { min = i; max = i; }  // all NaN
+                }
+                        
+            for(int j = i; j < end; j++)
+                if (j != min && j != max)
+                    dropped.add(j);
+            i = end;
+            }
+        return dropped;
+        }
+    }
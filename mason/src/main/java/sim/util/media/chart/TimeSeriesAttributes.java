@@ -226,7 +226,10 @@ public class TimeSeriesAttributes extends SeriesAttributes
         DataCuller dataCuller = ((TimeSeriesChartGenerator)generator).getDataCuller();
         if(dataCuller!=null && dataCuller.tooManyPoints(series.getItemCount()))
             {
-            deleteItems(dataCuller.cull(getXValues(), true));
+            if (dataCuller instanceof XYDataCuller)
+                deleteItems(((XYDataCuller)dataCuller).cull(getXValues(), getYValues(), true));
+            else
+                deleteItems(dataCuller.cull(getXValues(), true));
             return true;
             }
         else
@@ -282,6 +285,17 @@ public class TimeSeriesAttributes extends SeriesAttributes
         return xValues;
         }
 
+    double[] getYValues()
+        {
+        double[] yValues = new double[series.getItemCount()];
+        for(int i=0;i<yValues.length;i++)
+            {
+            Number y = series.getY(i);
+            yValues[i] = (y == null ? Double.NaN : y.doubleValue());
+            }
+        return yValues;
+        }
+
 
 
 
@@ -37,6 +37,10 @@ import com.lowagie.text.pdf.*;
    
    <p>TimeSeriesChartGenerator creates attributes components in the form of TimeSeriesAttributes, which work with
    the generator to properly update the chart to reflect changes the user has made to its display.
+   
+   <p>Unless the user turns it off, series are culled down to a maximum number of points per series with a
+   MinMaxDataCuller, which keeps the highs and lows of the series.  You can provide another DataCuller, such as
+   a MinGapDataCuller, with setDataCuller(...).
 */
 
 public class TimeSeriesChartGenerator extends XYChartGenerator
@@ -134,7 +138,7 @@ public class TimeSeriesChartGenerator extends XYChartGenerator
                 int max = (int)val;
                 if(val<2)
                     return (int)getValue();
-                dataCuller = new MinGapDataCuller(max);
+                dataCuller = new MinMaxDataCuller(max);
                 return max;
                 }
             };
@@ -142,7 +146,7 @@ public class TimeSeriesChartGenerator extends XYChartGenerator
         globalAttribList.add(new JLabel("... Over"),maxPointsPerSeriesTextField);
         maxPointsPerSeriesTextField.setToolTipText("The maximum number of data points in a series before data culling gets triggered.");
 
-        dataCuller = new MinGapDataCuller((int)maxPointsPerSeriesTextField.getValue());
+        dataCuller = new MinMaxDataCuller((int)maxPointsPerSeriesTextField.getValue());
 
         
         useCullingCheckBox.addActionListener(new ActionListener()
@@ -153,7 +157,7 @@ public class TimeSeriesChartGenerator extends XYChartGenerator
                     {
                     maxPointsPerSeriesTextField.setEnabled(true);
                     int maxPoints = (int)maxPointsPerSeriesTextField.getValue();
-                    dataCuller = new MinGapDataCuller(maxPoints);
+                    dataCuller = new MinMaxDataCuller(maxPoints);
                     }
                 else
                     {
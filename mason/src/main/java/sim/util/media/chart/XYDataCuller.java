@@ -0,0 +1,19 @@
+/*
+  Copyright 2006 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package sim.util.media.chart;
+
+import sim.util.IntBag;
+
+/**
+ * A DataCuller which also looks at the Y values of the data points, for example to keep the
+ * extremes of the data.  TimeSeriesAttributes calls cull(xValues, yValues, sortOutput) rather
+ * than cull(xValues, sortOutput) on such cullers.
+ */
+public interface XYDataCuller extends DataCuller
+    {
+    public IntBag cull(double[] xValues, double[] yValues, boolean sortOutput);
+    }
@@ -509,15 +509,15 @@ class ParameterSweepSimulationJob
 
         if (type.equals("double")) 
             {
-            dValue = (Double)properties.getValue(propertyIndex);
+            dValue = properties.getDoubleValue(propertyIndex);
             }
         else if (type.equals("int")) 
             {
-            dValue = ((Integer)properties.getValue(propertyIndex)).doubleValue();
+            dValue = properties.getDoubleValue(propertyIndex);
             }
         else if (type.equals("boolean")) 
             {
-            dValue = ((Boolean)properties.getValue(propertyIndex)) ? 1  : 0;
+            dValue = properties.getDoubleValue(propertyIndex);
             }
         else
             {